@@ -89,13 +89,20 @@ velocity.jars  =  \
 jcommander.jar= \
 	$(lib.dir)/com/beust/jcommander/1.64/jcommander-1.64.jar
 
+jmh.version=1.19
+jmh.jars = \
+	$(lib.dir)/org/openjdk/jmh/jmh-core/${jmh.version}/jmh-core-${jmh.version}.jar \
+	$(lib.dir)/org/openjdk/jmh/jmh-generator-annprocess/${jmh.version}/jmh-generator-annprocess-${jmh.version}.jar \
+	$(lib.dir)/net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar \
+	$(lib.dir)/org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar
+
 berkeleydb.jar=$(lib.dir)/com/sleepycat/je/7.3.7/je-7.3.7.jar
 
 ${berkeleydb.jar}:
 	mkdir -p $(dir $@) && wget -O "$@" "http://download.oracle.com/maven/$(patsubst ${lib.dir}/%,%,$@)"
 	
 
-all_maven_jars = $(sort ${jcommander.jar} ${velocity.jars} ${htsjdk.jars} ${web.frameworks.jar} ${spring-beans.jars} ${jetty.jars} ${derby.jars} ${slf4j.jars} ${httpclient.libs} ${avro.libs} ${common.math3.libs} ${apache.commons.cli.jars} ${commons.validator.jars} ${gson.jar} ${derby-tools.jar} )
+all_maven_jars = $(sort ${jcommander.jar} ${velocity.jars} ${htsjdk.jars} ${web.frameworks.jar} ${spring-beans.jars} ${jetty.jars} ${derby.jars} ${slf4j.jars} ${httpclient.libs} ${avro.libs} ${common.math3.libs} ${apache.commons.cli.jars} ${commons.validator.jars} ${gson.jar} ${derby-tools.jar} ${jmh.jars} )
 
 
 ${all_maven_jars}  : 
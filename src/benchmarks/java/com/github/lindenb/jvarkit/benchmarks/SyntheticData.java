@@ -0,0 +1,255 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.Interval;
+
+/**
+ * Generators of synthetic data for the benchmarks.
+ * All the generators are seeded, so two runs see the same data.
+ */
+public class SyntheticData
+	{
+	public static final String CONTIG = "chr1";
+	private static final char ACGT[] = {'A','C','G','T'};
+	private static final String CONSEQUENCES[] = {
+		"missense_variant","synonymous_variant","intron_variant",
+		"stop_gained","3_prime_UTR_variant","splice_region_variant"
+		};
+	private final Random random;
+
+	public SyntheticData(final long seed)
+		{
+		this.random = new Random(seed);
+		}
+
+	public Random getRandom()
+		{
+		return this.random;
+		}
+
+	public String randomBases(final int length)
+		{
+		final StringBuilder sb = new StringBuilder(length);
+		for(int i=0;i< length;++i) sb.append(ACGT[this.random.nextInt(4)]);
+		return sb.toString();
+		}
+
+	/** write an indexed fasta (.fa, .fa.fai, .dict) with one contig in 'dir' */
+	public File createIndexedFasta(final File dir,final int length) throws IOException
+		{
+		final File fasta = new File(dir, "ref.fa");
+		final int lineLength = 60;
+		final String header = ">"+CONTIG+"\n";
+		try(PrintWriter pw = new PrintWriter(fasta,"UTF-8"))
+			{
+			pw.print(header);
+			for(int i=0;i< length;i+=lineLength)
+				{
+				final int n = Math.min(lineLength, length-i);
+				final String s = randomBases(n);
+				/* some soft-masked and N regions */
+				if(this.random.nextInt(20)==0) pw.print(s.toLowerCase());
+				else if(this.random.nextInt(100)==0) pw.print(s.replaceAll("[ACGT]","N"));
+				else pw.print(s);
+				pw.print('\n');
+				}
+			}
+		try(PrintWriter pw = new PrintWriter(new File(dir, "ref.fa.fai"),"UTF-8"))
+			{
+			pw.println(CONTIG+"\t"+length+"\t"+header.length()+"\t"+lineLength+"\t"+(lineLength+1));
+			}
+		try(PrintWriter pw = new PrintWriter(new File(dir, "ref.dict"),"UTF-8"))
+			{
+			pw.println("@HD\tVN:1.5");
+			pw.println("@SQ\tSN:"+CONTIG+"\tLN:"+length);
+			}
+		return fasta;
+		}
+
+	public SAMSequenceDictionary createDictionary(final int length)
+		{
+		final List<SAMSequenceRecord> L = new ArrayList<>();
+		L.add(new SAMSequenceRecord(CONTIG, length));
+		return new SAMSequenceDictionary(L);
+		}
+
+	/** create random 'genes' on CONTIG, sorted on start */
+	public List<Interval> createGenes(final int count,final int contigLength)
+		{
+		final List<Interval> L = new ArrayList<>(count);
+		for(int i=0;i< count;++i)
+			{
+			final int start = 1+this.random.nextInt(contigLength);
+			final int len = 1000+this.random.nextInt(100_000);
+			L.add(new Interval(CONTIG, start, Math.min(contigLength, start+len), this.random.nextBoolean(), "gene"+i));
+			}
+		L.sort((A,B)->Integer.compare(A.getStart(), B.getStart()));
+		return L;
+		}
+
+	/** create a VCF, sorted, with 'nSamples' genotypes and VEP (CSQ) + snpEff (ANN) annotations */
+	public byte[] createVcf(final int nVariants,final int nSamples,final int contigLength)
+		{
+		final StringBuilder sb = new StringBuilder();
+		sb.append("##fileformat=VCFv4.2\n");
+		sb.append("##contig=<ID=").append(CONTIG).append(",length=").append(contigLength).append(">\n");
+		sb.append("##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n");
+		sb.append("##INFO=<ID=CSQ,Number=.,Type=String,Description=\"Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|SYMBOL|Gene|Feature_type|Feature|BIOTYPE|EXON|INTRON|HGVSc|HGVSp\">\n");
+		sb.append("##INFO=<ID=ANN,Number=.,Type=String,Description=\"Functional annotations: 'Allele | Annotation | Annotation_Impact | Gene_Name | Gene_ID | Feature_Type | Feature_ID | Transcript_BioType | Rank | HGVS.c | HGVS.p | cDNA.pos / cDNA.length | CDS.pos / CDS.length | AA.pos / AA.length | Distance | ERRORS / WARNINGS / INFO'\">\n");
+		sb.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+		sb.append("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n");
+		sb.append("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">\n");
+		sb.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+		for(int i=0;i< nSamples;++i) sb.append("\tS").append(i);
+		sb.append("\n");
+		int pos = 0;
+		final int step = Math.max(1, contigLength/Math.max(1, nVariants));
+		for(int n=0;n< nVariants;++n)
+			{
+			pos += 1+this.random.nextInt(step);
+			if(pos>contigLength) break;
+			final char ref = ACGT[this.random.nextInt(4)];
+			char alt = ACGT[this.random.nextInt(4)];
+			if(alt==ref) alt = (ref=='A'?'C':'A');
+			sb.append(CONTIG).append('\t').append(pos).append("\t.\t").append(ref).append('\t').append(alt);
+			sb.append("\t").append(10+this.random.nextInt(1000)).append("\tPASS\tDP=").append(this.random.nextInt(1000));
+			final int nPred = 1+this.random.nextInt(4);
+			sb.append(";CSQ=");
+			for(int p=0;p< nPred;++p)
+				{
+				if(p>0) sb.append(',');
+				final String gene = "GENE"+this.random.nextInt(1000);
+				sb.append(alt).append('|').append(CONSEQUENCES[this.random.nextInt(CONSEQUENCES.length)]).
+					append("|MODERATE|").append(gene).append("|ENSG").append(this.random.nextInt(100000)).
+					append("|Transcript|ENST").append(this.random.nextInt(100000)).append("|protein_coding|1/10||c.").append(this.random.nextInt(5000)).append(ref).append("%3E").append(alt).append("|");
+				}
+			sb.append(";ANN=");
+			for(int p=0;p< nPred;++p)
+				{
+				if(p>0) sb.append(',');
+				final String gene = "GENE"+this.random.nextInt(1000);
+				sb.append(alt).append('|').append(CONSEQUENCES[this.random.nextInt(CONSEQUENCES.length)]).
+					append("|MODERATE|").append(gene).append("|").append(gene).
+					append("|transcript|NM_").append(this.random.nextInt(100000)).append("|protein_coding|1/10|c.").
+					append(this.random.nextInt(5000)).append(ref).append(">").append(alt).append("||||||");
+				}
+			sb.append("\tGT:DP:GQ");
+			for(int i=0;i< nSamples;++i)
+				{
+				final int g = this.random.nextInt(10);
+				sb.append('\t').append(g<6?"0/0":g<9?"0/1":"1/1").
+					append(':').append(this.random.nextInt(100)).
+					append(':').append(this.random.nextInt(99));
+				}
+			sb.append('\n');
+			}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+	/** create a FASTQ with 'n' records of length 'readLength' */
+	public byte[] createFastq(final int n,final int readLength)
+		{
+		final StringBuilder sb = new StringBuilder();
+		final char quals[] = new char[readLength];
+		for(int i=0;i< n;++i)
+			{
+			sb.append("@read").append(i).append(" 1:N:0:ACGT\n");
+			sb.append(randomBases(readLength)).append("\n+\n");
+			for(int j=0;j< readLength;++j) quals[j] = (char)(33+2+this.random.nextInt(39));
+			sb.append(quals).append('\n');
+			}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+
+	/** create 'n' mapped reads sorted on coordinate, with soft clips, insertions and deletions */
+	public List<SAMRecord> createReads(final int n,final int readLength,final int contigLength)
+		{
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(createDictionary(contigLength));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		final List<SAMRecord> L = new ArrayList<>(n);
+		for(int i=0;i< n;++i)
+			{
+			final List<CigarElement> ces = new ArrayList<>();
+			int remain = readLength;
+			if(this.random.nextInt(5)==0)
+				{
+				final int clip = 1+this.random.nextInt(10);
+				ces.add(new CigarElement(clip, CigarOperator.S));
+				remain -= clip;
+				}
+			while(remain>0)
+				{
+				final int m = Math.min(remain, 10+this.random.nextInt(60));
+				ces.add(new CigarElement(m, CigarOperator.M));
+				remain -= m;
+				if(remain>2 && this.random.nextInt(10)==0)
+					{
+					if(this.random.nextBoolean())
+						{
+						ces.add(new CigarElement(1+this.random.nextInt(5), CigarOperator.D));
+						}
+					else
+						{
+						final int ins = 1+this.random.nextInt(Math.min(remain-1, 5));
+						ces.add(new CigarElement(ins, CigarOperator.I));
+						remain -= ins;
+						}
+					}
+				}
+			final SAMRecord rec = new SAMRecord(header);
+			rec.setReadName("read"+i);
+			rec.setReferenceIndex(0);
+			rec.setAlignmentStart(1+this.random.nextInt(Math.max(1,contigLength-2*readLength)));
+			rec.setCigar(new Cigar(ces));
+			rec.setMappingQuality(60);
+			rec.setReadString(randomBases(readLength));
+			rec.setBaseQualityString(SAMRecord.NULL_QUALS_STRING);
+			L.add(rec);
+			}
+		L.sort((A,B)->Integer.compare(A.getAlignmentStart(), B.getAlignmentStart()));
+		return L;
+		}
+	}
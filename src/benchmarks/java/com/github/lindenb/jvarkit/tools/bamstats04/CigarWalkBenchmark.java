@@ -0,0 +1,85 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.bamstats04;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.lindenb.jvarkit.benchmarks.SyntheticData;
+
+import htsjdk.samtools.SAMRecord;
+
+/**
+ * Walking the cigar strings of the reads to fill a depth array, as done by BamStats04 and Bam2Wig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class CigarWalkBenchmark
+	{
+	private static final int CONTIG_LENGTH = 1_000_000;
+	
+	@Param({"100","250"})
+	public int readLength;
+	
+	private List<SAMRecord> reads;
+	private int counts[];
+	
+	@Setup
+	public void setup()
+		{
+		this.reads = new SyntheticData(this.readLength).createReads(100_000, this.readLength, CONTIG_LENGTH);
+		this.counts = new int[CONTIG_LENGTH];
+		}
+	
+	@Benchmark
+	public int[] fillCounts()
+		{
+		for(final SAMRecord rec:this.reads)
+			{
+			BamStats04.fillCounts(rec, 1, CONTIG_LENGTH, this.counts);
+			}
+		return this.counts;
+		}
+	}
@@ -0,0 +1,118 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.bio.bin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.lindenb.jvarkit.benchmarks.SyntheticData;
+
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalTreeMap;
+
+/**
+ * Gene lookup for a variant: BinArray.overlapping versus the
+ * IntervalTreeMap&lt;List&lt;...&gt;&gt; used by VCFPredictions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class IntervalLookupBenchmark
+	{
+	private static final int CONTIG_LENGTH = 100_000_000;
+	private static final int N_QUERIES = 100_000;
+	
+	@Param({"1000","20000"})
+	public int nGenes;
+	
+	private final BinArray<Interval> binArray = new BinArray<>();
+	private final IntervalTreeMap<List<Interval>> treeMap = new IntervalTreeMap<>();
+	private int queries[];
+	
+	@Setup
+	public void setup()
+		{
+		final SyntheticData data = new SyntheticData(this.nGenes);
+		for(final Interval gene:data.createGenes(this.nGenes, CONTIG_LENGTH))
+			{
+			this.binArray.put(gene.getStart()-1, gene.getEnd(), gene);
+			List<Interval> L = this.treeMap.get(gene);
+			if(L==null)
+				{
+				L = new ArrayList<>(2);
+				this.treeMap.put(gene, L);
+				}
+			L.add(gene);
+			}
+		final Random random = data.getRandom();
+		this.queries = new int[N_QUERIES];
+		for(int i=0;i< N_QUERIES;++i) this.queries[i] = 1+random.nextInt(CONTIG_LENGTH);
+		}
+	
+	@Benchmark
+	public void binArray(final Blackhole blackhole)
+		{
+		for(final int pos:this.queries)
+			{
+			blackhole.consume(this.binArray.getOverlapping(pos-1, pos));
+			}
+		}
+	
+	@Benchmark
+	public void intervalTreeMap(final Blackhole blackhole)
+		{
+		for(final int pos:this.queries)
+			{
+			final List<Interval> genes = new ArrayList<>();
+			for(final List<Interval> L:this.treeMap.getOverlapping(new Interval(SyntheticData.CONTIG, pos, pos)))
+				{
+				genes.addAll(L);
+				}
+			blackhole.consume(genes);
+			}
+		}
+	}
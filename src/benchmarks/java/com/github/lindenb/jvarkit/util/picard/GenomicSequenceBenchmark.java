@@ -0,0 +1,144 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.lindenb.jvarkit.benchmarks.SyntheticData;
+import com.github.lindenb.jvarkit.util.bio.fasta.PackedReference;
+
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+
+/**
+ * GenomicSequence.charAt and getGCPercent, on an indexed fasta or on a packed reference
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class GenomicSequenceBenchmark
+	{
+	private static final int CONTIG_LENGTH = 10_000_000;
+	private static final int N_QUERIES = 100_000;
+	
+	@Param({"fasta","packed"})
+	public String backend;
+	
+	private File tmpDir;
+	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
+	private PackedReference packedReference=null;
+	private GenomicSequence genomicSequence;
+	private int positions[];
+	
+	@Setup
+	public void setup() throws IOException
+		{
+		this.tmpDir = Files.createTempDirectory("jvarkit.bench.").toFile();
+		final SyntheticData data = new SyntheticData(0L);
+		final File fasta = data.createIndexedFasta(this.tmpDir, CONTIG_LENGTH);
+		if(this.backend.equals("packed"))
+			{
+			this.packedReference = PackedReference.open(fasta);
+			this.genomicSequence = new GenomicSequence(this.packedReference, SyntheticData.CONTIG);
+			}
+		else
+			{
+			this.indexedFastaSequenceFile = new IndexedFastaSequenceFile(fasta);
+			this.genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile, SyntheticData.CONTIG);
+			}
+		final Random random = data.getRandom();
+		this.positions = new int[N_QUERIES];
+		for(int i=0;i< N_QUERIES;++i) this.positions[i] = random.nextInt(CONTIG_LENGTH-1000);
+		}
+	
+	@TearDown
+	public void tearDown()
+		{
+		CloserUtil.close(this.indexedFastaSequenceFile);
+		CloserUtil.close(this.packedReference);
+		IOUtil.deleteDirectoryTree(this.tmpDir);
+		}
+	
+	/** sequential scan of the whole contig */
+	@Benchmark
+	public long sequentialCharAt()
+		{
+		long n=0L;
+		for(int i=0;i< CONTIG_LENGTH;++i)
+			{
+			n += this.genomicSequence.charAt(i);
+			}
+		return n;
+		}
+	
+	/** random access */
+	@Benchmark
+	public long randomCharAt()
+		{
+		long n=0L;
+		for(final int pos:this.positions)
+			{
+			n += this.genomicSequence.charAt(pos);
+			}
+		return n;
+		}
+	
+	/** GC% of random windows of 1kb */
+	@Benchmark
+	public long gcPercent()
+		{
+		long n=0L;
+		for(final int pos:this.positions)
+			{
+			n += this.genomicSequence.getGCPercent(pos, pos+1000).getGCCount();
+			}
+		return n;
+		}
+	}
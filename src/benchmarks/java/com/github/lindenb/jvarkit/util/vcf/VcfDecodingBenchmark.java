@@ -0,0 +1,93 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.lindenb.jvarkit.benchmarks.SyntheticData;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Decoding of a VCF with VCFUtils.createVcfIteratorFromStream
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class VcfDecodingBenchmark
+	{
+	@Param({"10","100"})
+	public int nSamples;
+	
+	@Param({"false","true"})
+	public boolean fullyDecode;
+	
+	private byte vcf[];
+	
+	@Setup
+	public void setup()
+		{
+		this.vcf = new SyntheticData(nSamples).createVcf(10_000, this.nSamples, 10_000_000);
+		}
+	
+	@Benchmark
+	public long decode(final Blackhole blackhole) throws IOException
+		{
+		long n=0L;
+		try(VcfIterator iter = VCFUtils.createVcfIteratorFromStream(new ByteArrayInputStream(this.vcf)))
+			{
+			while(iter.hasNext())
+				{
+				VariantContext ctx = iter.next();
+				if(this.fullyDecode) ctx = ctx.fullyDecode(iter.getHeader(), false);
+				blackhole.consume(ctx);
+				n++;
+				}
+			}
+		return n;
+		}
+	}
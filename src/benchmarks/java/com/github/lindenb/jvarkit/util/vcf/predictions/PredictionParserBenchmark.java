@@ -0,0 +1,99 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.vcf.predictions;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.lindenb.jvarkit.benchmarks.SyntheticData;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Parsing of the VEP (CSQ) and snpEff (ANN) predictions of already decoded variants
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class PredictionParserBenchmark
+	{
+	private final List<VariantContext> variants = new ArrayList<>();
+	private VepPredictionParser vepParser;
+	private AnnPredictionParser annParser;
+	
+	@Setup
+	public void setup() throws IOException
+		{
+		final byte vcf[] = new SyntheticData(0L).createVcf(10_000, 0, 10_000_000);
+		try(VcfIterator iter = VCFUtils.createVcfIteratorFromStream(new ByteArrayInputStream(vcf)))
+			{
+			this.vepParser = new VepPredictionParserFactory(iter.getHeader()).get();
+			this.annParser = new AnnPredictionParserFactory(iter.getHeader()).get();
+			while(iter.hasNext()) this.variants.add(iter.next());
+			}
+		}
+	
+	@Benchmark
+	public void vep(final Blackhole blackhole)
+		{
+		for(final VariantContext ctx:this.variants)
+			{
+			blackhole.consume(this.vepParser.getPredictions(ctx));
+			}
+		}
+	
+	@Benchmark
+	public void ann(final Blackhole blackhole)
+		{
+		for(final VariantContext ctx:this.variants)
+			{
+			blackhole.consume(this.annParser.getPredictions(ctx));
+			}
+		}
+	}
@@ -0,0 +1,169 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InputStream reading its delegate (e.g: a GZIPInputStream) on a background thread,
+ * so the decompression runs while the caller parses the previous bytes.
+ */
+public class AsyncInputStream extends InputStream
+	{
+	private static final int CHUNK_SIZE = 1<<20;
+	private static final byte[] EOF_MARKER = new byte[0];
+	private final InputStream delegate;
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(8);
+	private final Thread readerThread;
+	private volatile Throwable readerError = null;
+	private volatile boolean closed = false;
+	private byte buffer[] = new byte[0];
+	private int bufferPos = 0;
+	private boolean eof = false;
+
+	public AsyncInputStream(final InputStream delegate)
+		{
+		this.delegate = delegate;
+		this.readerThread = new Thread(()->fillQueue(),"async-reader");
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+		}
+
+	private void fillQueue()
+		{
+		try
+			{
+			while(!this.closed)
+				{
+				final byte array[] = new byte[CHUNK_SIZE];
+				int n=0;
+				while(n< array.length)
+					{
+					final int nRead = this.delegate.read(array, n, array.length-n);
+					if(nRead==-1) break;
+					n+=nRead;
+					}
+				if(n>0) put(n==array.length?array:Arrays.copyOf(array, n));
+				if(n< array.length) break;
+				}
+			}
+		catch(final Throwable err)
+			{
+			this.readerError = err;
+			}
+		finally
+			{
+			try { put(EOF_MARKER);}
+			catch(final InterruptedException err) { /* closed */ }
+			}
+		}
+
+	private void put(final byte array[]) throws InterruptedException
+		{
+		while(!this.closed && !this.queue.offer(array, 1L, TimeUnit.SECONDS))
+			{
+			/* wait for the consumer */
+			}
+		}
+
+	private void checkError() throws IOException
+		{
+		final Throwable err = this.readerError;
+		if(err==null) return;
+		if(err instanceof IOException) throw IOException.class.cast(err);
+		throw new IOException(err);
+		}
+
+	/** @return false at the end of the stream */
+	private boolean nextChunk() throws IOException
+		{
+		if(this.eof) return false;
+		try
+			{
+			byte array[];
+			while((array=this.queue.poll(1L, TimeUnit.SECONDS))==null)
+				{
+				checkError();
+				if(!this.readerThread.isAlive() && this.queue.isEmpty()) throw new IOException("reader thread is dead");
+				}
+			if(array==EOF_MARKER)
+				{
+				this.eof = true;
+				checkError();
+				return false;
+				}
+			this.buffer = array;
+			this.bufferPos = 0;
+			return true;
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		}
+
+	@Override
+	public int read() throws IOException
+		{
+		if(this.bufferPos==this.buffer.length && !nextChunk()) return -1;
+		return this.buffer[this.bufferPos++] & 0xFF;
+		}
+
+	@Override
+	public int read(final byte[] bytes, final int off, final int len) throws IOException
+		{
+		if(len==0) return 0;
+		if(this.bufferPos==this.buffer.length && !nextChunk()) return -1;
+		final int n = Math.min(len, this.buffer.length - this.bufferPos);
+		System.arraycopy(this.buffer, this.bufferPos, bytes, off, n);
+		this.bufferPos += n;
+		return n;
+		}
+
+	@Override
+	public int available() throws IOException
+		{
+		return this.buffer.length - this.bufferPos;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		this.closed = true;
+		this.readerThread.interrupt();
+		this.queue.clear();
+		this.delegate.close();
+		}
+	}
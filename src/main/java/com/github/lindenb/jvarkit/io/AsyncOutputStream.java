@@ -0,0 +1,200 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutputStream writing into its delegate (e.g: a GZIPOutputStream) on a background thread.
+ * The bytes and the calls to flush() are forwarded in the same order, so
+ * the content of the delegate is the same as a synchronous write.
+ */
+public class AsyncOutputStream extends OutputStream
+	{
+	private static final int CHUNK_SIZE = 65536;
+	private static final byte[] FLUSH_MARKER = new byte[0];
+	private static final byte[] CLOSE_MARKER = new byte[0];
+	private final OutputStream delegate;
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(32);
+	private final Thread writerThread;
+	private final Object flushLock = new Object();
+	private long flushRequested = 0L;
+	private long flushDone = 0L;
+	private byte buffer[] = new byte[CHUNK_SIZE];
+	private int bufferLength = 0;
+	private volatile Throwable writerError = null;
+	private boolean closed = false;
+
+	public AsyncOutputStream(final OutputStream delegate)
+		{
+		this.delegate = delegate;
+		this.writerThread = new Thread(()->drainQueue(),"async-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+		}
+
+	private void drainQueue()
+		{
+		try
+			{
+			for(;;)
+				{
+				final byte array[] = this.queue.take();
+				if(array==CLOSE_MARKER) break;
+				if(array==FLUSH_MARKER)
+					{
+					this.delegate.flush();
+					synchronized(this.flushLock)
+						{
+						this.flushDone++;
+						this.flushLock.notifyAll();
+						}
+					}
+				else
+					{
+					this.delegate.write(array);
+					}
+				}
+			}
+		catch(final Throwable err)
+			{
+			this.writerError = err;
+			synchronized(this.flushLock)
+				{
+				this.flushLock.notifyAll();
+				}
+			}
+		}
+
+	private void checkError() throws IOException
+		{
+		final Throwable err = this.writerError;
+		if(err==null) return;
+		if(err instanceof IOException) throw IOException.class.cast(err);
+		throw new IOException(err);
+		}
+
+	private void enqueue(final byte array[]) throws IOException
+		{
+		try
+			{
+			while(!this.queue.offer(array, 1L, TimeUnit.SECONDS))
+				{
+				checkError();
+				if(!this.writerThread.isAlive()) throw new IOException("writer thread is dead");
+				}
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		}
+
+	private void sendBuffer() throws IOException
+		{
+		checkError();
+		if(this.bufferLength==0) return;
+		if(this.bufferLength==this.buffer.length)
+			{
+			enqueue(this.buffer);
+			}
+		else
+			{
+			enqueue(java.util.Arrays.copyOf(this.buffer, this.bufferLength));
+			}
+		this.buffer = new byte[CHUNK_SIZE];
+		this.bufferLength = 0;
+		}
+
+	@Override
+	public void write(final int b) throws IOException
+		{
+		this.buffer[this.bufferLength++] = (byte)b;
+		if(this.bufferLength==this.buffer.length) sendBuffer();
+		}
+
+	@Override
+	public void write(final byte[] bytes, int off, int len) throws IOException
+		{
+		while(len>0)
+			{
+			final int n = Math.min(len, this.buffer.length - this.bufferLength);
+			System.arraycopy(bytes, off, this.buffer, this.bufferLength, n);
+			this.bufferLength += n;
+			off += n;
+			len -= n;
+			if(this.bufferLength==this.buffer.length) sendBuffer();
+			}
+		}
+
+	@Override
+	public void flush() throws IOException
+		{
+		if(this.closed) return;
+		sendBuffer();
+		enqueue(FLUSH_MARKER);
+		final long expect = ++this.flushRequested;
+		synchronized(this.flushLock)
+			{
+			while(this.flushDone < expect)
+				{
+				checkError();
+				try { this.flushLock.wait(1000L);}
+				catch(final InterruptedException err) { throw new IOException(err);}
+				}
+			}
+		checkError();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		try
+			{
+			sendBuffer();
+			enqueue(CLOSE_MARKER);
+			this.writerThread.join();
+			checkError();
+			}
+		catch(final InterruptedException err)
+			{
+			throw new IOException(err);
+			}
+		finally
+			{
+			this.closed = true;
+			this.delegate.close();
+			}
+		}
+	}
@@ -278,15 +278,42 @@ public class IOUtils {
         return new BufferedWriter(new OutputStreamWriter(openFileForWriting(file)), Defaults.BUFFER_SIZE);
     	}
     
+    /** number of threads used to compress the output files. A value lower or equal to 1 means 'single-threaded' */
+    private static int defaultWriterThreads = 1;
+    
+    /** set the number of threads used to compress the output files (see option '--writer-threads' in Launcher) */
+    public static void setDefaultWriterThreads(final int n)
+    	{
+    	defaultWriterThreads = Math.max(1, n);
+    	}
+    
+    /** get the number of threads used to compress the output files */
+    public static int getDefaultWriterThreads()
+    	{
+    	return defaultWriterThreads;
+    	}
+    
+    /** open a BGZF stream. Blocks are compressed in parallel if getDefaultWriterThreads() &gt; 1 */
+    public static OutputStream openBlockCompressedOutputStream(final File file,final int compressionLevel) throws IOException
+		{
+		if(getDefaultWriterThreads()>1)
+			{
+			return new ParallelBlockCompressedOutputStream(new FileOutputStream(file), compressionLevel, getDefaultWriterThreads());
+			}
+		return new BlockCompressedOutputStream(file,compressionLevel);
+		}
+    
     public static OutputStream openFileForWriting(final File file) throws IOException
     	{
         if (file.getName().endsWith(".vcf.gz"))
         	{
-            return new BlockCompressedOutputStream(file);
+            return openBlockCompressedOutputStream(file,BlockCompressedOutputStream.getDefaultCompressionLevel());
         	}
         else if (file.getName().endsWith(".gz"))
 	    	{
-	        return new GZIPOutputStream(new FileOutputStream(file),true);
+        	final OutputStream gzout = new GZIPOutputStream(new FileOutputStream(file),true);
+        	// gzip is not splittable in blocks, compress on another thread
+	        return getDefaultWriterThreads()>1 ? new AsyncOutputStream(gzout) : gzout;
 	    	}
         else
         	{
@@ -0,0 +1,401 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * BGZF writer compressing the blocks on a pool of threads.
+ *
+ * The blocks are cut, compressed and framed exactly like htsjdk's
+ * <code>BlockCompressedOutputStream</code> so the output is byte-identical
+ * to the single-threaded writer. All the streams share the same pool of threads,
+ * so a tool opening many writers doesn't multiply the number of threads.
+ * The compressed blocks are written to the delegate, in submission order, by the thread writing into this stream.
+ * This class is not thread-safe.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream
+	{
+	/** pool shared by all the streams, its size is the largest number of threads requested */
+	private static ThreadPoolExecutor sharedPool = null;
+
+	/** thread of the shared pool. It owns its deflaters, released when the thread ends */
+	private static class DeflaterThread extends Thread
+		{
+		private final Map<Integer,Deflater> level2deflater = new HashMap<>();
+		DeflaterThread(final Runnable r)
+			{
+			super(r,"bgzf-deflater");
+			setDaemon(true);
+			}
+		Deflater getDeflater(final int level)
+			{
+			Deflater deflater = this.level2deflater.get(level);
+			if(deflater==null)
+				{
+				deflater = new Deflater(level, true);
+				this.level2deflater.put(level, deflater);
+				}
+			return deflater;
+			}
+		@Override
+		public void run()
+			{
+			try
+				{
+				super.run();
+				}
+			finally
+				{
+				/* release the native memory of zlib */
+				for(final Deflater deflater:this.level2deflater.values()) deflater.end();
+				this.level2deflater.clear();
+				}
+			}
+		}
+
+	private static synchronized ExecutorService getSharedPool(final int nThreads)
+		{
+		if(sharedPool==null)
+			{
+			sharedPool = new ThreadPoolExecutor(
+					nThreads, nThreads,
+					60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					DeflaterThread::new
+					);
+			/* idle threads end, and so do their deflaters */
+			sharedPool.allowCoreThreadTimeOut(true);
+			}
+		else if(sharedPool.getMaximumPoolSize() < nThreads)
+			{
+			sharedPool.setMaximumPoolSize(nThreads);
+			sharedPool.setCorePoolSize(nThreads);
+			}
+		return sharedPool;
+		}
+
+	private final OutputStream delegate;
+	private final int compressionLevel;
+	private final ExecutorService deflaterPool;
+	/** blocks being compressed, in submission order */
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	/** bound the number of pending blocks to limit the memory */
+	private final int maxPending;
+	private byte uncompressedBuffer[] = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	private int numUncompressedBytes = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param delegate the underlying stream, will be closed by this stream
+	 * @param compressionLevel deflate level
+	 * @param nThreads number of compressing threads
+	 */
+	public ParallelBlockCompressedOutputStream(final OutputStream delegate,final int compressionLevel,final int nThreads)
+		{
+		this.delegate = delegate;
+		this.compressionLevel = compressionLevel;
+		final int n = Math.max(1, nThreads);
+		this.deflaterPool = getSharedPool(n);
+		this.maxPending = n*4;
+		}
+
+	/** wait for the oldest block and write it to the delegate */
+	private void writeFirstBlock() throws IOException
+		{
+		final Future<byte[]> block = this.pending.removeFirst();
+		try
+			{
+			this.delegate.write(block.get());
+			}
+		catch(final ExecutionException err)
+			{
+			final Throwable cause = err.getCause();
+			if(cause instanceof IOException) throw IOException.class.cast(cause);
+			throw new IOException(cause);
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		}
+
+	/** write the blocks already compressed, or wait while there are too many pending blocks */
+	private void writeCompressedBlocks() throws IOException
+		{
+		while(!this.pending.isEmpty() &&
+			(this.pending.size() > this.maxPending || this.pending.peekFirst().isDone()))
+			{
+			writeFirstBlock();
+			}
+		}
+
+	/** send the current uncompressed buffer to the deflater pool */
+	private void submitBlock() throws IOException
+		{
+		if(this.numUncompressedBytes==0) return;
+		submitBlock(this.uncompressedBuffer,this.numUncompressedBytes);
+		this.uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+		this.numUncompressedBytes = 0;
+		}
+
+	/** compress 'len' bytes of 'data' as one single BGZF block. 'data' must not be modified after this call */
+	void submitBlock(final byte data[],final int len) throws IOException
+		{
+		if(this.closed) throw new IOException("stream was closed");
+		this.pending.add(this.deflaterPool.submit(()->deflateBlock(data,len)));
+		writeCompressedBlocks();
+		}
+
+	/** same algorithm as htsjdk BlockCompressedOutputStream.deflateBlock */
+	private byte[] deflateBlock(final byte data[],final int len)
+		{
+		final byte compressedBuffer[] = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE -
+				BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		final DeflaterThread thread = DeflaterThread.class.cast(Thread.currentThread());
+		final Deflater deflater = thread.getDeflater(this.compressionLevel);
+		deflater.reset();
+		deflater.setInput(data, 0, len);
+		deflater.finish();
+		int compressedSize = deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+		// If it didn't all fit in compressedBuffer.length, set compression level to NO_COMPRESSION and try again
+		if(!deflater.finished())
+			{
+			final Deflater noCompressionDeflater = thread.getDeflater(Deflater.NO_COMPRESSION);
+			noCompressionDeflater.reset();
+			noCompressionDeflater.setInput(data, 0, len);
+			noCompressionDeflater.finish();
+			compressedSize = noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+			if(!noCompressionDeflater.finished())
+				{
+				throw new IllegalStateException("cannot compress block of "+len+" bytes");
+				}
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, len);
+
+		final int totalBlockSize = compressedSize +
+				BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH +
+				BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final byte block[] = new byte[totalBlockSize];
+		int i=0;
+		block[i++] = BlockCompressedStreamConstants.GZIP_ID1;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		block[i++] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		i = writeInt(block, i, 0);//modification time
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		i = writeShort(block, i, BlockCompressedStreamConstants.GZIP_XLEN);
+		block[i++] = BlockCompressedStreamConstants.BGZF_ID1;
+		block[i++] = BlockCompressedStreamConstants.BGZF_ID2;
+		i = writeShort(block, i, BlockCompressedStreamConstants.BGZF_LEN);
+		i = writeShort(block, i, totalBlockSize - 1);
+		System.arraycopy(compressedBuffer, 0, block, i, compressedSize);
+		i += compressedSize;
+		i = writeInt(block, i, (int)crc32.getValue());
+		i = writeInt(block, i, len);
+		return block;
+		}
+
+	private static int writeShort(final byte array[],int i,final int v)
+		{
+		array[i++] = (byte)(v & 0xFF);
+		array[i++] = (byte)((v >> 8) & 0xFF);
+		return i;
+		}
+
+	private static int writeInt(final byte array[],int i,final int v)
+		{
+		i = writeShort(array, i, v & 0xFFFF);
+		return writeShort(array, i, (v >>> 16) & 0xFFFF);
+		}
+
+	@Override
+	public void write(final int b) throws IOException
+		{
+		this.uncompressedBuffer[this.numUncompressedBytes++] = (byte)b;
+		if(this.numUncompressedBytes == this.uncompressedBuffer.length) submitBlock();
+		}
+
+	@Override
+	public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException
+		{
+		while(numBytes>0)
+			{
+			final int bytesToWrite = Math.min(this.uncompressedBuffer.length - this.numUncompressedBytes, numBytes);
+			System.arraycopy(bytes, startIndex, this.uncompressedBuffer, this.numUncompressedBytes, bytesToWrite);
+			this.numUncompressedBytes += bytesToWrite;
+			startIndex += bytesToWrite;
+			numBytes -= bytesToWrite;
+			if(this.numUncompressedBytes == this.uncompressedBuffer.length) submitBlock();
+			}
+		}
+
+	/** compress the pending bytes and wait for all the blocks to be written */
+	@Override
+	public void flush() throws IOException
+		{
+		if(this.closed) return;
+		submitBlock();
+		while(!this.pending.isEmpty()) writeFirstBlock();
+		this.delegate.flush();
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		if(this.closed) return;
+		try
+			{
+			flush();
+			this.delegate.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			}
+		finally
+			{
+			this.closed = true;
+			for(final Future<byte[]> block:this.pending) block.cancel(true);
+			this.pending.clear();
+			this.delegate.close();
+			}
+		}
+
+	/**
+	 * Creates a stream consuming BGZF data (typically generated by htsjdk
+	 * with compression level 0) and re-compressing each incoming block, with the same boundaries,
+	 * into this parallel writer.
+	 * Used for the BAM writers of htsjdk, where the BlockCompressedOutputStream cannot be replaced.
+	 */
+	public OutputStream createRecompressingStream()
+		{
+		return new RecompressingStream();
+		}
+
+	private class RecompressingStream extends OutputStream
+		{
+		private byte buffer[] = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+		private int bufferLength = 0;
+		private final Inflater inflater = new Inflater(true);
+
+		@Override
+		public void write(final int b) throws IOException
+			{
+			write(new byte[]{(byte)b},0,1);
+			}
+
+		@Override
+		public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException
+			{
+			while(numBytes>0)
+				{
+				final int n = Math.min(numBytes,this.buffer.length - this.bufferLength);
+				System.arraycopy(bytes, startIndex, this.buffer, this.bufferLength, n);
+				this.bufferLength += n;
+				startIndex += n;
+				numBytes -= n;
+				consumeBlocks();
+				}
+			}
+
+		private int readUShort(final int i)
+			{
+			return (this.buffer[i] & 0xFF) | ((this.buffer[i+1] & 0xFF) << 8);
+			}
+
+		private void consumeBlocks() throws IOException
+			{
+			for(;;)
+				{
+				if(this.bufferLength < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH) return;
+				final int totalBlockSize = readUShort(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+				if(this.bufferLength < totalBlockSize) return;
+				final int uncompressedSize = readUShort(totalBlockSize - 4) | (readUShort(totalBlockSize - 2) << 16);
+				// the EOF marker is written by the parallel stream on close
+				if(uncompressedSize > 0)
+					{
+					final byte data[] = new byte[uncompressedSize];
+					this.inflater.reset();
+					this.inflater.setInput(this.buffer,
+							BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH,
+							totalBlockSize - (BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH+BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH)
+							);
+					try
+						{
+						final int n = this.inflater.inflate(data);
+						if(n!=uncompressedSize) throw new IOException("Expected "+uncompressedSize+" bytes but got "+n);
+						}
+					catch(final DataFormatException err)
+						{
+						throw new IOException(err);
+						}
+					submitBlock(data,data.length);
+					}
+				System.arraycopy(this.buffer, totalBlockSize, this.buffer, 0, this.bufferLength - totalBlockSize);
+				this.bufferLength -= totalBlockSize;
+				}
+			}
+
+		@Override
+		public void flush() throws IOException
+			{
+			ParallelBlockCompressedOutputStream.this.flush();
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			if(this.bufferLength!=0)
+				{
+				throw new IOException("Truncated BGZF block in recompressing stream : "+
+					Arrays.toString(Arrays.copyOf(this.buffer, Math.min(this.bufferLength,18))));
+				}
+			this.inflater.end();
+			ParallelBlockCompressedOutputStream.this.close();
+			}
+		}
+	}
@@ -30,8 +30,18 @@ package com.github.lindenb.jvarkit.tools.bam2wig;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
 
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SamReader;
@@ -44,6 +54,7 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -92,7 +103,7 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom), unless option --threads is used.",
 keywords={"bam","wig","wiggle"}
 )
 public class Bam2Wig extends Launcher
@@ -121,9 +132,15 @@ public class Bam2Wig extends Launcher
 	@Parameter(names={"-g","--zerolength"},description="minimal zero-coverage length before writing a new header")
 	private int min_gap = 200 ;
 
-	@Parameter(names={"-d","--zerolength"},description="minimal depth before setting depth to zero")
+	@Parameter(names={"-d","--mindepth"},description="minimal depth before setting depth to zero")
 	private int min_depth = 0 ;
 
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, the BAM must be indexed and the contigs are split into tiles processed in parallel using the BAM index. The memory is then bounded by (tile-size * threads) instead of the length of the longest chromosome.")
+	private int nThreads = 1 ;
+
+	@Parameter(names={"--tile-size"},description="Tile size used when --threads > 1. Cannot be lower than the window size.")
+	private int tileSize = 1_000_000 ;
+
 
 	
 	public Bam2Wig()
@@ -136,6 +153,248 @@ public class Bam2Wig extends Launcher
 	
 	private PrintWriter pw = null;
 	
+	/** print the fixedStep windows of a contig. 'depth' returns the depth at a 0-based position */
+	private void dumpContig(final SAMSequenceRecord ssr,int start0,final int end0,final IntUnaryOperator depth)
+		{
+		final int chromLength = ssr.getSequenceLength();
+		int last_non_zero_pos0=start0;
+		int num_zero_regions_skipped=0;
+		boolean need_print_header=true;
+		while(start0 < end0)
+			{
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			int n=0;
+			double sum=0;
+			for(int j=0;j< WINDOW_SIZE && start0+j< chromLength;++j)
+				{
+				sum+=depth.applyAsInt(start0+j);
+				n++;
+				}
+			
+			if(sum/n < min_depth)
+				{
+				sum=0;
+				}
+			
+			if(sum==0)
+				{
+				start0+=WINDOW_SHIFT;
+				num_zero_regions_skipped++;
+				continue;
+				}
+			else
+				{
+				if((start0-last_non_zero_pos0)<= min_gap)
+					{
+					for(int r=0;r < num_zero_regions_skipped;++r)
+						{
+						pw.println(0);
+						}
+					}
+				else
+					{
+					need_print_header=(num_zero_regions_skipped>0);
+					}
+				
+				last_non_zero_pos0=start0;
+				num_zero_regions_skipped=0;
+				}
+			
+			if(need_print_header)
+				{
+				need_print_header=false;
+				pw.println(
+						"fixedStep chrom="+ssr.getSequenceName()+
+						" start="+(start0+1)+
+						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
+				}
+			
+			if(cast_to_integer)
+				{
+				pw.println((int)(sum/n));
+				}
+			else
+				{
+				pw.println((float)(sum/n));
+				}
+			
+			if(pw.checkError()) break;
+			start0+=WINDOW_SHIFT;
+			}
+		}
+	
+	/** depth of a fixed-size genomic tile, computed by a worker */
+	private static class DepthTile
+		{
+		final int tid;
+		/** 0-based start */
+		final int start0;
+		/** 0-based end (exclusive) */
+		final int end0;
+		/** depth[i] is the depth at start0+i */
+		int depth[]=null;
+		DepthTile(final int tid,final int start0,final int end0)
+			{
+			this.tid = tid;
+			this.start0 = start0;
+			this.end0 = end0;
+			}
+		boolean contains(final int pos0)
+			{
+			return this.start0 <= pos0 && pos0 < this.end0;
+			}
+		}
+	
+	/** compute the depth of a tile using a difference array. Called by the workers */
+	private DepthTile computeTile(final SamReader sfr,final SAMSequenceRecord ssr,final DepthTile tile)
+		{
+		final int len = tile.end0 - tile.start0;
+		final int diff[] = new int[len+1];
+		final SAMRecordIterator iter = sfr.queryOverlapping(ssr.getSequenceName(), tile.start0+1, tile.end0);
+		while(iter.hasNext())
+			{
+			final SAMRecord rec = iter.next();
+			if(rec.getReadUnmappedFlag()) continue;
+			if(rec.getMappingQuality()==0) continue;
+			if(rec.getMappingQuality()< min_qual) continue;
+			final Cigar cigar=rec.getCigar();
+			if(cigar==null) continue;
+			int refpos0 = rec.getAlignmentStart()-1;
+			for(final CigarElement ce:cigar.getCigarElements())
+				{
+				final CigarOperator op = ce.getOperator();
+				if(!op.consumesReferenceBases()) continue;
+				if(op.consumesReadBases())
+					{
+					final int b = Math.max(refpos0, tile.start0);
+					final int e = Math.min(refpos0+ce.getLength(), tile.end0);
+					if(b<e)
+						{
+						diff[b-tile.start0]++;
+						diff[e-tile.start0]--;
+						}
+					}
+				refpos0+=ce.getLength();
+				if(refpos0>=tile.end0) break;
+				}
+			}
+		iter.close();
+		// convert the difference array to depth, in place
+		for(int i=1;i< len;++i) diff[i]+=diff[i-1];
+		tile.depth = diff;
+		return tile;
+		}
+	
+	/** index-driven engine: the tiles are processed by a pool of workers and printed in dictionary order */
+	private void runParallel(final File bamFile) throws Exception
+		{
+		final SAMSequenceDictionary dict;
+		try(SamReader sfr=this.createSamReaderFactory().open(bamFile)) {
+			if(!sfr.hasIndex()) throw new JvarkitException.UserError("Option --threads requires an indexed BAM: "+bamFile);
+			dict=sfr.getFileHeader().getSequenceDictionary();
+			}
+		final int tile_size = Math.max(this.tileSize, this.WINDOW_SIZE);
+		final List<DepthTile> tiles = new ArrayList<>();
+		for(final SAMSequenceRecord ssr:dict.getSequences())
+			{
+			for(int x=0;x< ssr.getSequenceLength();x+=tile_size)
+				{
+				tiles.add(new DepthTile(ssr.getSequenceIndex(), x, Math.min(ssr.getSequenceLength(),x+tile_size)));
+				}
+			}
+		
+		/* one SamReader per worker */
+		final List<SamReader> readers = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<SamReader> threadReader = ThreadLocal.withInitial(()->{
+			final SamReader r= this.createSamReaderFactory().open(bamFile);
+			readers.add(r);
+			return r;
+			});
+		final ExecutorService executor = Executors.newFixedThreadPool(this.nThreads);
+		try
+			{
+			/* limit the number of pending tiles to bound the memory */
+			final int maxPending = this.nThreads * 2;
+			final Iterator<DepthTile> tileIter = tiles.iterator();
+			final Deque<Future<DepthTile>> pending = new ArrayDeque<>(maxPending);
+			final Supplier<DepthTile> nextTile = ()->{
+				while(pending.size()< maxPending && tileIter.hasNext())
+					{
+					final DepthTile t = tileIter.next();
+					final SAMSequenceRecord ssr = dict.getSequence(t.tid);
+					pending.add(executor.submit(()->computeTile(threadReader.get(),ssr,t)));
+					}
+				if(pending.isEmpty()) return null;
+				try {
+					return pending.pollFirst().get();
+					}
+				catch(final Exception err) {
+					throw new RuntimeException(err);
+					}
+				};
+			
+			if(custom_track)
+				{
+				pw.println("track type=wiggle_0 name=\"__REPLACE_WIG_NAME__\" description=\"__REPLACE_WIG_DESC__\"");
+				}
+			
+			DepthTile first = nextTile.get();
+			while(first!=null)
+				{
+				final SAMSequenceRecord ssr = dict.getSequence(first.tid);
+				LOG.info("processing "+ssr.getSequenceName());
+				/* only two tiles are kept: the current tile and the next one, because tile-size >= window-size */
+				final DepthTile window[]=new DepthTile[]{first,null};
+				final IntUnaryOperator depth = P->{
+					for(;;)
+						{
+						if(window[0].contains(P)) return window[0].depth[P-window[0].start0];
+						if(window[1]==null) {
+							final DepthTile t = nextTile.get();
+							if(t==null || t.tid!=ssr.getSequenceIndex()) throw new IllegalStateException("tile not found for "+P);
+							window[1] = t;
+							}
+						if(window[1].contains(P)) return window[1].depth[P-window[1].start0];
+						window[0] = window[1];
+						window[1] = null;
+						}
+					};
+				
+				/* find first covered base */
+				int start0 = 0;
+				while(start0 < ssr.getSequenceLength() && depth.applyAsInt(start0)==0)
+					{
+					++start0;
+					}
+				/* windows after the last covered base are never printed, no need to compute end0 */
+				if(start0 < ssr.getSequenceLength())
+					{
+					dumpContig(ssr, start0, ssr.getSequenceLength(), depth);
+					}
+				if(pw.checkError()) break;
+				
+				/* move to the first tile of the next contig */
+				DepthTile last = (window[1]!=null?window[1]:window[0]);
+				while(last!=null && last.tid==ssr.getSequenceIndex())
+					{
+					last = nextTile.get();
+					}
+				first = last;
+				}
+			pw.flush();
+			}
+		finally
+			{
+			executor.shutdownNow();
+			readers.forEach(R->CloserUtil.close(R));
+			}
+		}
+	
 	private void run(final SamReader sfr)
 		{
 		SAMSequenceRecord prev_ssr=null;
@@ -177,77 +436,8 @@ public class Bam2Wig extends Launcher
 						--end0;
 						}
 					
-					int last_non_zero_pos0=start0;
-					int num_zero_regions_skipped=0;
-					boolean need_print_header=true;
-					while(start0 < end0)
-						{
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-		 					int n=0;
-		 					double sum=0;
-		 					for(int j=0;j< WINDOW_SIZE && start0+j< array.length;++j)
-		 						{
-		 						sum+=array[start0+j];
-		 						n++;
-		 						}
-		 					
-		 					if(sum/n < min_depth)
-		 						{
-		 						sum=0;
-		 						}
-		 					
-		 					
-		 					if(sum==0)
-		 						{
-		 						start0+=WINDOW_SHIFT;
-		 						num_zero_regions_skipped++;
-		 						continue;
-		 						}
-		 					else
-		 						{
-		 						if((start0-last_non_zero_pos0)<= min_gap)
-		 							{
-		 							for(int r=0;r < num_zero_regions_skipped;++r)
-		 								{
-		 								pw.println(0);
-		 								}
-		 							}
-		 						else
-		 							{
-		 							need_print_header=(num_zero_regions_skipped>0);
-		 							}
-		 						
-		 						last_non_zero_pos0=start0;
-		 						num_zero_regions_skipped=0;
-		 						}
-		 					
-		 					if(need_print_header)
-			 					{
-		 						need_print_header=false;
-		 						pw.println(
-				 						"fixedStep chrom="+prev_ssr.getSequenceName()+
-				 						" start="+(start0+1)+
-				 						" step="+WINDOW_SHIFT +" span="+ WINDOW_SIZE);
-			 					}
-		 					
-		 					if(cast_to_integer)
-		 						{
-		 						pw.println((int)(sum/n));
-		 						}
-		 					else
-		 						{
-		 						pw.println((float)(sum/n));
-		 						}
-		 					
-		 				if(pw.checkError()) break;
-		 				start0+=WINDOW_SHIFT;
-						}
+					final int contig_array[]=array;
+					dumpContig(prev_ssr,start0,end0,P->contig_array[P]);
 					array=null;
 					System.gc();
 					prev_ssr=null;
@@ -301,8 +491,15 @@ public class Bam2Wig extends Launcher
 			try
 				{
 				this.pw = openFileOrStdoutAsPrintWriter(this.outputFile);
-				in = openSamReader(oneFileOrNull(args));
-				run(in);
+				if(this.nThreads>1)
+					{
+					runParallel(new File(oneAndOnlyOneFile(args)));
+					}
+				else
+					{
+					in = openSamReader(oneFileOrNull(args));
+					run(in);
+					}
 				pw.flush();
 				return RETURN_OK;
 				}
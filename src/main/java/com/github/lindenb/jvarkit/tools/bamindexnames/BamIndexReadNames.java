@@ -105,6 +105,9 @@ public class BamIndexReadNames
 		}
 
 		private int maxRecordsInRAM=50000;
+		/** write the legacy, fixed-size, format */
+		private boolean write_version1=false;
+		private int recordsPerBlock=ReadNameIndex.DEFAULT_RECORDS_PER_BLOCK;
 
 		
 		private void indexBamFile(File bamFile) throws IOException
@@ -153,6 +156,20 @@ public class BamIndexReadNames
 			File indexFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
 			
 			info("Writing index "+indexFile);
+			if(!this.write_version1)
+				{
+				final ReadNameIndex.Writer w=new ReadNameIndex.Writer(indexFile, this.recordsPerBlock);
+				final CloseableIterator<NameAndPos> iter2=sorting.iterator();
+				while(iter2.hasNext())
+					{
+					final NameAndPos nap=iter2.next();
+					w.add(nap.name, nap.tid, nap.pos);
+					}
+				iter2.close();
+				w.close();
+				sorting.cleanup();
+				return;
+				}
 			FileOutputStream raf=new FileOutputStream(indexFile);
 			
 			ByteBuffer byteBuff= ByteBuffer.allocate(8+4);
@@ -199,6 +216,8 @@ public class BamIndexReadNames
 	@Override
 	public void printOptions(java.io.PrintStream out)
 		{
+		out.println(" -1 write the legacy (version 1) index format: fixed-size records. Default is version 2: front-coded blocks of names.");
+		out.println(" -n (int) number of names per block in version 2. Default: "+this.recordsPerBlock);
 		super.printOptions(out);
 		}
 	
@@ -207,10 +226,12 @@ public class BamIndexReadNames
 		{
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+""))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"1n:"))!=-1)
 			{
 			switch(c)
 				{
+				case '1': this.write_version1=true;break;
+				case 'n': this.recordsPerBlock=Math.max(1,Integer.parseInt(opt.getOptArg()));break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt,args))
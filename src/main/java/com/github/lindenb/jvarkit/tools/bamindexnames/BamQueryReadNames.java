@@ -29,6 +29,7 @@ History:
 
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
@@ -45,9 +46,11 @@ import htsjdk.tribble.readers.LineIterator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -55,8 +58,7 @@ import com.github.lindenb.jvarkit.io.NullOuputStream;
 
 public class BamQueryReadNames extends BaseBamIndexReadNames
 	{
-	private RandomAccessFile raf;
-	private NameIndexDef indexDef;
+	private ReadNameIndex nameIndex;
 
 	private BamQueryReadNames()
 		{
@@ -73,62 +75,155 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 		}
 	
 	
-	private NameAndPos getNameAndPosAt(long index)
-		throws IOException
+	/** a line of the user's list of read names */
+	private static class Query
 		{
-		long fileoffset=FILE_PREFIX_SIZE//header
-					+ index*(this.indexDef.sizeOfNameAndPos());
-		
-		ByteBuffer byteBuff= ByteBuffer.allocate( indexDef.sizeOfNameAndPos());
-		this.raf.seek(fileoffset);
-		this.raf.readFully(byteBuff.array());
-		
-		NameAndPos nap=new NameAndPos();
-		
-		StringBuilder b=new StringBuilder(indexDef.maxNameLengt);
-		for(int i=0;i< indexDef.maxNameLengt && byteBuff.get(i)!=0;++i)
+		final String line;
+		final String searchRead;
+		final int side;
+		boolean found=false;
+		Query(final String line)
 			{
-			b.append((char)byteBuff.get(i));
+			this.line = line;
+			/* forward or reverse is specified ? */
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.searchRead=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.searchRead=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.searchRead=line;
+				}
+			}
+		boolean accept(final SAMRecord rec)
+			{
+			if(!rec.getReadName().equals(this.searchRead)) return false;
+			if(this.side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
+				{
+				return false;
+				}
+			else if(this.side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
+				{
+				return false;
+				}
+			return true;
 			}
-		nap.name=b.toString();
-		byteBuff.position( indexDef.maxNameLengt);
-		nap.tid=byteBuff.getInt();
-		nap.pos=byteBuff.getInt();
-		return nap;
-		
 		}
 	
-	private long lower_bound(long first, long last, final String readName) throws IOException
+	/** batch mode: the names are sorted and merge-joined with the index in one pass,
+	 * then the BAM is scanned once with all the positions found */
+	private void batchQuery(
+			final LineIterator r,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			) throws IOException
 		{
-			long len = last-first;
-			while (len > 0)
+		final List<Query> queries = new ArrayList<>();
+		while(r.hasNext())
 			{
-				long half = len /2;
-				long middle = first + half;
-				String middle_s = getNameAndPosAt(middle).name;
-				
-				if (middle_s.compareTo(readName)<0)
+			final String line=r.next();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			queries.add(new Query(line));
+			}
+		final List<Query> sortedQueries = new ArrayList<>(queries);
+		sortedQueries.sort((A,B)->A.searchRead.compareTo(B.searchRead));
+		info("Number of queries: "+queries.size());
+		
+		/* read name to queries */
+		final Map<String,List<Query>> name2queries = new HashMap<>();
+		/* positions of the mapped reads */
+		final List<QueryInterval> intervals = new ArrayList<>();
+		boolean need_unmapped=false;
+		long index=0L;
+		int i=0;
+		while(i< sortedQueries.size())
+			{
+			final String searchRead = sortedQueries.get(i).searchRead;
+			final List<Query> sameName = new ArrayList<>();
+			while(i< sortedQueries.size() && sortedQueries.get(i).searchRead.equals(searchRead))
+				{
+				sameName.add(sortedQueries.get(i));
+				++i;
+				}
+			index = this.nameIndex.lowerBound(index, searchRead);
+			while(index < this.nameIndex.size())
+				{
+				final NameAndPos nap = this.nameIndex.get(index);
+				if(!nap.name.equals(searchRead)) break;
+				name2queries.put(searchRead, sameName);
+				if(nap.tid<0)
 					{
-					first = middle;
-					++first;
-					len = len - half - 1;
+					need_unmapped=true;
 					}
 				else
 					{
-					len = half;
+					intervals.add(new QueryInterval(nap.tid, nap.pos, nap.pos));
 					}
-				
-
+				++index;
 				}
-			return first;
+			}
+		info("Scanning BAM for "+intervals.size()+" positions");
+		
+		/* a SamReader can only have one open iterator: the second query is opened after the first one is closed */
+		if(!intervals.isEmpty())
+			{
+			scanBatch(sfr.queryOverlapping(QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()]))),name2queries,bamw);
+			}
+		if(need_unmapped)
+			{
+			scanBatch(sfr.queryUnmapped(),name2queries,bamw);
+			}
+		for(final Query q:queries)
+			{
+			if(!q.found) notFoundStream.println(q.line);
+			}
 		}
-
+	
+	/** write the records matching a query, the iterator is closed */
+	private void scanBatch(
+			final SAMRecordIterator iter,
+			final Map<String,List<Query>> name2queries,
+			final SAMFileWriter bamw
+			)
+		{
+		try
+			{
+			while(iter.hasNext())
+				{
+				final SAMRecord rec=iter.next();
+				final List<Query> L = name2queries.get(rec.getReadName());
+				if(L==null) continue;
+				boolean keep=false;
+				for(final Query q:L)
+					{
+					if(!q.accept(rec)) continue;
+					q.found=true;
+					keep=true;
+					}
+				if(keep) bamw.addAlignment(rec);
+				}
+			}
+		finally
+			{
+			iter.close();
+			}
+		}
+	
 	@Override
 	public void printOptions(java.io.PrintStream out)
 		{
 		out.println(" -N (file) save unmatched names here. (Optional)");
 		out.println(" -s user list of read names is sorted. (Optional)");
 		out.println(" -b write binary bam (Optional)");
+		out.println(" -B batch mode: all the names are loaded and sorted, then merge-joined with the index in one pass, and the BAM is scanned once. Output is sorted on coordinate. (Optional)");
 		super.printOptions(out);
 		}
 
@@ -138,13 +233,15 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 		{
 		boolean binary_bam=false;
 		boolean query_reads_is_sorted=false;
+		boolean batch_mode=false;
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"N:sb"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"N:sbB"))!=-1)
 			{
 			switch(c)
 				{
+				case 'B': batch_mode=true;break;
 				case 's': query_reads_is_sorted=true;break;
 				case 'b': binary_bam=true;break;
 				case 'N':
@@ -186,10 +283,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
 			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
+			this.nameIndex=ReadNameIndex.open(nameIdxFile);
 			
 			
 			LineIterator r=null;
@@ -220,119 +314,97 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				}
 			
 			
-			long iter_start = 0L;
-			
-			while(r.hasNext())
+			if(batch_mode)
 				{
-				String line=r.next();
-				String searchRead=null;
-				int side=-1;
-				if(line.isEmpty() || line.startsWith("#")) continue;
-				
-				/* forward or reverse is specified ? */
-				if(line.endsWith("/1"))
-					{
-					side=1;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else if(line.endsWith("/2"))
-					{
-					side=2;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else
-					{
-					side=-1;
-					searchRead=line;
-					}	
-				long index=lower_bound(
-						iter_start,
-						this.indexDef.countReads,
-						searchRead
-						);
-				if(index>=this.indexDef.countReads)
-					{
-					notFoundStream.println(line);
-					continue;
-					}
-				if(query_reads_is_sorted)
-					{
-					iter_start=index;
-					}
+				batchQuery(r, sfr, bamw, notFoundStream);
+				}
+			else
+				{
+				long iter_start = 0L;
 				
-				Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
-				while(index <this.indexDef.countReads )
+				while(r.hasNext())
 					{
-					NameAndPos nap=getNameAndPosAt(index);
-					if(nap.name.compareTo(searchRead)<0)
+					final String line=r.next();
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					final Query query=new Query(line);
+					long index=this.nameIndex.lowerBound(
+							iter_start,
+							query.searchRead
+							);
+					if(index>=this.nameIndex.size())
 						{
-						++index;
+						notFoundStream.println(line);
 						continue;
 						}
-					else if(nap.name.compareTo(searchRead)>0)
-						{
-						break;
-						}
-					SAMRecordIterator iter;
-					if(nap.tid<0)
+					if(query_reads_is_sorted)
 						{
-						iter=sfr.queryUnmapped();
+						iter_start=index;
 						}
-					else
-						{
-						iter=sfr.query(
-							header.getSequence(nap.tid).getSequenceName(),
-							nap.pos,
-							0,
-							true
-							);
-						}
-					while(iter.hasNext())
+					
+					Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
+					while(index <this.nameIndex.size() )
 						{
-						SAMRecord rec=iter.next();
-						if(nap.tid>=0)
+						NameAndPos nap=this.nameIndex.get(index);
+						if(nap.name.compareTo(query.searchRead)<0)
 							{
-							if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
-
-							if(rec.getAlignmentStart()< nap.pos)
-								{
-								continue;
-								}
-							if(rec.getAlignmentStart()> nap.pos)
-								{
-								break;
-								}
+							++index;
+							continue;
+							}
+						else if(nap.name.compareTo(query.searchRead)>0)
+							{
+							break;
 							}
-						if(rec.getReadName().equals(searchRead))
+						SAMRecordIterator iter;
+						if(nap.tid<0)
 							{
-							if(side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
+							iter=sfr.queryUnmapped();
+							}
+						else
+							{
+							iter=sfr.query(
+								header.getSequence(nap.tid).getSequenceName(),
+								nap.pos,
+								0,
+								true
+								);
+							}
+						while(iter.hasNext())
+							{
+							SAMRecord rec=iter.next();
+							if(nap.tid>=0)
 								{
-								continue;
+								if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
+	
+								if(rec.getAlignmentStart()< nap.pos)
+									{
+									continue;
+									}
+								if(rec.getAlignmentStart()> nap.pos)
+									{
+									break;
+									}
 								}
-							else if(side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
+							if(query.accept(rec))
 								{
-								continue;
+								found.add(rec);
 								}
-							found.add(rec);
 							}
+						iter.close();
 						
+						++index;
 						}
-					iter.close();
-					
-					++index;
-					}
-				if(found.isEmpty())
-					{
-					notFoundStream.println(line);
-					}
-				else
-					{
-					for(SAMRecord rec:found)
+					if(found.isEmpty())
 						{
-						bamw.addAlignment(rec);
+						notFoundStream.println(line);
+						}
+					else
+						{
+						for(SAMRecord rec:found)
+							{
+							bamw.addAlignment(rec);
+							}
 						}
 					}
-				
 				}
 			CloserUtil.close(r);
 			
@@ -347,7 +419,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 		finally
 			{
 			CloserUtil.close(notFoundStream);
-			CloserUtil.close(raf);
+			CloserUtil.close(this.nameIndex);
 			CloserUtil.close(sfr);
 			CloserUtil.close(bamw);
 			}
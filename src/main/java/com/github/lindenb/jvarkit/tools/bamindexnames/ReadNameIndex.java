@@ -0,0 +1,458 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+import com.github.lindenb.jvarkit.tools.bamindexnames.BaseBamIndexReadNames.NameAndPos;
+import com.github.lindenb.jvarkit.tools.bamindexnames.BaseBamIndexReadNames.NameIndexDef;
+
+/**
+ * Read-name index sorted on read name.
+ *
+ * Version 1: header (long count, int maxNameLength) followed by fixed-size records: name padded with '\0', int tid, int pos.
+ *
+ * Version 2: header (long VERSION_2_MARKER, long count, int recordsPerBlock, int countBlocks, long directoryOffset),
+ * followed by blocks of 'recordsPerBlock' front-coded records ( byte shared-prefix, byte suffix-length, suffix, int tid, int pos),
+ * followed by the block directory: the offsets of the blocks ( long[countBlocks] ), the offsets of the groups of names ( long[countGroups] )
+ * and the first names of the blocks, front-coded in groups of DIRECTORY_GROUP_SIZE names ( byte shared-prefix, byte suffix-length, suffix ).
+ * The first name of a group is stored in full, so the groups can be binary-searched.
+ * A block never crosses a boundary of SEGMENT_SIZE bytes so each segment can be mapped with a MappedByteBuffer.
+ * The directory is mapped too and is searched in place: nothing is loaded on the heap.
+ */
+abstract class ReadNameIndex implements Closeable
+	{
+	/** a version 1 file starts with the number of reads, which cannot be negative */
+	static final long VERSION_2_MARKER = -2L;
+	static final int V2_HEADER_SIZE = 8 + 8 + 4 + 4 + 8;
+	static final int DEFAULT_RECORDS_PER_BLOCK = 512;
+	static final long SEGMENT_SIZE = 1L<<30;
+	/** number of first names in a front-coded group of the directory */
+	static final int DIRECTORY_GROUP_SIZE = 16;
+	/** the segments overlap so an item of the directory (a long, a group of names) is always in one segment */
+	private static final int SEGMENT_OVERLAP = 1<<16;
+	private static final int MAX_NAME_LENGTH = 255;
+
+	/** number of records in the index */
+	abstract long size();
+
+	/** get the record at the given index */
+	abstract NameAndPos get(long index) throws IOException;
+
+	/** get the index of the first record with name &gt;= readName, starting from 'first' */
+	long lowerBound(long first, final String readName) throws IOException
+		{
+		long len = size()-first;
+		while (len > 0)
+			{
+			final long half = len /2;
+			final long middle = first + half;
+			if (get(middle).name.compareTo(readName)<0)
+				{
+				first = middle;
+				++first;
+				len = len - half - 1;
+				}
+			else
+				{
+				len = half;
+				}
+			}
+		return first;
+		}
+
+	/** open an index, version is detected from the header */
+	static ReadNameIndex open(final File file) throws IOException
+		{
+		final long marker;
+		try(DataInputStream dis=new DataInputStream(new FileInputStream(file))) {
+			marker = dis.readLong();
+			}
+		if(marker==VERSION_2_MARKER)
+			{
+			return new Version2(file);
+			}
+		return new Version1(file);
+		}
+
+	/** legacy padded format, read with a RandomAccessFile */
+	private static class Version1 extends ReadNameIndex
+		{
+		private final RandomAccessFile raf;
+		private final NameIndexDef indexDef=new NameIndexDef();
+		private final byte buffer[];
+
+		Version1(final File file) throws IOException
+			{
+			this.raf = new RandomAccessFile(file, "r");
+			this.indexDef.countReads=raf.readLong();
+			this.indexDef.maxNameLengt=raf.readInt();
+			this.buffer = new byte[this.indexDef.sizeOfNameAndPos()];
+			}
+		@Override
+		long size() {
+			return this.indexDef.countReads;
+			}
+		@Override
+		NameAndPos get(final long index) throws IOException {
+			final long fileoffset=BaseBamIndexReadNames.FILE_PREFIX_SIZE//header
+					+ index*(this.indexDef.sizeOfNameAndPos());
+			this.raf.seek(fileoffset);
+			this.raf.readFully(this.buffer);
+			final ByteBuffer byteBuff= ByteBuffer.wrap(this.buffer);
+			int len=0;
+			while(len< indexDef.maxNameLengt && this.buffer[len]!=0) ++len;
+			final NameAndPos nap=new NameAndPos();
+			nap.name=new String(this.buffer, 0, len, StandardCharsets.US_ASCII);
+			byteBuff.position( indexDef.maxNameLengt);
+			nap.tid=byteBuff.getInt();
+			nap.pos=byteBuff.getInt();
+			return nap;
+			}
+		@Override
+		public void close() throws IOException {
+			this.raf.close();
+			}
+		}
+
+	/** front-coded blocks and directory, memory mapped */
+	private static class Version2 extends ReadNameIndex
+		{
+		private final long countReads;
+		private final int recordsPerBlock;
+		private final int countBlocks;
+		private final int countGroups;
+		/** file offset of the block offsets */
+		private final long blockOffsetsStart;
+		/** file offset of the group offsets */
+		private final long groupOffsetsStart;
+		private final MappedByteBuffer segments[];
+		/** last decoded block */
+		private int cachedBlock = -1;
+		private NameAndPos cachedRecords[] = null;
+
+		Version2(final File file) throws IOException
+			{
+			try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				if(raf.readLong()!=VERSION_2_MARKER) throw new IOException("not a version 2 index "+file);
+				this.countReads = raf.readLong();
+				this.recordsPerBlock = raf.readInt();
+				this.countBlocks = raf.readInt();
+				this.blockOffsetsStart = raf.readLong();
+				this.countGroups = (this.countBlocks + DIRECTORY_GROUP_SIZE - 1)/DIRECTORY_GROUP_SIZE;
+				this.groupOffsetsStart = this.blockOffsetsStart + 8L*this.countBlocks;
+
+				/* map the blocks and the directory */
+				final FileChannel channel = raf.getChannel();
+				final long fileLength = channel.size();
+				final int countSegments = (int)((fileLength + SEGMENT_SIZE - 1)/SEGMENT_SIZE);
+				this.segments = new MappedByteBuffer[countSegments];
+				for(int i=0;i< countSegments;++i)
+					{
+					final long start = i*SEGMENT_SIZE;
+					this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, fileLength-start));
+					}
+				}
+			}
+
+		@Override
+		long size() {
+			return this.countReads;
+			}
+
+		/** @return a buffer positioned at this offset of the file */
+		private ByteBuffer at(final long offset)
+			{
+			final ByteBuffer buf = this.segments[(int)(offset/SEGMENT_SIZE)].duplicate();
+			buf.position((int)(offset%SEGMENT_SIZE));
+			return buf;
+			}
+
+		private long getLong(final long offset)
+			{
+			return at(offset).getLong();
+			}
+
+		private NameAndPos[] decodeBlock(final int blockIndex)
+			{
+			if(blockIndex==this.cachedBlock) return this.cachedRecords;
+			final ByteBuffer buf = at(getLong(this.blockOffsetsStart + 8L*blockIndex));
+			final int n = (int)Math.min(this.recordsPerBlock, this.countReads - ((long)blockIndex)*this.recordsPerBlock);
+			final NameAndPos array[] = new NameAndPos[n];
+			final byte name[] = new byte[MAX_NAME_LENGTH+1];
+			for(int i=0;i< n;++i)
+				{
+				final int shared = buf.get() & 0xFF;
+				final int suffix = buf.get() & 0xFF;
+				buf.get(name, shared, suffix);
+				final NameAndPos nap=new NameAndPos();
+				nap.name = new String(name, 0, shared+suffix, StandardCharsets.US_ASCII);
+				nap.tid = buf.getInt();
+				nap.pos = buf.getInt();
+				array[i]=nap;
+				}
+			this.cachedBlock = blockIndex;
+			this.cachedRecords = array;
+			return array;
+			}
+
+		@Override
+		NameAndPos get(final long index) {
+			final int block = (int)(index/this.recordsPerBlock);
+			return decodeBlock(block)[(int)(index%this.recordsPerBlock)];
+			}
+
+		/** compare the bytes of two ASCII names, same order as String.compareTo */
+		private static int compare(final byte a[],final int alen,final byte b[])
+			{
+			final int n = Math.min(alen, b.length);
+			for(int i=0;i< n;++i)
+				{
+				final int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+				if(d!=0) return d;
+				}
+			return alen - b.length;
+			}
+
+		/** @return the number of blocks whose first name is lower than 'query' */
+		private int countBlocksBefore(final byte query[])
+			{
+			final byte name[] = new byte[MAX_NAME_LENGTH+1];
+			/* binary search on the first name of each group, stored in full */
+			int lo=0;
+			int hi=this.countGroups;
+			while(lo<hi)
+				{
+				final int mid = (lo+hi)>>>1;
+				final ByteBuffer buf = at(getLong(this.groupOffsetsStart + 8L*mid));
+				buf.get();/* shared is always 0 */
+				final int len = buf.get() & 0xFF;
+				buf.get(name, 0, len);
+				if(compare(name,len,query)<0)
+					{
+					lo=mid+1;
+					}
+				else
+					{
+					hi=mid;
+					}
+				}
+			if(lo==0) return 0;
+			/* the first name of group 'lo-1' is lower than query: scan this group */
+			final int group = lo-1;
+			final int firstBlock = group*DIRECTORY_GROUP_SIZE;
+			final int n = Math.min(DIRECTORY_GROUP_SIZE, this.countBlocks - firstBlock);
+			final ByteBuffer buf = at(getLong(this.groupOffsetsStart + 8L*group));
+			int count=0;
+			while(count< n)
+				{
+				final int shared = buf.get() & 0xFF;
+				final int suffix = buf.get() & 0xFF;
+				buf.get(name, shared, suffix);
+				if(compare(name,shared+suffix,query)>=0) break;
+				++count;
+				}
+			return firstBlock + count;
+			}
+
+		/** the mapped directory is used to find the first block, then the block is scanned */
+		@Override
+		long lowerBound(final long first, final String readName) throws IOException {
+			final int lo = countBlocksBefore(readName.getBytes(StandardCharsets.US_ASCII));
+			/* names equal to readName can be at the end of the previous block */
+			long index = Math.max(first, ((long)Math.max(0, lo-1))*this.recordsPerBlock);
+			while(index< this.countReads && get(index).name.compareTo(readName)<0)
+				{
+				++index;
+				}
+			return index;
+			}
+
+		@Override
+		public void close() {
+			this.cachedRecords=null;
+			}
+		}
+
+	/** writes a version 2 index. Records must be added in the order of the read names */
+	static class Writer implements Closeable
+		{
+		private final File file;
+		private final int recordsPerBlock;
+		private final DataOutputStream out;
+		private long filePosition;
+		private long countReads=0L;
+		private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		private final DataOutputStream blockOut = new DataOutputStream(this.blockBytes);
+		/** directory: offset of each block */
+		private long blockOffsets[] = new long[1024];
+		private int countBlocks=0;
+		/** directory: front-coded first names of the blocks, spooled in a temporary file */
+		private final File namesFile;
+		private final DataOutputStream namesOut;
+		private long namesLength=0L;
+		/** directory: offset of each group of names in 'namesFile' */
+		private long groupOffsets[] = new long[64];
+		private byte prevBlockName[]=new byte[0];
+		private int countInBlock=0;
+		private byte prevName[]=new byte[0];
+
+		Writer(final File file,final int recordsPerBlock) throws IOException
+			{
+			this.file = file;
+			this.recordsPerBlock = recordsPerBlock;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			// header, re-written on close
+			this.out.write(new byte[V2_HEADER_SIZE]);
+			this.filePosition = V2_HEADER_SIZE;
+			this.namesFile = File.createTempFile("names.", ".tmp", file.getAbsoluteFile().getParentFile());
+			this.namesFile.deleteOnExit();
+			this.namesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.namesFile)));
+			}
+
+		void add(final String name,final int tid,final int pos) throws IOException
+			{
+			final byte bytes[] = name.getBytes(StandardCharsets.US_ASCII);
+			if(bytes.length>MAX_NAME_LENGTH) throw new IOException("read name too long "+name);
+			int shared=0;
+			if(this.countInBlock==0)
+				{
+				addBlockName(bytes);
+				}
+			else
+				{
+				shared = sharedPrefix(bytes, this.prevName);
+				}
+			this.blockOut.writeByte(shared);
+			this.blockOut.writeByte(bytes.length-shared);
+			this.blockOut.write(bytes, shared, bytes.length-shared);
+			this.blockOut.writeInt(tid);
+			this.blockOut.writeInt(pos);
+			this.prevName = bytes;
+			this.countReads++;
+			this.countInBlock++;
+			if(this.countInBlock==this.recordsPerBlock) flushBlock();
+			}
+
+		private static int sharedPrefix(final byte a[],final byte b[])
+			{
+			final int n = Math.min(a.length, b.length);
+			int shared=0;
+			while(shared< n && a[shared]==b[shared]) ++shared;
+			return shared;
+			}
+
+		/** front-code the first name of a block in the directory */
+		private void addBlockName(final byte bytes[]) throws IOException
+			{
+			final int shared;
+			if(this.countBlocks%DIRECTORY_GROUP_SIZE==0)
+				{
+				final int group = this.countBlocks/DIRECTORY_GROUP_SIZE;
+				if(group==this.groupOffsets.length) this.groupOffsets = Arrays.copyOf(this.groupOffsets, group*2);
+				this.groupOffsets[group] = this.namesLength;
+				shared = 0;
+				}
+			else
+				{
+				shared = sharedPrefix(bytes, this.prevBlockName);
+				}
+			this.namesOut.writeByte(shared);
+			this.namesOut.writeByte(bytes.length-shared);
+			this.namesOut.write(bytes, shared, bytes.length-shared);
+			this.namesLength += 2 + bytes.length - shared;
+			this.prevBlockName = bytes;
+			}
+
+		private void flushBlock() throws IOException
+			{
+			if(this.countInBlock==0) return;
+			this.blockOut.flush();
+			final int len = this.blockBytes.size();
+			// a block never crosses the boundary of a mapped segment
+			final long remain = SEGMENT_SIZE - (this.filePosition % SEGMENT_SIZE);
+			if(len > remain)
+				{
+				for(long i=0;i< remain;++i) this.out.write(0);
+				this.filePosition += remain;
+				}
+			if(this.countBlocks==this.blockOffsets.length) this.blockOffsets = Arrays.copyOf(this.blockOffsets, this.countBlocks*2);
+			this.blockOffsets[this.countBlocks++] = this.filePosition;
+			this.blockBytes.writeTo(this.out);
+			this.filePosition += len;
+			this.blockBytes.reset();
+			this.countInBlock=0;
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			flushBlock();
+			final long directoryOffset = this.filePosition;
+			this.namesOut.close();
+			for(int i=0;i< this.countBlocks;++i)
+				{
+				this.out.writeLong(this.blockOffsets[i]);
+				}
+			final int countGroups = (this.countBlocks + DIRECTORY_GROUP_SIZE - 1)/DIRECTORY_GROUP_SIZE;
+			final long namesStart = directoryOffset + 8L*this.countBlocks + 8L*countGroups;
+			for(int i=0;i< countGroups;++i)
+				{
+				this.out.writeLong(namesStart + this.groupOffsets[i]);
+				}
+			IOUtils.copyTo(this.namesFile, this.out);
+			this.namesFile.delete();
+			this.out.flush();
+			this.out.close();
+			try(RandomAccessFile raf=new RandomAccessFile(this.file, "rw")) {
+				raf.writeLong(VERSION_2_MARKER);
+				raf.writeLong(this.countReads);
+				raf.writeInt(this.recordsPerBlock);
+				raf.writeInt(this.countBlocks);
+				raf.writeLong(directoryOffset);
+				}
+			}
+		}
+	}
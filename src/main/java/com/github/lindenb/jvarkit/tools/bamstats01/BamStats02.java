@@ -36,7 +36,7 @@ import java.util.Collection;
 import java.util.List;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.ObjectCounter;
 import com.github.lindenb.jvarkit.util.illumina.ShortReadName;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
@@ -163,7 +163,7 @@ public class BamStats02
 	
 	private void run(String filename,SamReader r,PrintWriter out)
 		{
-		final Counter<Category> counter=new Counter<>();
+		final ObjectCounter<Category> counter=new ObjectCounter<>();
 		SAMRecordIterator iter=null;
 		try
 			{
@@ -31,13 +31,22 @@ package com.github.lindenb.jvarkit.tools.bamstats04;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.PrintWriter;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
+import com.github.lindenb.jvarkit.util.bio.fasta.IndexedGenome;
+import com.github.lindenb.jvarkit.util.bio.fasta.PackedReference;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -47,10 +56,12 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReader;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 
 /**
 BEGIN_DOC
@@ -103,153 +114,426 @@ public class BamStats04 extends Launcher
 	@Parameter(names={"-R","--ref"},description="Optional REFerence Genome. If set, a column with the GC% will be added")
 	private File faidxFile = null;
 
-	@Override
-		public int doWork(final List<String> args) {
-			if(this.bedFile==null || !this.bedFile.exists()) {
-				return wrapException("undefined option -B");
+	@Parameter(names={"--packed-ref"},description="With -R: the GC% is computed from a 2-bit packed, memory-mapped copy of the reference ('REF"+PackedReference.SUFFIX+"'), created on first use. -R can also be the packed file itself.")
+	private boolean packedReference = false;
+
+	@Parameter(names={"--packed-cache"},description="With --packed-ref: directory where the packed reference is created when it is missing or out of date next to the fasta. "
+			+ "Default: next to the fasta if its directory is writable, else ${java.io.tmpdir}.")
+	private File packedCacheDirectory = null;
+
+	@Parameter(names={"--streaming"},description="Single pass mode: the BED must be sorted on the order of the BAM dictionary. "
+			+ "The BAM is walked once (using one multi-interval query if it is indexed) and the coverage of the overlapping targets is filled as the reads go by, "
+			+ "instead of running one query per BED record.")
+	private boolean streaming = false;
+
+	@Parameter(names={"--threads"},description="Number of BAM files processed concurrently when more than one BAM is given. The results are written as one table, in the order of the input BAMs, with an extra first column containing the name of the BAM. "
+			+ "The rows of each BAM are written in a temporary file (see --tmpDir) and appended to the output once the previous BAMs are done.")
+	private int nThreads = 1;
+
+	@Parameter(names={"--tmpDir"},description="Temporary directory")
+	private File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+	/** one record of the BED file */
+	private static class Target
+		{
+		final BedLine bedLine;
+		/** 1-based start */
+		final int start;
+		/** 1-based end, inclusive */
+		final int end;
+		/** GC% column, or empty string */
+		String gcColumn="";
+		Target(final BedLine bedLine)
+			{
+			this.bedLine = bedLine;
+			this.start = bedLine.getStart();
+			this.end = bedLine.getEnd();
+			}
+		int length()
+			{
+			return this.end - this.start + 1;
+			}
+		}
+	
+	/** a target whose coverage is being filled by the streaming mode */
+	private static class ActiveTarget
+		{
+		final int index;
+		final int tid;
+		final Target target;
+		final int counts[];
+		ActiveTarget(final int index,final int tid,final Target target)
+			{
+			this.index = index;
+			this.tid = tid;
+			this.target = target;
+			this.counts = new int[target.length()];
+			}
+		}
+	
+	private boolean acceptRecord(final SAMRecord rec)
+		{
+		if(rec.getReadUnmappedFlag()) return false;
+		if(rec.getReadFailsVendorQualityCheckFlag()) return false;
+		if(rec.getDuplicateReadFlag() ) return false;
+		if(!this.keep_orphans && rec.getReadPairedFlag() && !rec.getProperPairFlag())
+			{
+			return false;
+			}
+		if(rec.isSecondaryOrSupplementary()) return false;
+		if(rec.getMappingQuality()==255 ||
+			rec.getMappingQuality()==0 ||
+			rec.getMappingQuality()< this.MMQ)
+			{
+			return false;
+			}
+		return true;
+		}
+	
+	/** add the depth of 'rec' to counts. counts[0] is the depth at 'start' (1-based) */
+	static void fillCounts(final SAMRecord rec,final int start,final int end,final int counts[])
+		{
+		final Cigar cigar=rec.getCigar();
+		if(cigar==null) return;
+		int refpos1=rec.getAlignmentStart();
+		for(final CigarElement ce:cigar)
+			{
+			final CigarOperator op=ce.getOperator();
+			if(!op.consumesReferenceBases()) continue;
+			if(op.consumesReadBases())
+				{
+				final int b = Math.max(refpos1, start);
+				final int e = Math.min(refpos1+ce.getLength()-1, end);
+				for(int x=b;x<=e;++x)
+					{
+					counts[x-start]++;
+					}
+				}
+			refpos1+=ce.getLength();
+			if(refpos1>end) break;
 			}
-			BufferedReader bedIn=null;
-			SamReader samReader = null;
-			PrintWriter pw = null;
-			IndexedFastaSequenceFile indexedFastaSequenceFile=null;
-			GenomicSequence genomicSequence=null;
-			try
+		}
+	
+	/** format a line of output. Median is computed with a counting histogram */
+	private String formatRow(final Target target,final int counts[])
+		{
+		int min_cov = Integer.MAX_VALUE;
+		int max_cov = 0;
+		int count_no_coverage=0;
+		double mean=0;
+		for(final int cov:counts)
+			{
+			if(cov<=MIN_COVERAGE) ++count_no_coverage;
+			mean+=cov;
+			min_cov = Math.min(min_cov, cov);
+			max_cov = Math.max(max_cov, cov);
+			}
+		mean/=counts.length;
+		
+		final int histogram[]=new int[max_cov-min_cov+1];
+		for(final int cov:counts) histogram[cov-min_cov]++;
+		
+		final double median_depth;
+		final int mid_x= counts.length/2;
+		if(counts.length%2==0)
+			{
+			median_depth = (valueAtRank(histogram,min_cov,mid_x-1)+valueAtRank(histogram,min_cov,mid_x))/2.0;
+			}
+		else
+			{
+			median_depth = valueAtRank(histogram,min_cov,mid_x);
+			}
+		
+		return target.bedLine.getContig()+"\t"+
+				(target.start-1)+"\t"+
+				(target.end)+"\t"+
+				counts.length+"\t"+
+				target.gcColumn+
+				min_cov+"\t"+
+				max_cov+"\t"+
+				mean+"\t"+median_depth+"\t"+
+				count_no_coverage+"\t"+
+				(int)(((counts.length-count_no_coverage)/(double)counts.length)*100.0)
+				;
+		}
+	
+	/** return the value at the 0-based 'rank' of the sorted values described by 'histogram' */
+	private static int valueAtRank(final int histogram[],final int offset,final int rank)
+		{
+		int n=0;
+		for(int i=0;i< histogram.length;++i)
+			{
+			n+=histogram[i];
+			if(rank < n) return offset+i;
+			}
+		throw new IllegalStateException("rank "+rank);
+		}
+	
+	/** default mode: one query per BED record */
+	private void scanByQuery(final SamReader samReader,final List<Target> targets,final Consumer<String> out)
+		{
+		for(final Target target:targets)
+			{
+			final int counts[]=new int[target.length()];
+			/**
+			 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
+			 *	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
+			 */
+			final SAMRecordIterator r=samReader.queryOverlapping(
+					target.bedLine.getContig(),
+					target.start,
+					target.end
+					);
+			while(r.hasNext())
 				{
-				
-				final BedLineCodec codec= new BedLineCodec();
-				
-				bedIn=IOUtils.openFileForBufferedReading(this.bedFile);
-				samReader = super.openSamReader(oneFileOrNull(args));
-				if(this.faidxFile!=null) {
-					indexedFastaSequenceFile = new IndexedFastaSequenceFile(this.faidxFile);
+				final SAMRecord rec=r.next();
+				if(!acceptRecord(rec)) continue;
+				if(!rec.getReferenceName().equals(target.bedLine.getContig())) continue;
+				fillCounts(rec,target.start,target.end,counts);
 				}
-				pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-				pw.println("#chrom\tstart\tend\tlength\t"+
-					(indexedFastaSequenceFile==null?"":"gc_percent\t")+
-					"mincov\tmaxcov\tmeancov\tmediancov\tnocoveragebp\tpercentcovered");
+			r.close();
+			out.accept(formatRow(target,counts));
+			}
+		}
 	
+	/** streaming mode: walk the BAM once with a window of active targets */
+	private void scanBySweep(final SamReader samReader,final List<Target> targets,final Consumer<String> out)
+		{
+		final SAMSequenceDictionary dict = samReader.getFileHeader().getSequenceDictionary();
+		final int tids[]=new int[targets.size()];
+		for(int i=0;i< targets.size();++i)
+			{
+			final Target target = targets.get(i);
+			tids[i] = dict.getSequenceIndex(target.bedLine.getContig());
+			if(tids[i]<0) throw new JvarkitException.ContigNotFound("Contig "+target.bedLine.getContig()+" not found in BAM dictionary");
+			if(i>0 && (tids[i-1]>tids[i] || (tids[i-1]==tids[i] && targets.get(i-1).start>target.start)))
+				{
+				throw new JvarkitException.UserError("BED is not sorted on the BAM dictionary order: "+target.bedLine.join());
+				}
+			}
+		/* finished rows, printed as soon as all the previous rows are known */
+		final String rows[]=new String[targets.size()];
+		final int emitIndex[]=new int[]{0};
+		final Consumer<ActiveTarget> finish = T->{
+			rows[T.index] = formatRow(T.target, T.counts);
+			while(emitIndex[0] < rows.length && rows[emitIndex[0]]!=null)
+				{
+				out.accept(rows[emitIndex[0]]);
+				rows[emitIndex[0]]=null;
+				emitIndex[0]++;
+				}
+			};
+		
+		final SAMRecordIterator iter;
+		if(!samReader.hasIndex() && samReader.getFileHeader().getSortOrder()!=SAMFileHeader.SortOrder.coordinate)
+			{
+			throw new JvarkitException.UserError("--streaming requires an indexed BAM or a BAM sorted on coordinate. Sort order is "+samReader.getFileHeader().getSortOrder());
+			}
+		if(samReader.hasIndex())
+			{
+			final QueryInterval intervals[]=new QueryInterval[targets.size()];
+			for(int i=0;i< targets.size();++i)
+				{
+				intervals[i]=new QueryInterval(tids[i], targets.get(i).start, targets.get(i).end);
+				}
+			iter = samReader.queryOverlapping(QueryInterval.optimizeIntervals(intervals));
+			}
+		else
+			{
+			iter = samReader.iterator();
+			}
+		
+		final List<ActiveTarget> active = new ArrayList<>();
+		int next=0;
+		int prevTid=-1;
+		int prevStart=0;
+		while(iter.hasNext())
+			{
+			final SAMRecord rec = iter.next();
+			if(!acceptRecord(rec)) continue;
+			final int tid = rec.getReferenceIndex();
+			final int start = rec.getAlignmentStart();
+			final int end = rec.getAlignmentEnd();
+			/* the header may claim a sort order that is not true: the depths would be silently wrong */
+			if(tid < prevTid || (tid==prevTid && start < prevStart))
+				{
+				iter.close();
+				throw new JvarkitException.UserError("BAM is not sorted on coordinate, got "+rec.getReadName()+" at "+rec.getContig()+":"+start);
+				}
+			prevTid = tid;
+			prevStart = start;
 			
-				String line=null;
-				while((line=bedIn.readLine())!=null)
+			/* targets that cannot be reached by this read or the following ones */
+			int i=0;
+			while(i< active.size())
+				{
+				final ActiveTarget at = active.get(i);
+				if(at.tid < tid || at.target.end < start)
+					{
+					finish.accept(at);
+					active.remove(i);
+					}
+				else
+					{
+					++i;
+					}
+				}
+			/* targets starting before the end of this read */
+			while(next < targets.size() && (tids[next] < tid || (tids[next]==tid && targets.get(next).start <= end)))
+				{
+				final ActiveTarget at = new ActiveTarget(next, tids[next], targets.get(next));
+				if(at.tid < tid || at.target.end < start)
+					{
+					finish.accept(at);
+					}
+				else
+					{
+					active.add(at);
+					}
+				next++;
+				}
+			for(final ActiveTarget at:active)
+				{
+				if(at.target.start > end) continue;
+				fillCounts(rec, at.target.start, at.target.end, at.counts);
+				}
+			}
+		iter.close();
+		for(final ActiveTarget at:active) finish.accept(at);
+		while(next < targets.size())
+			{
+			finish.accept(new ActiveTarget(next, tids[next], targets.get(next)));
+			next++;
+			}
+		}
+	
+	private void scan(final SamReader samReader,final List<Target> targets,final Consumer<String> out)
+		{
+		if(this.streaming)
+			{
+			scanBySweep(samReader, targets, out);
+			}
+		else
+			{
+			scanByQuery(samReader, targets, out);
+			}
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		if(this.bedFile==null || !this.bedFile.exists()) {
+			return wrapException("undefined option -B");
+			}
+		BufferedReader bedIn=null;
+		PrintWriter pw = null;
+		IndexedGenome indexedGenome=null;
+		GenomicSequence genomicSequence=null;
+		ExecutorService executor = null;
+		final List<File> tmpFiles = Collections.synchronizedList(new ArrayList<>());
+		try
+			{
+			final BedLineCodec codec= new BedLineCodec();
+			if(this.faidxFile!=null) {
+				indexedGenome = IndexedGenome.build().
+						setGenomeFile(this.faidxFile).
+						setPacked(this.packedReference).
+						setPackedCacheDirectory(this.packedCacheDirectory).
+						make();
+				}
+			
+			final List<Target> targets = new ArrayList<>();
+			bedIn=IOUtils.openFileForBufferedReading(this.bedFile);
+			String line=null;
+			while((line=bedIn.readLine())!=null)
+				{
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				final BedLine bedLine = codec.decode(line);
+				if(bedLine==null) continue;
+				/* picard javadoc:  - Sequence name - Start position (1-based) - End position (1-based, end inclusive)  */
+				final Target target = new Target(bedLine);
+				if(target.length()<=0) continue;
+				if(indexedGenome!=null)
 					{
-					if(line.isEmpty() || line.startsWith("#")) continue;
-					final BedLine bedLine = codec.decode(line);
-					if(bedLine==null) continue;
 					if(genomicSequence==null || !genomicSequence.getChrom().equals(bedLine.getContig())) {
-						genomicSequence = new GenomicSequence(indexedFastaSequenceFile, bedLine.getContig());
+						genomicSequence = indexedGenome.getSequence(bedLine.getContig());
 						}
-					
-					/* picard javadoc:  - Sequence name - Start position (1-based) - End position (1-based, end inclusive)  */
-					
-					
-					final int counts[]=new int[bedLine.getEnd()-bedLine.getStart()+1];
-					if(counts.length==0) continue;
-					Arrays.fill(counts, 0);
-					
-					/**
-					 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
-		    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
-					 */
-					final SAMRecordIterator r=samReader.queryOverlapping(
-							bedLine.getContig(),
-							bedLine.getStart(),
-							bedLine.getEnd()
-							);
-					while(r.hasNext())
-						{
-						final SAMRecord rec=r.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-						if(rec.getDuplicateReadFlag() ) continue;
-						if(!this.keep_orphans && rec.getReadPairedFlag() && !rec.getProperPairFlag())
-							{
-							continue;
-							}
-						if(rec.isSecondaryOrSupplementary()) continue;
-						if(!rec.getReferenceName().equals(bedLine.getContig())) continue;
-						if(rec.getMappingQuality()==255 ||
-							rec.getMappingQuality()==0 ||
-							rec.getMappingQuality()< this.MMQ)
-							{
-							continue;
+					target.gcColumn = String.valueOf((genomicSequence.getGCPercent(target.start-1,target.end)).getGCPercentAsInteger())+"\t";
+					}
+				targets.add(target);
+				}
+			bedIn.close();
+			bedIn=null;
+			genomicSequence=null;
+			
+			pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			final String header = "#chrom\tstart\tend\tlength\t"+
+					(indexedGenome==null?"":"gc_percent\t")+
+					"mincov\tmaxcov\tmeancov\tmediancov\tnocoveragebp\tpercentcovered";
+			
+			if(args.size()<=1)
+				{
+				pw.println(header);
+				final PrintWriter out=pw;
+				try(final SamReader samReader = super.openSamReader(oneFileOrNull(args))) {
+					scan(samReader,targets,S->out.println(S));
+					}
+				}
+			else
+				{
+				pw.println("#bam\t"+header.substring(1));
+				executor = Executors.newFixedThreadPool(Math.max(1, this.nThreads));
+				final List<Future<File>> results = new ArrayList<>(args.size());
+				for(final String bam: args)
+					{
+					results.add(executor.submit(()->{
+						/* the rows are not kept in memory until the previous BAMs are done */
+						final File tmpFile = File.createTempFile("bamstats04.", ".tsv", this.tmpDir);
+						tmpFiles.add(tmpFile);
+						try(final SamReader samReader = super.openSamReader(bam);
+							final PrintWriter rows = IOUtils.openFileForPrintWriter(tmpFile)) {
+							scan(samReader,targets,S->rows.println(bam+"\t"+S));
+							rows.flush();
+							if(rows.checkError()) throw new java.io.IOException("Cannot write "+tmpFile);
 							}
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null) continue;
-			    		int refpos1=rec.getAlignmentStart();
-			    		for(final CigarElement ce:cigar)
-			    			{
-			    			final CigarOperator op=ce.getOperator();
-			    			if(!op.consumesReferenceBases()) continue;
-			    			if(op.consumesReadBases())
-			    				{
-			    				for(int i=0;i< ce.getLength();++i)
-		    		    			{
-									if(refpos1+i>= bedLine.getStart() && refpos1+i<=bedLine.getEnd())
-										{
-										counts[refpos1+i-bedLine.getStart()]++;
-										}
-				    				}
-			    				}
-			    			refpos1+=ce.getLength();
-			    			if(refpos1>bedLine.getEnd()) break;
-			    			}
-						}
-					
-					r.close();
-					
-					Arrays.sort(counts);
-					
-					int count_no_coverage=0;
-					double mean=0;
-					for(final int cov:counts)
-						{
-						if(cov<=MIN_COVERAGE) ++count_no_coverage;
-						mean+=cov;
-						}
-					mean/=counts.length;
-					
-	                final double median_depth;
-	                final int mid_x= counts.length/2;
-	                if(counts.length%2==0)
-	                        {
-	                        median_depth =  (counts[mid_x-1]+counts[mid_x])/2.0;
-	                        }
-	                else
-	                        {
-	                        median_depth =  counts[mid_x];
-	                        }
-	
-					
-					pw.println(
-							bedLine.getContig()+"\t"+
-							(bedLine.getStart()-1)+"\t"+
-							(bedLine.getEnd())+"\t"+
-							counts.length+"\t"+
-							(genomicSequence==null?
-								"":
-								String.valueOf((genomicSequence.getGCPercent(bedLine.getStart()-1,bedLine.getEnd())).getGCPercentAsInteger())+"\t")+
-							counts[0]+"\t"+
-							counts[counts.length-1]+"\t"+
-							mean+"\t"+median_depth+"\t"+
-							count_no_coverage+"\t"+
-							(int)(((counts.length-count_no_coverage)/(double)counts.length)*100.0)
-							);
+						return tmpFile;
+						}));
+					}
+				/* results are written in the order of the input */
+				for(final Future<File> future:results)
+					{
+					final File tmpFile = future.get();
+					IOUtils.copyTo(tmpFile, pw);
+					tmpFile.delete();
+					if(pw.checkError()) break;
 					}
-				pw.flush();
-				pw.close();pw=null;
-				LOG.info("done");
-				return RETURN_OK;
 				}
+			pw.flush();
+			pw.close();pw=null;
+			LOG.info("done");
+			return RETURN_OK;
+			}
 		catch(final Exception err)
 			{
 			return wrapException(err);
 			}
 		finally
 			{
-			CloserUtil.close(indexedFastaSequenceFile);
+			if(executor!=null)
+				{
+				executor.shutdownNow();
+				try
+					{
+					executor.awaitTermination(1, TimeUnit.MINUTES);
+					}
+				catch(final InterruptedException err)
+					{
+					Thread.currentThread().interrupt();
+					}
+				}
+			for(final File tmpFile:tmpFiles) tmpFile.delete();
+			if(indexedGenome!=null) indexedGenome.close();
 			CloserUtil.close(pw);
 			CloserUtil.close(bedIn);
-			CloserUtil.close(samReader);
 			}
 		}
 	
@@ -44,10 +44,14 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import htsjdk.samtools.util.CloserUtil;
@@ -69,6 +73,12 @@ public class VcfDerby01
 	private Connection conn=null;
 	private static final String VCF_HEADER_FILE_ID="##VcfDerby01VcfId=";
 	private static final String VCF_HEADER_FILE_NAME="##VcfDerby01VcfName=";
+	/** foreign keys of VCFROW. They're dropped during a bulk load and re-created at the end */
+	private static final String VCFROW_CONSTRAINTS[]={
+		"ALTER TABLE VCFROW ADD CONSTRAINT row2vcf FOREIGN KEY (VCF_ID) REFERENCES VCF",
+		"ALTER TABLE VCFROW ADD CONSTRAINT row2content FOREIGN KEY (ROW_ID) REFERENCES ROWCONTENT"
+		};
+	private int number_of_ref_allele_truncated=0;
 	public VcfDerby01()
 		{
 		}
@@ -136,7 +146,9 @@ public class VcfDerby01
 				final String sqls[]={
 						"CREATE TABLE ROWCONTENT("+tableId+",MD5SUM CHAR(32) UNIQUE,CONTENT CLOB,CONTIG VARCHAR(20),FILTERED SMALLINT NOT NULL,START INT,STOP INT,ALLELE_REF VARCHAR("+MAX_REF_BASE_LENGTH+"))",
 						"CREATE TABLE VCF("+tableId+",NAME VARCHAR(255))",
-						"CREATE TABLE VCFROW("+tableId+",VCF_ID INTEGER CONSTRAINT row2vcf REFERENCES VCF,ROW_ID INTEGER CONSTRAINT row2content REFERENCES ROWCONTENT)"
+						"CREATE TABLE VCFROW("+tableId+",VCF_ID INTEGER,ROW_ID INTEGER)",
+						VCFROW_CONSTRAINTS[0],
+						VCFROW_CONSTRAINTS[1]
 						};
 				for(final String sql:sqls) {
 					LOG.warn(sql);
@@ -484,12 +496,311 @@ public class VcfDerby01
 	}
 
 	
+	/** fill the parameters of 'INSERT INTO ROWCONTENT' . ctx is null for the header lines */
+	private void fillRowContent(final PreparedStatement pstmt,final String md5,final String line,final VariantContext ctx) throws SQLException {
+		pstmt.setString(1, md5);
+		pstmt.setString(2,line);
+		if(ctx==null) {
+			pstmt.setNull(3,Types.VARCHAR);
+			pstmt.setNull(4,Types.INTEGER);
+			pstmt.setNull(5,Types.INTEGER);
+			pstmt.setNull(6,Types.VARCHAR);
+			pstmt.setShort(7, (short)1);
+			}
+		else
+			{
+			pstmt.setString(3, ctx.getContig());
+			pstmt.setInt(4, ctx.getStart());
+			pstmt.setInt(5, ctx.getEnd());
+			String refBase =ctx.getReference().getBaseString();
+			/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
+			if(refBase.length()>50) {
+				LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
+				refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
+				++number_of_ref_allele_truncated;
+			}
+			pstmt.setString(6,refBase );
+			pstmt.setShort(7, (short)(ctx.isFiltered()?1:0));
+			}
+		}
+	
+	private static final String SQL_INSERT_ROWCONTENT = "INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED) VALUES (?,?,?,?,?,?,?)";
+	
+	/** inserts the lines of the VCFs in ROWCONTENT and VCFROW */
+	private abstract class RowWriter implements AutoCloseable {
+		/** insert a line. decoder is null for the header lines, it is only invoked if the content is new */
+		abstract void add(long vcf_id,String line,Supplier<VariantContext> decoder) throws SQLException;
+		/** called after the last line */
+		abstract void finish() throws SQLException;
+		@Override
+		public abstract void close();
+		}
+	
+	/** one query per line, the connection is in auto-commit mode */
+	private class SimpleRowWriter extends RowWriter {
+		private final PreparedStatement pstmt;
+		private final PreparedStatement pstmt2;
+		private final PreparedStatement pstmt3;
+		SimpleRowWriter() throws SQLException {
+			this.pstmt = conn.prepareStatement("SELECT ID FROM ROWCONTENT WHERE MD5SUM=?");
+			this.pstmt2 = conn.prepareStatement(SQL_INSERT_ROWCONTENT,PreparedStatement.RETURN_GENERATED_KEYS);
+			this.pstmt3 = conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
+			}
+		@Override
+		void add(final long vcf_id,final String line,final Supplier<VariantContext> decoder) throws SQLException {
+			final String md5 = md5(line);
+			long content_id = -1L;
+			this.pstmt.setString(1, md5);
+			final ResultSet row = this.pstmt.executeQuery();
+			while(row.next()) {
+				content_id = row.getLong(1);
+			}
+			row.close();
+			/* vcf content was not found, create it */
+			if(content_id==-1L) {
+				fillRowContent(this.pstmt2, md5, line, decoder==null?null:decoder.get());
+				if(this.pstmt2.executeUpdate()!=1) {
+					throw new SQLException("Cannot insert ROWCONTENT ?");
+				}
+				content_id =getLastGeneratedId(this.pstmt2);
+			}
+			
+			/* insert new VCF row */
+			this.pstmt3.setLong(1, vcf_id);
+			this.pstmt3.setLong(2, content_id);
+			if(this.pstmt3.executeUpdate()!=1) {
+				throw new SQLException("Cannot insert VCFROW ?");
+			}
+			}
+		@Override
+		void finish() {
+			}
+		@Override
+		public void close() {
+			CloserUtil.close(this.pstmt);
+			CloserUtil.close(this.pstmt2);
+			CloserUtil.close(this.pstmt3);
+			}
+		}
+	
+	/** simple bloom filter of md5 checksums */
+	private static class Md5BloomFilter {
+		private final long bits[];
+		private final long mask;
+		Md5BloomFilter(final long expectedCount) {
+			long n = 1L<<20;
+			/* about 16 bits per item */
+			while(n < expectedCount*16L && n < (1L<<34)) n<<=1;
+			this.bits = new long[(int)(n>>>6)];
+			this.mask = n-1L;
+			}
+		/** the md5 is already a hash: use its two halves as the hashes of a double hashing */
+		private long hash(final String md5,final int i) {
+			final long h1 = Long.parseUnsignedLong(md5.substring(0,16),16);
+			final long h2 = Long.parseUnsignedLong(md5.substring(16,32),16);
+			return (h1 + i * h2) & this.mask;
+			}
+		void add(final String md5) {
+			for(int i=0;i< 4;++i) {
+				final long h = hash(md5,i);
+				this.bits[(int)(h>>>6)] |= (1L<<(h&63));
+				}
+			}
+		boolean mightContain(final String md5) {
+			for(int i=0;i< 4;++i) {
+				final long h = hash(md5,i);
+				if((this.bits[(int)(h>>>6)] & (1L<<(h&63)))==0L) return false;
+				}
+			return true;
+			}
+		}
+	
+	/** bulk load: auto-commit is off, the inserts are sent with executeBatch and committed every 'batchSize' lines.
+	 * The MD5 of the known contents are kept in a bounded cache, behind a bloom filter.
+	 * The foreign keys of VCFROW are dropped during the load and re-created at the end.
+	 */
+	private class BulkRowWriter extends RowWriter {
+		private final PreparedStatement selectMd5;
+		private final PreparedStatement insertContent;
+		private final PreparedStatement insertRow;
+		private final PreparedStatement selectNewContents;
+		private final Md5BloomFilter bloom;
+		/** LRU cache md5 to ROWCONTENT.ID */
+		private final Map<String, Long> md5ToId;
+		/** max ROWCONTENT.ID before the current batch */
+		private long lastContentId;
+		/** the contents inserted in the current batch, their ID is not known yet */
+		private final Map<String,Long> pendingContents = new HashMap<>();
+		/* the pending VCFROW: the ID of the content or -1 and its md5 */
+		private final List<Long> pendingVcfIds = new ArrayList<>();
+		private final List<Long> pendingRowIds = new ArrayList<>();
+		private final List<String> pendingRowMd5 = new ArrayList<>();
+		private boolean constraintsDropped=false;
+		
+		BulkRowWriter() throws SQLException {
+			final int cacheSize = Math.max(1,VcfDerby01.this.md5CacheSize);
+			this.md5ToId = new LinkedHashMap<String, Long>(cacheSize,0.75f,true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+					return size() > cacheSize;
+					}
+				};
+			conn.setAutoCommit(false);
+			
+			/* fill the bloom filter and the cache with the existing contents */
+			long count = 0L;
+			this.lastContentId = 0L;
+			try(Statement stmt=conn.createStatement()) {
+				try(ResultSet row=stmt.executeQuery("SELECT COUNT(*),MAX(ID) FROM ROWCONTENT")) {
+					while(row.next()) {
+						count = row.getLong(1);
+						this.lastContentId = row.getLong(2);
+						}
+					}
+				this.bloom = new Md5BloomFilter(count + cacheSize);
+				try(ResultSet row=stmt.executeQuery("SELECT ID,MD5SUM FROM ROWCONTENT")) {
+					while(row.next()) {
+						final String md5 = row.getString(2);
+						this.bloom.add(md5);
+						if(this.md5ToId.size()< cacheSize) this.md5ToId.put(md5, row.getLong(1));
+						}
+					}
+				LOG.info("Bulk load: "+count+" existing contents.");
+				
+				/* drop the foreign keys */
+				for(final String constraint:new String[]{"ROW2VCF","ROW2CONTENT"}) {
+					final boolean exists;
+					try(ResultSet row=stmt.executeQuery("SELECT COUNT(*) FROM SYS.SYSCONSTRAINTS WHERE CONSTRAINTNAME='"+constraint+"'")) {
+						exists = row.next() && row.getInt(1)>0;
+						}
+					if(exists) {
+						LOG.info("dropping constraint "+constraint);
+						stmt.execute("ALTER TABLE VCFROW DROP CONSTRAINT "+constraint);
+						}
+					}
+				}
+			conn.commit();
+			this.constraintsDropped = true;
+			
+			this.selectMd5 = conn.prepareStatement("SELECT ID FROM ROWCONTENT WHERE MD5SUM=?");
+			this.insertContent = conn.prepareStatement(SQL_INSERT_ROWCONTENT);
+			this.insertRow = conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
+			this.selectNewContents = conn.prepareStatement("SELECT ID,MD5SUM FROM ROWCONTENT WHERE ID > ?");
+			}
+		
+		private long findContentId(final String md5) throws SQLException {
+			final Long id = this.md5ToId.get(md5);
+			if(id!=null) return id;
+			if(this.pendingContents.containsKey(md5)) return -1L;
+			/* definitely not in the database */
+			if(!this.bloom.mightContain(md5)) return -2L;
+			long content_id = -2L;
+			this.selectMd5.setString(1, md5);
+			try(ResultSet row = this.selectMd5.executeQuery()) {
+				while(row.next()) {
+					content_id = row.getLong(1);
+					}
+				}
+			if(content_id>0L) this.md5ToId.put(md5, content_id);
+			return content_id;
+			}
+		
+		@Override
+		void add(final long vcf_id,final String line,final Supplier<VariantContext> decoder) throws SQLException {
+			final String md5 = md5(line);
+			long content_id = findContentId(md5);
+			/* new content */
+			if(content_id==-2L) {
+				fillRowContent(this.insertContent, md5, line, decoder==null?null:decoder.get());
+				this.insertContent.addBatch();
+				this.pendingContents.put(md5, -1L);
+				this.bloom.add(md5);
+				content_id = -1L;
+				}
+			this.pendingVcfIds.add(vcf_id);
+			this.pendingRowIds.add(content_id);
+			this.pendingRowMd5.add(content_id==-1L?md5:null);
+			if(this.pendingVcfIds.size() >= VcfDerby01.this.bulkBatchSize) {
+				flush();
+				}
+			}
+		
+		private void flush() throws SQLException {
+			if(this.pendingVcfIds.isEmpty()) return;
+			if(!this.pendingContents.isEmpty()) {
+				this.insertContent.executeBatch();
+				/* get the ID of the new contents. we're the only writer of this embedded database. */
+				this.selectNewContents.setLong(1, this.lastContentId);
+				try(ResultSet row = this.selectNewContents.executeQuery()) {
+					while(row.next()) {
+						final long id = row.getLong(1);
+						final String md5 = row.getString(2);
+						this.lastContentId = Math.max(this.lastContentId, id);
+						if(this.pendingContents.containsKey(md5)) this.pendingContents.put(md5, id);
+						this.md5ToId.put(md5, id);
+						}
+					}
+				}
+			for(int i=0;i< this.pendingVcfIds.size();++i) {
+				long content_id = this.pendingRowIds.get(i);
+				if(content_id==-1L) {
+					content_id = this.pendingContents.get(this.pendingRowMd5.get(i));
+					if(content_id==-1L) throw new SQLException("Cannot find ID of inserted ROWCONTENT "+this.pendingRowMd5.get(i));
+					}
+				this.insertRow.setLong(1, this.pendingVcfIds.get(i));
+				this.insertRow.setLong(2, content_id);
+				this.insertRow.addBatch();
+				}
+			this.insertRow.executeBatch();
+			conn.commit();
+			this.pendingContents.clear();
+			this.pendingVcfIds.clear();
+			this.pendingRowIds.clear();
+			this.pendingRowMd5.clear();
+			}
+		
+		/** re-create the foreign keys of VCFROW */
+		private void restoreConstraints() throws SQLException {
+			if(!this.constraintsDropped) return;
+			this.constraintsDropped = false;
+			try(Statement stmt=conn.createStatement()) {
+				for(final String sql:VCFROW_CONSTRAINTS) {
+					LOG.info(sql);
+					stmt.execute(sql);
+					}
+				}
+			conn.commit();
+			}
+		
+		@Override
+		void finish() throws SQLException {
+			flush();
+			restoreConstraints();
+			}
+		
+		@Override
+		public void close() {
+			CloserUtil.close(this.selectMd5);
+			CloserUtil.close(this.insertContent);
+			CloserUtil.close(this.insertRow);
+			CloserUtil.close(this.selectNewContents);
+			try {
+				conn.rollback();
+				restoreConstraints();
+				}
+			catch(final SQLException err) {
+				LOG.error("Cannot restore the constraints of VCFROW", err);
+				}
+			try { conn.setAutoCommit(true);}
+			catch(final SQLException err) {}
+			}
+		}
+	
 	private Collection<Throwable> doReadConcatenatedVcf(){
-		int number_of_ref_allele_truncated=0;
+		this.number_of_ref_allele_truncated=0;
 		PreparedStatement pstmt = null;
-		PreparedStatement pstmt2 = null;
-		PreparedStatement pstmt3 = null;
-		ResultSet row = null;
+		RowWriter rowWriter = null;
 		PrintWriter pw = null;
 		final List<String> args = new ArrayList<>(IOUtils.unrollFiles(getInputFiles()));
 		LOG.info(args.toString());
@@ -504,6 +815,7 @@ public class VcfDerby01
 			
 			pw = openFileOrStdoutAsPrintWriter();
 			pw.println("#ID\tNAME");
+			rowWriter = (super.bulkLoad?new BulkRowWriter():new SimpleRowWriter());
 
 			do
 			{
@@ -551,93 +863,18 @@ public class VcfDerby01
 					pw.println(filename);
 					pw.flush();
 					
-					pstmt = this.conn.prepareStatement("SELECT ID FROM ROWCONTENT WHERE MD5SUM=?");
-					pstmt2 = this.conn.prepareStatement("INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED) VALUES (?,?,?,?,?,?,?)",PreparedStatement.RETURN_GENERATED_KEYS);
-					pstmt3 = this.conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
-					pstmt3.setLong(1, vcf_id);
-					
 					final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(cah.header);
 					/* insert VCF header lines */
 					for(final String line:headerLines) {
-						final String md5=super.md5(line);
-						long content_id = -1L;
-						pstmt.setString(1, md5);
-						row = pstmt.executeQuery();
-						while(row.next()) {
-							content_id = row.getLong(1);
-						}
-						row.close();				
-						
-						/* vcf content was not found, create it */
-						if(content_id==-1L) {
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setNull(3,Types.VARCHAR);
-							pstmt2.setNull(4,Types.INTEGER);
-							pstmt2.setNull(5,Types.INTEGER);
-							pstmt2.setNull(6,Types.VARCHAR);
-							pstmt2.setShort(7, (short)1);
-							if(pstmt2.executeUpdate()!=1) {
-								return wrapException("Cannot insert ROWCONTENT ?");
-							}
-							content_id =getLastGeneratedId(pstmt2);
-						}
-						
-						/* insert new VCF row */
-						pstmt3.setLong(2, content_id);
-						if(pstmt3.executeUpdate()!=1) {
-							return wrapException("Cannot insert VCFROW ?");
-						}
+						rowWriter.add(vcf_id, line, null);
 					}
 					
 					LOG.info("Inserted "+filename+" ID="+vcf_id);
 					while(lineIter.hasNext() && !lineIter.peek().startsWith("#")) {
 						final String line = lineIter.next();
-						final String md5 = super.md5(line);
-						
-						long content_id = -1L;
-						pstmt.setString(1, md5);
-						row = pstmt.executeQuery();
-						while(row.next()) {
-							content_id = row.getLong(1);
-						}
-						row.close();
-						/* vcf variants content was not found, create it */
-						if(content_id==-1L) {
-							/* decode to get chrom/start/end/ref */
-							final VariantContext ctx = progress.watch(cah.codec.decode(line));
-							
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setString(3, ctx.getContig());
-							pstmt2.setInt(4, ctx.getStart());
-							pstmt2.setInt(5, ctx.getEnd());
-							String refBase =ctx.getReference().getBaseString();
-							/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
-							if(refBase.length()>50) {
-								LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
-								refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
-								++number_of_ref_allele_truncated;
-							}
-							pstmt2.setString(6,refBase );
-							pstmt2.setShort(7, (short)(ctx.isFiltered()?1:0));
-							if(pstmt2.executeUpdate()!=1) {
-								return wrapException("Cannot insert ROWCONTENT ?");
-							}
-							content_id =getLastGeneratedId(pstmt2);
-						}
-						
-						/* insert new VCF row */
-						pstmt3.setLong(2, content_id);
-						if(pstmt3.executeUpdate()!=1) {
-							return wrapException("Cannot insert VCFROW ?");
-						}
+						/* decode to get chrom/start/end/ref */
+						rowWriter.add(vcf_id, line, ()->progress.watch(cah.codec.decode(line)));
 					}
-					pstmt2.close();
-					pstmt3.close();
-					pstmt.close();
 					progress.finish();
 					num_vcf_in_this_stream++;
 					} /* end of while iter has next */
@@ -645,6 +882,9 @@ public class VcfDerby01
 				lineIter=null;
 				fileidx++;
 			} while(fileidx < args.size());
+			rowWriter.finish();
+			rowWriter.close();
+			rowWriter=null;
 			
 			pw.flush();
 			pw.close();
@@ -656,10 +896,8 @@ public class VcfDerby01
 			return wrapException(e);
 		} finally {
 			CloserUtil.close(pw);
-			CloserUtil.close(row);
 			CloserUtil.close(pstmt);
-			CloserUtil.close(pstmt2);
-			CloserUtil.close(pstmt3);
+			CloserUtil.close(rowWriter);
 			CloserUtil.close(lineIter);
 		}
 	}
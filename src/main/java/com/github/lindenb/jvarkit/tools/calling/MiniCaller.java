@@ -69,7 +69,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.ObjectCounter;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -185,7 +185,7 @@ public class MiniCaller extends AbstractMiniCaller
             for(int sample_index=0;sample_index <
                     samples.size();++sample_index)
                 {
-                Counter<Allele> count_alleles = new Counter<Allele>();
+                ObjectCounter<Allele> count_alleles = new ObjectCounter<Allele>();
                 int dp4[]=new int[]{0,0,0,0};
 
                 for(Base2 v2: this.bases)
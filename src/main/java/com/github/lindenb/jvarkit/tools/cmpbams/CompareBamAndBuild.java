@@ -37,6 +37,12 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.IntervalUtils;
@@ -51,7 +57,6 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.util.SortingCollection;
 
 
 public class CompareBamAndBuild  extends AbstractCompareBamAndBuild
@@ -272,10 +277,137 @@ public class CompareBamAndBuild  extends AbstractCompareBamAndBuild
     	}
    
 
+	/** scan one BAM and write its records in the buckets */
+	private class BamScan implements Callable<Void>
+		{
+		private final int bamIndex;
+		private final SamReader samFileReader;
+		private final Interval interval;
+		private final ReadNameBuckets<Match>.Writer writer;
+		BamScan(final int bamIndex,final SamReader samFileReader,final Interval interval,final ReadNameBuckets<Match>.Writer writer)
+			{
+			this.bamIndex=bamIndex;
+			this.samFileReader=samFileReader;
+			this.interval=interval;
+			this.writer=writer;
+			}
+		@Override
+		public Void call() throws Exception
+			{
+			SAMRecordIterator iter=null;
+			try
+				{
+				if(interval==null)
+					{
+					iter=samFileReader.iterator();
+					}
+				else
+					{
+					iter=samFileReader.queryOverlapping(interval.getContig(), interval.getStart(), interval.getEnd());
+					}
+				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sequenceDictionaries[bamIndex]);
+				while(iter.hasNext() )
+					{
+					final SAMRecord rec=progress.watch(iter.next());
+					
+					if(rec.isSecondaryOrSupplementary()) continue;
+					
+					final Match m=new Match();
+					m.flag = rec.getFlags();
+					m.readName = rec.getReadName();
+					m.firstBamFile = bamIndex==0;
+					if(rec.getReadUnmappedFlag())
+						{
+						m.tid=-1;
+						m.pos=-1;
+						}
+					else
+						{
+						m.tid=rec.getReferenceIndex();
+						m.pos=rec.getAlignmentStart();
+						}
+					writer.add(m);
+					}
+				progress.finish();
+				LOG.info("Close "+bamFiles[bamIndex]);
+				return null;
+				}
+			finally
+				{
+				CloserUtil.close(iter);
+				CloserUtil.close(writer);
+				CloserUtil.close(samFileReader);
+				}
+			}
+		}
+	
+	/** compare the records of one bucket, sorted on read-name */
+	private void compareBucket(final CloseableIterator<Match> iter,final PrintWriter out)
+		{
+		/* create an array of set<Match> */
+		final MatchComparator match_comparator=new MatchComparator();
+		final List<Set<Match>> matches=new ArrayList<Set<CompareBamAndBuild.Match>>(2);
+		while(matches.size() < 2)
+			{
+			matches.add(new TreeSet<CompareBamAndBuild.Match>(match_comparator));
+			}
+		
+		String currReadName=null;
+		int curr_num_in_pair=-1;
+		for(;;)
+			{
+			Match nextMatch = null;
+			if(iter.hasNext())
+				{
+				nextMatch = iter.next();
+				}
+			if(nextMatch==null ||
+				(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
+				(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.indexInPair()))
+				{
+				if(currReadName!=null)
+					{
+					out.print(currReadName);
+					if(curr_num_in_pair>0)
+						{
+						out.print("/");
+						out.print(curr_num_in_pair);
+						}
+					out.print("\t");
+					
+					if(same(matches.get(0),matches.get(1)))
+						{
+						out.print("EQ");
+						}
+					else
+						{
+						out.print("NE");
+						}
+					
+
+					for(int x=0;x<2;++x)
+						{
+						out.print("\t");
+						print(out,matches.get(x));
+						}
+					
+					out.println();
+					}
+				if(nextMatch==null) break;
+				for(final Set<Match> set:matches) set.clear();
+				}
+			currReadName=nextMatch.readName;
+			curr_num_in_pair=nextMatch.indexInPair();
+			matches.get(nextMatch.firstBamFile?0:1).add(nextMatch);
+			}
+		}
+
 	@Override
 	public Collection<Throwable> call() throws Exception {
 		PrintWriter out = null;
-		SortingCollection<Match> database = null;
+		ReadNameBuckets<Match> buckets = null;
+		final List<SamReader> samFileReaders=new ArrayList<>(2);
+		ExecutorService executor=null;
 		if(super.chainFile==null) {
 			return wrapException("Chain file is not defined Option -"+OPTION_CHAINFILE);
 			}
@@ -286,22 +418,27 @@ public class CompareBamAndBuild  extends AbstractCompareBamAndBuild
 			{
 			return wrapException("Illegal number of arguments. Expected two indexed BAMS.");
 			}
+		if(super.nThreads<1)
+			{
+			return wrapException("Bad number of threads "+super.nThreads);
+			}
 			
 		try
 				{
 				LOG.info("load chain file");
 				this.liftOver=new LiftOver(super.chainFile);
-				database = SortingCollection.newInstance(
+				buckets = new ReadNameBuckets<>(
 						Match.class,
 						new MatchCodec(),
 						new MatchOrdererInSortingCollection(),
+						M->M.readName,
+						2,
+						super.nBuckets,
 						super.getMaxRecordsInRam(),
 						super.getTmpDirectories()
 						);
 				
-				database.setDestructiveIteration(true);
-		
-				
+				final Interval intervals[]=new Interval[2];
 				for(int currentSamFileIndex=0;
 						currentSamFileIndex<2;
 						currentSamFileIndex++ )
@@ -309,69 +446,42 @@ public class CompareBamAndBuild  extends AbstractCompareBamAndBuild
 					final File samFile=new File(args.get(currentSamFileIndex));
 					LOG.info("read "+samFile);
 					this.bamFiles[currentSamFileIndex]=samFile;
-					SamReader samFileReader=SamFileReaderFactory.mewInstance().open(samFile);
+					final SamReader samFileReader=SamFileReaderFactory.mewInstance().open(samFile);
+					samFileReaders.add(samFileReader);
 					final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
 					this.sequenceDictionaries[currentSamFileIndex]=dict;
 					if(dict.isEmpty())
 						{
-						samFileReader.close();
 						return wrapException("Empty Dict  in "+samFile);
 						}
 					
 				
-					final Interval interval;
 					if(REGION!=null)
 						{
-						interval=IntervalUtils.parseOne(dict, REGION);
-						if(interval==null)
+						intervals[currentSamFileIndex]=IntervalUtils.parseOne(dict, REGION);
+						if(intervals[currentSamFileIndex]==null)
 							{
-							samFileReader.close();
 							return wrapException("Cannot parse "+REGION+" (bad syntax or not in dictionary");
 							}
 						}
-					else
-						{
-						interval = null;
-						}
-					
-					final SAMRecordIterator iter;
-					if(interval==null)
-						{
-						iter=samFileReader.iterator();
-						}
-					else
-						{
-						iter=samFileReader.queryOverlapping(interval.getContig(), interval.getStart(), interval.getEnd());
-						}
-					final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
-					while(iter.hasNext() )
-						{
-						final SAMRecord rec=progress.watch(iter.next());
-						
-						if(rec.isSecondaryOrSupplementary()) continue;
-						
-						final Match m=new Match();
-						m.flag = rec.getFlags();
-						m.readName = rec.getReadName();
-						m.firstBamFile = currentSamFileIndex==0;
-						if(rec.getReadUnmappedFlag())
-							{
-							m.tid=-1;
-							m.pos=-1;
-							}
-						else
-							{
-							m.tid=rec.getReferenceIndex();
-							m.pos=rec.getAlignmentStart();
-							}
-						database.add(m);
-						}
-					iter.close();
-					samFileReader.close();
-					samFileReader=null;
-					LOG.info("Close "+samFile);
 					}
-				database.doneAdding();
+				
+				/* partition the records of both bams on read name, the bams are read concurrently */
+				executor = Executors.newFixedThreadPool(super.nThreads);
+				final List<Future<Void>> scans=new ArrayList<>(2);
+				for(int currentSamFileIndex=0;
+						currentSamFileIndex<2;
+						currentSamFileIndex++ )
+					{
+					scans.add(executor.submit(new BamScan(
+							currentSamFileIndex,
+							samFileReaders.get(currentSamFileIndex),
+							intervals[currentSamFileIndex],
+							buckets.openWriter(currentSamFileIndex)
+							)));
+					}
+				for(final Future<Void> scan:scans) scan.get();
+				samFileReaders.clear();
 				LOG.info("Writing results....");
 				
 				out = super.openFileOrStdoutAsPrintWriter();
@@ -384,76 +494,31 @@ public class CompareBamAndBuild  extends AbstractCompareBamAndBuild
 					}
 				out.println();
 				
-				/* create an array of set<Match> */
-				final MatchComparator match_comparator=new MatchComparator();
-				final List<Set<Match>> matches=new ArrayList<Set<CompareBamAndBuild.Match>>(2);
-				while(matches.size() < 2)
-					{
-					matches.add(new TreeSet<CompareBamAndBuild.Match>(match_comparator));
-					}
+				/* compare each bucket, the reads of a bucket are written in read-name order */
+				buckets.compare(executor, super.nThreads, this::compareBucket, out);
 				
-				CloseableIterator<Match> iter=database.iterator();
-				String currReadName=null;
-				int curr_num_in_pair=-1;
-				for(;;)
-					{
-					Match nextMatch = null;
-					if(iter.hasNext())
-						{
-						nextMatch = iter.next();
-						}
-					if(nextMatch==null ||
-						(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
-						(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.indexInPair()))
-						{
-						if(currReadName!=null)
-							{
-							out.print(currReadName);
-							if(curr_num_in_pair>0)
-								{
-								out.print("/");
-								out.print(curr_num_in_pair);
-								}
-							out.print("\t");
-							
-							if(same(matches.get(0),matches.get(1)))
-								{
-								out.print("EQ");
-								}
-							else
-								{
-								out.print("NE");
-								}
-							
-		
-							for(int x=0;x<2;++x)
-								{
-								out.print("\t");
-								print(out,matches.get(x));
-								}
-							
-							out.println();
-							}
-						if(nextMatch==null) break;
-						for(final Set<Match> set:matches) set.clear();
-						}
-					currReadName=nextMatch.readName;
-					curr_num_in_pair=nextMatch.indexInPair();
-					matches.get(nextMatch.firstBamFile?0:1).add(nextMatch);
-					}
-				
-				iter.close();
 				out.flush();
 				out.close();
-				database.cleanup();
 				return RETURN_OK;
 				}
+			catch(final ExecutionException err)
+				{
+				return wrapException(err.getCause());
+				}
 			catch(final Exception err)
 				{
 				return wrapException(err);
 				}
 			finally
 				{
+				if(executor!=null)
+					{
+					executor.shutdownNow();
+					try { executor.awaitTermination(1, TimeUnit.MINUTES);}
+					catch(final InterruptedException err) { Thread.currentThread().interrupt();}
+					}
+				if(buckets!=null) buckets.close();
+				for(final SamReader r:samFileReaders) CloserUtil.close(r);
 				CloserUtil.close(out);
 				this.liftOver=null;
 				}
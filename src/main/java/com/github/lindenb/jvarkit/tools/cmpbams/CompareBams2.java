@@ -39,6 +39,13 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.samtools.SAMSequenceDictionaryHelper;
@@ -52,7 +59,6 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 
 public class CompareBams2  extends AbstractCompareBams2
@@ -213,22 +219,22 @@ public class CompareBams2  extends AbstractCompareBams2
 		return compare(chrom1,chrom2);
 		}
 	
-	private void print(final Set<Match> set,final SAMSequenceDictionary dict)
+	private void print(final PrintWriter out,final Set<Match> set,final SAMSequenceDictionary dict)
 		{
 		boolean first=true;
 		for(Match m:set)
 			{
-			if(!first)this.out.print(',');
+			if(!first)out.print(',');
 			first=false;
-			if(m.tid<0){ this.out.print("unmapped"); continue;}
+			if(m.tid<0){ out.print("unmapped"); continue;}
 			final SAMSequenceRecord ssr=(dict==null?null:dict.getSequence(m.tid));
 			String seqName=(ssr==null?null:ssr.getSequenceName());
 			if(seqName==null) seqName="tid"+m.tid;
-			this.out.print(String.valueOf(seqName+":"+(m.pos)));
-			if(super.useSamFlag) this.out.print("="+m.flag);
-			if(super.useCigar) this.out.print("/"+m.cigar);
+			out.print(String.valueOf(seqName+":"+(m.pos)));
+			if(super.useSamFlag) out.print("="+m.flag);
+			if(super.useCigar) out.print("/"+m.cigar);
 			}
-		if(first) this.out.print("(empty)");
+		if(first) out.print("(empty)");
 		}
 	
 	
@@ -285,68 +291,26 @@ public class CompareBams2  extends AbstractCompareBams2
 			}
 		}
 
-	private Collection<Throwable> doWork()
+	/** scan one BAM and write its records in the buckets */
+	private class BamScan implements Callable<Void>
 		{
-		SortingCollection<Match> database = null;
-		SamReader samFileReader=null;
-		CloseableIterator<Match> iter=null;
-		try
+		private final int bamIndex;
+		private final SamReader samFileReader;
+		private final Optional<Interval> interval;
+		private final ReadNameBuckets<Match>.Writer writer;
+		BamScan(final int bamIndex,final SamReader samFileReader,final Optional<Interval> interval,final ReadNameBuckets<Match>.Writer writer)
 			{
-			if(this.IN.size() <2)
-				{
-				return wrapException("Need more bams please");
-				}
-			
-			database = SortingCollection.newInstance(
-					Match.class,
-					new MatchCodec(),
-					new MatchOrderer(),
-					super.getMaxRecordsInRam(),
-					super.getTmpDirectories()
-					);
-			this.samSequenceDictAreTheSame=true;
-			database.setDestructiveIteration(true);
-	
-			
-			for(int currentSamFileIndex=0;
-					currentSamFileIndex<this.IN.size();
-					currentSamFileIndex++ )
+			this.bamIndex=bamIndex;
+			this.samFileReader=samFileReader;
+			this.interval=interval;
+			this.writer=writer;
+			}
+		@Override
+		public Void call() throws Exception
+			{
+			SAMRecordIterator it=null;
+			try
 				{
-				File samFile=this.IN.get(currentSamFileIndex);
-				LOG.info("Opening "+samFile);
-				samFileReader= super.createSamReaderFactory().open(samFile);
-				final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
-				if(dict==null || dict.isEmpty())
-					{
-					return wrapException("Empty Dict  in "+samFile);
-					}
-				
-				if(!this.sequenceDictionaries.isEmpty() && !SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
-					{
-					this.samSequenceDictAreTheSame=false;
-					LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
-					}
-				this.sequenceDictionaries.add(dict);
-				
-				
-				final Optional<Interval> interval;
-				if(REGION!=null && !REGION.trim().isEmpty())
-					{
-					final SAMSequenceDictionaryHelper dix = new SAMSequenceDictionaryHelper();
-					interval = dix.parseInterval(REGION);
-					
-					if(!interval.isPresent())
-						{
-						return wrapException("Cannot parse "+REGION+" (bad syntax or not in dictionary)");
-						}
-					}
-				else
-					{
-					interval = Optional.empty();
-					}
-				
-				
-				SAMRecordIterator it=null;
 				if(!interval.isPresent())
 					{
 					it=samFileReader.iterator();
@@ -359,13 +323,13 @@ public class CompareBams2  extends AbstractCompareBams2
 							interval.get().getEnd()
 							);
 					}
-				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
+				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sequenceDictionaries.get(bamIndex));
 				while(it.hasNext() )
 					{
 					final SAMRecord rec=progress.watch(it.next());
 					if(!rec.getReadUnmappedFlag())
 						{
-						if(rec.getMappingQuality() < this.min_mapq) continue;
+						if(rec.getMappingQuality() < min_mapq) continue;
 						if(rec.isSecondaryOrSupplementary()) continue;
 						}
 					final Match m=new Match();
@@ -378,7 +342,7 @@ public class CompareBams2  extends AbstractCompareBams2
 						m.num_in_pair=0;
 						}
 					m.readName=rec.getReadName();
-					m.bamIndex=currentSamFileIndex;
+					m.bamIndex=bamIndex;
 					m.flag=rec.getFlags();
 					m.cigar=rec.getCigarString();
 					if(m.cigar==null ) m.cigar="";
@@ -392,14 +356,174 @@ public class CompareBams2  extends AbstractCompareBams2
 						m.tid=rec.getReferenceIndex();
 						m.pos=rec.getAlignmentStart();
 						}
-					database.add(m);
+					writer.add(m);
+					}
+				progress.finish();
+				LOG.info("Close "+IN.get(bamIndex));
+				return null;
+				}
+			finally
+				{
+				CloserUtil.close(it);
+				CloserUtil.close(writer);
+				CloserUtil.close(samFileReader);
+				}
+			}
+		}
+	
+	/** compare the records of one bucket, sorted on read-name */
+	private void compareBucket(final CloseableIterator<Match> iter,final PrintWriter out)
+		{
+		/* create an array of set<Match> */
+		final MatchComparator match_comparator=new MatchComparator();
+		final List<Set<Match>> matches=new ArrayList<Set<CompareBams2.Match>>(this.IN.size());
+		while(matches.size() < this.IN.size())
+			{
+			matches.add(new TreeSet<CompareBams2.Match>(match_comparator));
+			}
+		
+		String currReadName=null;
+		int curr_num_in_pair=-1;
+		for(;;)
+			{
+			Match nextMatch = null;
+			if(iter.hasNext())
+				{
+				nextMatch = iter.next();
+				}
+			if(nextMatch==null ||
+				(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
+				(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.num_in_pair))
+				{
+				if(currReadName!=null)
+					{
+					out.print(currReadName);
+					if(curr_num_in_pair>0)
+						{
+						out.print("/");
+						out.print(curr_num_in_pair);
+						}
+					out.print("\t");
+					
+					
+					for(int x=0;x<this.IN.size();++x)
+						{
+						final Set<Match> first=matches.get(x);
+						for(int y=x+1;y<this.IN.size();++y)
+							{
+							if(!(x==0 && y==1)) out.print("|");
+							Set<Match> second=matches.get(y);
+							if(same(first,second))
+								{
+								out.print("EQ");
+								}
+							else
+								{
+								out.print("NE");
+								}
+							}
+						}
+
+					for(int x=0;x<this.IN.size();++x)
+						{
+						out.print("\t");
+						print(out,matches.get(x),sequenceDictionaries.get(x));
+						}
+					
+					out.println();
 					}
-				it.close();
-				samFileReader.close();
-				samFileReader=null;
-				LOG.info("Close "+samFile);
+				if(nextMatch==null) break;
+				for(Set<Match> set:matches) set.clear();
 				}
-			database.doneAdding();
+			currReadName=nextMatch.readName;
+			curr_num_in_pair=nextMatch.num_in_pair;
+			matches.get(nextMatch.bamIndex).add(nextMatch);
+			}
+		}
+	
+	private Collection<Throwable> doWork()
+		{
+		ReadNameBuckets<Match> buckets = null;
+		final List<SamReader> samFileReaders=new ArrayList<>();
+		ExecutorService executor=null;
+		try
+			{
+			if(this.IN.size() <2)
+				{
+				return wrapException("Need more bams please");
+				}
+			if(this.nThreads<1)
+				{
+				return wrapException("Bad number of threads "+this.nThreads);
+				}
+			
+			buckets = new ReadNameBuckets<>(
+					Match.class,
+					new MatchCodec(),
+					new MatchOrderer(),
+					M->M.readName,
+					this.IN.size(),
+					super.nBuckets,
+					super.getMaxRecordsInRam(),
+					super.getTmpDirectories()
+					);
+			this.samSequenceDictAreTheSame=true;
+			
+			final Optional<Interval> interval;
+			if(REGION!=null && !REGION.trim().isEmpty())
+				{
+				final SAMSequenceDictionaryHelper dix = new SAMSequenceDictionaryHelper();
+				interval = dix.parseInterval(REGION);
+				
+				if(!interval.isPresent())
+					{
+					return wrapException("Cannot parse "+REGION+" (bad syntax or not in dictionary)");
+					}
+				}
+			else
+				{
+				interval = Optional.empty();
+				}
+			
+			/* read the dictionaries before scanning the bams */
+			for(int currentSamFileIndex=0;
+					currentSamFileIndex<this.IN.size();
+					currentSamFileIndex++ )
+				{
+				File samFile=this.IN.get(currentSamFileIndex);
+				LOG.info("Opening "+samFile);
+				final SamReader samFileReader= super.createSamReaderFactory().open(samFile);
+				samFileReaders.add(samFileReader);
+				final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
+				if(dict==null || dict.isEmpty())
+					{
+					return wrapException("Empty Dict  in "+samFile);
+					}
+				
+				if(!this.sequenceDictionaries.isEmpty() && !SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
+					{
+					this.samSequenceDictAreTheSame=false;
+					LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
+					}
+				this.sequenceDictionaries.add(dict);
+				}
+			
+			/* partition the records of all the bams on read name, the bams are read concurrently */
+			executor = Executors.newFixedThreadPool(this.nThreads);
+			final List<Future<Void>> scans=new ArrayList<>(this.IN.size());
+			for(int currentSamFileIndex=0;
+					currentSamFileIndex<this.IN.size();
+					currentSamFileIndex++ )
+				{
+				scans.add(executor.submit(new BamScan(
+						currentSamFileIndex,
+						samFileReaders.get(currentSamFileIndex),
+						interval,
+						buckets.openWriter(currentSamFileIndex)
+						)));
+				}
+			for(final Future<Void> scan:scans) scan.get();
+			samFileReaders.clear();
 			LOG.info("Writing results....");
 			
 			this.out = super.openFileOrStdoutAsPrintWriter();
@@ -422,86 +546,30 @@ public class CompareBams2  extends AbstractCompareBams2
 				}
 			this.out.println();
 			
-			/* create an array of set<Match> */
-			final MatchComparator match_comparator=new MatchComparator();
-			final List<Set<Match>> matches=new ArrayList<Set<CompareBams2.Match>>(this.IN.size());
-			while(matches.size() < this.IN.size())
-				{
-				matches.add(new TreeSet<CompareBams2.Match>(match_comparator));
-				}
-			
-			iter = database.iterator();
-			String currReadName=null;
-			int curr_num_in_pair=-1;
-			for(;;)
-				{
-				Match nextMatch = null;
-				if(iter.hasNext())
-					{
-					nextMatch = iter.next();
-					}
-				if(nextMatch==null ||
-					(currReadName!=null && !currReadName.equals(nextMatch.readName)) ||
-					(curr_num_in_pair!=-1 && curr_num_in_pair!=nextMatch.num_in_pair))
-					{
-					if(currReadName!=null)
-						{
-						this.out.print(currReadName);
-						if(curr_num_in_pair>0)
-							{
-							this.out.print("/");
-							this.out.print(curr_num_in_pair);
-							}
-						this.out.print("\t");
-						
-						
-						for(int x=0;x<this.IN.size();++x)
-							{
-							final Set<Match> first=matches.get(x);
-							for(int y=x+1;y<this.IN.size();++y)
-								{
-								if(!(x==0 && y==1)) this.out.print("|");
-								Set<Match> second=matches.get(y);
-								if(same(first,second))
-									{
-									this.out.print("EQ");
-									}
-								else
-									{
-									this.out.print("NE");
-									}
-								}
-							}
-	
-						for(int x=0;x<this.IN.size();++x)
-							{
-							this.out.print("\t");
-							print(matches.get(x),sequenceDictionaries.get(x));
-							}
-						
-						this.out.println();
-						}
-					if(nextMatch==null) break;
-					for(Set<Match> set:matches) set.clear();
-					}
-				currReadName=nextMatch.readName;
-				curr_num_in_pair=nextMatch.num_in_pair;
-				matches.get(nextMatch.bamIndex).add(nextMatch);
-				if(this.out.checkError()) break;
-				}
+			/* compare each bucket, the reads of a bucket are written in read-name order */
+			buckets.compare(executor, this.nThreads, this::compareBucket, this.out);
 			
-			iter.close();
 			this.out.flush();
 			return RETURN_OK;
 			}
+		catch(final ExecutionException err)
+			{
+			return wrapException(err.getCause());
+			}
 		catch(final Exception err)
 			{
 			return wrapException(err);
 			}
 		finally
 			{
-			if(database!=null) database.cleanup();
-			CloserUtil.close(samFileReader);
+			if(executor!=null)
+				{
+				executor.shutdownNow();
+				try { executor.awaitTermination(1, TimeUnit.MINUTES);}
+				catch(final InterruptedException err) { Thread.currentThread().interrupt();}
+				}
+			if(buckets!=null) buckets.close();
+			for(final SamReader r:samFileReaders) CloserUtil.close(r);
 			CloserUtil.close(this.out);this.out=null;
 			}
 		}
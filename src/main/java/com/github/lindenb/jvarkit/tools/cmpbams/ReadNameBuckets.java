@@ -0,0 +1,328 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.cmpbams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * Partition the records of several BAMs on the hash of their read name
+ * into temporary files ('buckets'): all the records of a read end in the same bucket.
+ * Each bucket is then sorted and compared independently of the others, so there is no global sort
+ * of the records and the buckets can be processed in parallel.
+ *
+ * Each input has its own files, so the inputs can be written concurrently, one {@link Writer} per thread.
+ */
+class ReadNameBuckets<T> implements Closeable
+	{
+	private static final int BUFFER_SIZE=65536;
+
+	/** compares the records of one bucket, sorted on read name */
+	interface BucketComparator<T>
+		{
+		public void compare(final CloseableIterator<T> sortedRecords,final PrintWriter out) throws Exception;
+		}
+
+	private final Class<T> clazz;
+	private final AbstractDataCodec<T> codec;
+	private final Comparator<T> orderer;
+	private final Function<T,String> readNameExtractor;
+	private final int maxRecordsInRam;
+	private final List<File> tmpDirs;
+	/** files[input][bucket] */
+	private final File files[][];
+	/** counts[input][bucket] */
+	private final long counts[][];
+
+	ReadNameBuckets(
+		final Class<T> clazz,
+		final AbstractDataCodec<T> codec,
+		final Comparator<T> orderer,
+		final Function<T,String> readNameExtractor,
+		final int nInputs,
+		final int nBuckets,
+		final int maxRecordsInRam,
+		final List<File> tmpDirs
+		)
+		{
+		if(nBuckets<1) throw new IllegalArgumentException("bad number of buckets "+nBuckets);
+		if(tmpDirs==null || tmpDirs.isEmpty()) throw new IllegalArgumentException("no tmp directory");
+		this.clazz=clazz;
+		this.codec=codec;
+		this.orderer=orderer;
+		this.readNameExtractor=readNameExtractor;
+		this.maxRecordsInRam=maxRecordsInRam;
+		this.tmpDirs=tmpDirs;
+		this.files=new File[nInputs][nBuckets];
+		this.counts=new long[nInputs][nBuckets];
+		}
+
+	public int getBucketCount()
+		{
+		return this.counts[0].length;
+		}
+
+	private int bucketOf(final T record)
+		{
+		final int h=this.readNameExtractor.apply(record).hashCode()*0x9E3779B9;
+		return (int)((h & 0xFFFFFFFFL)%getBucketCount());
+		}
+
+	/** writes the records of one input, not thread safe */
+	class Writer implements Closeable
+		{
+		private final int inputIndex;
+		private final DataOutputStream streams[];
+		Writer(final int inputIndex)
+			{
+			this.inputIndex=inputIndex;
+			this.streams=new DataOutputStream[getBucketCount()];
+			}
+		public void add(final T record) throws IOException
+			{
+			final int bucket=bucketOf(record);
+			if(this.streams[bucket]==null)
+				{
+				final File f=File.createTempFile("cmpbams.", ".bucket", tmpDirs.get(0));
+				f.deleteOnExit();
+				files[this.inputIndex][bucket]=f;
+				this.streams[bucket]=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),BUFFER_SIZE));
+				}
+			codec.encode(this.streams[bucket],record);
+			counts[this.inputIndex][bucket]++;
+			}
+		@Override
+		public void close() throws IOException
+			{
+			for(final DataOutputStream dos:this.streams)
+				{
+				if(dos!=null) dos.close();
+				}
+			}
+		}
+
+	public Writer openWriter(final int inputIndex)
+		{
+		return new Writer(inputIndex);
+		}
+
+	/** read the records of a bucket, sorted with the orderer. The files of the bucket are deleted. */
+	private CloseableIterator<T> sortedIterator(final int bucket,final int maxRecordsInRam) throws IOException
+		{
+		long total=0L;
+		for(int i=0;i< this.counts.length;++i) total+=this.counts[i][bucket];
+
+		if(total<=maxRecordsInRam)
+			{
+			final List<T> records=new ArrayList<>((int)total);
+			readBucket(bucket,records::add);
+			records.sort(this.orderer);
+			final Iterator<T> iter=records.iterator();
+			return new CloseableIterator<T>()
+				{
+				@Override
+				public boolean hasNext() { return iter.hasNext(); }
+				@Override
+				public T next() { return iter.next(); }
+				@Override
+				public void close() { }
+				};
+			}
+		/* bucket is too large: fall back to a sorting collection */
+		final SortingCollection<T> sorting=SortingCollection.newInstance(
+				this.clazz,
+				this.codec.clone(),
+				this.orderer,
+				maxRecordsInRam,
+				this.tmpDirs
+				);
+		sorting.setDestructiveIteration(true);
+		readBucket(bucket,sorting::add);
+		sorting.doneAdding();
+		final CloseableIterator<T> iter=sorting.iterator();
+		return new CloseableIterator<T>()
+			{
+			@Override
+			public boolean hasNext() { return iter.hasNext(); }
+			@Override
+			public T next() { return iter.next(); }
+			@Override
+			public void close() { iter.close(); sorting.cleanup(); }
+			};
+		}
+
+	private interface RecordConsumer<T>
+		{
+		public void accept(T record) throws IOException;
+		}
+
+	private void readBucket(final int bucket,final RecordConsumer<T> consumer) throws IOException
+		{
+		for(int i=0;i< this.files.length;++i)
+			{
+			final File f=this.files[i][bucket];
+			if(f==null) continue;
+			final DataInputStream dis=new DataInputStream(new BufferedInputStream(new FileInputStream(f),BUFFER_SIZE));
+			try
+				{
+				for(long n=0L;n< this.counts[i][bucket];++n)
+					{
+					consumer.accept(this.codec.decode(dis));
+					}
+				}
+			finally
+				{
+				dis.close();
+				}
+			f.delete();
+			this.files[i][bucket]=null;
+			}
+		}
+
+	/**
+	 * compare each bucket with the executor, the output of each bucket is written
+	 * in the order of the buckets. A bucket is compared into a temporary file, so at most 2*'nWorkers'
+	 * outputs are waiting on disk and the 'nWorkers' buckets being sorted at the same time share 'maxRecordsInRam'.
+	 */
+	public void compare(
+			final ExecutorService executor,
+			final int nWorkers,
+			final BucketComparator<T> comparator,
+			final PrintWriter out) throws Exception
+		{
+		final int maxPending=2*Math.max(1,nWorkers);
+		final int maxRecordsInRamPerBucket=Math.max(1,this.maxRecordsInRam/Math.max(1,nWorkers));
+		final Deque<Future<File>> pending=new ArrayDeque<>();
+		int next=0;
+		try
+			{
+			while(next< getBucketCount() || !pending.isEmpty())
+				{
+				while(next< getBucketCount() && pending.size()< maxPending)
+					{
+					final int bucket=next++;
+					pending.add(executor.submit(()->compareBucket(bucket,maxRecordsInRamPerBucket,comparator)));
+					}
+				final File f=pending.removeFirst().get();
+				try
+					{
+					IOUtils.copyTo(f, out);
+					}
+				finally
+					{
+					f.delete();
+					}
+				if(out.checkError()) break;
+				}
+			}
+		finally
+			{
+			/* remove the outputs that were not written, after the running tasks are done */
+			for(final Future<File> future:pending)
+				{
+				try
+					{
+					future.get().delete();
+					}
+				catch(final Exception err)
+					{
+					/* ignore, already reported by the first failure */
+					}
+				}
+			}
+		}
+
+	/** compare one bucket, @return the temporary file containing the output */
+	private File compareBucket(
+			final int bucket,
+			final int maxRecordsInRamPerBucket,
+			final BucketComparator<T> comparator
+			) throws Exception
+		{
+		final File f=File.createTempFile("cmpbams.", ".out", this.tmpDirs.get(0));
+		f.deleteOnExit();
+		PrintWriter pw=null;
+		CloseableIterator<T> iter=null;
+		boolean ok=false;
+		try
+			{
+			pw=IOUtils.openFileForPrintWriter(f);
+			iter=sortedIterator(bucket,maxRecordsInRamPerBucket);
+			comparator.compare(iter, pw);
+			pw.flush();
+			if(pw.checkError()) throw new IOException("Cannot write "+f);
+			ok=true;
+			return f;
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			CloserUtil.close(pw);
+			if(!ok) f.delete();
+			}
+		}
+
+	/** delete the remaining temporary files */
+	@Override
+	public void close()
+		{
+		for(final File array[]:this.files)
+			{
+			for(int i=0;i< array.length;++i)
+				{
+				if(array[i]!=null) array[i].delete();
+				array[i]=null;
+				}
+			}
+		}
+	}
@@ -28,19 +28,18 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.fastq;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
 
-import htsjdk.samtools.fastq.BasicFastqWriter;
-import htsjdk.samtools.fastq.FastqRecord;
-import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.util.CloserUtil;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.io.NullOuputStream;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 /**
  * FastqSplitInterleaved
@@ -93,17 +92,17 @@ public class FastqSplitInterleaved extends AbstractCommandLineProgram
 					}
 				}
 			}
-		FastqReader r1=null;
-		FastqWriter writers[]={null,null};
+		ByteFastqReader r1=null;
+		OutputStream writers[]={null,null};
 		try
 			{
 			if(opt.getOptInd() == args.length)
 				{
-				r1=new FourLinesFastqReader(System.in);				
+				r1=new ByteFastqReader(System.in);				
 				}
 			else if(opt.getOptInd()+1==args.length)
 				{
-				r1=new FourLinesFastqReader(new File(args[opt.getOptInd()]));				
+				r1=new ByteFastqReader(new File(args[opt.getOptInd()]));				
 				}
 			else
 				{
@@ -121,7 +120,7 @@ public class FastqSplitInterleaved extends AbstractCommandLineProgram
 				{
 				if(fileout[i]==null)
 					{
-					writers[i]=new BasicFastqWriter(new PrintStream(new NullOuputStream()));
+					writers[i]=new NullOuputStream();
 					}
 				else if(fileout[i].equals("-"))
 					{
@@ -131,7 +130,7 @@ public class FastqSplitInterleaved extends AbstractCommandLineProgram
 						}
 					else
 						{
-						writers[i]=new BasicFastqWriter(System.out);
+						writers[i]=new BufferedOutputStream(System.out);
 						}
 					}
 				else
@@ -142,37 +141,32 @@ public class FastqSplitInterleaved extends AbstractCommandLineProgram
 						}
 					else
 						{
-						writers[i]=new BasicFastqWriter(new File(fileout[i]));
+						writers[i]=new BufferedOutputStream(IOUtils.openFileForWriting(new File(fileout[i])));
 						}
 					}
 				}
 
 			
 			
-			FastqRecord records[]={null,null};
+			final MutableFastqRecord records[]={new MutableFastqRecord(),new MutableFastqRecord()};
 			
-			while(r1.hasNext())
+			while(r1.read(records[0]))
 				{
-				records[0]=r1.next();
-				if(!r1.hasNext())
+				if(!r1.read(records[1]))
 					{
 					r1.close();
 					r1=null;
 					throw new IOException(getMessageBundle("fastq.paired.read.missing"));
 					}
-				records[1]=r1.next();
 				
 				for(int i=0;i< 2;++i)
 					{
-					writers[i].write(records[i]);
+					records[i].write(writers[i]);
 					}
 				
 				}
-			if(r1.hasNext())
-				{
-				throw new IOException("Illegal number of reads in fastq");
-				}
-			
+			writers[0].flush();
+			writers[1].flush();
 			return 0;
 			}
 		catch(Exception err)
@@ -0,0 +1,469 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.gnomad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+
+/**
+ * Compiled allele-frequency store, written by VcfGnomadCompile and read by VcfGnomad.
+ *
+ * One row per (position, REF, ALT) of the gnomad VCF. For each contig, the rows are sorted on
+ * (pos, hash(REF), hash(ALT)) and stored column by column: int pos[n], long ref[n], long alt[n],
+ * then one int column per INFO field. Missing values are NO_VALUE. The alleles are only
+ * stored as a 64-bit hash.
+ *
+ * Layout: long MAGIC, int VERSION, the columns of each contig, the footer (fields, contigs
+ * with their number of rows and offset), long offset of the footer.
+ */
+class GnomadStore implements Closeable
+	{
+	static final String SUFFIX = ".gnomad.bin";
+	static final long MAGIC = 0x676E6F6D41466462L;
+	static final int VERSION = 1;
+	static final int NO_VALUE = Integer.MIN_VALUE;
+
+	/** description of an INFO field in the store */
+	static class Field
+		{
+		final String tag;
+		/** true if Number=A: one value per ALT, else one value per site */
+		final boolean perAllele;
+		Field(final String tag,final boolean perAllele)
+			{
+			this.tag = tag;
+			this.perAllele = perAllele;
+			}
+		}
+
+	private static class ContigEntry
+		{
+		final String name;
+		final int countRows;
+		final long offset;
+		ContigEntry(final String name,final int countRows,final long offset)
+			{
+			this.name = name;
+			this.countRows = countRows;
+			this.offset = offset;
+			}
+		}
+
+	/** a set of rows in the store, sharing the same position and REF */
+	class Site
+		{
+		private final int begin;
+		private final int end;
+		Site(final int begin,final int end)
+			{
+			this.begin = begin;
+			this.end = end;
+			}
+		/** @return the row for this ALT or -1 */
+		int findAlt(final String alt)
+			{
+			final long h = hash(alt);
+			for(int i=this.begin;i< this.end;++i)
+				{
+				if(GnomadStore.this.altColumn.getLong(i*8)==h) return i;
+				}
+			return -1;
+			}
+		/** @return the site value of the field, or NO_VALUE */
+		int getSiteValue(final int fieldIndex)
+			{
+			return getValue(fieldIndex, this.begin);
+			}
+		/** @return the value of the field for the given row, or NO_VALUE */
+		int getValue(final int fieldIndex,final int row)
+			{
+			return GnomadStore.this.fieldColumns[fieldIndex].getInt(row*4);
+			}
+		}
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final List<Field> fields = new ArrayList<>();
+	private final Map<String,Integer> tag2index = new HashMap<>();
+	private final Map<String,ContigEntry> contigs = new HashMap<>();
+	/** columns of the current contig */
+	private ContigEntry current = null;
+	private MappedByteBuffer posColumn = null;
+	private MappedByteBuffer refColumn = null;
+	private MappedByteBuffer altColumn = null;
+	private MappedByteBuffer fieldColumns[] = null;
+	/** galloping cursor in the current contig */
+	private int cursor = 0;
+
+	GnomadStore(final File file) throws IOException
+		{
+		IOUtil.assertFileIsReadable(file);
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		if(this.raf.readLong()!=MAGIC) throw new IOException("not a compiled gnomad file "+file);
+		final int version = this.raf.readInt();
+		if(version!=VERSION) throw new IOException("unsupported version "+version+" in "+file);
+		this.raf.seek(this.raf.length()-8L);
+		final long footerOffset = this.raf.readLong();
+		try(FileInputStream fis = new FileInputStream(file)) {
+			fis.getChannel().position(footerOffset);
+			final DataInputStream dis = new DataInputStream(new BufferedInputStream(fis));
+			final int countFields = dis.readInt();
+			for(int i=0;i< countFields;++i)
+				{
+				final Field field = new Field(dis.readUTF(), dis.readBoolean());
+				this.tag2index.put(field.tag, this.fields.size());
+				this.fields.add(field);
+				}
+			final int countContigs = dis.readInt();
+			for(int i=0;i< countContigs;++i)
+				{
+				final ContigEntry entry = new ContigEntry(dis.readUTF(), dis.readInt(), dis.readLong());
+				this.contigs.put(entry.name, entry);
+				}
+			}
+		}
+
+	static boolean isStore(final String uri)
+		{
+		return uri.endsWith(SUFFIX);
+		}
+
+	List<Field> getFields()
+		{
+		return Collections.unmodifiableList(this.fields);
+		}
+
+	/** @return the index of the field with this tag or -1 */
+	int getFieldIndex(final String tag)
+		{
+		final Integer idx = this.tag2index.get(tag);
+		return idx==null?-1:idx.intValue();
+		}
+
+	/** 64-bit FNV-1a hash of the bases of an allele */
+	static long hash(final String allele)
+		{
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i< allele.length();++i)
+			{
+			h ^= Character.toUpperCase(allele.charAt(i));
+			h *= 0x100000001b3L;
+			}
+		return h;
+		}
+
+	private MappedByteBuffer map(final long offset,final long size) throws IOException
+		{
+		return this.raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+		}
+
+	/** switch the mapped columns to another contig. @return false if the contig is not in the store */
+	private boolean selectContig(final String contig) throws IOException
+		{
+		if(this.current!=null && this.current.name.equals(contig)) return true;
+		final ContigEntry entry = this.contigs.get(contig);
+		if(entry==null) return false;
+		final long n = entry.countRows;
+		long offset = entry.offset;
+		this.posColumn = map(offset, n*4); offset += n*4;
+		this.refColumn = map(offset, n*8); offset += n*8;
+		this.altColumn = map(offset, n*8); offset += n*8;
+		this.fieldColumns = new MappedByteBuffer[this.fields.size()];
+		for(int i=0;i< this.fieldColumns.length;++i)
+			{
+			this.fieldColumns[i] = map(offset, n*4);
+			offset += n*4;
+			}
+		this.current = entry;
+		this.cursor = 0;
+		return true;
+		}
+
+	private int posAt(final int row)
+		{
+		return this.posColumn.getInt(row*4);
+		}
+
+	/** index of the first row with pos &gt;= 'pos' in [lo,hi) */
+	private int lowerBound(int lo,int hi,final int pos)
+		{
+		while(lo<hi)
+			{
+			final int mid = (lo+hi)>>>1;
+			if(posAt(mid)<pos)
+				{
+				lo = mid+1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		return lo;
+		}
+
+	/** find the rows for contig/pos/ref. The search gallops forward from the previous
+	 * position, so a sorted input only visits each page of the store once.
+	 * @return the matching site or null */
+	Site find(final String contig,final int pos,final String ref) throws IOException
+		{
+		if(!selectContig(contig)) return null;
+		final int n = this.current.countRows;
+		/* all the rows before 'cursor' are before the previous position */
+		int lo;
+		int hi;
+		if(this.cursor>0 && posAt(this.cursor-1)>=pos)
+			{
+			/* the input went backward */
+			lo = 0;
+			hi = this.cursor;
+			}
+		else
+			{
+			lo = this.cursor;
+			hi = lo;
+			int step = 1;
+			while(hi< n && posAt(hi)<pos)
+				{
+				lo = hi+1;
+				hi = lo+step;
+				step <<= 1;
+				}
+			hi = Math.min(hi, n);
+			}
+		int row = lowerBound(lo, hi, pos);
+		this.cursor = row;
+		final long h = hash(ref);
+		while(row< n && posAt(row)==pos)
+			{
+			final long rowRef = this.refColumn.getLong(row*8);
+			if(rowRef==h)
+				{
+				int end = row+1;
+				while(end< n && posAt(end)==pos && this.refColumn.getLong(end*8)==h) ++end;
+				return new Site(row, end);
+				}
+			++row;
+			}
+		return null;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		this.posColumn = null;
+		this.refColumn = null;
+		this.altColumn = null;
+		this.fieldColumns = null;
+		this.current = null;
+		this.raf.close();
+		}
+
+	@Override
+	public String toString()
+		{
+		return this.file.getPath();
+		}
+
+	/** writes a store. Rows must be added sorted on position, and all the rows of a contig must be consecutive */
+	static class Writer implements Closeable
+		{
+		private final File file;
+		private final File tmpDir;
+		private final List<Field> fields;
+		private final DataOutputStream out;
+		private long filePosition;
+		private final List<ContigEntry> contigs = new ArrayList<>();
+		/** current contig, its rows are written in temporary column files */
+		private String contig = null;
+		private int countRows = 0;
+		private File columnFiles[] = null;
+		private DataOutputStream columns[] = null;
+		/** rows sharing the last position, sorted before being written */
+		private final List<Row> samePos = new ArrayList<>();
+
+		private static class Row
+			{
+			final int pos;
+			final long ref;
+			final long alt;
+			final int values[];
+			Row(final int pos,final long ref,final long alt,final int values[])
+				{
+				this.pos = pos;
+				this.ref = ref;
+				this.alt = alt;
+				this.values = values;
+				}
+			}
+
+		Writer(final File file,final List<Field> fields,final File tmpDir) throws IOException
+			{
+			this.file = file;
+			this.fields = new ArrayList<>(fields);
+			this.tmpDir = tmpDir;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			this.out.writeLong(MAGIC);
+			this.out.writeInt(VERSION);
+			this.filePosition = 12L;
+			}
+
+		/** add a row. 'values' has one value per field, NO_VALUE if missing */
+		void add(final String contig,final int pos,final String ref,final String alt,final int values[]) throws IOException
+			{
+			if(values.length!=this.fields.size()) throw new IllegalArgumentException("expected "+this.fields.size()+" values");
+			if(this.contig==null || !this.contig.equals(contig))
+				{
+				endContig();
+				for(final ContigEntry entry: this.contigs)
+					{
+					if(entry.name.equals(contig)) throw new IOException("contig "+contig+" is not contiguous in the input of "+this.file+". Input must be sorted.");
+					}
+				beginContig(contig);
+				}
+			else if(!this.samePos.isEmpty() && this.samePos.get(0).pos!=pos)
+				{
+				if(pos< this.samePos.get(0).pos) throw new IOException("input is not sorted: got "+contig+":"+pos+" after "+this.samePos.get(0).pos);
+				flushSamePos();
+				}
+			this.samePos.add(new Row(pos, hash(ref), hash(alt), values.clone()));
+			}
+
+		private void beginContig(final String contig) throws IOException
+			{
+			this.contig = contig;
+			this.countRows = 0;
+			this.columnFiles = new File[3+this.fields.size()];
+			this.columns = new DataOutputStream[this.columnFiles.length];
+			for(int i=0;i< this.columnFiles.length;++i)
+				{
+				this.columnFiles[i] = File.createTempFile("gnomad.", ".column", this.tmpDir);
+				this.columnFiles[i].deleteOnExit();
+				this.columns[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.columnFiles[i])));
+				}
+			}
+
+		private void flushSamePos() throws IOException
+			{
+			this.samePos.sort((A,B)->{
+				final int i = Long.compare(A.ref, B.ref);
+				if(i!=0) return i;
+				return Long.compare(A.alt, B.alt);
+				});
+			for(final Row row:this.samePos)
+				{
+				this.columns[0].writeInt(row.pos);
+				this.columns[1].writeLong(row.ref);
+				this.columns[2].writeLong(row.alt);
+				for(int i=0;i< row.values.length;++i)
+					{
+					this.columns[3+i].writeInt(row.values[i]);
+					}
+				this.countRows++;
+				}
+			this.samePos.clear();
+			}
+
+		/** append the temporary columns of the current contig to the store */
+		private void endContig() throws IOException
+			{
+			if(this.contig==null) return;
+			flushSamePos();
+			this.contigs.add(new ContigEntry(this.contig, this.countRows, this.filePosition));
+			final byte buffer[] = new byte[65536];
+			for(int i=0;i< this.columns.length;++i)
+				{
+				this.columns[i].close();
+				try(InputStream in = new FileInputStream(this.columnFiles[i])) {
+					int n;
+					while((n=in.read(buffer))!=-1)
+						{
+						this.out.write(buffer, 0, n);
+						this.filePosition += n;
+						}
+					}
+				this.columnFiles[i].delete();
+				}
+			this.columns = null;
+			this.columnFiles = null;
+			this.contig = null;
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			try
+				{
+				endContig();
+				final long footerOffset = this.filePosition;
+				this.out.writeInt(this.fields.size());
+				for(final Field field:this.fields)
+					{
+					this.out.writeUTF(field.tag);
+					this.out.writeBoolean(field.perAllele);
+					}
+				this.out.writeInt(this.contigs.size());
+				for(final ContigEntry entry:this.contigs)
+					{
+					this.out.writeUTF(entry.name);
+					this.out.writeInt(entry.countRows);
+					this.out.writeLong(entry.offset);
+					}
+				this.out.writeLong(footerOffset);
+				}
+			finally
+				{
+				CloserUtil.close(this.out);
+				if(this.columns!=null) CloserUtil.close(Arrays.asList(this.columns));
+				if(this.columnFiles!=null) for(final File f:this.columnFiles) f.delete();
+				}
+			}
+		}
+	}
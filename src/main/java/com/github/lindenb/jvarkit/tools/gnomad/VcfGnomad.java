@@ -42,6 +42,12 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
  3d column is a URL or file path where to find the data
  
  
+ ## Compiled gnomad files
+ 
+ The 3d column of the manifest can also be a file created by vcfgnomadcompile (suffix '.gnomad.bin').
+ The data are then read from a memory-mapped binary file instead of parsing the gnomad VCF.
+ The input should be sorted for the best performances.
+ 
  ## Example:
  
  ```
@@ -62,13 +68,95 @@ public class VcfGnomad extends Launcher{
 	
 	private static final Logger LOG = Logger.build(VcfGnomad.class).make();
 	/** allele specific population in gnomad */
-	private final static String POPS[]=new String[]{"AFR", "AMR", "ASJ", "EAS", "FIN", "NFE", "OTH", "Male", "Female","SAS", "raw", "POPMAX"}; 
+	final static String POPS[]=new String[]{"AFR", "AMR", "ASJ", "EAS", "FIN", "NFE", "OTH", "Male", "Female","SAS", "raw", "POPMAX"}; 
 	/** 'ome'-type section */
 	private enum OmeType {exome,genome};
 	/** entries mapping chromosome/type->vcf.gz */
 	private List<ManifestEntry> manifestEntries=new ArrayList<>();
 	
 	
+	/** a gnomad site matching a variant of the user */
+	private interface GnomadHit
+		{
+		boolean hasAlternateAllele(Allele alt);
+		/** @return the value of an INFO field having one value per site, or null */
+		Integer getSiteValue(String tag);
+		/** @return the value of an INFO field having one value per ALT, or null */
+		Integer getAlleleValue(String tag,Allele alt);
+		}
+	
+	/** a hit found in a gnomad VCF */
+	private static class VcfHit implements GnomadHit
+		{
+		private final VariantContext gnomadCtx;
+		VcfHit(final VariantContext gnomadCtx)
+			{
+			this.gnomadCtx = gnomadCtx;
+			}
+		@Override
+		public boolean hasAlternateAllele(final Allele alt)
+			{
+			return this.gnomadCtx.getAlternateAlleles().contains(alt);
+			}
+		@Override
+		public Integer getSiteValue(final String tag)
+			{
+			final int att=this.gnomadCtx.getAttributeAsInt(tag, -9999);
+			return att>=0?att:null;
+			}
+		@Override
+		public Integer getAlleleValue(final String tag,final Allele alt)
+			{
+			final List<Allele> galts=this.gnomadCtx.getAlternateAlleles();
+			final List<String> gatts = this.gnomadCtx.getAttributeAsStringList(tag,null);
+			//final int idx=gnomadCtx.getAlleleIndex(a);//non idx(REF)==0
+			final int idx=galts.indexOf(alt);
+			if(idx>=0) {
+				if(idx<gatts.size() && gatts.get(idx)!=null && !gatts.get(idx).equals(".")) {
+					return Integer.parseInt(gatts.get(idx));
+					}
+				}
+			return null;
+			}
+		}
+	
+	/** a hit found in a file compiled with vcfgnomadcompile */
+	private static class StoreHit implements GnomadHit
+		{
+		private final GnomadStore store;
+		private final GnomadStore.Site site;
+		StoreHit(final GnomadStore store,final GnomadStore.Site site)
+			{
+			this.store = store;
+			this.site = site;
+			}
+		@Override
+		public boolean hasAlternateAllele(final Allele alt)
+			{
+			return this.site.findAlt(alt.getDisplayString())!=-1;
+			}
+		private static Integer toInteger(final int v)
+			{
+			return v==GnomadStore.NO_VALUE?null:v;
+			}
+		@Override
+		public Integer getSiteValue(final String tag)
+			{
+			final int fieldIndex = this.store.getFieldIndex(tag);
+			if(fieldIndex==-1) return null;
+			return toInteger(this.site.getSiteValue(fieldIndex));
+			}
+		@Override
+		public Integer getAlleleValue(final String tag,final Allele alt)
+			{
+			final int fieldIndex = this.store.getFieldIndex(tag);
+			if(fieldIndex==-1) return null;
+			final int row = this.site.findAlt(alt.getDisplayString());
+			if(row==-1) return null;
+			return toInteger(this.site.getValue(fieldIndex, row));
+			}
+		}
+	
 	private class ManifestEntry
 		implements Closeable
 		{
@@ -76,22 +164,53 @@ public class VcfGnomad extends Launcher{
 		String contig;
 		String uri;
 		TabixVcfFileReader tabix=null;
+		GnomadStore store=null;
+		String bufferContig=null;
 		int buffferChromEnd=0;
 		final Map<ContigPosRef,VariantContext> buffer=new HashMap<>();
+		
+		void open() throws IOException {
+			if(GnomadStore.isStore(this.uri))
+				{
+				this.store=new GnomadStore(new File(this.uri));
+				}
+			else
+				{
+				this.tabix=new TabixVcfFileReader(this.uri);
+				}
+			}
+		
 		@Override
 		public void close() throws IOException {
 			CloserUtil.close(tabix);
+			CloserUtil.close(store);
 			buffer.clear();
+			this.bufferContig=null;
 			this.buffferChromEnd=0;
 			tabix=null;
+			store=null;
 			}
+		
+		GnomadHit findHit(final VariantContext userCtx) throws IOException
+			{
+			if(this.store!=null)
+				{
+				/* same rule as the tabix path: the contig of the user's variant is used as is */
+				final GnomadStore.Site site = this.store.find(userCtx.getContig(), userCtx.getStart(), userCtx.getReference().getDisplayString());
+				return site==null?null:new StoreHit(this.store,site);
+				}
+			final VariantContext ctx2 = findMatching(new ContigPosRef(userCtx));
+			return ctx2==null?null:new VcfHit(ctx2);
+			}
+		
 		/** find matching variant in tabix file, use a buffer to avoid multiple random accesses */
 		VariantContext findMatching(final ContigPosRef userCtx)
 			{
 			//past last buffer ? refill buffer
-			if(this.buffferChromEnd <= userCtx.getPos())
+			if(this.buffferChromEnd <= userCtx.getPos() || !userCtx.getContig().equals(this.bufferContig))
 				{
 				buffer.clear();
+				this.bufferContig = userCtx.getContig();
 				this.buffferChromEnd = userCtx.getPos() + VcfGnomad.this.gnomadBufferSize;
 				final Iterator<VariantContext> iter=this.tabix.iterator(
 						userCtx.getContig(),
@@ -160,37 +279,19 @@ public class VcfGnomad extends Launcher{
 						);
 				}
 			}
-		void fill(final VariantContext ctx,final VariantContext gnomadCtx)
+		void fill(final VariantContext ctx,final GnomadHit hit)
 			{
 			this.attributes.clear();
 			
 			if(!is_AC)
 				{
-				int att=gnomadCtx.getAttributeAsInt(this.tag, -9999);
-				if(att>=0) {
-					this.attributes.add(att);
-					}
-				else
-					{
-					this.attributes.add(null);
-					}
+				this.attributes.add(hit.getSiteValue(this.tag));
 				}
 			else
 				{
-				final List<Allele> galts=gnomadCtx.getAlternateAlleles();
-				final List<String> gatts = gnomadCtx.getAttributeAsStringList(this.tag,null);
 				for(final Allele a:ctx.getAlternateAlleles())
 					{
-					Integer found=null;
-					//final int idx=gnomadCtx.getAlleleIndex(a);//non idx(REF)==0
-					final int idx=galts.indexOf(a);
-					
-					if(idx>=0) {
-						if(idx<gatts.size() && gatts.get(idx)!=null && !gatts.get(idx).equals(".")) {
-							found=Integer.parseInt(gatts.get(idx));
-							}
-						}
-					this.attributes.add(found);
+					this.attributes.add(hit.getAlleleValue(this.tag, a));
 					}
 				}
 			}
@@ -283,7 +384,7 @@ public class VcfGnomad extends Launcher{
 							if(prevEntry!=null) prevEntry.close();
 							ome2manifest[ome.ordinal()]=newEntry;
 							LOG.info("opening "+newEntry.uri);
-							newEntry.tabix=new TabixVcfFileReader(newEntry.uri);
+							newEntry.open();
 							}
 						}
 					}
@@ -301,7 +402,7 @@ public class VcfGnomad extends Launcher{
 					ManifestEntry entry = ome2manifest[i];
 					if(entry==null) continue;
 					
-					final VariantContext ctx2=entry.findMatching(new ContigPosRef(ctx));
+					final GnomadHit ctx2=entry.findHit(ctx);
 					if(ctx2==null) continue;
 					for(final InfoField infoField: infoFields)
 						{
@@ -312,7 +413,7 @@ public class VcfGnomad extends Launcher{
 						{
 						//stream all ALT. return false if we found one ALT that is not found in Gnomad
 						setfilter = !ctx.getAlternateAlleles().stream().
-								filter(A->!ctx2.getAlternateAlleles().contains(A)).
+								filter(A->!ctx2.hasAlternateAllele(A)).
 								findAny().isPresent();
 						}
 					else
@@ -0,0 +1,159 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.gnomad;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+/**
+ BEGIN_DOC
+
+ Compiles a gnomad VCF into a binary file that can be used by vcfgnomad in place of the VCF.
+ Only the fields used by vcfgnomad (AC_* and AN_*) are kept.
+ The name of the output file must end with '.gnomad.bin'.
+
+ ## Example:
+
+ ```
+ $ java -jar dist/vcfgnomadcompile.jar -o gnomad.exomes.gnomad.bin gnomad.exomes.r2.0.1.sites.vcf.gz
+ $ echo -e "exome\t*\tgnomad.exomes.gnomad.bin" > manifest.txt
+ $ java -jar dist/vcfgnomad.jar -m manifest.txt input.vcf
+ ```
+
+ END_DOC
+ */
+@Program(name="vcfgnomadcompile",description="Compile a gnomad VCF into a binary file for vcfgnomad",keywords={"vcf","annotation","gnomad"})
+public class VcfGnomadCompile extends Launcher{
+
+	private static final Logger LOG = Logger.build(VcfGnomadCompile.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output file. Must end with '"+GnomadStore.SUFFIX+"'",required=true)
+	private File outputFile = null;
+	@Parameter(names={"-T","--tmpDir"},description="Temporary directory")
+	private File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+	/** the fields extracted by vcfgnomad */
+	static List<GnomadStore.Field> getFields()
+		{
+		final List<GnomadStore.Field> fields = new ArrayList<>();
+		for(final String pop: VcfGnomad.POPS)
+			{
+			fields.add(new GnomadStore.Field("AC_"+pop,true));
+			fields.add(new GnomadStore.Field("AN_"+pop,pop.equals("POPMAX")));
+			}
+		return fields;
+		}
+
+	private static int parseValue(final String s)
+		{
+		if(s==null || s.equals(".") || s.isEmpty()) return GnomadStore.NO_VALUE;
+		return Integer.parseInt(s);
+		}
+
+	@Override
+	public int doWork(final List<String> args) {
+		if(!GnomadStore.isStore(this.outputFile.getName()))
+			{
+			LOG.error("output file name must end with "+GnomadStore.SUFFIX);
+			return -1;
+			}
+		VcfIterator iter = null;
+		GnomadStore.Writer writer = null;
+		try {
+			IOUtil.assertDirectoryIsWritable(this.tmpDir);
+			final List<GnomadStore.Field> fields = getFields();
+			iter = openVcfIterator(oneFileOrNull(args));
+			writer = new GnomadStore.Writer(this.outputFile, fields, this.tmpDir);
+			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader());
+			final int values[] = new int[fields.size()];
+			while(iter.hasNext())
+				{
+				final VariantContext ctx = progress.watch(iter.next());
+				final List<Allele> alts = ctx.getAlternateAlleles();
+				for(int altIdx=0;altIdx< alts.size();++altIdx)
+					{
+					for(int f=0;f< fields.size();++f)
+						{
+						final GnomadStore.Field field = fields.get(f);
+						if(!field.perAllele)
+							{
+							final int att = ctx.getAttributeAsInt(field.tag, -9999);
+							values[f] = (att>=0?att:GnomadStore.NO_VALUE);
+							}
+						else
+							{
+							final List<String> atts = ctx.getAttributeAsStringList(field.tag, null);
+							values[f] = (altIdx< atts.size()?parseValue(atts.get(altIdx)):GnomadStore.NO_VALUE);
+							}
+						}
+					writer.add(
+						ctx.getContig(),
+						ctx.getStart(),
+						ctx.getReference().getDisplayString(),
+						alts.get(altIdx).getDisplayString(),
+						values
+						);
+					}
+				}
+			progress.finish();
+			writer.close();
+			writer = null;
+			return 0;
+		} catch (final Exception e) {
+			LOG.error(e);
+			if(writer!=null)
+				{
+				CloserUtil.close(writer);
+				writer = null;
+				this.outputFile.delete();
+				}
+			return -1;
+		}
+		finally {
+			CloserUtil.close(writer);
+			CloserUtil.close(iter);
+		}
+	}
+
+public static void main(String[] args) {
+	new VcfGnomadCompile().instanceMainWithExit(args);
+	}
+}
@@ -35,10 +35,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -57,7 +60,6 @@ import htsjdk.samtools.util.SortingCollection;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -79,6 +81,12 @@ BEGIN_DOC
 
 Group VCF data by gene/transcript. By default it tries to use data from VEP and SnpEff
 
+## Memory
+
+Genes, samples and alleles are stored in dictionaries and each genotype call is stored as a few integers.
+While the number of distinct genes is lower than `--maxGenesInRam` and the number of calls is lower than `--maxCallsInRam`,
+the calls are grouped in memory. Beyond those limits, the calls are sorted on disk.
+
 ## Example
 
 ### Delimited output
@@ -181,16 +189,30 @@ public class GroupByGene
 	private int maxRecordsInRam=50000;
 	@Parameter(names={"--tmpDir"},description="Temporary directory")
 	private File tmpDir= new File(System.getProperty("java.io.tmpdir"));
+	@Parameter(names={"--maxGenesInRam"},description="Group the calls in memory, without sorting, while the number of distinct genes is lower than this value.")
+	private int maxGenesInRam=50000;
+	@Parameter(names={"--maxCallsInRam"},description="Group the calls in memory, without sorting, while the number of genotype calls is lower than this value.")
+	private int maxCallsInRam=5000000;
 	
 	private Set<String> sampleNames = new TreeSet<String>();
+	/** null while the calls are grouped in memory */
 	private SortingCollection<Call> sortingCollection = null;
+	/** dictionary of genes: a gene is a name, a type and a contig */
+	private final StringDictionary<GeneName> genes = new StringDictionary<>();
+	private final StringDictionary<String> samples = new StringDictionary<>();
+	private final StringDictionary<String> alleles = new StringDictionary<>();
+	/** calls grouped in memory, indexed by gene id */
+	private final List<CallBuffer> gene2calls = new ArrayList<>();
+	private long callsInRam = 0L;
 	
 	private static class GeneName
 		{
-		String name;
-		String type;
-		GeneName(String name,String type)
+		final String chrom;
+		final String name;
+		final String type;
+		GeneName(final String chrom,final String name,final String type)
 			{
+			this.chrom=chrom;
 			this.name=name;
 			this.type=type;
 			}
@@ -199,6 +221,7 @@ public class GroupByGene
 			{
 			final int prime = 31;
 			int result = 1;
+			result = prime * result +  chrom.hashCode();
 			result = prime * result +  name.hashCode();
 			result = prime * result +  type.hashCode();
 			return result;
@@ -210,7 +233,15 @@ public class GroupByGene
 			if (o == null) return false;
 			if (getClass() != o.getClass()) return false;
 			GeneName g=(GeneName)o;
-			return name.equals(g.name) && type.equals(g.type);
+			return name.equals(g.name) && type.equals(g.type) && chrom.equals(g.chrom);
+			}
+		int compareTo(final GeneName o)
+			{
+			int i=this.chrom.compareTo(o.chrom);
+			if(i!=0) return i;
+			i= this.name.compareTo(o.name);
+			if(i!=0) return i;
+			return this.type.compareTo(o.type);
 			}
 		@Override
 		public String toString() {
@@ -219,18 +250,89 @@ public class GroupByGene
 		
 		}
 	
+	/** maps some objects to a contiguous range of integers */
+	private static class StringDictionary<T>
+		{
+		private final Map<T,Integer> item2id = new HashMap<>();
+		private final List<T> items = new ArrayList<>();
+		int intern(final T item)
+			{
+			Integer id = this.item2id.get(item);
+			if(id==null)
+				{
+				id = this.items.size();
+				this.items.add(item);
+				this.item2id.put(item, id);
+				}
+			return id;
+			}
+		/** @return the id or -1 */
+		int find(final T item)
+			{
+			final Integer id = this.item2id.get(item);
+			return id==null?-1:id;
+			}
+		T get(final int id)
+			{
+			return this.items.get(id);
+			}
+		int size()
+			{
+			return this.items.size();
+			}
+		void clear()
+			{
+			this.item2id.clear();
+			this.items.clear();
+			}
+		}
+	
+	/** a genotype call. All the fields are ids in the dictionaries */
 	private static class Call
 		{
-		String chrom;
+		int gene;
 		int pos;
-		String ref;
-		GeneName gene;
-		String sample;
-		String posId;
-		String a1=null;
-		String a2=null;
+		int ref;
+		int sample;
+		int a1;
+		int a2;
 		}
 	
+	/** calls of one gene, packed in an array of int */
+	private static class CallBuffer
+		{
+		private static final int WIDTH=5;
+		private int array[]=new int[WIDTH*4];
+		private int size=0;
+		void add(final Call c)
+			{
+			if((this.size+1)*WIDTH > this.array.length)
+				{
+				this.array = Arrays.copyOf(this.array, this.array.length*2);
+				}
+			final int i=this.size*WIDTH;
+			this.array[i  ] = c.pos;
+			this.array[i+1] = c.ref;
+			this.array[i+2] = c.sample;
+			this.array[i+3] = c.a1;
+			this.array[i+4] = c.a2;
+			this.size++;
+			}
+		Call get(final int gene,final int idx)
+			{
+			final int i=idx*WIDTH;
+			final Call c=new Call();
+			c.gene = gene;
+			c.pos = this.array[i  ];
+			c.ref = this.array[i+1];
+			c.sample = this.array[i+2];
+			c.a1 = this.array[i+3];
+			c.a2 = this.array[i+4];
+			return c;
+			}
+		}
+	
+	/** fixed-width codec: six int per call */
 	private static class CallCodec
 		extends AbstractDataCodec<Call>
 		{
@@ -238,16 +340,12 @@ public class GroupByGene
 		public void encode(DataOutputStream dos, Call c)
 				throws IOException
 			{
-			dos.writeUTF(c.chrom);
+			dos.writeInt(c.gene);
 			dos.writeInt(c.pos);
-			dos.writeUTF(c.ref);
-			dos.writeUTF(c.gene.name);
-			dos.writeUTF(c.gene.type);
-			
-			dos.writeUTF(c.sample);
-			dos.writeUTF(c.posId);
-			dos.writeUTF(c.a1);
-			dos.writeUTF(c.a2);
+			dos.writeInt(c.ref);
+			dos.writeInt(c.sample);
+			dos.writeInt(c.a1);
+			dos.writeInt(c.a2);
 			}
 		
 		@Override
@@ -255,19 +353,15 @@ public class GroupByGene
 			{
 			final Call c= new Call();
 			try {
-				c.chrom=dis.readUTF();
+				c.gene=dis.readInt();
 			} catch (Exception e) {
 				return null;
 				}
 			c.pos=dis.readInt();
-			c.ref=dis.readUTF();
-			String gName=dis.readUTF();
-			String gType=dis.readUTF();
-			c.gene=new GeneName(gName, gType);
-			c.sample=dis.readUTF();
-			c.posId=dis.readUTF();
-			c.a1=dis.readUTF();
-			c.a2=dis.readUTF();
+			c.ref=dis.readInt();
+			c.sample=dis.readInt();
+			c.a1=dis.readInt();
+			c.a2=dis.readInt();
 			return c;
 			}
 		@Override
@@ -276,18 +370,20 @@ public class GroupByGene
 			}
 		}
 	
-	private static class CallCmp
+	/** sort the genes on chrom, name, type */
+	private int compareGenes(final int g1,final int g2)
+		{
+		if(g1==g2) return 0;
+		return this.genes.get(g1).compareTo(this.genes.get(g2));
+		}
+	
+	private class CallCmp
 		implements Comparator<Call>
 		{
 		@Override
 		public int compare(final Call o1, final Call o2)
 			{
-			int i=o1.chrom.compareTo(o2.chrom);
-			if(i!=0) return i;
-			 i= o1.gene.name.compareTo(o2.gene.name);
-			 if(i!=0) return i;
-			 i= o1.gene.type.compareTo(o2.gene.type);
-			 return i;
+			return compareGenes(o1.gene, o2.gene);
 			}
 		}
 	
@@ -305,34 +401,34 @@ public class GroupByGene
 		for(VepPredictionParser.VepPrediction pred: this.vepPredictionParser.getPredictions(ctx))
 			{
 			String s=pred.getGeneName();
-			if(s!=null)  set.add(new GeneName(s,"vep-gene-name"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-gene-name"));
 			s=pred.getEnsemblGene();
-			if(s!=null)  set.add(new GeneName(s,"vep-ensembl-gene-name"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-ensembl-gene-name"));
 			s=pred.getSymbol();
-			if(s!=null)  set.add(new GeneName(s,"vep-symbol"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-symbol"));
 			s=pred.getHGNC();
-			if(s!=null)  set.add(new GeneName(s,"vep-hgnc"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-hgnc"));
 			s=pred.getHgncId();
-			if(s!=null)  set.add(new GeneName(s,"vep-hgnc-id"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-hgnc-id"));
 			s=pred.getGene();
-			if(s!=null)  set.add(new GeneName(s,"vep-gene"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-gene"));
 			s=pred.getRefSeq();
-			if(s!=null)  set.add(new GeneName(s,"vep-refseq"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"vep-refseq"));
 			}
 		for(SnpEffPredictionParser.SnpEffPrediction pred: this.snpEffPredictionParser.getPredictions(ctx))
 			{
 			String s=pred.getGeneName();
-			if(s!=null)  set.add(new GeneName(s,"snpeff-gene-name"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"snpeff-gene-name"));
 			s=pred.getEnsemblTranscript();
-			if(s!=null)  set.add(new GeneName(s,"snpeff-ensembl-transcript-name"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"snpeff-ensembl-transcript-name"));
 			}
 		for(final AnnPredictionParser.AnnPrediction pred:this.annPredictionParser.getPredictions(ctx)) {
 			String s=pred.getGeneId();
-			if(s!=null)  set.add(new GeneName(s,"ann-gene-id"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"ann-gene-id"));
 			s=pred.getGeneName();
-			if(s!=null)  set.add(new GeneName(s,"ann-gene-name"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"ann-gene-name"));
 			s=pred.getFeatureId();
-			if(s!=null)  set.add(new GeneName(s,"ann-feature-id"));
+			if(s!=null)  set.add(new GeneName(ctx.getContig(),s,"ann-feature-id"));
 			}
 		
 		for(String user_gene_tag:user_gene_tags)
@@ -360,7 +456,7 @@ public class GroupByGene
 			for(String t:tag)
 				{
 				if(t.isEmpty()) continue;
-				set.add(new GeneName(t,"user:"+user_gene_tag));
+				set.add(new GeneName(ctx.getContig(),t,"user:"+user_gene_tag));
 				}
 			}
 		Iterator<GeneName> iter=set.iterator();
@@ -375,11 +471,52 @@ public class GroupByGene
 		this.user_gene_tags.add(t);
 		}
 	
+	/** add a call, in memory or in the sorting collection */
+	private void addCall(final Call c)
+		{
+		if(this.sortingCollection==null)
+			{
+			if(this.genes.size() <= this.maxGenesInRam && this.callsInRam < this.maxCallsInRam)
+				{
+				while(this.gene2calls.size()<=c.gene) this.gene2calls.add(null);
+				CallBuffer buffer = this.gene2calls.get(c.gene);
+				if(buffer==null)
+					{
+					buffer = new CallBuffer();
+					this.gene2calls.set(c.gene, buffer);
+					}
+				buffer.add(c);
+				this.callsInRam++;
+				return;
+				}
+			LOG.info("Too many genes or calls in memory. Now sorting the calls on disk.");
+			this.sortingCollection=SortingCollection.newInstance(
+					Call.class,
+					new CallCodec(),
+					new CallCmp(),
+					this.maxRecordsInRam,
+					this.tmpDir
+					);
+			this.sortingCollection.setDestructiveIteration(true);
+			/* the calls of a gene keep their order: the sort is stable */
+			for(int gene=0;gene< this.gene2calls.size();++gene)
+				{
+				final CallBuffer buffer = this.gene2calls.get(gene);
+				if(buffer==null) continue;
+				for(int i=0;i< buffer.size;++i)
+					{
+					this.sortingCollection.add(buffer.get(gene, i));
+					}
+				}
+			this.gene2calls.clear();
+			this.callsInRam = 0L;
+			}
+		this.sortingCollection.add(c);
+		}
+	
 	/** public for knime */
 	public void dump() throws IOException,XMLStreamException
 		{
-		this.sortingCollection.doneAdding();
-		
 		PrintStream pw = openFileOrStdoutAsPrintStream(this.outFile);
 		
 		XMLStreamWriter w=null;
@@ -425,96 +562,45 @@ public class GroupByGene
 			pw.println();
 			}
 		
-		final CallCmp cmp=new CallCmp();
-		List<Call> row=new ArrayList<Call>();
-		CloseableIterator<Call> iter=sortingCollection.iterator();
-		for(;;)
-			{
-			Call curr=null;
-			if(iter.hasNext()) curr=iter.next();
-			if(curr==null || (!row.isEmpty() && cmp.compare(curr, row.get(0))!=0))
+		final int sample2count[]=new int[this.samples.size()];
+		final List<Call> row=new ArrayList<Call>();
+		if(this.sortingCollection==null)
+			{
+			final List<Integer> geneIds = new ArrayList<>(this.gene2calls.size());
+			for(int gene=0;gene< this.gene2calls.size();++gene)
+				{
+				if(this.gene2calls.get(gene)!=null) geneIds.add(gene);
+				}
+			geneIds.sort((A,B)->compareGenes(A, B));
+			for(final Integer gene:geneIds)
+				{
+				final CallBuffer buffer = this.gene2calls.get(gene);
+				row.clear();
+				for(int i=0;i< buffer.size;++i) row.add(buffer.get(gene, i));
+				if(!dumpGene(row,sample2count,w,pw)) break;
+				}
+			}
+		else
+			{
+			this.sortingCollection.doneAdding();
+			CloseableIterator<Call> iter=sortingCollection.iterator();
+			for(;;)
 				{
-				if(!row.isEmpty())
+				Call curr=null;
+				if(iter.hasNext()) curr=iter.next();
+				if(curr==null || (!row.isEmpty() && curr.gene!=row.get(0).gene))
 					{
-					int minPos=Integer.MAX_VALUE;
-					int maxPos=Integer.MIN_VALUE;
-					Set<String> affected=new HashSet<String>();
-					Set<String> distinctMut=new HashSet<String>();
-					Counter<String> sample2count=new Counter<String>();
-					for(Call c:row)
-						{
-						minPos=Math.min(minPos, c.pos);
-						maxPos=Math.max(maxPos, c.pos);
-						sample2count.incr(c.sample);
-						affected.add(c.sample);
-						distinctMut.add(c.chrom+":"+c.pos+":"+c.ref);
-						}
-					Call first=row.get(0);
-					if(w!=null)
+					if(!row.isEmpty())
 						{
-						w.writeStartElement("gene");
-						w.writeAttribute("name", first.gene.name);
-						w.writeAttribute("type", first.gene.type);
-						
-						w.writeAttribute("chrom", first.chrom);
-						w.writeAttribute("min.POS",String.valueOf(minPos));
-						w.writeAttribute("max.POS",String.valueOf(maxPos));
-						w.writeAttribute("affected",String.valueOf(affected.size()));
-						w.writeAttribute("variations",String.valueOf(distinctMut.size()));
-						
-						for(String sample:this.sampleNames)
-							{
-							if(sample2count.count(sample)==0L) continue;
-							w.writeStartElement("sample");
-							w.writeAttribute("name",sample);
-							
-							w.writeAttribute("count",String.valueOf(sample2count.count(sample)));
-							for(Call c:row)
-								{
-								if(!c.sample.equals(sample)) continue;
-								w.writeEmptyElement("genotype");
-								w.writeAttribute("pos", String.valueOf(c.pos));
-								w.writeAttribute("ref", c.ref);
-								w.writeAttribute("A1", c.a1);
-								w.writeAttribute("A2", c.a2);
-								}
-							w.writeEndElement();							
-							}
-						
-						
-						w.writeEndElement();//gene
-						w.writeCharacters("\n");
-						}
-					else
-						{
-						pw.print(first.chrom);
-						pw.print('\t');
-						pw.print(minPos);
-						pw.print('\t');
-						pw.print(maxPos);
-						pw.print('\t');
-						pw.print(first.gene.name);
-						pw.print('\t');
-						pw.print(first.gene.type);
-						pw.print('\t');
-						pw.print(affected.size());
-						pw.print('\t');
-						pw.print(distinctMut.size());
-						for(String sample:this.sampleNames)
-							{
-							pw.print('\t');
-							pw.print(sample2count.count(sample));
-							}
-						pw.println();
-						if(pw.checkError()) break;
+						if(!dumpGene(row,sample2count,w,pw)) break;
 						}
+					if(curr==null) break;
+					row.clear();
 					}
-				if(curr==null) break;
-				row.clear();
+				row.add(curr);
 				}
-			row.add(curr);
+			iter.close();
 			}
-		iter.close();
 		if(w!=null)
 			{
 			w.writeEndElement();
@@ -526,6 +612,94 @@ public class GroupByGene
 		if(this.outFile!=null) pw.close();
 		}
 	
+	/** print the calls of one gene
+	 * @param sample2count buffer of counts indexed by sample id, filled with zeros
+	 * @return false if the output stream has an error */
+	private boolean dumpGene(
+			final List<Call> row,
+			final int sample2count[],
+			final XMLStreamWriter w,
+			final PrintStream pw
+			) throws XMLStreamException
+		{
+		int minPos=Integer.MAX_VALUE;
+		int maxPos=Integer.MIN_VALUE;
+		int affected=0;
+		final Set<Long> distinctMut=new HashSet<>();
+		for(final Call c:row)
+			{
+			minPos=Math.min(minPos, c.pos);
+			maxPos=Math.max(maxPos, c.pos);
+			if(sample2count[c.sample]==0) affected++;
+			sample2count[c.sample]++;
+			distinctMut.add((((long)c.pos)<<32) | (c.ref & 0xFFFFFFFFL));
+			}
+		final GeneName gene=this.genes.get(row.get(0).gene);
+		boolean ok=true;
+		if(w!=null)
+			{
+			w.writeStartElement("gene");
+			w.writeAttribute("name", gene.name);
+			w.writeAttribute("type", gene.type);
+			
+			w.writeAttribute("chrom", gene.chrom);
+			w.writeAttribute("min.POS",String.valueOf(minPos));
+			w.writeAttribute("max.POS",String.valueOf(maxPos));
+			w.writeAttribute("affected",String.valueOf(affected));
+			w.writeAttribute("variations",String.valueOf(distinctMut.size()));
+			
+			for(String sample:this.sampleNames)
+				{
+				final int sampleId=this.samples.find(sample);
+				if(sampleId==-1 || sample2count[sampleId]==0) continue;
+				w.writeStartElement("sample");
+				w.writeAttribute("name",sample);
+				
+				w.writeAttribute("count",String.valueOf(sample2count[sampleId]));
+				for(final Call c:row)
+					{
+					if(c.sample!=sampleId) continue;
+					w.writeEmptyElement("genotype");
+					w.writeAttribute("pos", String.valueOf(c.pos));
+					w.writeAttribute("ref", this.alleles.get(c.ref));
+					w.writeAttribute("A1", this.alleles.get(c.a1));
+					w.writeAttribute("A2", this.alleles.get(c.a2));
+					}
+				w.writeEndElement();							
+				}
+			
+			
+			w.writeEndElement();//gene
+			w.writeCharacters("\n");
+			}
+		else
+			{
+			pw.print(gene.chrom);
+			pw.print('\t');
+			pw.print(minPos);
+			pw.print('\t');
+			pw.print(maxPos);
+			pw.print('\t');
+			pw.print(gene.name);
+			pw.print('\t');
+			pw.print(gene.type);
+			pw.print('\t');
+			pw.print(affected);
+			pw.print('\t');
+			pw.print(distinctMut.size());
+			for(String sample:this.sampleNames)
+				{
+				final int sampleId=this.samples.find(sample);
+				pw.print('\t');
+				pw.print(sampleId==-1?0:sample2count[sampleId]);
+				}
+			pw.println();
+			if(pw.checkError()) ok=false;
+			}
+		for(final Call c:row) sample2count[c.sample]=0;
+		return ok;
+		}
+	
 	private void read(final InputStream in) throws IOException
 		{
 		final VcfIterator iter = VCFUtils.createVcfIteratorFromInputStream(in);
@@ -546,53 +720,69 @@ public class GroupByGene
 		this.annPredictionParser = new AnnPredictionParserFactory(header).get();
 		SAMSequenceDictionary dict=header.getSequenceDictionary();
 		SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
+		final List<Call> calls=new ArrayList<>();
 		while(iter.hasNext())
 			{
 			final VariantContext ctx= progress.watch(iter.next());
 			if(ignore_filtered && ctx.isFiltered()) continue;
+			final Set<GeneName> geneNames = getGenes(ctx);
+			if(geneNames.isEmpty()) continue;
 			
-			for(final GeneName g:getGenes(ctx))
+			/* the calls of this variant, without the gene */
+			calls.clear();
+			final int ref=this.alleles.intern(ctx.getReference().getDisplayString());
+			for(final Genotype genotype:ctx.getGenotypes())
 				{
-				for(final Genotype genotype:ctx.getGenotypes())
+				if(!genotype.isAvailable()) continue;
+				if(!genotype.isCalled()) continue;
+				if(genotype.isNoCall()) continue;
+				if(genotype.isHomRef()) continue;
+				final List<Allele> L=genotype.getAlleles();
+				if(L==null || L.isEmpty()) continue;
+				
+				final Call c=new Call();
+				c.pos=ctx.getStart();
+				c.ref=ref;
+				c.sample=this.samples.intern(genotype.getSampleName());
+				if(L.size()==1)
 					{
-					if(!genotype.isAvailable()) continue;
-					if(!genotype.isCalled()) continue;
-					if(genotype.isNoCall()) continue;
-					if(genotype.isHomRef()) continue;
-					final List<Allele> L=genotype.getAlleles();
-					if(L==null || L.isEmpty()) continue;
-					
-
-					final Call c=new Call();
-					c.chrom=ctx.getContig();
-					c.pos=ctx.getStart();
-					c.ref=ctx.getReference().getDisplayString();
-					c.gene=g;
-					c.sample=genotype.getSampleName();
-					c.posId=(ctx.getContig()+":"+ctx.getStart()+":"+ctx.getReference().getDisplayString()).toLowerCase();
-					if(L.size()==1)
-						{
-						c.a1=genotype.getAllele(0).getDisplayString().toUpperCase();
-						c.a2=c.a1;
-						}
-					else if(L.size()==2)
-						{
-						c.a1=genotype.getAllele(0).getDisplayString().toUpperCase();
-						c.a2=genotype.getAllele(1).getDisplayString().toUpperCase();
-						if(c.a1.compareTo(c.a2)>0)
-							{
-							String tmp=c.a1;
-							c.a1=c.a2;
-							c.a2=tmp;
-							}
-						}
-					else
+					c.a1=this.alleles.intern(genotype.getAllele(0).getDisplayString().toUpperCase());
+					c.a2=c.a1;
+					}
+				else if(L.size()==2)
+					{
+					String a1=genotype.getAllele(0).getDisplayString().toUpperCase();
+					String a2=genotype.getAllele(1).getDisplayString().toUpperCase();
+					if(a1.compareTo(a2)>0)
 						{
-						CloserUtil.close(iter);
-						throw new RuntimeException("cannot handle multi-ploidy "+ctx);
+						String tmp=a1;
+						a1=a2;
+						a2=tmp;
 						}
-
-					this.sortingCollection.add(c);
+					c.a1=this.alleles.intern(a1);
+					c.a2=this.alleles.intern(a2);
+					}
+				else
+					{
+					CloserUtil.close(iter);
+					throw new RuntimeException("cannot handle multi-ploidy "+ctx);
+					}
+				calls.add(c);
+				}
+			
+			for(final GeneName g:geneNames)
+				{
+				final int gene=this.genes.intern(g);
+				for(final Call c0:calls)
+					{
+					final Call c=new Call();
+					c.gene=gene;
+					c.pos=c0.pos;
+					c.ref=c0.ref;
+					c.sample=c0.sample;
+					c.a1=c0.a1;
+					c.a2=c0.a2;
+					addCall(c);
 					}
 				}	
 			}
@@ -602,14 +792,13 @@ public class GroupByGene
 	/** public for knime */
 	public void initializeSortingCollections()
 		{
-		this.sortingCollection=SortingCollection.newInstance(
-				Call.class,
-				new CallCodec(),
-				new CallCmp(),
-				this.maxRecordsInRam,
-				this.tmpDir
-				);
-		this.sortingCollection.setDestructiveIteration(true);
+		if(this.sortingCollection!=null) this.sortingCollection.cleanup();
+		this.sortingCollection=null;
+		this.gene2calls.clear();
+		this.callsInRam=0L;
+		this.genes.clear();
+		this.samples.clear();
+		this.alleles.clear();
 		this.sampleNames.clear();
 		}
 
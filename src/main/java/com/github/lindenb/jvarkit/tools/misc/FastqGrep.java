@@ -1,28 +1,31 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
-import htsjdk.samtools.fastq.BasicFastqWriter;
 import htsjdk.samtools.fastq.FastqConstants;
-import htsjdk.samtools.fastq.FastqRecord;
-import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloserUtil;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.ReadNameSet;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class FastqGrep
 	extends AbstractCommandLineProgram
 	{
 	private boolean inverse=false;
-	private Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private ReadNameSet readNames=null;
+	/** same as readNames when the names are counted (option -n) */
+	private ReadNameSet.ExactSet countedNames=null;
 	private int n_before_remove=-1;
 
 	
@@ -46,16 +49,14 @@ public class FastqGrep
 		out.println(" -f (file) file containing a list of read names..");
 		out.println(" -R (name) add the read.");
 		out.println(" -n (int) when found, remove the read from the list of names when found more that 'n' time (increase speed)");
+		out.println(" -b (long) don't store the names but use a bloom filter sized for this number of names. Uses less memory but ~1% of the reads not in the list will be reported as found. Cannot be used with -n.");
+		out.println(" The names are stored outside the java heap: the memory is limited by -XX:MaxDirectMemorySize (default: the value of -Xmx).");
+		out.println(" Without -b, plan ~60 bytes per name plus its length: the table of names is doubled when full and the old one is freed after the copy.");
 		out.println(" -V  invert");
 		out.println(" -o (filename) output file. default: stdout.");
 		super.printOptions(out);
 		}
 	
-	private String getReadName(FastqRecord r)
-		{
-		return getReadName(r.getReadHeader());
-		}
-	
 	private String getReadName(String s)
 		{
 		int beg=(s.startsWith(FastqConstants.SEQUENCE_HEADER)?1:0);
@@ -64,42 +65,34 @@ public class FastqGrep
 		s= s.substring(beg, end);
 		return s;
 		}
-	private void run(FastqReader r,FastqWriter out)
+	private void run(ByteFastqReader r,OutputStream out) throws IOException
 		{
 		long nRec=0L;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		final MutableFastqRecord fastq=new MutableFastqRecord();
+		while(r.read(fastq))
 			{
-			FastqRecord fastq=r.next();
-			boolean keep=false;
-			String readName=getReadName(fastq);
-			Integer count=readNames.get(readName);
-			if(count!=null)
-				{
-				keep=true;
-				}
+			/* the read name is looked up in the bytes of the header, without creating a String */
+			final MutableFastqRecord.Line header=fastq.getHeaderLine();
+			final int beg=(header.length()>1 && header.byteAt(1)=='@'?2:1);
+			final int len=fastq.getReadNameEnd()-beg;
+			boolean keep=readNames.contains(header.getBytes(),beg,len);
 			if(inverse) keep=!keep;
 			if(keep)
 				{
 				++nRec;
-				out.write(fastq);
+				fastq.write(out);
 				}
 			
 			if(n_before_remove!=-1 && !inverse && keep)
 				{
-				count++;
+				final int count=countedNames.incrementCount(header.getBytes(),beg,len);
 				if(count>=n_before_remove)
 					{
-					readNames.remove(readName);
-					if(readNames.isEmpty()) break;
-					}
-				else
-					{
-					readNames.put(readName,count);
+					countedNames.remove(header.getBytes(),beg,len);
+					if(countedNames.isEmpty()) break;
 					}
 				}
-			
-			
 			}
 		info("Done. N-Reads:"+nRec);
 		}
@@ -108,40 +101,20 @@ public class FastqGrep
 	public int doWork(String[] args)
 		{
 		File fileout=null;
+		final List<String> nameStrings=new ArrayList<>();
+		final List<String> nameFiles=new ArrayList<>();
+		long bloomSize=-1L;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+ "o:f:R:n"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+ "o:f:R:n:Vb:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'n': n_before_remove=Integer.parseInt(opt.getOptArg()); break;
 				case 'V': inverse=true;break;
-				case 'R': readNames.put(getReadName(opt.getOptArg()),0);break;
-				case 'f':
-					{
-					BufferedReader in=null;
-					try
-						{
-						in=IOUtils.openURIForBufferedReading(opt.getOptArg());
-				    	String line;
-				    	while((line=in.readLine())!=null)
-				    		{
-				    		line=line.trim();
-				    		if(line.isEmpty()) continue;
-				    		readNames.put(getReadName(line),0);
-				    		}
-						}
-					catch(Exception err)
-						{
-						error(err);
-						return -1;
-						}
-					finally
-						{
-						CloserUtil.close(in);
-						}
-					break;
-					}
+				case 'R': nameStrings.add(opt.getOptArg());break;
+				case 'f': nameFiles.add(opt.getOptArg());break;
+				case 'b': bloomSize=Long.parseLong(opt.getOptArg());break;
 				case 'o': fileout=new File(opt.getOptArg());break;
 				default:
 					{
@@ -155,29 +128,72 @@ public class FastqGrep
 				}
 			}
 		
+		if(bloomSize>0L)
+			{
+			if(n_before_remove!=-1)
+				{
+				error("option -n cannot be used with a bloom filter");
+				return -1;
+				}
+			readNames=ReadNameSet.newBloomFilter(bloomSize, 0.01);
+			}
+		else
+			{
+			countedNames=ReadNameSet.newExactSet();
+			readNames=countedNames;
+			}
+		for(final String name:nameStrings)
+			{
+			readNames.add(getReadName(name));
+			}
+		for(final String uri:nameFiles)
+			{
+			BufferedReader in=null;
+			try
+				{
+				in=IOUtils.openURIForBufferedReading(uri);
+		    	String line;
+		    	while((line=in.readLine())!=null)
+		    		{
+		    		line=line.trim();
+		    		if(line.isEmpty()) continue;
+		    		readNames.add(getReadName(line));
+		    		}
+				}
+			catch(Exception err)
+				{
+				error(err);
+				return -1;
+				}
+			finally
+				{
+				CloserUtil.close(in);
+				}
+			}
+		
 		if(readNames.isEmpty())
     		{
     		warning("no read name found.");
     		}
 		
-		FastqWriter out=null;
+		OutputStream out=null;
 		try
 			{
 			if(fileout!=null)
 				{
 				info("Writing to "+fileout);
-				out=new BasicFastqWriter(fileout);
+				out=new BufferedOutputStream(IOUtils.openFileForWriting(fileout));
 				}
 			else
 				{
 				info("Writing to stdout");
-				out=new BasicFastqWriter(System.out);
+				out=new BufferedOutputStream(System.out);
 				}
 			
 			if(opt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqR=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqR=new ByteFastqReader(System.in);
 				run(fqR,out);
 				fqR.close();
 				}
@@ -185,10 +201,11 @@ public class FastqGrep
 				{
 				File f=new File(args[optind]);
 				info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				ByteFastqReader fqR=new ByteFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
+			out.flush();
 			CloserUtil.close(out);
 			return 0;
 			}
@@ -32,17 +32,28 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
@@ -56,7 +67,7 @@ import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.DenseCounter;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -89,6 +100,7 @@ $ find ./  -type f -name "*.bam" |\
 ## History
 
  * 2017: moved to jcommander
+ * 2017: option --threads: several BAMs are scanned at the same time, one multi-interval query per BAM
 
 END_DOC
  */
@@ -109,6 +121,12 @@ public class FindAllCoverageAtPosition extends Launcher
 	@Parameter(names={"-o","--out"},description="output file. Default: stdout")
 	private File outputFile = null;
 
+	@Parameter(names={"-t","--threads"},description="Number of BAM files opened and scanned at the same time.")
+	private int nThreads = 1;
+
+	@Parameter(names={"--ordered"},description="When using more than one thread: print the rows in the order of the input BAM files. Default is to print the rows of a BAM as soon as it has been scanned.")
+	private boolean ordered_output = false;
+
 	
 	private static class Mutation implements Comparable<Mutation>
 		{
@@ -171,10 +189,17 @@ public class FindAllCoverageAtPosition extends Launcher
 	
 	private static class CigarAndBases
 		{
-		Counter<CigarOperator> operators = new Counter<>();
-		Counter<Character> bases = new Counter<>();
+		/** indexed by CigarOperator.ordinal() */
+		final DenseCounter operators = new DenseCounter(CigarOperator.values().length);
+		/** indexed by the ASCII code of the base */
+		final DenseCounter bases = new DenseCounter(128);
 		}
 	private PrintWriter out=null;
+	/** non-null if more than one thread */
+	private ExecutorService executor=null;
+	private CompletionService<String> completionService=null;
+	/** BAMs being scanned, in input order */
+	private final Deque<Future<String>> pending=new ArrayDeque<>();
 	private SamReaderFactory samReaderFactory;
     public FindAllCoverageAtPosition()
     	{
@@ -214,191 +239,281 @@ public class FindAllCoverageAtPosition extends Launcher
     	return null;
     	}
 
-    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    /** count the cigar operators and the bases of 'rec' at position 'pos' */
+    private static void countAt(final SAMRecord rec,final Cigar cigar,final String readString,final int pos,final CigarAndBases counter)
     	{
-
-    	final String DEFAULT_SAMPLE_NAME="(undefined)";
-    	String line;
-    	while((line=in.readLine())!=null)
+		int ref= rec.getUnclippedStart();
+		int readPos = 0;
+		for(int k=0;k<cigar.numCigarElements() && ref< pos+1;++k)
 			{
-    		if(out.checkError()) break;
-			if(line.isEmpty() || line.startsWith("#")) continue;
-			File f=new File(line);
-			if(!f.exists()) continue;
-			if(!f.isFile()) continue;
-			if(!f.canRead()) continue;
-			String filename=f.getName();
-			if(filename.endsWith(".cram"))
-				{
-				LOG.warn("Sorry CRAM is not supported "+filename);
-				continue;
-				}
-			if(!filename.endsWith(".bam")) continue;
-			
-    			
-			SamReader samReader=null;
-			SAMRecordIterator iter=null;
-			try
+			final CigarElement ce=cigar.getCigarElement(k);
+			final CigarOperator op=ce.getOperator();
+			switch(op)
 				{
-				samReader = this.samReaderFactory.open(f);
-				if(!samReader.hasIndex())
+				case P: break;
+				case I: 
 					{
-					LOG.warn("no index for "+f);
-					continue;
+					if(ref==pos)
+						{
+						counter.operators.incr(op.ordinal());
+						counter.bases.incr(INSERTION_CHAR);
+						}
+					readPos += ce.getLength();
+					break;
 					}
-				final SAMFileHeader header=samReader.getFileHeader();
-				for(final Mutation src:mutations)
+				case D:case N:
+				case M: case X: case EQ: 
+				case H:
+				case S:
 					{
-					final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
-					for(SAMReadGroupRecord rg:header.getReadGroups())
+					for(int i=0;i< ce.getLength();++i )
 						{
-						if(rg!=null)
+						if(ref==pos)
 							{
-							String sn= rg.getSample();
-							if(sn!=null && !sn.trim().isEmpty())
+							counter.operators.incr(op.ordinal());
+							switch(op)
 								{
-								sample2count.put(sn, new CigarAndBases());
+								case M:case X:case EQ:
+									counter.bases.incr(readString.charAt(readPos));
+									break;
+								case D:case N:
+									counter.bases.incr(DELETION_CHAR);
+									break;
+								default:break;
 								}
-							}
+							break;
+							}	
+						if(op.consumesReadBases()) ++readPos;
+						ref++;
 						}
-					
-					if(sample2count.isEmpty())
+					break;
+					}
+				default: throw new RuntimeException("unknown operator:"+op);
+				}
+			}
+    	}
+    
+    /** scan one BAM file for all the mutations. All the positions of the file are fetched
+     * with one multi-interval query. Returns the output rows, or null if the file was skipped. */
+    private String scanBam(final File f,final List<Mutation> mutations) throws Exception
+    	{
+    	final String DEFAULT_SAMPLE_NAME="(undefined)";
+		SamReader samReader=null;
+		SAMRecordIterator iter=null;
+		try
+			{
+			samReader = this.samReaderFactory.open(f);
+			if(!samReader.hasIndex())
+				{
+				LOG.warn("no index for "+f);
+				return null;
+				}
+			final SAMFileHeader header=samReader.getFileHeader();
+			final Set<String> headerSamples = new TreeSet<>();
+			for(SAMReadGroupRecord rg:header.getReadGroups())
+				{
+				if(rg!=null)
+					{
+					String sn= rg.getSample();
+					if(sn!=null && !sn.trim().isEmpty())
 						{
-						sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
+						headerSamples.add(sn);
 						}
-
-					
-					
-					final Mutation m = convertFromSamHeader(f,header,src);
-					if(m==null) continue;
-					iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false);
-					while(iter.hasNext())
+					}
+				}
+			if(headerSamples.isEmpty())
+				{
+				headerSamples.add(DEFAULT_SAMPLE_NAME);
+				}
+			
+			/* mutations converted to the names of this BAM, null if not found */
+			final Mutation converted[]=new Mutation[mutations.size()];
+			final List<Map<String, CigarAndBases>> sample2countList=new ArrayList<>(mutations.size());
+			/* tid to the index of the mutations, sorted on position */
+			final Map<Integer,List<Integer>> tid2indexes=new TreeMap<>();
+			final List<QueryInterval> intervals=new ArrayList<>(mutations.size());
+			for(int idx=0;idx< mutations.size();++idx)
+				{
+				final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
+				for(final String sn:headerSamples)
+					{
+					sample2count.put(sn, new CigarAndBases());
+					}
+				sample2countList.add(sample2count);
+				final Mutation m = convertFromSamHeader(f,header,mutations.get(idx));
+				converted[idx]=m;
+				if(m==null) continue;
+				final int tid=header.getSequenceIndex(m.chrom);
+				List<Integer> L=tid2indexes.get(tid);
+				if(L==null)
+					{
+					L=new ArrayList<>();
+					tid2indexes.put(tid, L);
+					}
+				L.add(idx);
+				intervals.add(new QueryInterval(tid, Math.max(1,m.pos-1), m.pos+1));
+				}
+			/* per contig, positions sorted, to find the mutations overlapping a read */
+			final Map<Integer,int[]> tid2positions=new TreeMap<>();
+			for(final Integer tid:tid2indexes.keySet())
+				{
+				final List<Integer> L= tid2indexes.get(tid);
+				L.sort((A,B)->Integer.compare(converted[A].pos, converted[B].pos));
+				tid2positions.put(tid, L.stream().mapToInt(I->converted[I].pos).toArray());
+				}
+			
+			if(!intervals.isEmpty())
+				{
+				iter=samReader.queryOverlapping(QueryInterval.optimizeIntervals(intervals.toArray(new QueryInterval[intervals.size()])));
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+					if(rec.getNotPrimaryAlignmentFlag()) continue;
+					if(rec.isSecondaryOrSupplementary()) continue;
+					if(rec.getDuplicateReadFlag()) continue;
+					final Cigar cigar=rec.getCigar();
+					if(cigar==null) continue;
+					final int positions[]=tid2positions.get(rec.getReferenceIndex());
+					if(positions==null) continue;
+					final List<Integer> indexes=tid2indexes.get(rec.getReferenceIndex());
+					/* a mutation is hit by the query if [pos-1,pos+1] overlaps the read */
+					int k= Arrays.binarySearch(positions, rec.getAlignmentStart()-1);
+					if(k<0) k=-(k+1);
+					while(k>0 && positions[k-1]>=rec.getAlignmentStart()-1) --k;
+					final String readString = rec.getReadString().toUpperCase();
+					String sampleName=DEFAULT_SAMPLE_NAME;
+					final SAMReadGroupRecord rg=rec.getReadGroup();
+					if(rg!=null)
 						{
-						final SAMRecord rec=iter.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-						if(rec.getNotPrimaryAlignmentFlag()) continue;
-						if(rec.isSecondaryOrSupplementary()) continue;
-						if(rec.getDuplicateReadFlag()) continue;
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null) continue;
-						final String readString = rec.getReadString().toUpperCase();
-						String sampleName=DEFAULT_SAMPLE_NAME;
-						final SAMReadGroupRecord rg=rec.getReadGroup();
-						if(rg!=null)
+						String sn= rg.getSample();
+						if(sn!=null && !sn.trim().isEmpty())
 							{
-							String sn= rg.getSample();
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sampleName=sn;
-								}
+							sampleName=sn;
 							}
+						}
+					for(;k< positions.length && positions[k]<=rec.getAlignmentEnd()+1;++k)
+						{
+						final Map<String, CigarAndBases> sample2count= sample2countList.get(indexes.get(k));
 						CigarAndBases counter= sample2count.get(sampleName);
 						if(counter==null)
 							{
 							counter=new CigarAndBases();
 							sample2count.put(sampleName, counter);
-							}	
-						
-						
-						int ref= rec.getUnclippedStart();
-						int readPos = 0;
-						for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
-							{
-							final CigarElement ce=cigar.getCigarElement(k);
-							final CigarOperator op=ce.getOperator();
-							switch(op)
-								{
-								case P: break;
-								case I: 
-									{
-									if(ref==m.pos)
-										{
-										counter.operators.incr(op);
-										counter.bases.incr(INSERTION_CHAR);
-										}
-									readPos += ce.getLength();
-									break;
-									}
-								case D:case N:
-								case M: case X: case EQ: 
-								case H:
-								case S:
-									{
-									for(int i=0;i< ce.getLength();++i )
-										{
-										if(ref==m.pos)
-											{
-											counter.operators.incr(op);
-											switch(op)
-												{
-												case M:case X:case EQ:
-													counter.bases.incr(readString.charAt(readPos));
-													break;
-												case D:case N:
-													counter.bases.incr(DELETION_CHAR);
-													break;
-												default:break;
-												}
-											break;
-											}	
-										if(op.consumesReadBases()) ++readPos;
-										ref++;
-										}
-									break;
-									}
-								default: throw new RuntimeException("unknown operator:"+op);
-								}
 							}
+						countAt(rec,cigar,readString,positions[k],counter);
 						}
-					iter.close();
-					iter=null;
-						
+					}
+				iter.close();
+				iter=null;
+				}
+			
+			final StringWriter sw=new StringWriter();
+			final PrintWriter out=new PrintWriter(sw);
+			for(int idx=0;idx< mutations.size();++idx)
+				{
+				final Mutation m=converted[idx];
+				if(m==null) continue;
+				final Map<String, CigarAndBases> sample2count= sample2countList.get(idx);
+				for(final String sample:sample2count.keySet())
+					{
+					final CigarAndBases counter= sample2count.get(sample);
 					
-					for(final String sample:sample2count.keySet())
+					out.print(f);
+					out.print('\t');
+					out.print(m.chrom);
+					out.print('\t');
+					out.print(m.pos);
+					out.print('\t');
+					out.print(sample);
+					out.print('\t');
+					out.print(
+							counter.operators.count(CigarOperator.M.ordinal())+
+							counter.operators.count(CigarOperator.EQ.ordinal())+
+							counter.operators.count(CigarOperator.X.ordinal())
+							);
+					for(CigarOperator op:CigarOperator.values())
 						{
-						final CigarAndBases counter= sample2count.get(sample);
-						
-						out.print(f);
-						out.print('\t');
-						out.print(m.chrom);
 						out.print('\t');
-						out.print(m.pos);
-						out.print('\t');
-						out.print(sample);
+						out.print(counter.operators.count(op.ordinal()));
+						}
+					for(char c:BASES_To_PRINT)
+						{
 						out.print('\t');
-						out.print(
-								counter.operators.count(CigarOperator.M)+
-								counter.operators.count(CigarOperator.EQ)+
-								counter.operators.count(CigarOperator.X)
-								);
-						for(CigarOperator op:CigarOperator.values())
-							{
-							out.print('\t');
-							out.print(counter.operators.count(op));
-							}
-						for(char c:BASES_To_PRINT)
-							{
-							out.print('\t');
-							out.print(counter.bases.count(c));
-							}
-						
-						out.println();
+						out.print(counter.bases.count(c));
 						}
-					}//end of loop over mutations
+					
+					out.println();
+					}
+				}//end of loop over mutations
+			out.flush();
+			return sw.toString();
+			}
+		catch(Exception err)
+			{
+			LOG.error(err);
+			throw err;
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			CloserUtil.close(samReader);
+			}
+    	}
+    
+    /** print the rows of the oldest pending BAM (ordered) or of the first completed BAM */
+    private void printNextPending() throws Exception
+    	{
+    	final Future<String> future;
+    	if(this.ordered_output)
+    		{
+    		future=this.pending.removeFirst();
+    		}
+    	else
+    		{
+    		future=this.completionService.take();
+    		this.pending.remove(future);
+    		}
+    	final String rows=future.get();
+    	if(rows!=null) this.out.print(rows);
+    	}
+    
+    private void scan(final BufferedReader in,final List<Mutation> mutations) throws Exception
+    	{
+    	String line;
+    	while((line=in.readLine())!=null)
+			{
+    		if(out.checkError()) break;
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final File f=new File(line);
+			if(!f.exists()) continue;
+			if(!f.isFile()) continue;
+			if(!f.canRead()) continue;
+			String filename=f.getName();
+			if(filename.endsWith(".cram"))
+				{
+				LOG.warn("Sorry CRAM is not supported "+filename);
+				continue;
 				}
-			catch(Exception err)
+			if(!filename.endsWith(".bam")) continue;
+			
+			if(this.executor==null)
 				{
-				LOG.error(err);
-				throw err;
+				final String rows=scanBam(f,mutations);
+				if(rows!=null) this.out.print(rows);
+				continue;
 				}
-			finally
+			final Callable<String> task=()->scanBam(f,mutations);
+			this.pending.add(this.ordered_output?
+					this.executor.submit(task):
+					this.completionService.submit(task)
+					);
+			while(this.pending.size()> 2*this.nThreads)
 				{
-				CloserUtil.close(iter);
-				CloserUtil.close(samReader);
-				}    				
-			}		
-	    
+				printNextPending();
+				}
+			}
     	}
     
     @Override
@@ -455,6 +570,12 @@ public class FindAllCoverageAtPosition extends Launcher
 				}
 		
 			LOG.info("number of mutations "+mutations.size());
+			final List<Mutation> mutationList=new ArrayList<>(mutations);
+			if(this.nThreads>1)
+				{
+				this.executor=Executors.newFixedThreadPool(this.nThreads);
+				this.completionService=new ExecutorCompletionService<>(this.executor);
+				}
 			
 			
 			this.out=this.openFileOrStdoutAsPrintWriter(this.outputFile);
@@ -486,7 +607,7 @@ public class FindAllCoverageAtPosition extends Launcher
 				{
 				LOG.info("Reading from stdin");
 				r = new BufferedReader(new InputStreamReader(stdin()));
-				scan(r,mutations);
+				scan(r,mutationList);
 				r.close();
 				r=null;
 				}
@@ -496,11 +617,15 @@ public class FindAllCoverageAtPosition extends Launcher
 					{
 					LOG.info("Reading from "+filename);
 					r=IOUtils.openURIForBufferedReading(filename);
-					scan(r,mutations);
+					scan(r,mutationList);
 					r.close();
 					r=null;
 					}
 				}
+			while(!this.pending.isEmpty())
+				{
+				printNextPending();
+				}
 			this.out.flush();
 			return 0;
 			}
@@ -511,6 +636,7 @@ public class FindAllCoverageAtPosition extends Launcher
 			}
 		finally
 			{
+			if(this.executor!=null) this.executor.shutdownNow();
 			CloserUtil.close(this.out);
 			CloserUtil.close(r);
 			}
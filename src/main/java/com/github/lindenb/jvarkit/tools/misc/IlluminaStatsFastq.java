@@ -12,19 +12,19 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
-import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.SAMUtils;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.IntCounter;
 import com.github.lindenb.jvarkit.util.illumina.FastQName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 @Program(name="IlluminaStatsFastq",description="Reads filenames from stdin: Count FASTQs in Illumina Result.")
 public class IlluminaStatsFastq
 	extends Launcher
@@ -69,6 +69,22 @@ public class IlluminaStatsFastq
 		}
 	
 	
+	/** @return true if the line contains 'pattern' */
+	private static boolean contains(final MutableFastqRecord.Line line,final byte pattern[])
+		{
+		final byte bytes[]=line.getBytes();
+		for(int i=0;i+pattern.length<=line.length();++i)
+			{
+			int j=0;
+			while(j< pattern.length && bytes[i+j]==pattern[j]) ++j;
+			if(j==pattern.length) return true;
+			}
+		return false;
+		}
+	
+	private static final byte FAILS_FILTER[]=new byte[]{':','Y',':'};
+	private static final byte PASSES_FILTER[]=new byte[]{':','N',':'};
+	
 	private class Analyzer extends Thread
 		{
 		private File fastqFile;
@@ -136,32 +152,32 @@ public class IlluminaStatsFastq
 				LOG.info(f.toString());
 				FastQName fq=FastQName.parse(f);
 				
-				Counter<Integer> qualityHistogram=new Counter<Integer>();
-				Counter<Integer> pos2quality=new Counter<Integer>();
+				IntCounter qualityHistogram=new IntCounter();
+				IntCounter pos2quality=new IntCounter();
 				List<Bases> pos2bases=new ArrayList<Bases>(300);
-				Counter<Integer> lengths=new Counter<Integer>();
-				Counter<Integer> pos2count=new Counter<Integer>();
+				IntCounter lengths=new IntCounter();
+				IntCounter pos2count=new IntCounter();
 				Counter<String> dnaIndexes=new Counter<String>();
 				long nReads=0L;
 				double sum_qualities=0L;
 				long count_bases=0L;
 				long count_read_fails_filter=0L;
 				long count_read_doesnt_fail_filter=0L;
-				FastqReader r=null;
+				ByteFastqReader r=null;
 				try
 					{
-					r=new FourLinesFastqReader(f);
+					final MutableFastqRecord record=new MutableFastqRecord();
+					r=new ByteFastqReader(f);
 					r.setValidationStringency(ValidationStringency.LENIENT);
-					while(r.hasNext())
+					while(r.read(record))
 						{
-						FastqRecord record=r.next();
 						++nReads;
-						if(record.getReadHeader().contains(":Y:"))
+						if(contains(record.getHeaderLine(),FAILS_FILTER))
 							{
 							count_read_fails_filter++;
 							continue;
 							}
-						else if(record.getReadHeader().contains(":N:"))
+						else if(contains(record.getHeaderLine(),PASSES_FILTER))
 							{
 							count_read_doesnt_fail_filter++;
 							}
@@ -169,10 +185,11 @@ public class IlluminaStatsFastq
 						if(owner().COUNT_INDEX>0)
 							{
 							//index
-							int last_colon=record.getReadHeader().lastIndexOf(':');
-							if(last_colon!=-1 && last_colon+1< record.getReadHeader().length())
+							final String readHeader=record.getReadHeader();
+							int last_colon=readHeader.lastIndexOf(':');
+							if(last_colon!=-1 && last_colon+1< readHeader.length())
 								{
-								String dnaIndex=record.getReadHeader().substring(last_colon+1).trim().toUpperCase();
+								String dnaIndex=readHeader.substring(last_colon+1).trim().toUpperCase();
 								if(this.DNARegex.matcher(dnaIndex).matches())
 									{
 									dnaIndexes.incr(dnaIndex);
@@ -180,35 +197,36 @@ public class IlluminaStatsFastq
 								}
 							}
 						
-						byte phred[]=SAMUtils.fastqToPhred(record.getBaseQualityString());
-						
-						for(int i=0;i< phred.length ;++i)
+						final MutableFastqRecord.Line quals=record.getQualityLine();
+						for(int i=0;i< quals.length() ;++i)
 							{
-							sum_qualities+=phred[i];
+							final byte phred=(byte)SAMUtils.fastqToPhred((char)(quals.byteAt(i) & 0xFF));
+							sum_qualities+=phred;
 							count_bases++;
 							
-							qualityHistogram.incr(phred[i]/QUALITY_STEP);
-							pos2quality.incr(i,phred[i]);
+							qualityHistogram.incr(phred/QUALITY_STEP);
+							pos2quality.incr(i,phred);
 							pos2count.incr(i);
 							}
 						/* get base usage */
-						while(pos2bases.size() <record.getReadString().length())
+						final MutableFastqRecord.Line bases=record.getSequenceLine();
+						while(pos2bases.size() <bases.length())
 							{
 							pos2bases.add(new Bases());
 							}
-						for(int i=0;i< record.getReadString().length() ;++i)
+						for(int i=0;i< bases.length() ;++i)
 							{
-							Bases bases=pos2bases.get(i);
-							switch(record.getReadString().charAt(i))
+							Bases b=pos2bases.get(i);
+							switch(bases.byteAt(i))
 								{
-								case 'A': case 'a':bases.A++;break;
-								case 'T': case 't':bases.T++;break;
-								case 'G': case 'g':bases.G++;break;
-								case 'C': case 'c':bases.C++;break;
-								default: bases.N++;break;
+								case 'A': case 'a':b.A++;break;
+								case 'T': case 't':b.T++;break;
+								case 'G': case 'g':b.G++;break;
+								case 'C': case 'c':b.C++;break;
+								default: b.N++;break;
 								}
 							}
-						lengths.incr(record.getBaseQualityString().length());
+						lengths.incr(quals.length());
 						}
 					}
 				catch(Exception err2)
@@ -261,7 +279,7 @@ public class IlluminaStatsFastq
 						this.hash,
 						sum_qualities/count_bases
 						);
-					for(Integer step:qualityHistogram.keySet())
+					for(final int step:qualityHistogram.keys())
 						{
 						tsv(owner().whistquals,
 								this.hash,
@@ -270,7 +288,7 @@ public class IlluminaStatsFastq
 								);
 						
 						}
-					for(Integer position:pos2quality.keySet())
+					for(final int position:pos2quality.keys())
 						{
 						tsv(owner().wqualperpos,
 								this.hash,
@@ -288,7 +306,7 @@ public class IlluminaStatsFastq
 							i+1,b.A,b.T,b.G,b.C,b.N
 							);
 						}
-					for(Integer L:lengths.keySet())
+					for(final int L:lengths.keys())
 						{
 						tsv(owner().wlength,
 								this.hash,
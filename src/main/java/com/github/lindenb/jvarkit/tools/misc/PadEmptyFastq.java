@@ -1,17 +1,18 @@
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 
-import htsjdk.samtools.fastq.BasicFastqWriter;
-import htsjdk.samtools.fastq.FastqRecord;
-import htsjdk.samtools.fastq.FastqWriter;
-import htsjdk.samtools.fastq.FastqWriterFactory;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloserUtil;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.ByteFastqReader;
+import com.github.lindenb.jvarkit.util.picard.MutableFastqRecord;
 
 public class PadEmptyFastq extends AbstractCommandLineProgram
 	{
@@ -24,24 +25,24 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 		}
 	
 	
-	private void copyTo(FastqReader r,FastqWriter w)
+	private void copyTo(ByteFastqReader r,OutputStream w) throws IOException
 		{
 		int padLength=this.N;
 		long nReads=0L;
 		long nFill=0L;
-		String fillN=null;
-		String fillQ=null;
+		byte fillN[]=null;
+		byte fillQ[]=null;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
+		final MutableFastqRecord rec=new MutableFastqRecord();
+		while(r.read(rec))
 			{
-			FastqRecord rec=r.next();
 			
 			
 			if(++nReads%1E6==0)
 				{
 				info("Read "+nReads +" reads. empty reads="+nFill);
 				}
-			if(rec.getReadString().isEmpty())
+			if(rec.getSequenceLine().isEmpty())
 				{
 				++nFill;
 				if(padLength<1)
@@ -50,24 +51,19 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 					}
 				if(fillN==null)
 					{
-					StringBuilder b1=new StringBuilder();
-					while(b1.length()< padLength) b1.append("N");
-					fillN=b1.toString();
-					fillQ=fillN.replace('N', '#');
+					fillN=new byte[padLength];
+					fillQ=new byte[padLength];
+					Arrays.fill(fillN,(byte)'N');
+					Arrays.fill(fillQ,(byte)'#');
 					}
-				
-				rec=new FastqRecord(
-						rec.getReadHeader(),
-						fillN,
-						rec.getBaseQualityHeader(),
-						fillQ
-						);
+				rec.getSequenceLine().set(fillN);
+				rec.getQualityLine().set(fillQ);
 				}
 			else if(padLength<1)
 				{
-				padLength=rec.getReadString().length();
+				padLength=rec.getReadLength();
 				}
-			w.write(rec);
+			rec.write(w);
 			}
 		info("Done. Read "+nReads +" reads. empty reads="+nFill);
 		}
@@ -121,24 +117,24 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 				}
 			}
 		
-		FastqWriter fqw=null;		
+		OutputStream fqw=null;		
 		try
 			{
 			
 			if(fileOut==null)
 				{
 				info("writing to stdout");
-				fqw=new BasicFastqWriter(System.out);
+				fqw=new BufferedOutputStream(System.out);
 				}
 			else
 				{
 				info("writing to "+fileOut);
-				fqw=new FastqWriterFactory().newWriter(fileOut);
+				fqw=new BufferedOutputStream(IOUtils.openFileForWriting(fileOut));
 				}
 			if(opt.getOptInd()==args.length)
 				{
 				info("Reading from stdin");
-				FastqReader fqr=new FourLinesFastqReader(System.in);
+				ByteFastqReader fqr=new ByteFastqReader(System.in);
 				copyTo(fqr,fqw);
 				fqr.close();
 				}
@@ -148,11 +144,12 @@ public class PadEmptyFastq extends AbstractCommandLineProgram
 					{
 					String filename=args[i];
 					info("Reading from "+filename);
-					FastqReader fqr=new FourLinesFastqReader(new File(filename));
+					ByteFastqReader fqr=new ByteFastqReader(new File(filename));
 					copyTo(fqr,fqw);
 					fqr.close();
 					}
 				}
+			fqw.flush();
 			return 0;
 			}
 		catch(Exception err)
@@ -28,18 +28,24 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.phylo;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -52,7 +58,6 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.util.AbstractCommandLineProgram;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.jvarkit.util.vcf.bdb.AlleleBinding;
@@ -60,7 +65,6 @@ import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
 import com.sleepycat.je.Cursor;
-import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -236,9 +240,12 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 	
 	private abstract class TreeNode
 		{
-		long nodeid=(++ID_GENERATOR);
+		long nodeid;
 		double weight = 0L;
+		/** index of this node in the weight matrix */
+		int slot=-1;
 		private Set<Integer> _cacheSamples=null;
+		private int _cacheSampleArray[]=null;
 		
 		abstract void collectSampleIds(Set<Integer> set);
 		public Set<Integer> getSamples()
@@ -251,91 +258,25 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 			return _cacheSamples;
 			}
 		
-		public Set<String> getSampleNames()
+		/** @return the sample indexes, as an array */
+		int[] getSampleArray()
 			{
-			Set<String> h=new TreeSet<String>();
-			for(Integer idx:this.getSamples()) h.add(VcfPhyloTree.this.sampleList.get(idx));
-			return h;
-			}
-		
-		protected abstract Counter<GType> getGenotypeTypes( Counter<GType> counter,final Calls ctx);
-		
-		private double distance(GType t1,GType t2)
-			{	
-			final double dAA_AA=0.0;
-			final double dAA_AB=5.0;
-			final double dAA_BB=15.0;
-
-			
-			switch(t1)
+			if(_cacheSampleArray==null)
 				{
-				case HET:
-					{
-					switch(t2)
-						{
-						case HET: return dAA_AA;
-						case HOM_ALT: return dAA_AB;
-						case HOM_REF: return dAA_AB;
-						default:break;
-						}
-					break;
-					}
-				case HOM_ALT:
-					{
-					switch(t2)
-						{
-						case HET: return dAA_AB;
-						case HOM_ALT: return dAA_AA;
-						case HOM_REF: return dAA_BB;
-						default:break;
-						}
-					break;
-					}
-				case HOM_REF:
-					{
-					switch(t2)
-						{
-						case HET: return dAA_AB;
-						case HOM_ALT: return dAA_BB;
-						case HOM_REF: return dAA_AA;
-						default:break;
-						}
-					break;
-					}
-				default:break;
+				final int array[]=new int[getSamples().size()];
+				int i=0;
+				for(final Integer idx:getSamples()) array[i++]=idx;
+				_cacheSampleArray=array;
 				}
-			throw new RuntimeException(t1.toString()+" "+t2);
+			return _cacheSampleArray;
 			}
 		
-		double distance(TreeNode other,final Calls ctx)
+		public Set<String> getSampleNames()
 			{
-			Counter<GType> x1=new Counter<GType>();
-			Counter<GType> x2=new Counter<GType>();
-			x1= this.getGenotypeTypes(x1,ctx);
-			x2= other.getGenotypeTypes(x2,ctx);
-			if(x1.isEmpty() && x2.isEmpty()) return 0.0;
-			if(x1.isEmpty() || x2.isEmpty()) return 1.0;
-			double n=0;
-			long m=0;
-			for(GType t1:x1.keySet())
-				{
-				for(GType t2:x2.keySet())
-					{
-					n+=distance(t1,t2)*x1.count(t1)*x2.count(t2);
-					m++;
-					}
-				}
-			
-			return n/m;
-			/*
-			if(x1.keySet().equals(x2.keySet())) return 0L;
-			
-			GType t1= x1.getMostFrequent();
-			GType t2= x2.getMostFrequent();
-			return distance(t1,t2);
-			*/
+			Set<String> h=new TreeSet<String>();
+			for(Integer idx:this.getSamples()) h.add(VcfPhyloTree.this.sampleList.get(idx));
+			return h;
 			}
-
 		
 		boolean containsAnySampleIds(Set<Integer> set)
 			{
@@ -366,6 +307,7 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		private int sample_index;
 		OneSample(int sample_index)
 			{
+			this.nodeid=(++ID_GENERATOR);
 			this.sample_index = sample_index;
 			}
 		String getSampleName()
@@ -373,13 +315,6 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 			return VcfPhyloTree.this.sampleList.get(this.sample_index);
 			}
 		
-		@Override
-		protected Counter<GType> getGenotypeTypes(Counter<GType> c,final Calls calls)
-			{
-			c.incr(calls.getGenotype(this.sample_index));
-			return c;
-			}
-		
 		@Override
 		void collectSampleIds(Set<Integer> set)
 			{
@@ -421,8 +356,9 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		{
 		private TreeNode t1;
 		private TreeNode t2;
-		MergedNodes(TreeNode t1,TreeNode t2)
+		MergedNodes(TreeNode t1,TreeNode t2,long nodeid)
 			{
+			this.nodeid=nodeid;
 			this.t1=t1;
 			this.t2=t2;
 			}
@@ -434,15 +370,6 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 			}
 		
 		
-		@Override
-		protected Counter<GType> getGenotypeTypes(Counter<GType> c,final Calls ctx)
-			{
-			t1.getGenotypeTypes(c,ctx);
-			t2.getGenotypeTypes(c,ctx);
-			
-			return c;
-			}
-
 		@Override
 		void writeGraphizDot(PrintStream out)
 			{
@@ -520,6 +447,8 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 	
 	/** count snps */
 	private long snp_count=0L;
+	/** number of threads computing the distances */
+	private int nThreads=1;
 	
 	private VcfPhyloTree()
 		{
@@ -560,150 +489,318 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		cursor.close();
 		info("After cleanup, removed "+count_deleted+" snps.");
 		}
-	private final int MAX_NODES=2000000;
+	/** distance between a HET and a HOM genotype */
+	private static final long DIST_AA_AB=5L;
+	/** distance between HOM_REF and HOM_ALT */
+	private static final long DIST_AA_BB=15L;
 	
-	private TreeNode matrix(Transaction txn, List<TreeNode> parents)
+	private static final int PLANE_HET=0;
+	private static final int PLANE_ALT=1;
+	
+	/** the genotypes of all the variants, packed in two bit planes per sample (HET and HOM_ALT),
+	 * HOM_REF is 0 in both planes. The planes are stored in a memory mapped temporary file. */
+	private static class PackedGenotypes implements Closeable
 		{
-		long last=System.currentTimeMillis();
+		private static final long CHUNK_SIZE = 1L<<30;
+		private final File file;
+		private final RandomAccessFile raf;
+		/** number of long in one plane */
+		private final int nWords;
+		private final long countRows;
+		private final int samplesPerChunk;
+		private final MappedByteBuffer chunks[];
 		
-		/* faster computing ? , parse BerkeleyDB one time */
-		if(Math.pow(parents.size(),2)/2.0 < MAX_NODES)
+		PackedGenotypes(final File dir,final int nSamples,final long countRows) throws IOException
 			{
-			CursorConfig cursorConfig=CursorConfig.DEFAULT;
-			List<MergedNodes> nodes=new ArrayList<>();
-			for(int x=0;x< parents.size();++x)
+			this.countRows = countRows;
+			final long bytesPerSample = 2L * 8L * ((countRows+63L)/64L);
+			if(bytesPerSample > CHUNK_SIZE) throw new IOException("too many variants: "+countRows);
+			this.nWords = (int)((countRows+63L)/64L);
+			this.samplesPerChunk = (int)Math.max(1L, Math.min(nSamples, CHUNK_SIZE/bytesPerSample));
+			this.file = File.createTempFile("phylo.", ".bits", dir);
+			this.file.deleteOnExit();
+			this.raf = new RandomAccessFile(this.file, "rw");
+			this.raf.setLength(bytesPerSample*nSamples);
+			final FileChannel channel = this.raf.getChannel();
+			this.chunks = new MappedByteBuffer[(nSamples+this.samplesPerChunk-1)/this.samplesPerChunk];
+			for(int i=0;i< this.chunks.length;++i)
 				{
-				TreeNode tn1= parents.get(x);
-				for(int y=x+1;y< parents.size();++y)
-					{
-					TreeNode tn2= parents.get(y);
-					nodes.add(new MergedNodes(tn1, tn2));
-					}
+				final long start = ((long)i)*this.samplesPerChunk*bytesPerSample;
+				final int n = Math.min(this.samplesPerChunk, nSamples-i*this.samplesPerChunk);
+				this.chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, n*bytesPerSample);
 				}
-			DatabaseEntry key=new DatabaseEntry();
-			DatabaseEntry data=new DatabaseEntry();
-			Cursor cursor=this.pos2cov.openCursor(txn,cursorConfig);
-			long nVar=0L;
-			while(cursor.getNext(key, data,LockMode.DEFAULT )==OperationStatus.SUCCESS)
+			}
+		
+		private int offset(final int sample,final int plane,final int word)
+			{
+			return (int)(((((long)(sample%this.samplesPerChunk))*2L+plane)*this.nWords+word)*8L);
+			}
+		
+		long get(final int sample,final int plane,final int word)
+			{
+			return this.chunks[sample/this.samplesPerChunk].getLong(offset(sample,plane,word));
+			}
+		
+		void set(final int sample,final int plane,final long row)
+			{
+			final int word = (int)(row/64L);
+			final int offset = offset(sample,plane,word);
+			final MappedByteBuffer chunk = this.chunks[sample/this.samplesPerChunk];
+			chunk.putLong(offset, chunk.getLong(offset) | (1L<<(row%64L)));
+			}
+		
+		@Override
+		public void close() throws IOException
+			{
+			this.raf.close();
+			this.file.delete();
+			}
+		}
+	
+	/** genotype counts of a node for each variant */
+	private static class NodeCounts
+		{
+		final int size;
+		final int het[];
+		final int alt[];
+		/** rows where at least one sample is not HOM_REF */
+		final long nonRef[];
+		
+		NodeCounts(final PackedGenotypes genotypes,final int samples[])
+			{
+			this.size = samples.length;
+			this.het = new int[(int)genotypes.countRows];
+			this.alt = new int[(int)genotypes.countRows];
+			this.nonRef = new long[genotypes.nWords];
+			for(final int sample:samples)
 				{
-				long now=System.currentTimeMillis();
-				if(now-last > 10*1000)
+				for(int w=0;w< genotypes.nWords;++w)
 					{
-					info("iteration "+nVar+"/"+this.snp_count+" for "+parents.size());
-					last=now;
+					final long h = genotypes.get(sample, PLANE_HET, w);
+					final long a = genotypes.get(sample, PLANE_ALT, w);
+					this.nonRef[w] |= (h|a);
+					count(this.het, w*64, h);
+					count(this.alt, w*64, a);
 					}
-				
-				Calls row = this.callsBindingInstance.entryToObject(data);
-				for(MergedNodes merged : nodes)
-					{
-					merged.weight += merged.t1.distance(merged.t2,row);
-					}
-				++nVar;
 				}
-			cursor.close();
-			
-			Collections.sort(nodes,new Comparator<MergedNodes>()
+			}
+		}
+	
+	/** increment counts[offset+i] for each bit 'i' set in 'bits' */
+	private static void count(final int counts[],final int offset,long bits)
+		{
+		while(bits!=0L)
+			{
+			counts[offset+Long.numberOfTrailingZeros(bits)]++;
+			bits &= (bits-1L);
+			}
+		}
+	
+	/** distance between two nodes for one variant: the distances between each type of genotype found
+	 * in node1 and each type found in node2, weighted by their counts and divided by the number of
+	 * pairs of types */
+	private static double rowDistance(final int size1,final int het1,final int alt1,final int size2,final int het2,final int alt2)
+		{
+		final int ref1 = size1 - het1 - alt1;
+		final int ref2 = size2 - het2 - alt2;
+		final long n=
+			DIST_AA_AB * ( ((long)het1)*(ref2+alt2) + ((long)(ref1+alt1))*het2 ) +
+			DIST_AA_BB * ( ((long)ref1)*alt2 + ((long)alt1)*ref2 )
+			;
+		final int m1 = (ref1>0?1:0) + (het1>0?1:0) + (alt1>0?1:0);
+		final int m2 = (ref2>0?1:0) + (het2>0?1:0) + (alt2>0?1:0);
+		return ((double)n)/(m1*m2);
+		}
+	
+	/** distance between two samples, summed over all the variants */
+	private static double sampleWeight(final PackedGenotypes genotypes,final int sample1,final int sample2)
+		{
+		long n=0L;
+		for(int w=0;w< genotypes.nWords;++w)
+			{
+			final long h1 = genotypes.get(sample1, PLANE_HET, w);
+			final long h2 = genotypes.get(sample2, PLANE_HET, w);
+			final long a1 = genotypes.get(sample1, PLANE_ALT, w);
+			final long a2 = genotypes.get(sample2, PLANE_ALT, w);
+			n += DIST_AA_AB * Long.bitCount(h1^h2);
+			n += DIST_AA_BB * Long.bitCount((a1^a2) & ~(h1|h2));
+			}
+		return n;
+		}
+	
+	/** distance between a new node and another node, summed over all the variants in the BDB order */
+	private static double nodeWeight(final PackedGenotypes genotypes,final NodeCounts node1,final int samples2[])
+		{
+		final int het2[]=new int[64];
+		final int alt2[]=new int[64];
+		double weight=0.0;
+		for(int w=0;w< genotypes.nWords;++w)
+			{
+			long nonRef2=0L;
+			for(final int sample:samples2)
 				{
-				public int compare(MergedNodes o1, MergedNodes o2)
-					{
-					if(o1.weight< o2.weight) return -1;
-					if(o1.weight> o2.weight) return 1;
-					return 0;
-					}
-				});
-			
-			if(nodes.size()>1 &&
-					nodes.get(0).weight == nodes.get(1).weight
-					)
+				final long h = genotypes.get(sample, PLANE_HET, w);
+				final long a = genotypes.get(sample, PLANE_ALT, w);
+				nonRef2 |= (h|a);
+				count(het2, 0, h);
+				count(alt2, 0, a);
+				}
+			/* the distance is 0 when both nodes are HOM_REF */
+			long bits = node1.nonRef[w] | nonRef2;
+			while(bits!=0L)
 				{
-				warning("Score ambiguity for "+nodes.get(0)+" and "+nodes.get(1));
+				final int b = Long.numberOfTrailingZeros(bits);
+				bits &= (bits-1L);
+				final int row = w*64+b;
+				weight += rowDistance(node1.size,node1.het[row],node1.alt[row],samples2.length,het2[b],alt2[b]);
+				}
+			if(nonRef2!=0L)
+				{
+				Arrays.fill(het2, 0);
+				Arrays.fill(alt2, 0);
 				}
-				
-			return nodes.get(0);
 			}
-		else
+		return weight;
+		}
+	
+	/** index of a pair of slots in the triangular weight matrix */
+	private static int pairIndex(final int slot1,final int slot2)
+		{
+		final int i=Math.min(slot1, slot2);
+		final int j=Math.max(slot1, slot2);
+		return (int)(((long)j*(j-1))/2L + i);
+		}
+	
+	private PackedGenotypes packGenotypes(final Transaction txn,final File dir) throws IOException
+		{
+		final PackedGenotypes packed = new PackedGenotypes(dir, this.sampleList.size(), this.snp_count);
+		final DatabaseEntry key=new DatabaseEntry();
+		final DatabaseEntry data=new DatabaseEntry();
+		final Cursor cursor=this.pos2cov.openCursor(txn, null);
+		try
 			{
-			Cursor cursor=this.pos2cov.openCursor(txn, null);;
-			MergedNodes best=null;
-			for(int x=0;x< parents.size();++x)
+			long row=0L;
+			while(row< this.snp_count && cursor.getNext(key, data, LockMode.DEFAULT)==OperationStatus.SUCCESS)
 				{
-				TreeNode tn1= parents.get(x);
-				
-				
-				for(int y=x+1;y< parents.size();++y)
+				final Calls calls = this.callsBindingInstance.entryToObject(data);
+				for(int i=0;i< this.sampleList.size();++i)
 					{
-					long now=System.currentTimeMillis();
-					if(now-last > 10*1000)
-						{
-						info("iteration ["+(x+1)+","+(y+1)+"]/"+parents.size());
-						last=now;
-						}
-					
-					TreeNode tn2= parents.get(y);
-					DatabaseEntry key=new DatabaseEntry();
-					DatabaseEntry data=new DatabaseEntry();
-					MergedNodes merged= new MergedNodes(tn1, tn2);
-					boolean first=true;
-					
-					
-					while((first?cursor.getFirst(key, data, LockMode.DEFAULT):cursor.getNext(key, data, LockMode.DEFAULT))==OperationStatus.SUCCESS)
-						{
-						first=false;
-						Calls row = this.callsBindingInstance.entryToObject(data);
-						
-						merged.weight += tn1.distance(tn2,row);
-						}
-					
-					if(best==null || best.weight > merged.weight)
+					switch(calls.getGenotype(i))
 						{
-						best=merged;
+						case HET: packed.set(i, PLANE_HET, row); break;
+						case HOM_ALT: packed.set(i, PLANE_ALT, row); break;
+						default: break;
 						}
 					}
+				++row;
 				}
+			}
+		catch(final RuntimeException err)
+			{
+			packed.close();
+			throw err;
+			}
+		finally
+			{
 			cursor.close();
-			return best;
 			}
-		
+		return packed;
 		}
 	
-	private TreeNode matrix(Transaction txn)
+	/** build the tree: the pairwise weights of the samples are computed once, then only the
+	 * weights of the new node are computed after each agglomeration */
+	private TreeNode matrix(final PackedGenotypes genotypes,final ForkJoinPool pool) throws Exception
 		{
-		ArrayList<TreeNode> nodes=new ArrayList<TreeNode>();
+		final int nSamples = this.sampleList.size();
+		if(((long)nSamples*(nSamples-1))/2L > Integer.MAX_VALUE) throw new IllegalArgumentException("too many samples");
+		final double weights[]=new double[(int)(((long)nSamples*(nSamples-1))/2L)];
+		
+		List<TreeNode> nodes=new ArrayList<TreeNode>();
 		//initialize population
-		for(int sample_index=0; sample_index< this.sampleList.size();++sample_index)
+		for(int sample_index=0; sample_index< nSamples;++sample_index)
 			{
-			nodes.add(new OneSample(sample_index));
+			final TreeNode node = new OneSample(sample_index);
+			node.slot = sample_index;
+			nodes.add(node);
 			}
 		
+		final List<Future<?>> futures = new ArrayList<>(nSamples);
+		for(int x=0;x+1< nSamples;++x)
+			{
+			final int sample1=x;
+			futures.add(pool.submit(()->{
+				for(int y=sample1+1;y< nSamples;++y)
+					{
+					weights[pairIndex(sample1,y)] = sampleWeight(genotypes, sample1, y);
+					}
+				}));
+			}
+		for(final Future<?> future:futures) future.get();
+		futures.clear();
+		
 		while(nodes.size()>1)
 			{
 			long now= System.currentTimeMillis();
 			info("nodes.count= "+nodes.size());
 			
-			/* no, want to get the distance between the two nodes 
-			if(nodes.size()==2)
+			/* best pair: lowest weight, the first in the order of the list for ties */
+			final int n=nodes.size();
+			int bestX=-1,bestY=-1,secondX=-1,secondY=-1;
+			double bestWeight=0.0;
+			for(int x=0;x< n;++x)
 				{
-				return new MergedNodes(
-						nodes.get(0),
-						nodes.get(1)
-						);
+				final int slotx= nodes.get(x).slot;
+				for(int y=x+1;y< n;++y)
+					{
+					final double w = weights[pairIndex(slotx,nodes.get(y).slot)];
+					if(bestX==-1 || w < bestWeight)
+						{
+						bestX=x;bestY=y;bestWeight=w;
+						secondX=-1;secondY=-1;
+						}
+					else if(w==bestWeight && secondX==-1)
+						{
+						secondX=x;secondY=y;
+						}
+					}
 				}
-			*/
+			/* node ids are numbered as if one node had been created for each pair */
+			final long firstId = ID_GENERATOR;
+			ID_GENERATOR += ((long)n*(n-1))/2L;
 			
-			
-			TreeNode best = matrix(txn, nodes);
+			final MergedNodes best = new MergedNodes(nodes.get(bestX), nodes.get(bestY),
+					firstId + 1L + bestX*(long)(n-1) - (bestX*(long)(bestX-1))/2L + (bestY-bestX-1)
+					);
+			best.weight = bestWeight;
+			if(secondX!=-1)
+				{
+				final MergedNodes second = new MergedNodes(nodes.get(secondX), nodes.get(secondY),-1L);
+				second.weight = bestWeight;
+				warning("Score ambiguity for "+best+" and "+second);
+				}
 			info(best);
-			Set<Integer> bestsamples= best.getSamples();
 			
-			ArrayList<TreeNode> newnodes=new ArrayList<TreeNode>();
-
-			for(TreeNode tn:nodes)
+			best.slot = Math.min(best.t1.slot, best.t2.slot);
+			final List<TreeNode> newnodes=new ArrayList<TreeNode>(n-1);
+			for(int i=0;i< n;++i)
 				{
-				if(tn.containsAnySampleIds(bestsamples)) continue;
-				newnodes.add(tn);
+				if(i==bestX || i==bestY) continue;
+				newnodes.add(nodes.get(i));
 				}
-			newnodes.add(best);
 			
+			if(!newnodes.isEmpty())
+				{
+				final NodeCounts counts = new NodeCounts(genotypes, best.getSampleArray());
+				for(final TreeNode other:newnodes)
+					{
+					futures.add(pool.submit(()->{
+						weights[pairIndex(best.slot,other.slot)] = nodeWeight(genotypes, counts, other.getSampleArray());
+						}));
+					}
+				for(final Future<?> future:futures) future.get();
+				futures.clear();
+				}
+			newnodes.add(best);
 			nodes=newnodes;
 			
 			info("That took :"+ (System.currentTimeMillis()-now)/1000f  +" seconds");
@@ -711,7 +808,6 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		return nodes.get(0);
 		}
 	
-	
 	private void readvcf(Transaction txn,VcfIterator in)
 		{
 		Cursor cursor=null;
@@ -782,6 +878,7 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		{
 		out.println(" -B bdb home. "+getMessageBundle("berkeley.db.home"));
 		out.println(" -f (format) one of "+Arrays.toString(OUT_FMT.values()));
+		out.println(" -t (int) number of threads computing the distances. default:"+this.nThreads);
 		super.printOptions(out);
 		}
 	
@@ -792,12 +889,13 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		File bdbHome=null;
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+"B:f:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+"B:f:t:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'B': bdbHome=new File(opt.getOptArg());break;
 				case 'f': outformat=OUT_FMT.valueOf(opt.getOptArg());break;
+				case 't': this.nThreads=Integer.parseInt(opt.getOptArg());break;
 				default:
 					{
 					switch(handleOtherOptions(c, opt,args))
@@ -818,6 +916,8 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 		
 		Transaction txn=null;
 		VcfIterator iter=null;
+		PackedGenotypes genotypes=null;
+		ForkJoinPool pool=null;
 		try
 			{
 			info("Opening "+bdbHome);
@@ -876,7 +976,9 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 				return -1;
 				}
 			
-			TreeNode t = matrix(txn);
+			genotypes = packGenotypes(txn, bdbHome);
+			pool = new ForkJoinPool(Math.max(1, this.nThreads));
+			TreeNode t = matrix(genotypes, pool);
 			
 			switch(outformat)
 				{
@@ -962,6 +1064,13 @@ public class VcfPhyloTree extends AbstractCommandLineProgram
 			}
 		finally
 			{
+			if(pool!=null)
+				{
+				pool.shutdownNow();
+				try { pool.awaitTermination(1, TimeUnit.MINUTES);}
+				catch(final InterruptedException err) { Thread.currentThread().interrupt();}
+				}
+			CloserUtil.close(genotypes);
 			CloserUtil.close(iter);
 			CloserUtil.close(this.pos2cov);
 			CloserUtil.close(this.env);
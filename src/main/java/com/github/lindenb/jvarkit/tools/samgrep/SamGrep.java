@@ -30,10 +30,10 @@ package com.github.lindenb.jvarkit.tools.samgrep;
 
 
 import java.io.BufferedReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.ReadNameSet;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.SAMFileHeader;
@@ -47,14 +47,14 @@ public class SamGrep extends AbstractSamGrep
 	{
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(SamGrep.class);
 
-	private final Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private ReadNameSet.ExactSet readNames=ReadNameSet.newExactSet(); 
     private SamGrep()
     	{
     	}
     
     @Override
     public Collection<Throwable> initializeKnime() {
-    	readNames.clear();
+    	readNames=ReadNameSet.newExactSet();
     	
     	if(namefile!=null) {
 	    	BufferedReader in=null;
@@ -66,7 +66,7 @@ public class SamGrep extends AbstractSamGrep
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		readNames.put(line,0);
+		    		readNames.add(line);
 		    		}
 				}
 			catch(Exception err)
@@ -79,7 +79,7 @@ public class SamGrep extends AbstractSamGrep
 				}
 	    	}
     	for(final String line: super.nameStrings) {
-    		readNames.put(line,0);
+    		readNames.add(line);
     		}
     	if(readNames.isEmpty())
 			{
@@ -90,7 +90,7 @@ public class SamGrep extends AbstractSamGrep
     
     @Override
     public void disposeKnime() {
-    	readNames.clear();
+    	readNames=ReadNameSet.newExactSet();
     	super.disposeKnime();
     }
     
@@ -127,8 +127,9 @@ public class SamGrep extends AbstractSamGrep
 				boolean keep=false;
 				final SAMRecord rec=progress.watch(iter.next());
 				if(samStdout!=null) samStdout.addAlignment(rec);
-				Integer count = readNames.get(rec.getReadName());
-				if(count!=null)
+				/* the read name is encoded once for all the lookups of this record */
+				final byte readName[]=rec.getReadName().getBytes(StandardCharsets.UTF_8);
+				if(readNames.contains(readName,0,readName.length))
 					{
 					keep=true;
 					}
@@ -140,16 +141,12 @@ public class SamGrep extends AbstractSamGrep
 				
 				if(n_before_remove!=-1 && !inverse && keep)
 					{
-					count++;
+					final int count=readNames.incrementCount(readName,0,readName.length);
 					if(count>=n_before_remove)
 						{
-						readNames.remove(rec.getReadName());
+						readNames.remove(readName,0,readName.length);
 						if(samStdout==null && readNames.isEmpty()) break;
 						}
-					else
-						{
-						readNames.put(rec.getReadName(),count);
-						}
 					}
 				}
 			progress.finish();
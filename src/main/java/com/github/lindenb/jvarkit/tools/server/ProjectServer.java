@@ -26,16 +26,13 @@ package com.github.lindenb.jvarkit.tools.server;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -53,9 +50,22 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.samtools.SamJsonWriterFactory;
+import com.github.lindenb.jvarkit.util.vcf.TabixVcfFileReader;
+import com.google.gson.stream.JsonWriter;
 
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFEncoder;
 
 public  class ProjectServer extends AbstractProjectServer {
 
@@ -68,7 +78,7 @@ public  class ProjectServer extends AbstractProjectServer {
 	
 	private static class ProjectFile {
 		private final File configFile;
-		private final Set<Path> ngsFiles = new HashSet<>();
+		private final Set<Path> ngsFiles = new LinkedHashSet<>();
 		private String id="";
 		private String label=null;
 		private String description=null;
@@ -125,20 +135,32 @@ public  class ProjectServer extends AbstractProjectServer {
 		}
 		
 	List<Path> getBams() {
-		return this.ngsFiles.stream().filter(p->p.endsWith(".bam")).collect(Collectors.toList());
+		return this.ngsFiles.stream().filter(p->p.toString().endsWith(".bam")).collect(Collectors.toList());
 		}
 	List<Path> getVcfs() {
-		return this.ngsFiles.stream().filter(p->p.endsWith(".vcf.gz")).collect(Collectors.toList());
+		return this.ngsFiles.stream().filter(p->p.toString().endsWith(".vcf.gz")).collect(Collectors.toList());
 		}
 	}
 	
 	
 	private static class ProjectHandler extends DefaultHandler{
-		final List<ProjectFile> projects;
-		ProjectHandler(final File configFile) {
+		final List<ProjectFile> projects = new ArrayList<>();
+		/* opened readers, shared by the requests. Jetty calls handle() from its thread pool */
+		private final ReaderCache<SamReader> samReaders;
+		private final ReaderCache<TabixVcfFileReader> vcfReaders;
+		private final int maxRegionLength;
+		
+		ProjectHandler(final File configFile,final int maxOpenFiles,final int maxRegionLength) {
 		BufferedReader in= null;
 		try {
-			in= new BufferedReader(new FileReader(configFile));
+			/* one project file per line */
+			in= IOUtils.openFileForBufferedReading(configFile);
+			String line;
+			while((line=in.readLine())!=null)
+				{
+				if(line.trim().isEmpty() || line.startsWith("#")) continue;
+				this.projects.add(new ProjectFile(new File(line.trim())));
+				}
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 			}
@@ -146,20 +168,280 @@ public  class ProjectServer extends AbstractProjectServer {
 			{
 			CloserUtil.close(in);
 			}
+		final SamReaderFactory srf = SamReaderFactory.makeDefault().
+				enable(SamReaderFactory.Option.CACHE_FILE_BASED_INDEXES).
+				validationStringency(ValidationStringency.LENIENT);
+		this.samReaders = new ReaderCache<>(P->srf.open(P.toFile()),maxOpenFiles);
+		this.vcfReaders = new ReaderCache<>(P->new TabixVcfFileReader(P.toString()),maxOpenFiles);
+		this.maxRegionLength = maxRegionLength;
 		}
+		
+		@Override
+		protected void doStop() throws Exception {
+			this.samReaders.close();
+			this.vcfReaders.close();
+			super.doStop();
+		}
+		
+		private ProjectFile getProjectById(final String id) {
+			return this.projects.stream().filter(P->P.getId().equals(id)).findFirst().orElse(null);
+		}
+		
 		@Override
 		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
 				throws IOException, ServletException
 			  {
-				request.getPathInfo();
 			  if(target==null) target="/";
 			  
-			  doListProjects(target,baseRequest,request,response);
+			  /* /project/{id}/region */
+			  final String tokens[]=target.split("/");
+			  if(tokens.length==4 && tokens[1].equals("project") && tokens[3].equals("region"))
+			  	{
+				doRegion(tokens[2],baseRequest,request,response);
+			  	}
+			  else
+			  	{
+				doListProjects(target,baseRequest,request,response);
+			  	}
 			 baseRequest.setHandled(true);
 		}
 	
-	private void doShowBam(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)	throws IOException, ServletException
+	/** stream the reads and the variants of a project overlapping chrom:start-end (1-based, inclusive) as json or tsv */
+	private void doRegion(final String projectId, Request baseRequest, HttpServletRequest request, HttpServletResponse response)	throws IOException, ServletException
 		{
+		final ProjectFile project = getProjectById(projectId);
+		if(project==null)
+			{
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "unknown project "+projectId);
+			return;
+			}
+		final String chrom = request.getParameter("chrom");
+		final int start;
+		final int end;
+		try {
+			start = Integer.parseInt(request.getParameter("start"));
+			end = Integer.parseInt(request.getParameter("end"));
+			}
+		catch(final NumberFormatException err)
+			{
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad or missing start/end");
+			return;
+			}
+		if(chrom==null || chrom.isEmpty() || start<1 || end<start)
+			{
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad region");
+			return;
+			}
+		if(this.maxRegionLength>0 && ((long)end-start)+1L > this.maxRegionLength)
+			{
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "region is longer than "+this.maxRegionLength+" bases");
+			return;
+			}
+		final boolean tsv = "tsv".equals(request.getParameter("format"));
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType(tsv?"text/tab-separated-values; charset=utf-8":"application/json; charset=utf-8");
+		/* the loops stop when the client is gone */
+		final PrintWriter pw = new DelayedCheckErrorWriter(response.getWriter());
+		try {
+			if(tsv)
+				{
+				for(final Path bam:project.getBams())
+					{
+					if(pw.checkError()) break;
+					tsvReads(pw,bam,chrom,start,end);
+					}
+				for(final Path vcf:project.getVcfs())
+					{
+					if(pw.checkError()) break;
+					tsvVariants(pw,vcf,chrom,start,end);
+					}
+				}
+			else
+				{
+				final JsonWriter w = new JsonWriter(pw);
+				w.beginObject();
+				w.name("project").value(project.getId());
+				w.name("chrom").value(chrom);
+				w.name("start").value(start);
+				w.name("end").value(end);
+				w.name("bams");
+				w.beginArray();
+				for(final Path bam:project.getBams())
+					{
+					if(pw.checkError()) break;
+					jsonReads(pw,w,bam,chrom,start,end);
+					}
+				w.endArray();
+				w.name("vcfs");
+				w.beginArray();
+				for(final Path vcf:project.getVcfs())
+					{
+					if(pw.checkError()) break;
+					jsonVariants(pw,w,vcf,chrom,start,end);
+					}
+				w.endArray();
+				w.endObject();
+				w.flush();
+				}
+			}
+		finally
+			{
+			pw.close();
+			}
+		}
+	
+	/** checkError but don't flush the response each time (PrintWriter.checkError flushes) */
+	private static class DelayedCheckErrorWriter extends PrintWriter
+		{
+		private boolean lastCheckError=false;
+		private long lastCheck=System.currentTimeMillis();
+		DelayedCheckErrorWriter(final PrintWriter delegate) {
+			super(delegate);
+		}
+		
+		@Override
+		public boolean checkError() {
+			if(!this.lastCheckError) {
+				final long now = System.currentTimeMillis();
+				if((now-this.lastCheck)>1000) //1sec
+					{
+					this.lastCheckError = super.checkError();
+					this.lastCheck=now;
+					}
+				}
+			return this.lastCheckError;
+			}
+		}
+	
+	/** interface for the code using a reader from a cache */
+	private interface ReaderConsumer<R>
+		{
+		public void accept(R reader) throws IOException;
+		}
+	
+	/** use a reader from the cache; the reader goes back in the cache only if no error occurred */
+	private <R extends java.io.Closeable> void withReader(final ReaderCache<R> cache,final Path path,final ReaderConsumer<R> consumer) throws IOException
+		{
+		R reader = cache.acquire(path);
+		try {
+			consumer.accept(reader);
+			cache.release(path, reader);
+			reader = null;
+			}
+		finally
+			{
+			if(reader!=null) cache.discard(reader);
+			}
+		}
+	
+	/** @return an iterator over the reads overlapping the region, or null if the bam cannot be queried */
+	private SAMRecordIterator queryReads(final SamReader sr,final String chrom,final int start,final int end)
+		{
+		if(!sr.hasIndex() || sr.getFileHeader().getSequenceIndex(chrom)<0) return null;
+		return sr.queryOverlapping(chrom, start, end);
+		}
+	
+	private void jsonReads(final PrintWriter pw,final JsonWriter w,final Path bam,final String chrom,final int start,final int end) throws IOException
+		{
+		withReader(this.samReaders,bam,SR->{
+			w.beginObject();
+			w.name("file").value(bam.toString());
+			final SAMFileHeader header = SR.getFileHeader();
+			final SAMRecordIterator iter = queryReads(SR,chrom,start,end);
+			if(iter!=null)
+				{
+				try {
+					w.name("reads");
+					final SAMFileWriter sfw = SamJsonWriterFactory.newInstance().
+							printHeader(false).
+							printReadQualities(false).
+							closeStreamAtEnd(false).
+							open(header, w);
+					while(iter.hasNext() && !pw.checkError()) sfw.addAlignment(iter.next());
+					sfw.close();
+					}
+				finally
+					{
+					iter.close();
+					}
+				}
+			w.endObject();
+			});
+		}
+	
+	private void tsvReads(final PrintWriter pw,final Path bam,final String chrom,final int start,final int end) throws IOException
+		{
+		withReader(this.samReaders,bam,SR->{
+			final SAMRecordIterator iter = queryReads(SR,chrom,start,end);
+			if(iter==null) return;
+			try {
+				while(iter.hasNext() && !pw.checkError())
+					{
+					final SAMRecord rec = iter.next();
+					pw.print(bam);
+					pw.print('\t');
+					pw.print(rec.getSAMString());/* ends with a newline */
+					}
+				}
+			finally
+				{
+				iter.close();
+				}
+			});
+		}
+	
+	/** @return an iterator over the variants overlapping the region */
+	private Iterator<VariantContext> queryVariants(final TabixVcfFileReader r,final String chrom,final int start,final int end)
+		{
+		if(!r.getChromosomes().contains(chrom)) return java.util.Collections.emptyIterator();
+		return r.iterator(chrom, start, end);
+		}
+	
+	private void jsonVariants(final PrintWriter pw,final JsonWriter w,final Path vcf,final String chrom,final int start,final int end) throws IOException
+		{
+		withReader(this.vcfReaders,vcf,R->{
+			w.beginObject();
+			w.name("file").value(vcf.toString());
+			w.name("variants");
+			w.beginArray();
+			final Iterator<VariantContext> iter = queryVariants(R,chrom,start,end);
+			while(iter.hasNext() && !pw.checkError())
+				{
+				final VariantContext ctx = iter.next();
+				w.beginObject();
+				w.name("chrom").value(ctx.getContig());
+				w.name("start").value(ctx.getStart());
+				w.name("end").value(ctx.getEnd());
+				if(ctx.hasID()) w.name("id").value(ctx.getID());
+				w.name("ref").value(ctx.getReference().getDisplayString());
+				w.name("alt");
+				w.beginArray();
+				for(final Allele a:ctx.getAlternateAlleles()) w.value(a.getDisplayString());
+				w.endArray();
+				if(ctx.hasLog10PError()) w.name("qual").value(ctx.getPhredScaledQual());
+				w.name("filters");
+				w.beginArray();
+				for(final String f:ctx.getFilters()) w.value(f);
+				w.endArray();
+				w.endObject();
+				}
+			w.endArray();
+			w.endObject();
+			});
+		}
+	
+	private void tsvVariants(final PrintWriter pw,final Path vcf,final String chrom,final int start,final int end) throws IOException
+		{
+		withReader(this.vcfReaders,vcf,R->{
+			final VCFEncoder encoder = new VCFEncoder(R.getHeader(), true, false);
+			final Iterator<VariantContext> iter = queryVariants(R,chrom,start,end);
+			while(iter.hasNext() && !pw.checkError())
+				{
+				pw.print(vcf);
+				pw.print('\t');
+				pw.println(encoder.encode(iter.next()));
+				}
+			});
 		}
 		
 	private void doListProjects(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)	throws IOException, ServletException
@@ -195,7 +477,7 @@ public  class ProjectServer extends AbstractProjectServer {
 	
 	@Override
 	protected Handler createDefaultHandler(final List<String> args) {
-		return new ProjectHandler(new File(args.get(0)));
+		return new ProjectHandler(new File(args.get(0)),super.maxOpenFiles,super.maxRegionLength);
 	}
 	
 	@Override
@@ -0,0 +1,152 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Cache of opened readers (SamReader, TabixVcfFileReader...) with their index, so a request
+ * doesn't have to open a file and load its index again.
+ *
+ * The readers are not thread-safe: a reader is given to one request by {@link #acquire(Path)} and is
+ * back in the cache after {@link #release(Path, Closeable)}. Several readers can be opened for the same
+ * file when there are concurrent requests. At most 'maxIdle' readers are kept: when the
+ * limit is reached, the least recently used are closed.
+ */
+class ReaderCache<R extends Closeable> implements Closeable
+	{
+	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(ReaderCache.class);
+
+	interface Opener<R>
+		{
+		public R open(final Path path) throws IOException;
+		}
+
+	private final Opener<R> opener;
+	private final int maxIdle;
+	/** idle readers, in access order: the first entry is the least recently used */
+	private final LinkedHashMap<Path,Deque<R>> path2idle=new LinkedHashMap<>(16,0.75f,true);
+	private int idleCount=0;
+	private boolean closed=false;
+
+	ReaderCache(final Opener<R> opener,final int maxIdle)
+		{
+		this.opener=opener;
+		this.maxIdle=Math.max(0, maxIdle);
+		}
+
+	/** @return an idle reader for this file or a new one */
+	public R acquire(final Path path) throws IOException
+		{
+		synchronized(this)
+			{
+			if(this.closed) throw new IOException("reader cache was closed");
+			final Deque<R> idle=this.path2idle.get(path);
+			if(idle!=null)
+				{
+				final R reader=idle.pollFirst();
+				if(idle.isEmpty()) this.path2idle.remove(path);
+				if(reader!=null)
+					{
+					this.idleCount--;
+					return reader;
+					}
+				}
+			}
+		/* opening a file and reading its index is done outside of the lock */
+		LOG.debug("opening "+path);
+		return this.opener.open(path);
+		}
+
+	/** put back a reader in the cache once the request is done with it */
+	public void release(final Path path,final R reader)
+		{
+		if(reader==null) return;
+		synchronized(this)
+			{
+			if(!this.closed && this.maxIdle>0)
+				{
+				Deque<R> idle=this.path2idle.get(path);
+				if(idle==null)
+					{
+					idle=new ArrayDeque<>();
+					this.path2idle.put(path, idle);
+					}
+				idle.addFirst(reader);
+				this.idleCount++;
+				evict();
+				return;
+				}
+			}
+		CloserUtil.close(reader);
+		}
+
+	/** close a reader that cannot be reused (e.g: I/O error while reading) */
+	public void discard(final R reader)
+		{
+		CloserUtil.close(reader);
+		}
+
+	/** close the least recently used readers until there are at most 'maxIdle' */
+	private void evict()
+		{
+		final Iterator<Map.Entry<Path,Deque<R>>> iter=this.path2idle.entrySet().iterator();
+		while(this.idleCount>this.maxIdle && iter.hasNext())
+			{
+			final Deque<R> idle=iter.next().getValue();
+			while(this.idleCount>this.maxIdle && !idle.isEmpty())
+				{
+				CloserUtil.close(idle.pollLast());
+				this.idleCount--;
+				}
+			if(idle.isEmpty()) iter.remove();
+			}
+		}
+
+	@Override
+	public synchronized void close()
+		{
+		this.closed=true;
+		for(final Deque<R> idle:this.path2idle.values())
+			{
+			for(final R reader:idle) CloserUtil.close(reader);
+			}
+		this.path2idle.clear();
+		this.idleCount=0;
+		}
+	}
@@ -0,0 +1,422 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.tools.sortvcfonref;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * External sort of byte[] payloads on a fixed-width primitive key (two longs, compared as
+ * signed then unsigned). Records with the same key are ordered with a comparator on the payloads.
+ *
+ * The records are accumulated in runs of 'maxRecordsInRam' records. Full runs are sorted
+ * and written to a BGZF temporary file by a pool of threads while the caller keeps adding
+ * records. The final iterator merges the runs with a heap of run indexes.
+ */
+class PackedKeySorter
+	{
+	private final Comparator<byte[]> tieComparator;
+	private final int maxRecordsInRam;
+	private final List<File> tmpDirs;
+	private final int nThreads;
+	private final ExecutorService executor;
+	/** runs being sorted/written, in the order of creation */
+	private final Deque<Future<File>> pendingRuns = new ArrayDeque<>();
+	private final List<File> runFiles = new ArrayList<>();
+	private Run current;
+	private boolean doneAdding = false;
+
+	/** a run of records, in primitive arrays */
+	private class Run
+		{
+		final long key1[];
+		final long key2[];
+		final byte payloads[][];
+		int count = 0;
+		Run(final int capacity)
+			{
+			this.key1 = new long[capacity];
+			this.key2 = new long[capacity];
+			this.payloads = new byte[capacity][];
+			}
+		boolean isFull()
+			{
+			return this.count == this.key1.length;
+			}
+		int compare(final int i,final int j)
+			{
+			return compareKeys(this.key1[i], this.key2[i], this.payloads[i], this.key1[j], this.key2[j], this.payloads[j]);
+			}
+		/** @return the indexes of the records, sorted. Merge sort, stable */
+		int[] sort()
+			{
+			int src[] = new int[this.count];
+			for(int i=0;i< src.length;++i) src[i]=i;
+			int dest[] = new int[this.count];
+			for(int width=1;width< this.count;width*=2)
+				{
+				for(int lo=0;lo< this.count;lo+=2*width)
+					{
+					final int mid = Math.min(lo+width, this.count);
+					final int hi = Math.min(lo+2*width, this.count);
+					int i=lo,j=mid,k=lo;
+					while(i< mid && j< hi)
+						{
+						dest[k++] = (compare(src[j], src[i])<0 ? src[j++] : src[i++]);
+						}
+					while(i< mid) dest[k++] = src[i++];
+					while(j< hi) dest[k++] = src[j++];
+					}
+				final int tmp[] = src;
+				src = dest;
+				dest = tmp;
+				}
+			return src;
+			}
+		/** sort this run and write it in a temporary file */
+		File spill(final File tmpDir) throws IOException
+			{
+			final int order[] = sort();
+			final File file = File.createTempFile("sort.", ".run.gz", tmpDir);
+			file.deleteOnExit();
+			try(DataOutputStream out = new DataOutputStream(new BlockCompressedOutputStream(file)))
+				{
+				for(final int idx:order)
+					{
+					out.writeLong(this.key1[idx]);
+					out.writeLong(this.key2[idx]);
+					out.writeInt(this.payloads[idx].length);
+					out.write(this.payloads[idx]);
+					}
+				}
+			return file;
+			}
+		}
+
+	PackedKeySorter(
+			final Comparator<byte[]> tieComparator,
+			final int maxRecordsInRam,
+			final List<File> tmpDirs,
+			final int nThreads)
+		{
+		this.tieComparator = tieComparator;
+		this.maxRecordsInRam = Math.max(1, maxRecordsInRam);
+		this.tmpDirs = new ArrayList<>(tmpDirs);
+		if(this.tmpDirs.isEmpty()) this.tmpDirs.add(new File(System.getProperty("java.io.tmpdir")));
+		this.nThreads = Math.max(1, nThreads);
+		this.executor = (this.nThreads>1?Executors.newFixedThreadPool(this.nThreads):null);
+		this.current = new Run(this.maxRecordsInRam);
+		}
+
+	private int compareKeys(
+			final long a1,final long a2,final byte[] a3,
+			final long b1,final long b2,final byte[] b3)
+		{
+		int i = Long.compare(a1, b1);
+		if(i!=0) return i;
+		i = Long.compareUnsigned(a2, b2);
+		if(i!=0) return i;
+		return this.tieComparator.compare(a3, b3);
+		}
+
+	void add(final long key1,final long key2,final byte[] payload)
+		{
+		if(this.doneAdding) throw new IllegalStateException("doneAdding was called");
+		final Run run = this.current;
+		run.key1[run.count] = key1;
+		run.key2[run.count] = key2;
+		run.payloads[run.count] = payload;
+		run.count++;
+		if(run.isFull())
+			{
+			spillCurrent();
+			this.current = new Run(this.maxRecordsInRam);
+			}
+		}
+
+	/** send the current run to a worker. At most 'nThreads' runs are pending, so the memory is bounded */
+	private void spillCurrent()
+		{
+		final Run run = this.current;
+		if(run.count==0) return;
+		final File tmpDir = this.tmpDirs.get((this.runFiles.size()+this.pendingRuns.size()) % this.tmpDirs.size());
+		try
+			{
+			if(this.executor==null)
+				{
+				this.runFiles.add(run.spill(tmpDir));
+				return;
+				}
+			while(this.pendingRuns.size()>= this.nThreads)
+				{
+				this.runFiles.add(this.pendingRuns.removeFirst().get());
+				}
+			this.pendingRuns.add(this.executor.submit(()->run.spill(tmpDir)));
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		catch(final Exception err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+
+	/** @return an iterator over the payloads, sorted */
+	CloseableIterator<byte[]> iterator()
+		{
+		this.doneAdding = true;
+		if(this.runFiles.isEmpty() && this.pendingRuns.isEmpty())
+			{
+			/* everything fits in memory */
+			final Run run = this.current;
+			this.current = null;
+			return new InMemoryIterator(run);
+			}
+		spillCurrent();
+		this.current = null;
+		try
+			{
+			while(!this.pendingRuns.isEmpty())
+				{
+				this.runFiles.add(this.pendingRuns.removeFirst().get());
+				}
+			return new MergingIterator();
+			}
+		catch(final Exception err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+
+	/** delete the temporary files and stop the threads */
+	void cleanup()
+		{
+		if(this.executor!=null)
+			{
+			this.executor.shutdownNow();
+			try { this.executor.awaitTermination(1L, TimeUnit.MINUTES);}
+			catch(final InterruptedException err) {}
+			}
+		for(final Future<File> f:this.pendingRuns)
+			{
+			try { if(f.isDone()) f.get().delete();}
+			catch(final Exception err) {}
+			}
+		this.pendingRuns.clear();
+		for(final File f:this.runFiles) f.delete();
+		this.runFiles.clear();
+		this.current = null;
+		}
+
+	private class InMemoryIterator implements CloseableIterator<byte[]>
+		{
+		private Run run;
+		private final int order[];
+		private int i=0;
+		InMemoryIterator(final Run run)
+			{
+			this.run = run;
+			this.order = run.sort();
+			}
+		@Override
+		public boolean hasNext()
+			{
+			return this.run!=null && this.i< this.order.length;
+			}
+		@Override
+		public byte[] next()
+			{
+			if(!hasNext()) throw new NoSuchElementException();
+			final int idx = this.order[this.i++];
+			final byte payload[] = this.run.payloads[idx];
+			this.run.payloads[idx] = null;
+			return payload;
+			}
+		@Override
+		public void close()
+			{
+			this.run = null;
+			}
+		}
+
+	/** k-way merge of the runs. The heap contains run indexes, the current record of each run is in primitive arrays */
+	private class MergingIterator implements CloseableIterator<byte[]>
+		{
+		private final DataInputStream inputs[];
+		private final long heads1[];
+		private final long heads2[];
+		private final byte headPayloads[][];
+		private final int heap[];
+		private int heapSize = 0;
+
+		MergingIterator() throws IOException
+			{
+			final int n = PackedKeySorter.this.runFiles.size();
+			this.inputs = new DataInputStream[n];
+			this.heads1 = new long[n];
+			this.heads2 = new long[n];
+			this.headPayloads = new byte[n][];
+			this.heap = new int[n];
+			for(int i=0;i< n;++i)
+				{
+				this.inputs[i] = new DataInputStream(new BufferedInputStream(new BlockCompressedInputStream(
+						new FileInputStream(PackedKeySorter.this.runFiles.get(i)))));
+				if(readHead(i)) push(i);
+				}
+			}
+
+		/** read the next record of run 'i'. @return false at the end of the run */
+		private boolean readHead(final int i) throws IOException
+			{
+			final DataInputStream in = this.inputs[i];
+			try
+				{
+				this.heads1[i] = in.readLong();
+				}
+			catch(final EOFException err)
+				{
+				this.headPayloads[i] = null;
+				in.close();
+				return false;
+				}
+			this.heads2[i] = in.readLong();
+			final byte payload[] = new byte[in.readInt()];
+			in.readFully(payload);
+			this.headPayloads[i] = payload;
+			return true;
+			}
+
+		/** compare the heads of two runs, the lower run index wins a tie so the sort is stable */
+		private int compareRuns(final int a,final int b)
+			{
+			final int i = compareKeys(
+				this.heads1[a], this.heads2[a], this.headPayloads[a],
+				this.heads1[b], this.heads2[b], this.headPayloads[b]);
+			if(i!=0) return i;
+			return Integer.compare(a, b);
+			}
+
+		private void push(final int run)
+			{
+			int k = this.heapSize++;
+			this.heap[k] = run;
+			while(k>0)
+				{
+				final int parent = (k-1)/2;
+				if(compareRuns(this.heap[k], this.heap[parent])>=0) break;
+				swap(k, parent);
+				k = parent;
+				}
+			}
+
+		private void siftDown(int k)
+			{
+			for(;;)
+				{
+				final int left = 2*k+1;
+				if(left>= this.heapSize) break;
+				int smallest = left;
+				final int right = left+1;
+				if(right< this.heapSize && compareRuns(this.heap[right], this.heap[left])<0) smallest = right;
+				if(compareRuns(this.heap[smallest], this.heap[k])>=0) break;
+				swap(k, smallest);
+				k = smallest;
+				}
+			}
+
+		private void swap(final int i,final int j)
+			{
+			final int tmp = this.heap[i];
+			this.heap[i] = this.heap[j];
+			this.heap[j] = tmp;
+			}
+
+		@Override
+		public boolean hasNext()
+			{
+			return this.heapSize>0;
+			}
+
+		@Override
+		public byte[] next()
+			{
+			if(!hasNext()) throw new NoSuchElementException();
+			final int run = this.heap[0];
+			final byte payload[] = this.headPayloads[run];
+			try
+				{
+				if(readHead(run))
+					{
+					siftDown(0);
+					}
+				else
+					{
+					this.heap[0] = this.heap[--this.heapSize];
+					siftDown(0);
+					}
+				}
+			catch(final IOException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			return payload;
+			}
+
+		@Override
+		public void close()
+			{
+			CloserUtil.close(Arrays.asList(this.inputs));
+			this.heapSize = 0;
+			}
+		}
+	}
@@ -29,18 +29,13 @@ History:
 package com.github.lindenb.jvarkit.tools.sortvcfonref;
 
 import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.regex.Pattern;
-import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryFactory;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -48,7 +43,6 @@ import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 /**
  * Sort a VCF on the REFERENCE
@@ -58,105 +52,53 @@ public class SortVcfOnRef2 extends AbstractSortVcfOnRef2
 	{
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(SortVcfOnRef2.class);
     private SAMSequenceDictionary dict=null;
-    private final Pattern tab=Pattern.compile("[\t]");
 	    
-    
-    
-    private class ChromPosLine
-    	implements Comparable<ChromPosLine>
+    /** index of the n-th tab in a line, or -1 */
+    private static int indexOfTab(final byte line[],final int n)
     	{
-    	int tid;
-    	Integer pos;
-    	Allele ref;
-    	String line;
-    	ChromPosLine()
+    	int count=0;
+    	for(int i=0;i< line.length;++i)
     		{
+    		if(line[i]=='\t' && ++count==n) return i;
     		}
-    	public ChromPosLine(final String line)
+    	return -1;
+    	}
+    
+    /** records having the same tid/pos and the same first 8 bases of REF: compare the whole REF, then the whole line */
+    private static int compareLines(final byte a[],final byte b[])
+    	{
+    	final int a3 = indexOfTab(a,3);
+    	final int a4 = indexOfTab(a,4);
+    	final int b3 = indexOfTab(b,3);
+    	final int b4 = indexOfTab(b,4);
+    	int i = compareBytes(a, a3+1, a4, b, b3+1, b4);
+    	if(i!=0) return i;
+    	return compareBytes(a, 0, a.length, b, 0, b.length);
+    	}
+    
+    private static int compareBytes(final byte a[],final int aStart,final int aEnd,final byte b[],final int bStart,final int bEnd)
+    	{
+    	final int n = Math.min(aEnd-aStart, bEnd-bStart);
+    	for(int i=0;i< n;++i)
     		{
-    		String tokens[]= tab.split(line, 5);
-    		if(tokens.length<5) throw new IllegalArgumentException("Bad VCF line in "+line); 
-    		String chrom=tokens[0];
-			this.tid=dict.getSequenceIndex(chrom);
-			if(this.tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
-			
-    		try
-    			{
-    			this.pos=new Integer(tokens[1]);
-    			}
-    		catch(NumberFormatException err)
-    			{
-    			throw new IllegalArgumentException("Bad POS in VCF line in "+line);
-    			}
-    		this.ref = Allele.create(tokens[3],true);
-    		this.line=line;
+    		final int d = (a[aStart+i] & 0xFF) - (b[bStart+i] & 0xFF);
+    		if(d!=0) return d;
     		}
-    	@Override
-    	public int compareTo(ChromPosLine o)
+    	return (aEnd-aStart) - (bEnd-bStart);
+    	}
+    
+    /** the first 8 bases of REF, big-endian, padded with 0: the unsigned order is the lexical order */
+    private static long refPrefix(final String line,final int start,final int end)
+    	{
+    	long k=0L;
+    	for(int i=0;i< 8;++i)
     		{
-    		int i=this.tid-o.tid;
-    		if(i!=0) return i;
-    		i=this.pos.compareTo(o.pos);
-    		if(i!=0) return i;
-    		i=this.ref.compareTo(o.ref);
-    		if(i!=0) return i;
-    		return this.line.compareTo(o.line);
-    		}
-    	@Override
-    	public int hashCode() {
-    		return line.hashCode();
-    		}
-    	@Override
-    	public boolean equals(Object obj) {
-    		return line.equals(ChromPosLine.class.cast(obj).line);
-    		}
-    	@Override
-    	public String toString() {
-    		return line;
+    		k<<=8;
+    		if(start+i< end) k |= (line.charAt(start+i) & 0xFF);
     		}
+    	return k;
     	}
-	private class VariantCodec extends AbstractDataCodec<ChromPosLine>
-		{
-		@Override
-		public ChromPosLine decode(DataInputStream dis) throws IOException
-			{
-			ChromPosLine cpl=new ChromPosLine();
-			try
-				{
-				cpl.tid=dis.readInt();
-				}
-			catch(IOException err)
-				{
-				return null;
-				}
-			cpl.pos=dis.readInt();
-			cpl.ref = Allele.create(readString(dis), true);
-			cpl.line= readString(dis);
-			return cpl;
-			}
-		@Override
-		public void encode(DataOutputStream dos, ChromPosLine s)
-				throws IOException {
-			dos.writeInt(s.tid);
-			dos.writeInt(s.pos);
-			writeString(dos, s.ref.getBaseString());
-			writeString(dos,s.line);
-			}
-		@Override
-		public VariantCodec clone() {
-			return new VariantCodec();
-			}
-		}
-	
-	private class VariantComparator implements Comparator<ChromPosLine>
-		{
-		@Override
-		public int compare(ChromPosLine o1, ChromPosLine o2)
-			{
-			return o1.compareTo(o2);
-			}
-		}
-	
+    
 	@Override
 	protected Collection<Throwable> call(String inputName) throws Exception {
 		return doVcfToVcf(inputName);
@@ -224,36 +166,54 @@ public class SortVcfOnRef2 extends AbstractSortVcfOnRef2
 			LOG.warn("SEQUENCE DICTIONARY IS EMPTY/NULL");
 			}
 		
-    	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	CloseableIterator<byte[]> iter=null;
+    	PackedKeySorter sorter=null;
     	VariantContextWriter w =null;
     	try {
-			array= SortingCollection.newInstance(
-					ChromPosLine.class,
-					new VariantCodec(),
-					new VariantComparator(),
+			sorter = new PackedKeySorter(
+					SortVcfOnRef2::compareLines,
 					super.maxRecordsInRam,
-					super.getTmpDirectories()
+					super.getTmpDirectories(),
+					super.nThreads
 					);
-			array.setDestructiveIteration(true);
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
 			String line;
 			while((line=in.readLine())!=null)
 				{
-				final ChromPosLine cpl=new ChromPosLine(line);
-				progress.watch(cpl.tid,cpl.pos);
-				array.add(cpl);
+				final int t0 = line.indexOf('\t');
+				final int t1 = (t0==-1?-1:line.indexOf('\t',t0+1));
+				final int t2 = (t1==-1?-1:line.indexOf('\t',t1+1));
+				final int t3 = (t2==-1?-1:line.indexOf('\t',t2+1));
+				final int t4 = (t3==-1?-1:line.indexOf('\t',t3+1));
+				if(t4==-1) throw new IllegalArgumentException("Bad VCF line in "+line); 
+				final String chrom = line.substring(0,t0);
+				final int tid = this.dict.getSequenceIndex(chrom);
+				if(tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
+				final int pos;
+				try
+					{
+					pos = Integer.parseInt(line.substring(t0+1,t1));
+					}
+				catch(NumberFormatException err)
+					{
+					throw new IllegalArgumentException("Bad POS in VCF line in "+line);
+					}
+				progress.watch(tid,pos);
+				sorter.add(
+					(((long)tid)<<32) | (pos & 0xFFFFFFFFL),
+					refPrefix(line,t2+1,t3),
+					line.getBytes(StandardCharsets.UTF_8)
+					);
 				}
-			array.doneAdding();
 			progress.finish();
 			
 			w = super.openVariantContextWriter();
 			w.writeHeader(h2);
 			
-			iter=array.iterator();
+			iter=sorter.iterator();
 			while(iter.hasNext())
 				{
-				w.add(cah.codec.decode(iter.next().line));
+				w.add(cah.codec.decode(new String(iter.next(),StandardCharsets.UTF_8)));
 				if(w.checkError()) break;
 				}
 			return RETURN_OK;
@@ -266,7 +226,7 @@ public class SortVcfOnRef2 extends AbstractSortVcfOnRef2
 	    	{
     		CloserUtil.close(w);
 	    	CloserUtil.close(iter);
-	    	if(array!=null) array.cleanup();
+	    	if(sorter!=null) sorter.cleanup();
 	    	}
     	
     	}
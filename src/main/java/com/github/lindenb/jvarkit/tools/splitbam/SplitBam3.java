@@ -31,9 +31,17 @@ package com.github.lindenb.jvarkit.tools.splitbam;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
@@ -64,10 +72,18 @@ public class SplitBam3 extends AbstractSplitBam3
 	{
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(SplitBam3.class);
 	private final static String REPLACE_GROUPID="__GROUPID__";
+	/** with --threads: number of records sent at once to the writer of a group */
+	private static final int ASYNC_BATCH_SIZE=500;
+	/** with --threads: number of batches waiting for the writer of a group before the reader blocks */
+	private static final int ASYNC_QUEUE_CAPACITY=4;
 	private long id_generator=System.currentTimeMillis();
 	private java.util.Map<String,SplitGroup> name2group=new java.util.HashMap<String,SplitGroup>();
 	private IntervalTreeMap<SplitGroup> interval2group = new IntervalTreeMap<SplitGroup>();
 	private SplitGroup underminedGroup=null;
+	/** with --threads: the writers compress and write their records on this executor */
+	private ExecutorService writerExecutor=null;
+	/** first error thrown by a writer of the executor */
+	private volatile Throwable writerFailure=null;
 	
 	private class SplitGroup
 		implements SAMFileWriter
@@ -78,12 +94,91 @@ public class SplitBam3 extends AbstractSplitBam3
 		long count=0L;
 		@SuppressWarnings("unused")
 		ProgressLoggerInterface progress;
+		/* asynchronous mode: batches of records waiting for the writer. At most one 'drain' task runs at once
+		 * for a given group, so the records are written in the input order */
+		private List<SAMRecord> batch=null;
+		private final BlockingQueue<List<SAMRecord>> queue=new ArrayBlockingQueue<>(ASYNC_QUEUE_CAPACITY);
+		private final AtomicBoolean scheduled=new AtomicBoolean(false);
 		
 		SplitGroup(final String groupName)
 			{
 			this.groupName=groupName;
 			}
 		
+		/** called by the reader: write the record now or queue it for the writer executor */
+		void push(final SAMRecord rec) throws Exception
+			{
+			if(writerExecutor==null)
+				{
+				this.addAlignment(rec);
+				return;
+				}
+			if(this.batch==null) this.batch=new ArrayList<>(ASYNC_BATCH_SIZE);
+			this.batch.add(rec);
+			if(this.batch.size()>=ASYNC_BATCH_SIZE) flush();
+			}
+		
+		/** send the current batch to the writer executor, blocks while the queue is full */
+		void flush() throws Exception
+			{
+			/* stop reading as soon as a writer has failed, not only when the queue is full */
+			checkWriterFailure();
+			if(this.batch==null || this.batch.isEmpty()) return;
+			while(!this.queue.offer(this.batch, 1, TimeUnit.SECONDS))
+				{
+				checkWriterFailure();
+				}
+			this.batch=null;
+			schedule();
+			}
+		
+		private void schedule()
+			{
+			if(writerFailure!=null) return;
+			if(this.scheduled.compareAndSet(false, true))
+				{
+				writerExecutor.execute(this::drain);
+				}
+			}
+		
+		private void drain()
+			{
+			try
+				{
+				List<SAMRecord> records;
+				while((records=this.queue.poll())!=null)
+					{
+					for(final SAMRecord rec:records) this.addAlignment(rec);
+					}
+				}
+			catch(final Throwable err)
+				{
+				if(writerFailure==null) writerFailure=err;
+				this.queue.clear();
+				}
+			finally
+				{
+				synchronized(this)
+					{
+					this.scheduled.set(false);
+					this.notifyAll();
+					}
+				/* a batch may have been queued after the last poll */
+				if(!this.queue.isEmpty() && writerFailure==null) schedule();
+				}
+			}
+		
+		/** wait until all the queued records have been written */
+		synchronized void awaitIdle() throws Exception
+			{
+			while(this.scheduled.get() || !this.queue.isEmpty())
+				{
+				checkWriterFailure();
+				this.wait(100L);
+				}
+			checkWriterFailure();
+			}
+		
 		@Override
 		public SAMFileHeader getFileHeader() {
 			return header;
@@ -153,7 +248,7 @@ public class SplitBam3 extends AbstractSplitBam3
 				final List<SAMReadGroupRecord> G=getFileHeader().getReadGroups();
 				final String bases="NNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNNN";
 				final SAMRecordFactory f=new DefaultSAMRecordFactory();
-				++id_generator;
+				final long mockId=nextMockId();
 				for(int i=0;i< 2;++i)
 					{
 					final SAMRecord rec=f.createSAMRecord(getFileHeader());
@@ -165,7 +260,7 @@ public class SplitBam3 extends AbstractSplitBam3
 					rec.setReadUnmappedFlag(true);
 					rec.setMateUnmappedFlag(true);
 					rec.setReadPairedFlag(true);
-					String readName="MOCKREAD"+(id_generator)+":1:190:289:82";
+					String readName="MOCKREAD"+(mockId)+":1:190:289:82";
 					rec.setReadName(readName);
 					LOG.info("generating mock read: "+readName);
 					rec.setAttribute("MK",1);
@@ -186,6 +281,61 @@ public class SplitBam3 extends AbstractSplitBam3
 		
 		}
 	
+	private synchronized long nextMockId()
+		{
+		return ++this.id_generator;
+		}
+	
+	private void checkWriterFailure() throws Exception
+		{
+		final Throwable err=this.writerFailure;
+		if(err==null) return;
+		if(err instanceof Exception) throw (Exception)err;
+		throw new RuntimeException(err);
+		}
+	
+	/** close all the groups, on the writer executor if any: each close flushes a BAM and writes its index */
+	private void closeGroups() throws Exception
+		{
+		if(this.writerExecutor==null)
+			{
+			for(final SplitGroup g:this.name2group.values())
+				{
+				g.close();
+				}
+			return;
+			}
+		for(final SplitGroup g:this.name2group.values())
+			{
+			g.flush();
+			}
+		for(final SplitGroup g:this.name2group.values())
+			{
+			g.awaitIdle();
+			}
+		final List<Future<?>> closing=new ArrayList<>(this.name2group.size());
+		for(final SplitGroup g:this.name2group.values())
+			{
+			closing.add(this.writerExecutor.submit(g::close));
+			}
+		for(final Future<?> f:closing) f.get();
+		}
+	
+	private void shutdownWriterExecutor()
+		{
+		if(this.writerExecutor==null) return;
+		this.writerExecutor.shutdownNow();
+		try
+			{
+			this.writerExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		catch(final InterruptedException err)
+			{
+			Thread.currentThread().interrupt();
+			}
+		this.writerExecutor=null;
+		}
+	
 	private SplitGroup getGroupFromInterval(Interval interval)
 		{
 		final Collection<SplitGroup> groups=this.interval2group.getOverlapping(interval);
@@ -309,6 +459,12 @@ public class SplitBam3 extends AbstractSplitBam3
 				g.open(srcHeader);
 				}
 			
+			if(super.nThreads>1)
+				{
+				LOG.info("writing the groups with "+super.nThreads+" threads");
+				this.writerExecutor=Executors.newFixedThreadPool(super.nThreads);
+				}
+			
 	        
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(samFileReader.getFileHeader()==null?null:samFileReader.getFileHeader().getSequenceDictionary());
 	        
@@ -347,22 +503,21 @@ public class SplitBam3 extends AbstractSplitBam3
 				
 				if(splitGroup==null) splitGroup=this.underminedGroup;
 				
-				splitGroup.addAlignment(record);
+				splitGroup.push(record);
 				}
 			
 			samFileReader.close();
 			
-			/* copenlose all */
-			for(final SplitGroup g:this.name2group.values())
-				{
-				g.close();
-				}
+			/* close all */
+			closeGroups();
+			shutdownWriterExecutor();
 			
 			progress.finish();
 			}
 		catch(final Exception error)
 			{
 			LOG.error("failure:",error);
+			shutdownWriterExecutor();
 			for(final SplitGroup g:this.name2group.values())
 				{
 				g.close();
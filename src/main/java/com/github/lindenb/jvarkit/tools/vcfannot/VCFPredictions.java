@@ -26,20 +26,29 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.vcfannot;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -262,77 +271,43 @@ public class VCFPredictions extends AbstractVCFPredictions
 	public static enum FORMAT1{TRANSCRIPT,CDSPOS,PROTPOS,CODON,AA,SEQONTOLOGY};
 	
 	
-	@Override
-	protected Collection<Throwable> doVcfToVcf(final String inputName, final VcfIterator r, VariantContextWriter w)
-			throws IOException {
-		GenomicSequence genomicSequence=null;
-		try {
-		LOG.info("opening REF:"+super.referenceFile);
-		this.indexedFastaSequenceFile=new IndexedFastaSequenceFile(super.referenceFile);
-		loadKnownGenesFromUri();
-		final VCFHeader header=(VCFHeader)r.getHeader();
-		
-		
-		final VCFHeader h2=new VCFHeader(header);
-		addMetaData(h2);
-		
+	/** computes the annotations of a variant. An Annotator is confined to one thread:
+	 * it owns its reference file and the current window of the genomic sequence */
+	private class Annotator
+		implements Closeable
+		{
+		private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+		private GenomicSequence genomicSequence=null;
+		private final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
+		private final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
+		private final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
+		private final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
+		private final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
+		private final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
+		private final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
+		private final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
+		private final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
+		private final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
+		private final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
+		private final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
+		private final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
+		private final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
+		private final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
+		private final SequenceOntologyTree.Term _2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
+		private final SequenceOntologyTree.Term _5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
+		private final SequenceOntologyTree.Term _5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
+		private final SequenceOntologyTree.Term _500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
 		
-		if(super.vepSyntax)
+		Annotator(final IndexedFastaSequenceFile indexedFastaSequenceFile)
 			{
-			h2.addMetaDataLine(new VCFInfoHeaderLine("CSQ",
-					VCFHeaderLineCount.UNBOUNDED,
-					VCFHeaderLineType.String,
-					"Consequence type as predicted by VEP"+
-					". Format: Allele|Feature|Feature_type|Consequence|CDS_position|Protein_position|Amino_acids|Codons"
-					));
-			}
-		else
-			{
-			final StringBuilder format=new StringBuilder();
-			for(FORMAT1 f:FORMAT1.values())
-				{
-				if(format.length()>0) format.append("|"); 
-				 format.append(f.name()); 
-				}
-			
-			h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
-					"Prediction from "+getClass().getSimpleName()+
-					". Format: "+format
-					));
+			this.indexedFastaSequenceFile=indexedFastaSequenceFile;
 			}
 		
-        w.writeHeader(h2);
-
-		
-		final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
-		final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
-		final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
-		final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
-		final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
-		final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
-		final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
-		final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
-		final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
-		final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
-		final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
-		final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
-		final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
-		final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
-		final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
-		final SequenceOntologyTree.Term _2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
-		final SequenceOntologyTree.Term _5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
-		final SequenceOntologyTree.Term _5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
-		final SequenceOntologyTree.Term _500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
-		
-		
-		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header);
-		while(r.hasNext())
+		VariantContext annotate(final VariantContext ctx)
 			{
-			final VariantContext ctx=progress.watch(r.next());
-			
 			final List<KnownGene> genes=new ArrayList<>();
 			
-			for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
+			for(final List<KnownGene> l2: VCFPredictions.this.knownGenes.getOverlapping(new Interval(
 					ctx.getContig(),
 					ctx.getStart(),
 					ctx.getEnd() //1-based
@@ -350,10 +325,10 @@ public class VCFPredictions extends AbstractVCFPredictions
 				}
 			else
 				{
-				if(genomicSequence==null || !genomicSequence.getChrom().equals(ctx.getContig()))
+				if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(ctx.getContig()))
 					{
 					LOG.info("getting genomic Sequence for "+ctx.getContig());
-					genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, ctx.getContig());
+					this.genomicSequence=new GenomicSequence(this.indexedFastaSequenceFile, ctx.getContig());
 					}
 				
 				for(final KnownGene gene:genes)
@@ -385,7 +360,7 @@ public class VCFPredictions extends AbstractVCFPredictions
 		        		int position_in_cds=-1;
 		        		
 		        		final int position=ctx.getStart()-1;
-		        		if(!String.valueOf(genomicSequence.charAt(position)).equalsIgnoreCase(ctx.getReference().getBaseString()))
+		        		if(!String.valueOf(this.genomicSequence.charAt(position)).equalsIgnoreCase(ctx.getReference().getBaseString()))
 		        			{
 		        			if(isSimpleBase(ctx.getReference()))
 			        			{
@@ -471,7 +446,7 @@ public class VCFPredictions extends AbstractVCFPredictions
 			        							}
 			        						}
 			        					
-			            				wildRNA.append(genomicSequence.charAt(i));
+			            				wildRNA.append(this.genomicSequence.charAt(i));
 			            				
 			            				if(i==position && 
 			            						isSimpleBase(alt2) && 
@@ -605,7 +580,7 @@ public class VCFPredictions extends AbstractVCFPredictions
 				        						}
 			        						}
 			            				
-			            				wildRNA.append(AcidNucleics.complement(genomicSequence.charAt(i)));
+			            				wildRNA.append(AcidNucleics.complement(this.genomicSequence.charAt(i)));
 			            				if( wildRNA.length()%3==0 &&
 			            					wildRNA.length()>0 &&
 			            					wildProt==null)
@@ -701,8 +676,137 @@ public class VCFPredictions extends AbstractVCFPredictions
 				}
 			
 			final VariantContextBuilder vb=new VariantContextBuilder(ctx);
-			vb.attribute((super.vepSyntax?"CSQ":TAG), info.toArray());
-			w.add(vb.make());
+			vb.attribute((VCFPredictions.this.vepSyntax?"CSQ":TAG), info.toArray());
+			return vb.make();
+			}
+		
+		@Override
+		public void close()
+			{
+			CloserUtil.close(this.indexedFastaSequenceFile);
+			}
+		}
+	
+	/** number of variants sent to a worker at once */
+	private static final int BATCH_SIZE=1000;
+	
+	/** the variants are annotated by batches in a pool of threads, each
+	 * thread has its own Annotator. The batches are written back in the input order. */
+	private void annotateParallel(
+			final VcfIterator r,
+			final VariantContextWriter w,
+			final SAMSequenceDictionaryProgress progress
+			) throws Exception
+		{
+		final List<Annotator> annotators=Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<Annotator> threadAnnotator=ThreadLocal.withInitial(()->{
+			try
+				{
+				final Annotator annotator=new Annotator(new IndexedFastaSequenceFile(super.referenceFile));
+				annotators.add(annotator);
+				return annotator;
+				}
+			catch(final IOException err)
+				{
+				throw new RuntimeIOException(err);
+				}
+			});
+		LOG.info("annotating with "+super.nThreads+" threads");
+		final ExecutorService executor=Executors.newFixedThreadPool(super.nThreads);
+		/* reorder buffer: batches in the input order */
+		final Deque<Future<List<VariantContext>>> pending=new ArrayDeque<>();
+		try
+			{
+			List<VariantContext> batch=new ArrayList<>(BATCH_SIZE);
+			for(;;)
+				{
+				final boolean eof=!r.hasNext();
+				if(!eof) batch.add(progress.watch(r.next()));
+				if(batch.size()>=BATCH_SIZE || (eof && !batch.isEmpty()))
+					{
+					final List<VariantContext> input=batch;
+					pending.add(executor.submit(()->{
+						final Annotator annotator=threadAnnotator.get();
+						final List<VariantContext> output=new ArrayList<>(input.size());
+						for(final VariantContext ctx:input)
+							{
+							output.add(annotator.annotate(ctx));
+							}
+						return output;
+						}));
+					batch=new ArrayList<>(BATCH_SIZE);
+					}
+				while(!pending.isEmpty() && (eof || pending.size()> 2*super.nThreads))
+					{
+					for(final VariantContext ctx:pending.removeFirst().get())
+						{
+						w.add(ctx);
+						}
+					}
+				if(eof) break;
+				}
+			}
+		finally
+			{
+			executor.shutdownNow();
+			executor.awaitTermination(1L, TimeUnit.MINUTES);
+			for(final Annotator annotator:annotators) annotator.close();
+			}
+		}
+	
+	@Override
+	protected Collection<Throwable> doVcfToVcf(final String inputName, final VcfIterator r, VariantContextWriter w)
+			throws IOException {
+		try {
+		LOG.info("opening REF:"+super.referenceFile);
+		this.indexedFastaSequenceFile=new IndexedFastaSequenceFile(super.referenceFile);
+		loadKnownGenesFromUri();
+		final VCFHeader header=(VCFHeader)r.getHeader();
+		
+		
+		final VCFHeader h2=new VCFHeader(header);
+		addMetaData(h2);
+		
+		
+		if(super.vepSyntax)
+			{
+			h2.addMetaDataLine(new VCFInfoHeaderLine("CSQ",
+					VCFHeaderLineCount.UNBOUNDED,
+					VCFHeaderLineType.String,
+					"Consequence type as predicted by VEP"+
+					". Format: Allele|Feature|Feature_type|Consequence|CDS_position|Protein_position|Amino_acids|Codons"
+					));
+			}
+		else
+			{
+			final StringBuilder format=new StringBuilder();
+			for(FORMAT1 f:FORMAT1.values())
+				{
+				if(format.length()>0) format.append("|"); 
+				 format.append(f.name()); 
+				}
+			
+			h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
+					"Prediction from "+getClass().getSimpleName()+
+					". Format: "+format
+					));
+			}
+		
+        w.writeHeader(h2);
+
+		
+		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header);
+		if(super.nThreads>1)
+			{
+			annotateParallel(r, w, progress);
+			}
+		else
+			{
+			final Annotator annotator=new Annotator(this.indexedFastaSequenceFile);
+			while(r.hasNext())
+				{
+				w.add(annotator.annotate(progress.watch(r.next())));
+				}
 			}
 		
 		return RETURN_OK;
@@ -32,9 +32,17 @@ package com.github.lindenb.jvarkit.tools.vcffilterjs;
 
 
 import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import javax.script.Bindings;
 import javax.script.CompiledScript;
@@ -48,6 +56,8 @@ import com.github.lindenb.jvarkit.util.vcf.predictions.SnpEffPredictionParserFac
 import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParser;
 import com.github.lindenb.jvarkit.util.vcf.predictions.VepPredictionParserFactory;
 
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -64,13 +74,182 @@ public class VCFFilterJS
 	extends AbstractVCFFilterJS
 	{	
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(AbstractVCFFilterJS.class);
+	/** number of variants sent to a worker at once */
+	private static final int BATCH_SIZE=1000;
 	private CompiledScript compiledScript = null;
 	
+	/** a read-only list whose content is only computed when it is first accessed.
+	 * Used for the predictions, so they are not parsed if the script never reads them */
+	private static class LazyList<T> extends AbstractList<T>
+		{
+		private final Supplier<List<T>> supplier;
+		private List<T> delegate = null;
+		LazyList(final Supplier<List<T>> supplier)
+			{
+			this.supplier = supplier;
+			}
+		private List<T> delegate()
+			{
+			if(this.delegate==null) this.delegate = this.supplier.get();
+			return this.delegate;
+			}
+		@Override
+		public T get(final int index)
+			{
+			return delegate().get(index);
+			}
+		@Override
+		public int size()
+			{
+			return delegate().size();
+			}
+		}
+	
+	/** a compiled script and its bindings. A Filter is confined to one thread */
+	private class Filter
+		{
+		private final CompiledScript script;
+		private final Bindings bindings;
+		private final SnpEffPredictionParser snpEffPredictionParser;
+		private final VepPredictionParser vepPredictionParser;
+		
+		Filter(final CompiledScript script,final VCFHeader header,final List<Pedigree.Person> individuals)
+			{
+			this.script = script;
+			this.snpEffPredictionParser =(VCFFilterJS.this.use_snpeff ?
+					new SnpEffPredictionParserFactory().header(header).get():
+					null
+					);
+			this.vepPredictionParser = (VCFFilterJS.this.use_vep?
+					new VepPredictionParserFactory().header(header).get():
+					null
+					);
+			this.bindings = script.getEngine().createBindings();
+			this.bindings.put("header", header);
+			if(VCFFilterJS.this.use_casecontrol) {
+				this.bindings.put("individuals", individuals);
+			}
+			}
+		
+		/** @return true if the variant is accepted by the script */
+		boolean accept(final VariantContext variation) throws ScriptException
+			{
+			this.bindings.put("variant", variation);
+			if(this.snpEffPredictionParser!=null)
+				{
+				this.bindings.put("snpEff",
+					new LazyList<>(()->this.snpEffPredictionParser.getPredictions(variation)));
+				}
+			if(this.vepPredictionParser!=null) {
+				this.bindings.put("vep",
+					new LazyList<>(()->this.vepPredictionParser.getPredictions(variation)));
+				}
+			return evalJavaScriptBoolean(this.script, this.bindings);
+			}
+		}
+	
 	/** 2015-02-10 : moved to public , so we can use it in knime */
 	public VCFFilterJS()
 		{
 		
 		}
+	
+	private void write(
+			final VariantContextWriter w,
+			final VariantContext variation,
+			final boolean accepted,
+			final VCFFilterHeaderLine filterHeaderLine)
+		{
+		if (!accepted)
+			{
+			if(filterHeaderLine!=null)
+				{
+				final VariantContextBuilder vcb = new VariantContextBuilder(variation);
+				vcb.filter(filterHeaderLine.getID());
+				w.add(vcb.make());
+				}
+			return;
+			}
+		w.add(variation);
+		}
+	
+	/** the variants are sent by batches to a pool of threads, each thread compiles
+	 * its own copy of the script. The decisions are written back in the input order. */
+	private void filterParallel(
+			final VcfIterator r,
+			final VariantContextWriter w,
+			final SAMSequenceDictionaryProgress progress,
+			final VCFHeader header,
+			final List<Pedigree.Person> individuals,
+			final VCFFilterHeaderLine filterHeaderLine
+			) throws Exception
+		{
+		final ThreadLocal<Filter> threadFilter = ThreadLocal.withInitial(()->{
+			try
+				{
+				return new Filter(super.compileJavascript(), header, individuals);
+				}
+			catch(final Exception err)
+				{
+				throw new RuntimeException(err);
+				}
+			});
+		LOG.info("filtering with "+super.nThreads+" threads");
+		final ExecutorService executor = Executors.newFixedThreadPool(super.nThreads);
+		/* reorder buffer: batches in the input order */
+		final Deque<List<VariantContext>> pendingVariants = new ArrayDeque<>();
+		final Deque<Future<boolean[]>> pendingDecisions = new ArrayDeque<>();
+		try
+			{
+			List<VariantContext> batch = new ArrayList<>(BATCH_SIZE);
+			for(;;)
+				{
+				final boolean eof = !r.hasNext() || w.checkError();
+				if(!eof)
+					{
+					final VariantContext ctx = progress.watch(r.next());
+					/* the lazy genotypes are decoded with the codec of the reader, which is not thread-safe: decode them here, on the reader thread */
+					final GenotypesContext genotypes = ctx.getGenotypes();
+					if(genotypes instanceof LazyGenotypesContext)
+						{
+						((LazyGenotypesContext)genotypes).decode();
+						}
+					batch.add(ctx);
+					}
+				if(batch.size()>=BATCH_SIZE || (eof && !batch.isEmpty()))
+					{
+					final List<VariantContext> input = batch;
+					pendingVariants.add(input);
+					pendingDecisions.add(executor.submit(()->{
+						final Filter filter = threadFilter.get();
+						final boolean decisions[] = new boolean[input.size()];
+						for(int i=0;i< decisions.length;++i)
+							{
+							decisions[i] = filter.accept(input.get(i));
+							}
+						return decisions;
+						}));
+					batch = new ArrayList<>(BATCH_SIZE);
+					}
+				while(!pendingDecisions.isEmpty() && (eof || pendingDecisions.size()> 2*super.nThreads))
+					{
+					final boolean decisions[] = pendingDecisions.removeFirst().get();
+					final List<VariantContext> variants = pendingVariants.removeFirst();
+					for(int i=0;i< decisions.length;++i)
+						{
+						write(w, variants.get(i), decisions[i], filterHeaderLine);
+						}
+					}
+				if(eof) break;
+				}
+			}
+		finally
+			{
+			executor.shutdownNow();
+			executor.awaitTermination(1L, TimeUnit.MINUTES);
+			}
+		}
+	
 	@Override
 	public Collection<Throwable> doVcfToVcf(
 			final String inputName,
@@ -81,14 +260,6 @@ public class VCFFilterJS
 		try
 			{
 			final VCFHeader header = r.getHeader();
-			final SnpEffPredictionParser snpEffPredictionParser =(super.use_snpeff ?
-					new SnpEffPredictionParserFactory().header(header).get():
-					null
-					);
-			final VepPredictionParser vepPredictionParser = (super.use_vep?
-					new VepPredictionParserFactory().header(header).get():
-					null
-					);
 
 			final  VCFHeader h2 = new VCFHeader(header);
 			addMetaData(h2);
@@ -107,46 +278,23 @@ public class VCFFilterJS
 			
 			final  SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(header);
 
-			final  Bindings bindings = this.compiledScript.getEngine()
-					.createBindings();
-			bindings.put("header", header);
-			if(super.use_casecontrol) {
-				bindings.put("individuals", individuals);
-			}
-			
-			
-
 			w.writeHeader(h2);
-			while (r.hasNext() && !w.checkError())
+			if(super.nThreads>1)
 				{
-				final  VariantContext variation = progress.watch(r.next());
-
-				bindings.put("variant", variation);
-				if(super.use_snpeff)
-					{
-					bindings.put("snpEff",
-						snpEffPredictionParser.getPredictions(variation));
-					}
-				if(super.use_vep) {
-					bindings.put("vep",
-						vepPredictionParser.getPredictions(variation));
-					}
-
-				if (!evalJavaScriptBoolean(this.compiledScript, bindings) )
+				filterParallel(r, w, progress, header, individuals, filterHeaderLine);
+				}
+			else
+				{
+				final Filter filter = new Filter(this.compiledScript, header, individuals);
+				while (r.hasNext() && !w.checkError())
 					{
-					if(filterHeaderLine!=null)
-						{
-						final VariantContextBuilder vcb = new VariantContextBuilder(variation);
-						vcb.filter(filterHeaderLine.getID());
-						w.add(vcb.make());
-						}
-					continue;
+					final  VariantContext variation = progress.watch(r.next());
+					write(w, variation, filter.accept(variation), filterHeaderLine);
 					}
-				w.add(variation);
 				}
 			return RETURN_OK;
 			}
-		catch (ScriptException err)
+		catch (final Exception err)
 			{
 			return wrapException(err);
 			}
@@ -31,6 +31,7 @@ package com.github.lindenb.jvarkit.tools.vcfmerge;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -42,8 +43,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.tribble.readers.LineIteratorImpl;
@@ -52,6 +58,8 @@ import htsjdk.tribble.readers.SynchronousLineReader;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -68,6 +76,9 @@ import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.SortingCollection;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.util.TabixUtils;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
@@ -204,20 +215,7 @@ public class VCFMerge2
 			final List<VariantContext> L = new ArrayList<>(row.size());
 			for(final VariantOfFile vof:row)
 				{
-				final VariantContext ctx = vof.parse();
-				final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-				final List<Genotype> genotypes = new ArrayList<>(ctx.getGenotypes());
-				final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
-				remainingSamples.removeAll(ctx.getSampleNames());
-				for(String sampleName:remainingSamples)
-					{
-					genotypes.add(createMissingGenotype(sampleName,ctx.getReference()));
-					}
-				vcb.genotypes(genotypes);
-				vcb.attribute(NO_MERGE_INFO_HEADER.getID(),
-						VCFUtils.escapeInfoField(this.vcfHandlers.get(vof.fileIndex).origin)
-						);
-				L.add(vcb.make());
+				L.add(buildUnmergedContext(header,vof.parse(),this.vcfHandlers.get(vof.fileIndex).origin));
 				}
 			return L;
 			}
@@ -228,6 +226,28 @@ public class VCFMerge2
 		return buildContextFromVariantContext(header,row2);
 		}
 	
+	/** used when doNotMergeRowLines is set: add the missing samples and the origin of the variant */
+	private VariantContext buildUnmergedContext(
+			final VCFHeader header,
+			final VariantContext ctx,
+			final String origin
+			)
+		{
+		final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+		final List<Genotype> genotypes = new ArrayList<>(ctx.getGenotypes());
+		final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
+		remainingSamples.removeAll(ctx.getSampleNames());
+		for(String sampleName:remainingSamples)
+			{
+			genotypes.add(createMissingGenotype(sampleName,ctx.getReference()));
+			}
+		vcb.genotypes(genotypes);
+		vcb.attribute(NO_MERGE_INFO_HEADER.getID(),
+				VCFUtils.escapeInfoField(origin)
+				);
+		return vcb.make();
+		}
+	
 	private Genotype createMissingGenotype(final String sampleName,final Allele ref)
 		{
 		if(super.useHomRefForUnknown)
@@ -383,9 +403,83 @@ public class VCFMerge2
 
 		}
 	
+	/**
+	 * An index means the variants are sorted on position within a contig, but the contigs
+	 * may not follow the order of the sequence dictionary (e.g: chr1, chr10, chr2).
+	 * @return true if all the files are local VCFs with a tribble or tabix index, sharing
+	 * the same dictionary, and if the contigs listed in each index follow the order of that dictionary.
+	 */
+	private boolean allFilesAreIndexedAndSorted()
+		{
+		SAMSequenceDictionary dict=null;
+		for(final String uri:this.userVcfFiles)
+			{
+			if(IOUtils.isRemoteURI(uri)) return false;
+			final File f=new File(uri);
+			if(!f.isFile()) return false;
+			final File indexFile;
+			if(uri.endsWith(".vcf.gz"))
+				{
+				indexFile=new File(uri+TabixUtils.STANDARD_INDEX_EXTENSION);
+				}
+			else if(uri.endsWith(".vcf"))
+				{
+				indexFile=Tribble.indexFile(f);
+				}
+			else
+				{
+				return false;
+				}
+			if(!indexFile.exists()) return false;
+			
+			VcfIterator iter=null;
+			try
+				{
+				iter=VCFUtils.createVcfIterator(uri);
+				final SAMSequenceDictionary dict1=iter.getHeader().getSequenceDictionary();
+				if(dict1==null || dict1.isEmpty()) return false;
+				if(dict==null)
+					{
+					dict=dict1;
+					}
+				else if(!SequenceUtil.areSequenceDictionariesEqual(dict, dict1))
+					{
+					return false;
+					}
+				/* the index lists the contigs in the order of the file */
+				int prevTid=-1;
+				for(final String contig:IndexFactory.loadIndex(indexFile.getPath()).getSequenceNames())
+					{
+					final int tid=dict.getSequenceIndex(contig);
+					if(tid<=prevTid)
+						{
+						LOG.info("The contigs of "+uri+" don't follow the order of the dictionary ("+contig+").");
+						return false;
+						}
+					prevTid=tid;
+					}
+				}
+			catch(final Exception err)
+				{
+				LOG.warn("Cannot check the order of "+uri+" : "+err.getMessage());
+				return false;
+				}
+			finally
+				{
+				CloserUtil.close(iter);
+				}
+			}
+		return true;
+		}
+	
 	private Collection<Throwable> workUsingPeekOrSorting() throws IOException
 		{
-		if(filesAreSorted)
+		final boolean indexedAndSorted = !filesAreSorted && allFilesAreIndexedAndSorted();
+		if(indexedAndSorted)
+			{
+			LOG.info("All the input files are indexed and follow the order of the dictionary: they are merged as sorted files.");
+			}
+		if(filesAreSorted || indexedAndSorted)
 			{
 			return workUsingPeekIterator();
 			}
@@ -418,11 +512,102 @@ public class VCFMerge2
 		CloserUtil.close(out);
 		CloserUtil.close(iter);
 		}
-	/** container uri+vcfIterator */
-	private static class PeekVCF
+	/** number of variants decoded at once by a worker in the sorted mode */
+	private static final int PEEK_BATCH_SIZE=1000;
+	
+	/** cursor over a sorted VCF file. The variants are read by batches, on the
+	 * calling thread or, if there is an executor, prefetched on a pool of threads. */
+	private class PeekVCF
 		{
-		String uri;
+		final int fileIndex;
+		final String uri;
 		VcfIterator iter=null;
+		private final ExecutorService executor;
+		private List<VariantContext> batch=Collections.emptyList();
+		private int batchIndex=0;
+		/** next batch, being decoded */
+		private Future<List<VariantContext>> prefetch=null;
+		private boolean eof=false;
+		/** previous variant, to check the file is sorted */
+		private VariantContext prev=null;
+		
+		PeekVCF(final int fileIndex,final String uri,final ExecutorService executor)
+			{
+			this.fileIndex=fileIndex;
+			this.uri=uri;
+			this.executor=executor;
+			}
+		
+		private List<VariantContext> readBatch()
+			{
+			final List<VariantContext> L=new ArrayList<>(PEEK_BATCH_SIZE);
+			while(L.size()< PEEK_BATCH_SIZE && this.iter.hasNext())
+				{
+				final VariantContext ctx=this.iter.next();
+				/* the genotypes are decoded lazily: decode them here, on the worker, rather than on the merging thread */
+				final GenotypesContext genotypes=ctx.getGenotypes();
+				if(genotypes instanceof LazyGenotypesContext)
+					{
+					((LazyGenotypesContext)genotypes).decode();
+					}
+				L.add(ctx);
+				}
+			return L;
+			}
+		
+		private void fillBatch() throws Exception
+			{
+			while(!this.eof && this.batchIndex>=this.batch.size())
+				{
+				if(this.executor==null)
+					{
+					this.batch=readBatch();
+					}
+				else
+					{
+					if(this.prefetch==null) this.prefetch=this.executor.submit(()->readBatch());
+					this.batch=this.prefetch.get();
+					this.prefetch=null;
+					/* only one task at a time reads this iterator */
+					if(!this.batch.isEmpty()) this.prefetch=this.executor.submit(()->readBatch());
+					}
+				this.batchIndex=0;
+				if(this.batch.isEmpty()) this.eof=true;
+				}
+			}
+		
+		/** @return the current variant or null at the end of the file */
+		VariantContext peek() throws Exception
+			{
+			fillBatch();
+			return this.eof?null:this.batch.get(this.batchIndex);
+			}
+		
+		/** consume the current variant */
+		void next(final SAMSequenceDictionary dict) throws Exception
+			{
+			final VariantContext ctx=peek();
+			if(this.prev!=null && compare(dict,this.prev,ctx)>0)
+				{
+				throw new RuntimeException("File "+this.uri+" is not sorted: got "+
+						ctx.getContig()+":"+ctx.getStart()+" after "+this.prev.getContig()+":"+this.prev.getStart()+
+						". Do not use the sorted mode, or sort it first.");
+				}
+			this.prev=ctx;
+			this.batch.set(this.batchIndex,null);
+			this.batchIndex++;
+			}
+		
+		void close()
+			{
+			if(this.prefetch!=null)
+				{
+				try { this.prefetch.get();}
+				catch(final Exception err) {}
+				this.prefetch=null;
+				}
+			CloserUtil.close(this.iter);
+			}
 		}
 	
 	private int compare(
@@ -447,11 +632,12 @@ public class VCFMerge2
 		return 0;
 		}
 	
+	/** merge sorted files: a priority queue of cursors, one per file, so the memory only depends on the number of files */
 	private Collection<Throwable> workUsingPeekIterator()
 		{
 		VariantContextWriter out = null;
 		final List<PeekVCF> input=new ArrayList<PeekVCF>();
-
+		final ExecutorService executor=(super.nThreads>1?Executors.newFixedThreadPool(super.nThreads):null);
 		try {
 			SAMSequenceDictionary dict=null;
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
@@ -460,8 +646,7 @@ public class VCFMerge2
 			//get all VCF, check same dict
 			for(String arg:this.userVcfFiles )
 				{
-				PeekVCF p=new PeekVCF();
-				p.uri=arg;
+				final PeekVCF p=new PeekVCF(input.size(),arg,executor);
 				LOG.info("Opening "+p.uri);
 				p.iter=VCFUtils.createVcfIterator(p.uri);
 				input.add(p);
@@ -492,51 +677,61 @@ public class VCFMerge2
 			
 			
 			out.writeHeader(headerOut);
-			boolean peeked[]=new boolean[input.size()];
-			final List<VariantContext> row=new ArrayList<VariantContext>();
-			//find smallest ordered variant
-			for(;;)
+			final SAMSequenceDictionary theDict=dict;
+			final PriorityQueue<PeekVCF> queue=new PriorityQueue<>(Math.max(1,input.size()),(A,B)->{
+				try {
+					final int i=compare(theDict, A.peek(), B.peek());
+					if(i!=0) return i;
+					return A.fileIndex - B.fileIndex;
+					}
+				catch(final Exception err)
+					{
+					throw new RuntimeException(err);
+					}
+				});
+			for(final PeekVCF p:input)
 				{
+				if(p.peek()!=null) queue.add(p);
+				}
+			final List<PeekVCF> rowFiles=new ArrayList<>(input.size());
+			final List<VariantContext> row=new ArrayList<VariantContext>(input.size());
+			while(!queue.isEmpty())
+				{
+				//find all the files having the smallest variant
+				rowFiles.clear();
 				row.clear();
-				Arrays.fill(peeked, false);
-				for(int i=0;i< input.size();++i)
+				rowFiles.add(queue.poll());
+				final VariantContext first=rowFiles.get(0).peek();
+				while(!queue.isEmpty() && compare(dict,queue.peek().peek(),first)==0)
 					{
-					if(!input.get(i).iter.hasNext()) continue;
-					final VariantContext ctx=input.get(i).iter.peek();
-					if(row.isEmpty())
-						{
-						Arrays.fill(peeked, false);
-						peeked[i]=true;
-						row.add(ctx);
-						continue;
-						}
-					final int cmp=compare(dict, ctx, row.get(0));
-					if(cmp==0)
-						{
-						peeked[i]=true;
-						row.add(ctx);
-						}
-					else if(cmp<0)
+					rowFiles.add(queue.poll());
+					}
+				for(final PeekVCF p:rowFiles)
+					{
+					row.add(p.peek());
+					}
+				
+				if(this.doNotMergeRowLines)
+					{
+					for(int i=0;i< row.size();++i)
 						{
-						Arrays.fill(peeked, false);
-						peeked[i]=true;
-						row.clear();
-						row.add(ctx);
+						out.add(progress.watch(buildUnmergedContext(headerOut,row.get(i),rowFiles.get(i).uri)));
 						}
 					}
-				if(row.isEmpty()) break;
-				
-				for(final VariantContext merged: buildContextFromVariantContext(headerOut, row))
+				else
 					{
-					out.add(progress.watch(merged));
+					for(final VariantContext merged: buildContextFromVariantContext(headerOut, row))
+						{
+						out.add(progress.watch(merged));
+						}
 					}
 				
 				//consumme peeked variants
-				for(int i=0;i< input.size();++i)
+				for(final PeekVCF p:rowFiles)
 					{
-					if(peeked[i]) input.get(i).iter.next();
+					p.next(dict);
+					if(p.peek()!=null) queue.add(p);
 					}
-				
 				}
 			CloserUtil.close(out); out=null;
 			progress.finish();
@@ -552,7 +747,13 @@ public class VCFMerge2
 			CloserUtil.close(out);
 			for(PeekVCF p: input)
 				{
-				CloserUtil.close(p.iter);
+				p.close();
+				}
+			if(executor!=null)
+				{
+				executor.shutdownNow();
+				try { executor.awaitTermination(1L, TimeUnit.MINUTES);}
+				catch(final InterruptedException err) {}
 				}
 			}
 		}
@@ -23,34 +23,52 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Block;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.util.TabixUtils;
 
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineCount;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.IntCounter;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -67,84 +85,201 @@ public class VcfStats extends AbstractVcfStats
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(VcfStats.class);
 
 	private static final int HISTOGRAM_STEP=5;
-	private VepPredictionParser vepPredictionParser=null;
-	private SnpEffPredictionParser snpEffPredictionParser=null;
 	private final SequenceOntologyTree.Term coding_exon_variant=SequenceOntologyTree.getInstance().getTermByAcn("SO:0001791");
 	private boolean DP_info_is_depth=false;
 	
+	private static final Pattern RS_ID = Pattern.compile("rs[0-9]+");
+	
+	/* the keys of Stats.counter */
+	private static final String COUNTER_KEYS[];
+	private static final int GENOTYPE_UNAVAILABLE=0;
+	private static final int GENOTYPE_HOM_REF=1;
+	private static final int GENOTYPE_HOM_VAR=2;
+	private static final int GENOTYPE_HET=3;
+	private static final int GENOTYPE_HOM=4;
+	private static final int GENOTYPE_FILTERED=5;
+	private static final int GENOTYPE_IS_MIXED=6;
+	private static final int NUM_VARIANTS=7;
+	private static final int BI_ALLELIC=8;
+	private static final int NOT_BI_ALLELIC=9;
+	private static final int SYMBOLIC_ALLELES=10;
+	private static final int VARIANT_HAVING_ID=11;
+	private static final int VARIANT_HAVING_RSID=12;
+	private static final int NUM_SAMPLES=13;
+	private static final int NUM_DICTIONARY_CHROMOSOMES=14;
+	private static final int NUM_SEEN_CHROMOSOMES=15;
+	/** first key of the (genotype|variant)(.coding)?.(indels|substitutions|transitions|transversions) */
+	private static final int SUBSTITUTIONS=16;
+	private static final int INDELS=0,SUBST=1,TRANSITIONS=2,TRANSVERSIONS=3;
+	static {
+		final List<String> L=new ArrayList<>(Arrays.asList(
+			"genotype.unavailable","genotype.hom.ref","genotype.hom.var","genotype.het","genotype.hom",
+			"genotype.filtered","genotype.is.mixed","num.variants","bi.allelic","not.bi.allelic",
+			"symbolic.alleles","variant.having.ID","variant.having.rsId","num.samples",
+			"num.dictionary.chromosomes","num.seen.chromosomes"
+			));
+		for(final String prefix:new String[]{"genotype","genotype.coding","variant","variant.coding"})
+			{
+			for(final String suffix:new String[]{".indels",".substitutions",".transitions",".transversions"})
+				{
+				L.add(prefix+suffix);
+				}
+			}
+		COUNTER_KEYS=L.toArray(new String[L.size()]);
+		}
+	
+	/** @return the keys in the order of a HashSet filled in 'insertionOrder', like the historical java.util.HashMap based counters */
+	private static <T> Collection<T> hashOrder(final Collection<T> insertionOrder)
+		{
+		/* no initial capacity: the table must grow like the one of the counter */
+		final Set<T> set=new HashSet<T>();
+		set.addAll(insertionOrder);
+		return set;
+		}
+	
+	/** count the SO terms, remember the order of the first occurence of each term */
+	private static class TermCounter
+		{
+		private final Map<SequenceOntologyTree.Term,long[]> term2count=new LinkedHashMap<>();
+		void incr(final SequenceOntologyTree.Term t,final long n)
+			{
+			long count[]=this.term2count.get(t);
+			if(count==null)
+				{
+				count=new long[1];
+				this.term2count.put(t, count);
+				}
+			count[0]+=n;
+			}
+		void merge(final TermCounter other)
+			{
+			for(final Map.Entry<SequenceOntologyTree.Term,long[]> e:other.term2count.entrySet())
+				{
+				incr(e.getKey(),e.getValue()[0]);
+				}
+			}
+		boolean isEmpty()
+			{
+			return this.term2count.isEmpty();
+			}
+		Collection<SequenceOntologyTree.Term> keySet()
+			{
+			return hashOrder(this.term2count.keySet());
+			}
+		long count(final SequenceOntologyTree.Term t)
+			{
+			return this.term2count.get(t)[0];
+			}
+		}
+	
+	/** the predictions of a variant, parsed once and used by all the Stats */
+	private class Predictions
+		{
+		boolean is_in_coding=false;
+		final Set<SequenceOntologyTree.Term> vepSet=new HashSet<SequenceOntologyTree.Term >();
+		final Set<SequenceOntologyTree.Term> snpEffSet=new HashSet<SequenceOntologyTree.Term >();
+		
+		Predictions(final VariantContext ctx,final SnpEffPredictionParser snpEffPredictionParser,final VepPredictionParser vepPredictionParser)
+			{
+			for(SnpEffPrediction eff :snpEffPredictionParser.getPredictions(ctx))
+				{
+				for(SequenceOntologyTree.Term t:eff.getSOTerms())
+					{
+					if(t.equals(coding_exon_variant)) is_in_coding=true;
+					snpEffSet.add(t);
+					}
+				}
+			for(VepPrediction eff :vepPredictionParser.getPredictions(ctx))
+				{
+				for(SequenceOntologyTree.Term t:eff.getSOTerms())
+					{
+					if(t.equals(coding_exon_variant)) is_in_coding=true;
+					vepSet.add(t);
+					}
+				}
+			}
+		}
+	
 	private class Stats
 		{
-		Counter<String> counter=new Counter<String>();
-		Counter<Integer> alternate_alleles=new Counter<Integer>();
-		Counter<Integer> depth=new Counter<Integer>();
-		Counter<Integer> qual=new Counter<Integer>();
-		Counter<SequenceOntologyTree.Term> snpEffSo=new Counter<SequenceOntologyTree.Term>();
-		Counter<SequenceOntologyTree.Term> vepSo=new Counter<SequenceOntologyTree.Term>();
+		/** counts indexed by COUNTER_KEYS */
+		final long counter[]=new long[COUNTER_KEYS.length];
+		/** indexes in COUNTER_KEYS, in the order of their first increment */
+		final List<Integer> counterOrder=new ArrayList<>(COUNTER_KEYS.length);
+		final IntCounter alternate_alleles=new IntCounter();
+		final IntCounter depth=new IntCounter();
+		final IntCounter qual=new IntCounter();
+		final TermCounter snpEffSo=new TermCounter();
+		final TermCounter vepSo=new TermCounter();
 
+		void incr(final int key,final long n)
+			{
+			if(n<=0L) return;
+			if(this.counter[key]==0L) this.counterOrder.add(key);
+			this.counter[key]+=n;
+			}
+		void incr(final int key)
+			{
+			incr(key,1L);
+			}
+		
+		/** add the content of another Stats, the other Stats contains the variants that come after those of this Stats */
+		void merge(final Stats other)
+			{
+			for(final Integer key:other.counterOrder)
+				{
+				incr(key,other.counter[key]);
+				}
+			this.alternate_alleles.putAll(other.alternate_alleles);
+			this.depth.putAll(other.depth);
+			this.qual.putAll(other.qual);
+			this.snpEffSo.merge(other.snpEffSo);
+			this.vepSo.merge(other.vepSo);
+			}
 		
-		private void watch(boolean is_in_coding,String prefix,Allele allele1,Allele allele2)
+		/** @param prefix 0 for genotype, 2 for variant */
+		private void watch(boolean is_in_coding,int prefix,Allele allele1,Allele allele2)
 			{
+			final Character a1= simpleATGC(allele1);
+			final Character a2= simpleATGC(allele2);
 			for(int i=0;i< 2;++i)
 				{
-				Character a1= simpleATGC(allele1);
-				Character a2= simpleATGC(allele2);
+				final int base=SUBSTITUTIONS+(prefix+i)*4;
 				if(a1==null || a2==null)
 					{
 					if(allele1.getDisplayString().length()!=allele2.getDisplayString().length())
 						{
-						counter.incr(prefix+".indels");
+						incr(base+INDELS);
 						}
 					}
 				else
 					{
-					counter.incr(prefix+".substitutions");
+					incr(base+SUBST);
 					if(isTransition(a1, a2))
 						{
-						counter.incr(prefix+".transitions");
+						incr(base+TRANSITIONS);
 						}
 					else if(isTransversion(a1, a2))
 						{
-						counter.incr(prefix+".transversions");
+						incr(base+TRANSVERSIONS);
 						}
 					}
 				if(!is_in_coding) break;
-				prefix=prefix+".coding";
 				}
 			}
 		
-		void watch(String sampleName,VariantContext ctx)
+		void watch(String sampleName,VariantContext ctx,final Predictions pred)
 			{
 			List<Allele> alleles=null;
-			boolean is_in_coding=false;
-			Set<SequenceOntologyTree.Term> vepSet=new HashSet<SequenceOntologyTree.Term >();
-			Set<SequenceOntologyTree.Term> snpEffSet=new HashSet<SequenceOntologyTree.Term >();
-			
+			final boolean is_in_coding=pred.is_in_coding;
 			
-			
-			for(SnpEffPrediction eff :snpEffPredictionParser.getPredictions(ctx))
+			for(SequenceOntologyTree.Term t:pred.snpEffSet)
 				{
-				for(SequenceOntologyTree.Term t:eff.getSOTerms())
-					{
-					if(t.equals(coding_exon_variant)) is_in_coding=true;
-					snpEffSet.add(t);
-					}
+				snpEffSo.incr(t,1L);
 				}
-			for(VepPrediction eff :vepPredictionParser.getPredictions(ctx))
+			for(SequenceOntologyTree.Term t:pred.vepSet)
 				{
-				for(SequenceOntologyTree.Term t:eff.getSOTerms())
-					{
-					if(t.equals(coding_exon_variant)) is_in_coding=true;
-					vepSet.add(t);
-					}
-				}
-			
-			for(SequenceOntologyTree.Term t:snpEffSet)
-				{
-				snpEffSo.incr(t);
-				}
-			for(SequenceOntologyTree.Term t:vepSet)
-				{
-				vepSo.incr(t);
+				vepSo.incr(t,1L);
 				}
 			
 			if(sampleName!=null)
@@ -153,19 +288,19 @@ public class VcfStats extends AbstractVcfStats
 				
 				if(!g.isAvailable())
 					{
-					counter.incr("genotype.unavailable");
+					incr(GENOTYPE_UNAVAILABLE);
 					return;
 					}
-				if(g.isHomRef()) counter.incr("genotype.hom.ref");
-				if(g.isHomVar()) counter.incr("genotype.hom.var");
-				if(g.isHet()) counter.incr("genotype.het");
-				if(g.isHom()) counter.incr("genotype.hom");
-				if(g.isFiltered()) counter.incr("genotype.filtered");
-				if(g.isMixed()) counter.incr("genotype.is.mixed");
+				if(g.isHomRef()) incr(GENOTYPE_HOM_REF);
+				if(g.isHomVar()) incr(GENOTYPE_HOM_VAR);
+				if(g.isHet()) incr(GENOTYPE_HET);
+				if(g.isHom()) incr(GENOTYPE_HOM);
+				if(g.isFiltered()) incr(GENOTYPE_FILTERED);
+				if(g.isMixed()) incr(GENOTYPE_IS_MIXED);
 				alleles=g.getAlleles();
 				if(!g.isHomRef() && alleles.size()==2)
 					{
-					watch(is_in_coding,"genotype",alleles.get(0),alleles.get(1));
+					watch(is_in_coding,0,alleles.get(0),alleles.get(1));
 					}
 				
 				if(g.hasDP())
@@ -188,7 +323,7 @@ public class VcfStats extends AbstractVcfStats
 					{
 					Allele allele1=ctx.getReference();
 					Allele allele2=ctx.getAlternateAllele(0);
-					watch(is_in_coding,"variant",allele1,allele2);
+					watch(is_in_coding,2,allele1,allele2);
 					}
 				
 				
@@ -212,29 +347,29 @@ public class VcfStats extends AbstractVcfStats
 			
 			
 			
-			counter.incr("num.variants");
+			incr(NUM_VARIANTS);
 			
 			if(ctx.isBiallelic())
 				{
-				counter.incr("bi.allelic");
+				incr(BI_ALLELIC);
 				}
 			else
 				{
-				counter.incr("not.bi.allelic");
+				incr(NOT_BI_ALLELIC);
 				}
 			
 			
 			if(ctx.hasSymbolicAlleles())
 				{
-				counter.incr("symbolic.alleles");
+				incr(SYMBOLIC_ALLELES);
 				}
 			
 			if(ctx.hasID())
 				{
-				counter.incr("variant.having.ID");
-				if(ctx.getID().matches("rs[0-9]+"))
+				incr(VARIANT_HAVING_ID);
+				if(RS_ID.matcher(ctx.getID()).matches())
 					{
-					counter.incr("variant.having.rsId");
+					incr(VARIANT_HAVING_RSID);
 					}
 				}
 			
@@ -243,7 +378,7 @@ public class VcfStats extends AbstractVcfStats
 		
 		void xml(XMLStreamWriter out) throws XMLStreamException
 			{
-			if(!counter.isEmpty())
+			if(!counterOrder.isEmpty())
 				{
 				out.writeStartElement("div");
 				
@@ -270,7 +405,9 @@ public class VcfStats extends AbstractVcfStats
 				out.writeEndElement();//thead
 
 				
-				for(String s:counter.keySet())
+				final Map<String,Long> key2count=new HashMap<>();
+				for(final Integer key:this.counterOrder) key2count.put(COUNTER_KEYS[key], this.counter[key]);
+				for(final String s:key2count.keySet())
 					{
 					out.writeStartElement("tr");
 					
@@ -279,7 +416,7 @@ public class VcfStats extends AbstractVcfStats
 					out.writeEndElement();
 					
 					out.writeStartElement("td");
-					out.writeCharacters(String.valueOf(counter.count(s)));
+					out.writeCharacters(String.valueOf(key2count.get(s)));
 					out.writeEndElement();
 					
 					out.writeEndElement();//tr
@@ -315,7 +452,7 @@ public class VcfStats extends AbstractVcfStats
 
 				
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(alternate_alleles.keySet())))
+				for(final int i:alternate_alleles.keys())
 					{
 					out.writeStartElement("tr");
 					
@@ -360,7 +497,7 @@ public class VcfStats extends AbstractVcfStats
 				out.writeEndElement();//thead
 
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(depth.keySet())))
+				for(final int i:depth.keys())
 					{
 					out.writeStartElement("tr");
 					
@@ -416,7 +553,7 @@ public class VcfStats extends AbstractVcfStats
 				out.writeEndElement();//thead
 
 				out.writeStartElement("tbody");
-				for(Integer i:(new TreeSet<Integer>(qual.keySet())))
+				for(final int i:qual.keys())
 					{
 					out.writeStartElement("tr");
 					
@@ -446,7 +583,7 @@ public class VcfStats extends AbstractVcfStats
 			for(int i=0;i< 2;++i)
 				{
 				String predName=(i==0?"SnpEff":"Vep");
-				Counter<SequenceOntologyTree.Term> set=(i==0?this.snpEffSo:this.vepSo);
+				TermCounter set=(i==0?this.snpEffSo:this.vepSo);
 				if(set.isEmpty())
 					{
 					out.writeComment("No prediction for "+predName+" available");
@@ -543,6 +680,187 @@ public class VcfStats extends AbstractVcfStats
 			}
 		}
 	
+	/** a part of the VCF: a whole contig or a window, and the statistics of its variants */
+	private class Shard
+		{
+		final String contig;
+		final int start;
+		final int end;
+		final Stats g_stats=new Stats();
+		Stats sample_stats[]=null;
+		final Map<String,Stats> stats_per_chr=new LinkedHashMap<String,Stats>();
+		private SnpEffPredictionParser snpEffPredictionParser=null;
+		private VepPredictionParser vepPredictionParser=null;
+		private VCFHeader header=null;
+		
+		Shard(final String contig,final int start,final int end)
+			{
+			this.contig=contig;
+			this.start=start;
+			this.end=end;
+			}
+		
+		void watch(final VCFHeader header,final VariantContext ctx)
+			{
+			if(this.header!=header)
+				{
+				this.header=header;
+				this.vepPredictionParser=new VepPredictionParserFactory(header).get();
+				this.snpEffPredictionParser=new SnpEffPredictionParserFactory(header).get();
+				this.sample_stats=new Stats[header.getNGenotypeSamples()];
+				for(int i=0;i< this.sample_stats.length;++i) this.sample_stats[i]=new Stats();
+				}
+			final Predictions pred=new Predictions(ctx, this.snpEffPredictionParser, this.vepPredictionParser);
+			Stats k_stats=this.stats_per_chr.get(ctx.getContig());
+			if(k_stats==null)
+				{
+				k_stats=new Stats();
+				this.stats_per_chr.put(ctx.getContig(), k_stats);
+				}
+			this.g_stats.watch(null,ctx,pred);
+			k_stats.watch(null,ctx,pred);
+			final List<String> samples=header.getSampleNamesInOrder();
+			for(int i=0;i< samples.size();++i)
+				{
+				this.sample_stats[i].watch(samples.get(i),ctx,pred);
+				}
+			}
+		
+		/** read the variants of this shard from an indexed VCF */
+		Shard call(final File vcfFile)
+			{
+			final VCFFileReader r=new VCFFileReader(vcfFile, true);
+			CloseableIterator<VariantContext> iter=null;
+			try
+				{
+				final VCFHeader header=r.getFileHeader();
+				iter=r.query(this.contig, this.start, this.end);
+				while(iter.hasNext())
+					{
+					final VariantContext ctx=iter.next();
+					/* variants overlapping a window are only counted in the window containing their start */
+					if(ctx.getStart()< this.start || ctx.getStart()>this.end) continue;
+					watch(header,ctx);
+					}
+				return this;
+				}
+			finally
+				{
+				CloserUtil.close(iter);
+				CloserUtil.close(r);
+				}
+			}
+		
+		void mergeInto(final Stats g_stats,final Map<String,Stats> stats_per_samples,final Map<String,Stats> stats_per_chr)
+			{
+			g_stats.merge(this.g_stats);
+			for(final String k:this.stats_per_chr.keySet())
+				{
+				Stats k_stats=stats_per_chr.get(k);
+				if(k_stats==null)
+					{
+					k_stats=new Stats();
+					stats_per_chr.put(k, k_stats);
+					}
+				k_stats.merge(this.stats_per_chr.get(k));
+				}
+			if(this.header==null) return;
+			final List<String> samples=this.header.getSampleNamesInOrder();
+			for(int i=0;i< samples.size();++i)
+				{
+				stats_per_samples.get(samples.get(i)).merge(this.sample_stats[i]);
+				}
+			}
+		}
+	
+	/** @return true if the file is a local VCF with a tabix or a tribble index */
+	private static boolean isIndexedVcf(final String filename)
+		{
+		if(filename==null || IOUtils.isRemoteURI(filename)) return false;
+		final File f=new File(filename);
+		if(!f.isFile()) return false;
+		if(filename.endsWith(".vcf.gz")) return new File(filename+TabixUtils.STANDARD_INDEX_EXTENSION).exists();
+		if(filename.endsWith(".vcf")) return Tribble.indexFile(f).exists();
+		return false;
+		}
+	
+	/** split the indexed VCF into contigs or windows, in the order of the file:
+	 * the contigs are sorted on the offset of their first block in the index */
+	private List<Shard> getShards(final String filename,final SAMSequenceDictionary dict) throws Exception
+		{
+		final List<Shard> shards=new ArrayList<>();
+		final Index index=IndexFactory.loadIndex(filename.endsWith(".vcf.gz")?
+				filename+TabixUtils.STANDARD_INDEX_EXTENSION:
+				Tribble.indexFile(new File(filename)).getPath()
+				);
+		final Map<String,Long> contig2offset=new HashMap<>();
+		for(final String contig:index.getSequenceNames())
+			{
+			long offset=Long.MAX_VALUE;
+			for(final Block block:index.getBlocks(contig, 1, Integer.MAX_VALUE))
+				{
+				offset=Math.min(offset, block.getStartPosition());
+				}
+			if(offset!=Long.MAX_VALUE) contig2offset.put(contig, offset);
+			}
+		final List<String> contigs=new ArrayList<>(contig2offset.keySet());
+		contigs.sort((A,B)->Long.compare(contig2offset.get(A), contig2offset.get(B)));
+		for(final String contig:contigs)
+			{
+			final SAMSequenceRecord ssr=(dict==null?null:dict.getSequence(contig));
+			if(super.shardSize<=0 || ssr==null)
+				{
+				shards.add(new Shard(contig,1,Integer.MAX_VALUE));
+				continue;
+				}
+			for(int start=1;start<=ssr.getSequenceLength();start+=super.shardSize)
+				{
+				final boolean last=(start+super.shardSize > ssr.getSequenceLength());
+				shards.add(new Shard(contig,start,last?Integer.MAX_VALUE:start+super.shardSize-1));
+				}
+			}
+		LOG.info("Splitting "+filename+" into "+shards.size()+" part(s).");
+		return shards;
+		}
+	
+	/** collect the statistics of the shards on a pool of threads, merged in the order of the shards */
+	private void runShards(
+			final String filename,
+			final List<Shard> shards,
+			final Stats g_stats,
+			final Map<String,Stats> stats_per_samples,
+			final Map<String,Stats> stats_per_chr
+			) throws Exception
+		{
+		final File vcfFile=new File(filename);
+		final ForkJoinPool pool=new ForkJoinPool(super.nThreads);
+		try
+			{
+			final Deque<Future<Shard>> pending=new ArrayDeque<>();
+			int n=0;
+			for(final Shard shard:shards)
+				{
+				/* keep a bounded number of shards in memory */
+				while(pending.size()>=2*super.nThreads)
+					{
+					pending.removeFirst().get().mergeInto(g_stats, stats_per_samples, stats_per_chr);
+					LOG.info("Done "+(++n)+"/"+shards.size());
+					}
+				pending.add(pool.submit(()->shard.call(vcfFile)));
+				}
+			while(!pending.isEmpty())
+				{
+				pending.removeFirst().get().mergeInto(g_stats, stats_per_samples, stats_per_chr);
+				LOG.info("Done "+(++n)+"/"+shards.size());
+				}
+			}
+		finally
+			{
+			pool.shutdownNow();
+			pool.awaitTermination(1L, TimeUnit.MINUTES);
+			}
+		}
+	
 	@Override
 	protected Collection<Throwable> call(String filename) throws Exception {
 		VcfIterator iter=null;
@@ -584,9 +902,6 @@ public class VcfStats extends AbstractVcfStats
 				this.DP_info_is_depth=true;
 				}
 			
-			this.vepPredictionParser=new VepPredictionParserFactory(header).get();
-			this.snpEffPredictionParser=new SnpEffPredictionParserFactory(header).get();
-			
 			xout.writeStartElement("html");
 			xout.writeAttribute("xmlns", "http://www.w3.org/1999/xhtml");
 			xout.writeAttribute("xmlns:j", "https://github.com/lindenb/jvarkit/wiki/VcfStats");
@@ -620,40 +935,40 @@ public class VcfStats extends AbstractVcfStats
 			
 						
 			
-			Stats g_stats=new Stats();
-			Map<String,Stats> stats_per_samples=new TreeMap<String,Stats>();
-			Map<String,Stats> stats_per_chr=new TreeMap<String,Stats>();
+			final Stats g_stats=new Stats();
+			final Map<String,Stats> stats_per_samples=new TreeMap<String,Stats>();
+			final Map<String,Stats> stats_per_chr=new TreeMap<String,Stats>();
 			for(String sample:header.getSampleNamesInOrder())
 				{
 				stats_per_samples.put(sample, new Stats());
 				}
 			
-			g_stats.counter.incr("num.samples",header.getSampleNamesInOrder().size());
+			g_stats.incr(NUM_SAMPLES,header.getSampleNamesInOrder().size());
 			
-			g_stats.counter.incr("num.dictionary.chromosomes",
+			g_stats.incr(NUM_DICTIONARY_CHROMOSOMES,
 					header.getSequenceDictionary()==null?
 					0
 					:header.getSequenceDictionary().getSequences().size()
 					);
 			
-			while(iter.hasNext())
+			final List<Shard> shards = (super.nThreads>1 && isIndexedVcf(filename)?
+					getShards(filename, header.getSequenceDictionary()):
+					null
+					);
+			if(shards==null)
 				{
-				VariantContext ctx=progress.watch(iter.next());
-				
-				
-				
-				Stats k_stats=stats_per_chr.get(ctx.getContig());
-				if(k_stats==null)
+				final Shard shard=new Shard(null,0,0);
+				while(iter.hasNext())
 					{
-					k_stats=new Stats();
-					stats_per_chr.put(ctx.getContig(), k_stats);
-					}
-				g_stats.watch(null,ctx);
-				k_stats.watch(null,ctx);
-				for(String sample:header.getSampleNamesInOrder())
-					{
-					stats_per_samples.get(sample).watch(sample,ctx);
+					shard.watch(header,progress.watch(iter.next()));
 					}
+				shard.mergeInto(g_stats, stats_per_samples, stats_per_chr);
+				}
+			else
+				{
+				CloserUtil.close(iter);
+				iter=null;
+				runShards(filename, shards, g_stats, stats_per_samples, stats_per_chr);
 				}
 			
 			//hyperlink for chromosomes
@@ -686,7 +1001,7 @@ public class VcfStats extends AbstractVcfStats
 
 			
 			
-			g_stats.counter.incr("num.seen.chromosomes",stats_per_chr.size());
+			g_stats.incr(NUM_SEEN_CHROMOSOMES,stats_per_chr.size());
 			
 			xout.writeStartElement("div");
 			xout.writeAttribute("j:title","General");
@@ -28,8 +28,10 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.vcfvcf;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +42,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -81,6 +84,11 @@ public class VcfPeekVcf extends Launcher
 	@Parameter(names={"-o","--output"},description="Output file. Optional . Default: stdout")
 	private File outputFile = null;
 
+	@Parameter(names={"-m","--merge-join"},description="Both VCFs are sorted on the same dictionary (the one of the input VCF). "
+			+ "Instead of querying the index for each variant, read the indexed file sequentially, in lockstep with the input. "
+			+ "The indexed file doesn't need an index in this mode. Contigs missing in the input dictionary are ignored.")
+	private boolean mergeJoin = false;
+
 	
 	private final Set<String> peek_info_tags=new HashSet<String>();
 	private VCFFileReader indexedVcfFileReader=null;
@@ -89,6 +97,116 @@ public class VcfPeekVcf extends Launcher
 		{
 		}
 	
+	/** sequential cursor over the database for --merge-join. The records sharing the
+	 * position of the current input variant are buffered, as the next input variant
+	 * may have the same position */
+	private class SortedDatabase implements Closeable
+		{
+		private final SAMSequenceDictionary dict;
+		private final CloseableIterator<VariantContext> iter;
+		private final List<VariantContext> buffer = new ArrayList<>();
+		private int bufferTid = -1;
+		private int bufferPos = -1;
+		/** next record of the database, not consumed yet */
+		private VariantContext next = null;
+		private int nextTid = -1;
+		
+		SortedDatabase(final SAMSequenceDictionary dict)
+			{
+			this.dict = dict;
+			this.iter = VcfPeekVcf.this.indexedVcfFileReader.iterator();
+			advance();
+			}
+		
+		/** move 'next' to the following record whose contig is in the dictionary */
+		private void advance()
+			{
+			final VariantContext prev = this.next;
+			final int prevTid = this.nextTid;
+			this.next = null;
+			this.nextTid = -1;
+			while(this.iter.hasNext())
+				{
+				final VariantContext ctx = this.iter.next();
+				final int tid = this.dict.getSequenceIndex(ctx.getContig());
+				if(tid<0) continue;
+				if(prev!=null && (tid<prevTid || (tid==prevTid && ctx.getStart()<prev.getStart())))
+					{
+					throw new JvarkitException.UserError("--merge-join: "+TABIX+" is not sorted on the dictionary of the input: got "+
+							ctx.getContig()+":"+ctx.getStart()+" after "+prev.getContig()+":"+prev.getStart());
+					}
+				this.next = ctx;
+				this.nextTid = tid;
+				break;
+				}
+			}
+		
+		/** @return the records of the database having the same contig and start as 'ctx' */
+		List<VariantContext> get(final VariantContext ctx)
+			{
+			final int tid = this.dict.getSequenceIndex(ctx.getContig());
+			if(tid<0) throw new JvarkitException.ContigNotFound("Contig "+ctx.getContig()+" not found in the dictionary of the input VCF");
+			final int pos = ctx.getStart();
+			if(tid==this.bufferTid && pos==this.bufferPos) return this.buffer;
+			if(tid<this.bufferTid || (tid==this.bufferTid && pos<this.bufferPos))
+				{
+				throw new JvarkitException.UserError("--merge-join: input is not sorted: got "+ctx.getContig()+":"+pos+
+						" after "+this.dict.getSequence(this.bufferTid).getSequenceName()+":"+this.bufferPos);
+				}
+			this.buffer.clear();
+			this.bufferTid = tid;
+			this.bufferPos = pos;
+			while(this.next!=null)
+				{
+				if(this.nextTid > tid || (this.nextTid==tid && this.next.getStart() > pos)) break;
+				if(this.nextTid==tid && this.next.getStart()==pos)
+					{
+					this.buffer.add(this.next);
+					}
+				advance();
+				}
+			return this.buffer;
+			}
+		
+		@Override
+		public void close()
+			{
+			CloserUtil.close(this.iter);
+			}
+		}
+	
+	/** copy the annotations of 'ctx2' into 'vcb' if 'ctx2' matches 'ctx' */
+	private void peek(final VariantContext ctx,final VariantContext ctx2,final VariantContextBuilder vcb)
+		{
+		if(!ctx.getContig().equals(ctx2.getContig())) return;
+		if(ctx.getStart()!=ctx2.getStart()) return;
+		if(!ctx.getReference().equals(ctx2.getReference())) return;
+		
+		if(this.altAlleleCheck)
+			{
+			boolean found_all_alt=true;
+			for(Allele alt: ctx.getAlternateAlleles())
+				{
+				if(!ctx2.hasAlternateAllele(alt))
+					{
+					found_all_alt=false;
+					break;
+					}
+				}
+			if(!found_all_alt) return;
+			}
+		if(this.peekId && ctx2.hasID())
+			{
+			vcb.id(ctx2.getID());
+			}
+		for(final String key: this.peek_info_tags)
+			{
+			if(!ctx2.hasAttribute(key)) continue;
+			final Object o = ctx2.getAttribute(key);
+			vcb.attribute(this.peekTagPrefix+key, o);
+			}
+		}
+	
 	
 	
 	/** public for knime */
@@ -98,6 +216,7 @@ public class VcfPeekVcf extends Launcher
 			final VcfIterator vcfIn,
 			final VariantContextWriter out)
 		{
+		SortedDatabase sortedDatabase = null;
 		try
 			{
 			final VCFHeader h = vcfIn.getHeader();
@@ -121,6 +240,13 @@ public class VcfPeekVcf extends Launcher
 				h2.addMetaDataLine(hinfo);;
 				}
 			
+			if(this.mergeJoin)
+				{
+				final SAMSequenceDictionary dict = h.getSequenceDictionary();
+				if(dict==null || dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(inputName==null?"input":inputName);
+				sortedDatabase = new SortedDatabase(dict);
+				}
+			
 			out.writeHeader(h2);
 			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(h);
 			while(vcfIn.hasNext())
@@ -128,44 +254,27 @@ public class VcfPeekVcf extends Launcher
 				final VariantContext ctx=progress.watch(vcfIn.next());
 							
 				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
-				CloseableIterator<VariantContext> iter= this.indexedVcfFileReader.query(
-						ctx.getContig(),
-						Math.max(0,ctx.getStart()-1),
-						(ctx.getEnd()+1)
-						);
-				while(iter.hasNext())
+				if(sortedDatabase!=null)
 					{
-					VariantContext ctx2=iter.next();
-					if(!ctx.getContig().equals(ctx2.getContig())) continue;
-					if(ctx.getStart()!=ctx2.getStart()) continue;
-					if(!ctx.getReference().equals(ctx2.getReference())) continue;
-					
-					if(this.altAlleleCheck)
-						{
-						boolean found_all_alt=true;
-						for(Allele alt: ctx.getAlternateAlleles())
-							{
-							if(!ctx2.hasAlternateAllele(alt))
-								{
-								found_all_alt=false;
-								break;
-								}
-							}
-						if(!found_all_alt) continue;
-						}
-					if(this.peekId && ctx2.hasID())
+					for(final VariantContext ctx2:sortedDatabase.get(ctx))
 						{
-						vcb.id(ctx2.getID());
+						peek(ctx,ctx2,vcb);
 						}
-					for(final String key: this.peek_info_tags)
+					}
+				else
+					{
+					CloseableIterator<VariantContext> iter= this.indexedVcfFileReader.query(
+							ctx.getContig(),
+							Math.max(0,ctx.getStart()-1),
+							(ctx.getEnd()+1)
+							);
+					while(iter.hasNext())
 						{
-						if(!ctx2.hasAttribute(key)) continue;
-						final Object o = ctx2.getAttribute(key);
-						vcb.attribute(this.peekTagPrefix+key, o);
+						peek(ctx,iter.next(),vcb);
 						}
+					iter.close();
+					iter=null;
 					}
-				iter.close();
-				iter=null;
 				
 				out.add(vcb.make());
 					
@@ -179,6 +288,10 @@ public class VcfPeekVcf extends Launcher
 			LOG.error(err);
 			return -1;
 			}
+		finally
+			{
+			CloserUtil.close(sortedDatabase);
+			}
 		}
 
 	@Override
@@ -186,7 +299,7 @@ public class VcfPeekVcf extends Launcher
 		this.indexedVcfFileReader = null;
 		try
 			{
-			this.indexedVcfFileReader = new VCFFileReader(TABIX,true);
+			this.indexedVcfFileReader = new VCFFileReader(TABIX,!this.mergeJoin);
 			for(final String s: this.tagsAsString.split("[, \n]+")) {
 				if(s.isEmpty()) continue;
 				this.peek_info_tags.add(s);
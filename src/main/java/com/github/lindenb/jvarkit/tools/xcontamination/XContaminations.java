@@ -48,15 +48,24 @@ import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.knime.AbstractKnimeApplication;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.illumina.ShortReadName;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -65,58 +74,8 @@ import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 public class XContaminations extends AbstractKnimeApplication
 	{
 	private Set<File> bamFiles=new HashSet<File>();
-	
-	private static class SampleAlleles
-		{
-		long reads_sample1_supporting_sample1=0;
-		long reads_sample1_supporting_sample2=0;
-		long reads_sample1_supporting_other=0;
-		long reads_sample2_supporting_sample1=0;
-		long reads_sample2_supporting_sample2=0;
-		long reads_sample2_supporting_other=0;
-		}
-	
-	private static class SamplePair
-		{
-		SequencerFlowCellRunLaneSample sample1;
-		SequencerFlowCellRunLaneSample sample2;
-		SamplePair(SequencerFlowCellRunLaneSample s1,SequencerFlowCellRunLaneSample s2)
-			{
-			if(s1.sampleName.compareTo(s2.sampleName)<0)
-				{
-				sample1=s1;
-				sample2=s2;
-				}
-			else
-				{
-				sample1=s2;
-				sample2=s1;
-				}
-			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + sample1.hashCode();
-			result = prime * result + sample2.hashCode();
-			return result;
-			}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) return true;
-			if (obj == null) return false;
-			if (getClass() != obj.getClass()) return false;
-			SamplePair other = (SamplePair) obj;
-			if (!sample1.equals(other.sample1)) return false;
-			if (!sample2.equals(other.sample2)) return false;
-			return true;
-			}
-		@Override
-		public String toString() {
-			return "("+sample1+"/"+sample2+")";
-			}
-		}
+	/** number of BAMs scanned in parallel */
+	private int nThreads=1;
 	
 	private static class SequencerFlowCellRunLaneSample
 		{
@@ -172,6 +131,252 @@ public class XContaminations extends AbstractKnimeApplication
 			}
 		}
 	
+	/** compare the lanes on sample name, then on sequencing label */
+	private static final Comparator<SequencerFlowCellRunLaneSample> LANE_COMPARATOR = (A,B)->{
+		int i= A.sampleName.compareTo(B.sampleName);
+		if(i!=0) return i;
+		return A.getSequencingLabel().compareTo(B.getSequencingLabel());
+		};
+	
+	/** number of variants read ahead in the VCF while the BAMs are scanned */
+	private static final int VARIANT_BATCH_SIZE = 1000;
+	/** index in the per-lane counts */
+	private static final int COUNT_REF=0;
+	private static final int COUNT_ALT=1;
+	private static final int COUNT_OTHER=2;
+	
+	/** all the lanes seen so far, the index in this list is the lane id */
+	private final List<SequencerFlowCellRunLaneSample> lanes = new ArrayList<>();
+	private final Map<SequencerFlowCellRunLaneSample,Integer> lane2id = new HashMap<>();
+	
+	/** get or create the id of a lane, called by the workers */
+	private synchronized int getLaneId(final SequencerFlowCellRunLaneSample lane)
+		{
+		Integer id = this.lane2id.get(lane);
+		if(id==null)
+			{
+			id = this.lanes.size();
+			this.lanes.add(lane);
+			this.lane2id.put(lane, id);
+			}
+		return id;
+		}
+	
+	private synchronized SequencerFlowCellRunLaneSample getLaneById(final int id)
+		{
+		return this.lanes.get(id);
+		}
+	
+	/** statistics for each pair of lanes, stored in a triangular matrix indexed by the lane ids.
+	 * For each pair, the values are oriented on the sample names: 'sample1' is the sample
+	 * having the lowest name
+	 */
+	private static class PairMatrix
+		{
+		static final int S1_S1=0;
+		static final int S1_S2=1;
+		static final int S1_OTHER=2;
+		static final int S2_S2=3;
+		static final int S2_S1=4;
+		static final int S2_OTHER=5;
+		static final int NUM_FIELDS=6;
+		
+		private long data[]=new long[0];
+		
+		private static int offset(final int lane1,final int lane2)
+			{
+			final int i= Math.min(lane1, lane2);
+			final int j= Math.max(lane1, lane2);
+			final long index = (((long)j*(j-1))/2L + i) * NUM_FIELDS;
+			if(index+NUM_FIELDS > Integer.MAX_VALUE) throw new IllegalStateException("too many lanes");
+			return (int)index;
+			}
+		
+		/** add the counts of the two lanes, lane1 is the lane of sample1 */
+		void add(final int lane1,final int counts1[],final int pos1,final int lane2,final int counts2[],final int pos2,final int allele1,final int allele2)
+			{
+			final int index = offset(lane1, lane2);
+			if(index + NUM_FIELDS > this.data.length)
+				{
+				this.data = Arrays.copyOf(this.data, Math.max(index + NUM_FIELDS, this.data.length*2));
+				}
+			this.data[index + S1_S1] += counts1[pos1+allele1];
+			this.data[index + S1_S2] += counts1[pos1+allele2];
+			this.data[index + S1_OTHER] += counts1[pos1+COUNT_OTHER];
+			this.data[index + S2_S2] += counts2[pos2+allele2];
+			this.data[index + S2_S1] += counts2[pos2+allele1];
+			this.data[index + S2_OTHER] += counts2[pos2+COUNT_OTHER];
+			}
+		
+		/** @return the index of the pair in 'data' or -1 if it was never seen */
+		int find(final int lane1,final int lane2)
+			{
+			final int index = offset(lane1, lane2);
+			if(index + NUM_FIELDS > this.data.length) return -1;
+			for(int k=0;k< NUM_FIELDS;++k)
+				{
+				if(this.data[index+k]!=0L) return index;
+				}
+			return -1;
+			}
+		}
+	
+	/** scan the reads of one sample for a batch of variants. Each BAM is scanned by
+	 * only one worker at a time.
+	 * The result contains, for each variant, null if the genotype is not HOM or
+	 * an array of {lane-id,count-ref,count-alt,count-other} for each lane */
+	private class SampleScan implements Callable<int[][]>
+		{
+		private final String sampleName;
+		private final SamReader samReader;
+		private final List<VariantContext> variants;
+		/** local cache for the lane ids */
+		private final Map<SequencerFlowCellRunLaneSample,Integer> localLaneIds = new HashMap<>();
+		/** counts for the current variant, indexed by the lane id */
+		private int counts[]=new int[0];
+		
+		SampleScan(final String sampleName,final SamReader samReader,final List<VariantContext> variants)
+			{
+			this.sampleName = sampleName;
+			this.samReader = samReader;
+			this.variants = variants;
+			}
+		
+		private int laneId(final SequencerFlowCellRunLaneSample lane)
+			{
+			Integer id = this.localLaneIds.get(lane);
+			if(id==null)
+				{
+				id = getLaneId(lane);
+				this.localLaneIds.put(lane, id);
+				}
+			return id;
+			}
+		
+		@Override
+		public int[][] call() throws Exception
+			{
+			final int result[][]=new int[this.variants.size()][];
+			/* COUNT_REF/ALT/OTHER for each base */
+			final int base2allele[]=new int[256];
+			int touched[]=new int[10];
+			for(int v=0;v< this.variants.size();++v)
+				{
+				final VariantContext ctx = this.variants.get(v);
+				final Genotype genotype = ctx.getGenotype(this.sampleName);
+				if(genotype==null || !genotype.isHom()) continue;
+				final Allele refAllele = Allele.create(ctx.getReference().getBases(),false);
+				final Allele altAllele = Allele.create(ctx.getAlternateAllele(0).getBases(),false);
+				Arrays.fill(base2allele, -1);
+				int nTouched=0;
+				
+				final SAMRecordIterator iter = this.samReader.query(
+						ctx.getContig(),
+						ctx.getStart(),
+						ctx.getEnd(),
+						false
+						);
+				try
+					{
+					while(iter.hasNext())
+						{
+						final SAMRecord record= iter.next();
+						if(record.getReadUnmappedFlag()) continue;
+						if(record.isSecondaryOrSupplementary()) continue;
+						if(record.getDuplicateReadFlag()) continue;
+						if(record.getMappingQuality()==0 || record.getMappingQuality()==255) continue;
+						if(record.getReadPairedFlag())
+							{
+							if(!record.getProperPairFlag()) continue;
+							}
+						final SAMReadGroupRecord srgr = record.getReadGroup();
+						
+						//not current sample
+						if(srgr==null) continue;
+						if(!this.sampleName.equals(srgr.getSample())) continue;
+						
+						final ShortReadName readName = ShortReadName.parse(record);
+						if(!readName.isValid())
+							{
+							info("No a valid read name "+record.getReadName());
+							continue;
+							}
+						
+						final Cigar cigar=record.getCigar();
+						if(cigar==null) continue;
+						final byte readSeq[]=record.getReadBases();
+						if(readSeq==null) continue;
+						int refPos1 = record.getAlignmentStart();
+						int readPos = 0;
+						int base = -1;
+						for(final CigarElement ce: cigar.getCigarElements())
+							{
+							//beyond variant position ?
+							if(refPos1>ctx.getStart()) break;
+							final CigarOperator op=ce.getOperator();
+							switch(op)
+								{
+								case I: readPos+=ce.getLength(); break;
+								case N://threw
+								case D: refPos1+=ce.getLength(); break;
+								case S: readPos+=ce.getLength(); break;
+								case H: break;
+								case P: break;
+								case M: case EQ: case X:
+									{
+									if( refPos1 <= ctx.getStart() && ctx.getStart() < refPos1 + ce.getLength())
+										{
+										base =  readSeq[readPos + (ctx.getStart()-refPos1)] & 0xFF;
+										}
+									refPos1+=ce.getLength();
+									readPos+=ce.getLength();
+									break;
+									}
+								default: throw new IllegalStateException();
+								}
+							}
+						if(base==-1 || base=='N' || base=='n') continue;
+						
+						if(base2allele[base]==-1)
+							{
+							final Allele allele = Allele.create((byte)base,false);
+							base2allele[base] = (allele.equals(refAllele)?COUNT_REF:allele.equals(altAllele)?COUNT_ALT:COUNT_OTHER);
+							}
+						
+						final int lane = laneId(new SequencerFlowCellRunLaneSample(readName, this.sampleName));
+						if((lane+1)*3 > this.counts.length)
+							{
+							this.counts = Arrays.copyOf(this.counts, Math.max((lane+1)*3, this.counts.length*2));
+							}
+						if(this.counts[lane*3]==0 && this.counts[lane*3+1]==0 && this.counts[lane*3+2]==0)
+							{
+							if(nTouched==touched.length) touched=Arrays.copyOf(touched, nTouched*2);
+							touched[nTouched++]=lane;
+							}
+						this.counts[lane*3 + base2allele[base]]++;
+						}
+					}
+				finally
+					{
+					iter.close();
+					}
+				
+				final int packed[]=new int[nTouched*4];
+				for(int i=0;i< nTouched;++i)
+					{
+					final int lane = touched[i];
+					packed[i*4  ] = lane;
+					packed[i*4+1] = this.counts[lane*3+COUNT_REF];
+					packed[i*4+2] = this.counts[lane*3+COUNT_ALT];
+					packed[i*4+3] = this.counts[lane*3+COUNT_OTHER];
+					this.counts[lane*3]=this.counts[lane*3+1]=this.counts[lane*3+2]=0;
+					}
+				result[v]=packed;
+				}
+			return result;
+			}
+		}
+	
 	@Override
 	protected String getOnlineDocUrl() {
 		return DEFAULT_WIKI_PREFIX+"XContaminations";
@@ -186,6 +391,54 @@ public class XContaminations extends AbstractKnimeApplication
 		this.bamFiles.add(bamFile);
 		}
 	
+	public void setThreads(int nThreads)
+		{
+		this.nThreads = nThreads;
+		}
+	
+	/** @return COUNT_REF or COUNT_ALT for the allele of a HOM genotype */
+	private static int alleleIndex(final VariantContext ctx,final Genotype g)
+		{
+		final Allele a = Allele.create(g.getAllele(0).getBases(),false);
+		return a.equals(Allele.create(ctx.getReference().getBases(),false))?COUNT_REF:COUNT_ALT;
+		}
+	
+	/** read the next variants having at least two HOM samples with a different genotype */
+	private List<VariantContext> nextBatch(final VcfIterator in,final SAMSequenceDictionaryProgress progress,final List<String> samples)
+		{
+		final List<VariantContext> batch = new ArrayList<>(VARIANT_BATCH_SIZE);
+		while(in.hasNext() && batch.size()< VARIANT_BATCH_SIZE)
+			{
+			final VariantContext ctx= progress.watch(in.next());
+			if(!ctx.isSNP() || !ctx.isBiallelic() || ctx.isSymbolic()) continue;
+			
+			boolean isWorthScanning=false;
+			for(int i=0;i< samples.size() && !isWorthScanning;++i)
+				{
+				final Genotype g1=ctx.getGenotype(samples.get(i));
+				if(g1==null || !g1.isHom()) continue;
+				for(int j=i+1;j< samples.size();++j)
+					{
+					final Genotype g2=ctx.getGenotype(samples.get(j));
+					if(g2==null || !g2.isHom()) continue;
+					if(g1.sameGenotype(g2)) continue;
+					isWorthScanning=true;
+					break;
+					}
+				}
+			if(isWorthScanning) batch.add(ctx);
+			}
+		return batch;
+		}
+	
+	@Override
+	public void printOptions(java.io.PrintStream out)
+		{
+		out.println(" -o (file) output file (default stdout)");
+		out.println(" -t (int) number of BAMs scanned in parallel. default:"+this.nThreads);
+		super.printOptions(out);
+		}
+	
 	@Override
 	public int executeKnime(List<String> args)
 		{
@@ -206,7 +459,7 @@ public class XContaminations extends AbstractKnimeApplication
 			return -1;
 			}	
 		
-		SAMRecordIterator iter=null;
+		ExecutorService executor=null;
 		VcfIterator in=null;
 		Map<String,SamReader> sample2samReader=new HashMap<>();
 
@@ -310,227 +563,104 @@ public class XContaminations extends AbstractKnimeApplication
 			
 			sampleNames.retainAll(sample2samReader.keySet());
 			
-			Map<SamplePair,SampleAlleles> contaminationTable=new HashMap<>();
+			final List<String> samples = new ArrayList<>(sampleNames);
+			Collections.sort(samples);
+			final PairMatrix pairMatrix = new PairMatrix();
 			
-			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict1);
-			while(in.hasNext())
+			if(this.nThreads>1)
 				{
-				VariantContext ctx= progress.watch(in.next());
-				if(!ctx.isSNP() || !ctx.isBiallelic() || ctx.isSymbolic()) continue;
-				
-				
-				boolean isWorthScanning=false;
-				/* scan Reads for this Sample */
-				for(String s1: sampleNames)
+				executor = Executors.newFixedThreadPool(this.nThreads);
+				}
+			
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict1);
+			List<VariantContext> batch = nextBatch(in, progress, samples);
+			while(!batch.isEmpty())
+				{
+				final List<Future<int[][]>> scans = new ArrayList<>(samples.size());
+				for(final String sampleName: samples)
 					{
-					Genotype g1=ctx.getGenotype(s1);
-					if(g1==null || !g1.isHom()) continue;
-					/* scan Reads for this Sample */
-					for(String s2: sampleNames)
+					final SampleScan scan = new SampleScan(sampleName, sample2samReader.get(sampleName), batch);
+					if(executor==null)
 						{
-						if(s1.compareTo(s2)>=0) continue;
-						Genotype g2=ctx.getGenotype(s2);
-						if(g2==null || !g2.isHom()) continue;
-						if(g1.sameGenotype(g2)) continue;
-						isWorthScanning=true;
-						break;
+						final FutureTask<int[][]> task = new FutureTask<>(scan);
+						task.run();
+						scans.add(task);
+						}
+					else
+						{
+						scans.add(executor.submit(scan));
 						}
-					if(isWorthScanning) break;
 					}
+				/* read the next variants while the BAMs are scanned */
+				final List<VariantContext> nextBatch = nextBatch(in, progress, samples);
 				
-				if(!isWorthScanning) continue;
-
-				//Set<SequencerFlowCellRunLane> sequencerFlowCellRunLaneInThisContext=new HashSet<>();
-				Map<SequencerFlowCellRunLaneSample,Counter<Allele>> sample2allelesCount=new HashMap<>();
+				final int results[][][]=new int[samples.size()][][];
+				for(int i=0;i< samples.size();++i)
+					{
+					results[i] = scans.get(i).get();
+					}
 				
-				/* scan Reads for this Sample */
-				for(String sampleName: sampleNames)
+				/* sum-up data for those SNPs */
+				for(int v=0;v< batch.size();++v)
 					{
-					//sample name is not in vcf header
-					if(!sample2samReader.containsKey(sampleName))
-						continue;
-					
-
-					
-					SamReader samReader = sample2samReader.get(sampleName);
-					if(samReader==null) continue;
-					
-					Genotype genotype = ctx.getGenotype(sampleName);
-					if(genotype==null || !genotype.isHom()) continue;
-					iter = samReader.query(
-							ctx.getContig(),
-							ctx.getStart(),
-							ctx.getEnd(),
-							false
-							);
-					
-					while(iter.hasNext())
+					final VariantContext ctx = batch.get(v);
+					for(int i=0;i< samples.size();++i)
 						{
-						SAMRecord record= iter.next();
-						if(record.getReadUnmappedFlag()) continue;
-						if(record.isSecondaryOrSupplementary()) continue;
-						if(record.getDuplicateReadFlag()) continue;
-						if(record.getMappingQuality()==0 || record.getMappingQuality()==255) continue;
-						if(record.getReadPairedFlag())
-							{
-							if(!record.getProperPairFlag()) continue;
-							}
-						SAMReadGroupRecord srgr = record.getReadGroup();
-						
-						//not current sample
-						if(srgr==null) continue;
-						if(!sampleName.equals(srgr.getSample())) continue;
+						final int lanes1[] = results[i][v];
+						if(lanes1==null || lanes1.length==0) continue;
+						final Genotype g1= ctx.getGenotype(samples.get(i));
+						final int allele1 = alleleIndex(ctx, g1);
 						
-						ShortReadName readName = ShortReadName.parse(record);
-						if(!readName.isValid())
+						for(int j=i+1;j< samples.size();++j)
 							{
-							info("No a valid read name "+record.getReadName());
-							continue;
-							}
-						
-						
-						SequencerFlowCellRunLaneSample sequencerFlowCellRunLaneSample=
-								new SequencerFlowCellRunLaneSample(readName, sampleName);
-						
-						
-						
-						Cigar cigar=record.getCigar();
-						if(cigar==null) continue;
-						byte readSeq[]=record.getReadBases();
-						if(readSeq==null) continue;
-						int refPos1 = record.getAlignmentStart();
-						int readPos = 0; 
-						for(CigarElement ce: cigar.getCigarElements())
-							{
-							//beyond variant position ?
-							if(refPos1>ctx.getStart()) break;
-							CigarOperator op=ce.getOperator();
-							switch(op)
+							final int lanes2[] = results[j][v];
+							if(lanes2==null || lanes2.length==0) continue;
+							final Genotype g2= ctx.getGenotype(samples.get(j));
+							if(g2.sameGenotype(g1)) continue;
+							final int allele2 = alleleIndex(ctx, g2);
+							
+							for(int p1=0;p1< lanes1.length;p1+=4)
 								{
-								case I: readPos+=ce.getLength(); break;
-								case N://threw
-								case D: refPos1+=ce.getLength(); break;
-								case S: readPos+=ce.getLength(); break;
-								case H: break;
-								case P: break;
-								case M: case EQ: case X:
+								for(int p2=0;p2< lanes2.length;p2+=4)
 									{
-									for(int i=0;i< ce.getLength();++i)
-										{
-										if( refPos1 == ctx.getStart())
-											{	
-											byte base =  readSeq[readPos];
-											if(!(base=='N' || base=='n'))
-												{
-												Counter<Allele> sampleAlleles= sample2allelesCount.get(sequencerFlowCellRunLaneSample);
-												if(sampleAlleles==null)
-													{
-													sampleAlleles=new Counter<Allele>();
-													sample2allelesCount.put(sequencerFlowCellRunLaneSample, sampleAlleles);
-
-													}
-
-												sampleAlleles.incr(
-													Allele.create(base,false)
-													);
-
-												}
-											}
-										refPos1++;
-										readPos++;
-										}
-									break;
+									pairMatrix.add(
+										lanes1[p1],lanes1,p1+1,
+										lanes2[p2],lanes2,p2+1,
+										allele1,allele2
+										);
 									}
-								default: throw new IllegalStateException();
 								}
 							}
 						}
-					iter.close();
-					iter=null;
-					}/* end scan reads for this sample */
-				/* sum-up data for this SNP */
+					}
+				batch = nextBatch;
+				}
+			progress.finish();
 			
-				for(String sample1: sampleNames)
+			/* collect the pairs of lanes, sample1 is the sample with the lowest name */
+			final List<int[]> pairs = new ArrayList<>();
+			for(int j=1;j< this.lanes.size();++j)
+				{
+				for(int i=0;i< j;++i)
 					{
-					Genotype g1= ctx.getGenotype(sample1);
-					if(g1==null || !g1.isHom()) continue;
-					Allele a1 = Allele.create(g1.getAllele(0).getBases(),false);
-					
-					
-					for(String sample2: sampleNames)
+					if(pairMatrix.find(i, j)==-1) continue;
+					if(getLaneById(i).sampleName.compareTo(getLaneById(j).sampleName)<0)
 						{
-						if(sample1.compareTo(sample2)>=0) continue;
-						Genotype g2= ctx.getGenotype(sample2);
-						if(g2==null || !g2.isHom() || g2.sameGenotype(g1)) continue;
-						Allele a2 = Allele.create(g2.getAllele(0).getBases(),false);
-						
-						for(SequencerFlowCellRunLaneSample sfcr1:sample2allelesCount.keySet())
-							{
-							if(!sfcr1.sampleName.equals(sample1)) continue;
-							for(SequencerFlowCellRunLaneSample sfcr2:sample2allelesCount.keySet())
-								{
-								if(!sfcr2.sampleName.equals(sample2)) continue;
-								
-								SamplePair samplePair=new SamplePair(sfcr1, sfcr2);
-								
-								Counter<Allele> counter1 =  sample2allelesCount.get(sfcr1);
-								if(counter1==null) continue;
-								Counter<Allele> counter2 =  sample2allelesCount.get(sfcr2);
-								if(counter2==null) continue;
-								
-								
-								SampleAlleles sampleAlleles= contaminationTable.get(samplePair);
-								if(sampleAlleles==null)
-									{
-									sampleAlleles=new SampleAlleles();
-									contaminationTable.put(samplePair,sampleAlleles);
-									if( contaminationTable.size()%10000==0) info("n(pairs)=" + contaminationTable.size() ); 
-									}
-								
-								for(Allele allele: counter1.keySet())
-									{
-									long n = counter1.count(allele);
-									if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample1_supporting_sample1 += n;
-										}
-									else if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample1_supporting_sample2 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample1_supporting_other += n;
-										}
-									}
-								
-								for(Allele allele: counter2.keySet())
-									{
-									long n = counter2.count(allele);
-									if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample2_supporting_sample2 += n;
-										}
-									else if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample2_supporting_sample1 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample2_supporting_other += n;
-										}
-									}
-								
-								}
-							
-							
-							}
+						pairs.add(new int[]{i,j});
+						}
+					else
+						{
+						pairs.add(new int[]{j,i});
 						}
-				
 					}
-				
 				}
-			progress.finish();
+			Collections.sort(pairs,(A,B)->{
+				int i= LANE_COMPARATOR.compare(getLaneById(A[0]), getLaneById(B[0]));
+				if(i!=0) return i;
+				return LANE_COMPARATOR.compare(getLaneById(A[1]), getLaneById(B[1]));
+				});
+			info("n(lanes)="+this.lanes.size()+" n(pairs)=" + pairs.size() ); 
+			
 			boolean somethingPrinted=false;
 			PrintWriter pw= null;
 			if(getOutputFile()==null)
@@ -559,39 +689,35 @@ public class XContaminations extends AbstractKnimeApplication
 			pw.print("reads_sample2_supporting_other");
 
 			pw.println();
-			for(SamplePair pair : contaminationTable.keySet())
+			for(final int pair[] : pairs)
 				{
-				SampleAlleles sampleAlleles = contaminationTable.get(pair);
-				if(sampleAlleles==null) continue;
+				final SequencerFlowCellRunLaneSample sample1 = getLaneById(pair[0]);
+				final SequencerFlowCellRunLaneSample sample2 = getLaneById(pair[1]);
+				final int index = pairMatrix.find(pair[0], pair[1]);
 				
-				pw.print(pair.sample1.getSequencingLabel());
+				pw.print(sample1.getSequencingLabel());
 				pw.print('\t');
-				pw.print(pair.sample1.sampleName);
+				pw.print(sample1.sampleName);
 				pw.print('\t');
-				pw.print(pair.sample2.getSequencingLabel());
+				pw.print(sample2.getSequencingLabel());
 				pw.print('\t');
-				pw.print(pair.sample2.sampleName);
+				pw.print(sample2.sampleName);
 				pw.print('\t');
-				pw.print(pair.sample1.getSequencingLabel().equals(pair.sample2.getSequencingLabel())?1:0);
+				pw.print(sample1.getSequencingLabel().equals(sample2.getSequencingLabel())?1:0);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample1_supporting_sample1);
+				pw.print(pairMatrix.data[index+PairMatrix.S1_S1]);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample1_supporting_sample2);
+				pw.print(pairMatrix.data[index+PairMatrix.S1_S2]);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample1_supporting_other);
+				pw.print(pairMatrix.data[index+PairMatrix.S1_OTHER]);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_sample2);
+				pw.print(pairMatrix.data[index+PairMatrix.S2_S2]);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_sample1);
+				pw.print(pairMatrix.data[index+PairMatrix.S2_S1]);
 				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_other);
+				pw.print(pairMatrix.data[index+PairMatrix.S2_OTHER]);
 				pw.println();
 				somethingPrinted=true;
-						
-					
-				
-				
-				
 				}
 			pw.flush();
 			pw.close();
@@ -609,8 +735,13 @@ public class XContaminations extends AbstractKnimeApplication
 			}
 		finally
 			{
+			if(executor!=null)
+				{
+				executor.shutdownNow();
+				try { executor.awaitTermination(1, TimeUnit.MINUTES);}
+				catch(final InterruptedException err) { Thread.currentThread().interrupt();}
+				}
 			CloserUtil.close(in);
-			CloserUtil.close(iter);
 			for(SamReader samReader:sample2samReader.values())
 				CloserUtil.close(samReader);
 			sample2samReader.clear();
@@ -623,11 +754,12 @@ public class XContaminations extends AbstractKnimeApplication
 		{
 		com.github.lindenb.jvarkit.util.cli.GetOpt opt=new com.github.lindenb.jvarkit.util.cli.GetOpt();
 		int c;
-		while((c=opt.getopt(args,getGetOptDefault()+ "o:"))!=-1)
+		while((c=opt.getopt(args,getGetOptDefault()+ "o:t:"))!=-1)
 			{
 			switch(c)
 				{
 				case 'o': setOutputFile(opt.getOptArg()); break;
+				case 't': setThreads(Integer.parseInt(opt.getOptArg())); break;
 				default: 
 					{
 					switch(handleOtherOptions(c, opt, args))
@@ -0,0 +1,158 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.Arrays;
+
+/**
+ * Counter for small, non-negative int keys (bases, cigar operators, depth bins...)
+ * The counts are stored in a long[] indexed by the key, the array grows when needed.
+ * Unlike {@link Counter}, incrementing a key never allocates an object.
+ */
+public class DenseCounter
+	{
+	private long counts[];
+	private long total=0L;
+	
+	public DenseCounter()
+		{
+		this(16);
+		}
+	
+	/** @param capacity expected number of keys: the keys will be in [0,capacity[ */
+	public DenseCounter(final int capacity)
+		{
+		if(capacity<0) throw new IllegalArgumentException("capacity<0 :"+capacity);
+		this.counts=new long[capacity];
+		}
+	
+	private void ensureCapacity(final int key)
+		{
+		if(key<0) throw new IllegalArgumentException("key<0 :"+key);
+		if(key>=this.counts.length)
+			{
+			this.counts=Arrays.copyOf(this.counts, Math.max(key+1, this.counts.length*2));
+			}
+		}
+	
+	/** increase by 1 returns the new count */
+	public long incr(final int key)
+		{
+		return incr(key,1L);
+		}
+	
+	/**  increase by n, returns the new count */
+	public long incr(final int key,long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		ensureCapacity(key);
+		this.total+=n;
+		return (this.counts[key]+=n);
+		}
+	
+	public void putAll(final DenseCounter other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot put to self");
+		if(other.counts.length>this.counts.length)
+			{
+			this.counts=Arrays.copyOf(this.counts, other.counts.length);
+			}
+		for(int i=0;i< other.counts.length;++i)
+			{
+			this.counts[i]+=other.counts[i];
+			}
+		this.total+=other.total;
+		}
+	
+	public long getTotal()
+		{
+		return total;
+		}
+	
+	/** count number of times key was seen. returns 0 if key never seen */
+	public long count(final int key)
+		{
+		return key<0 || key>=this.counts.length?0L:this.counts[key];
+		}
+	
+	/** @return the keys having a count &gt; 0, in increasing order of key */
+	public int[] keys()
+		{
+		final int array[]=new int[getCountCategories()];
+		int n=0;
+		for(int i=0;i< this.counts.length;++i)
+			{
+			if(this.counts[i]!=0L) array[n++]=i;
+			}
+		return array;
+		}
+	
+	/** @return the most frequent key or -1 if the counter is empty */
+	public int getMostFrequent()
+		{
+		int key=-1;
+		for(int i=0;i< this.counts.length;++i)
+			{
+			if(this.counts[i]==0L) continue;
+			if(key==-1 || this.counts[key] < this.counts[i]) key=i;
+			}
+		return key;
+		}
+	
+	public int[] keySetDecreasing()
+		{
+		return PrimitiveCounters.sortByCount(keys(),K->this.counts[K],false);
+		}
+	
+	public int[] keySetIncreasing()
+		{
+		return PrimitiveCounters.sortByCount(keys(),K->this.counts[K],true);
+		}
+	
+	/** return the number of categories */
+	public int getCountCategories()
+		{
+		int n=0;
+		for(final long c:this.counts) if(c!=0L) ++n;
+		return n;
+		}
+	
+	public boolean isEmpty()
+		{
+		return this.total==0L;
+		}
+	
+	/** reset all the counts to 0 */
+	public void clear()
+		{
+		Arrays.fill(this.counts, 0L);
+		this.total=0L;
+		}
+	
+	@Override
+	public String toString() {
+		return "DenseCounter "+this.getTotal();
+		}
+	}
@@ -0,0 +1,186 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.Arrays;
+
+/**
+ * Counter for int keys, including negative ones (e.g: histograms).
+ * The keys and their counts are stored in an open-addressing hash table
+ * (linear probing) of primitives: incrementing a key never allocates an object.
+ */
+public class IntCounter
+	{
+	private int keys[];
+	private long counts[];
+	private boolean used[];
+	private int size=0;
+	private long total=0L;
+	
+	public IntCounter()
+		{
+		this(16);
+		}
+	
+	/** @param expected expected number of distinct keys */
+	public IntCounter(final int expected)
+		{
+		allocate(PrimitiveCounters.tableSize(expected));
+		}
+	
+	private void allocate(final int capacity)
+		{
+		this.keys=new int[capacity];
+		this.counts=new long[capacity];
+		this.used=new boolean[capacity];
+		}
+	
+	/** @return the index of key in the table, or the index of the free slot where it should be inserted */
+	private int slot(final int key)
+		{
+		final int mask=this.keys.length-1;
+		int i=PrimitiveCounters.mix(key) & mask;
+		while(this.used[i] && this.keys[i]!=key)
+			{
+			i=(i+1) & mask;
+			}
+		return i;
+		}
+	
+	private void rehash()
+		{
+		final int oldKeys[]=this.keys;
+		final long oldCounts[]=this.counts;
+		final boolean oldUsed[]=this.used;
+		allocate(oldKeys.length*2);
+		for(int i=0;i< oldKeys.length;++i)
+			{
+			if(!oldUsed[i]) continue;
+			final int j=slot(oldKeys[i]);
+			this.keys[j]=oldKeys[i];
+			this.counts[j]=oldCounts[i];
+			this.used[j]=true;
+			}
+		}
+	
+	/** increase by 1 returns the new count */
+	public long incr(final int key)
+		{
+		return incr(key,1L);
+		}
+	
+	/**  increase by n, returns the new count */
+	public long incr(final int key,long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		int i=slot(key);
+		if(!this.used[i])
+			{
+			if((this.size+1) > this.keys.length*PrimitiveCounters.LOAD_FACTOR)
+				{
+				rehash();
+				i=slot(key);
+				}
+			this.keys[i]=key;
+			this.used[i]=true;
+			this.size++;
+			}
+		this.total+=n;
+		return (this.counts[i]+=n);
+		}
+	
+	public void putAll(final IntCounter other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot put to self");
+		for(int i=0;i< other.keys.length;++i)
+			{
+			if(other.used[i]) this.incr(other.keys[i],other.counts[i]);
+			}
+		}
+	
+	public long getTotal()
+		{
+		return total;
+		}
+	
+	/** count number of times key was seen. returns 0 if key never seen */
+	public long count(final int key)
+		{
+		final int i=slot(key);
+		return this.used[i]?this.counts[i]:0L;
+		}
+	
+	/** @return the distinct keys, in increasing order of key */
+	public int[] keys()
+		{
+		final int array[]=new int[this.size];
+		int n=0;
+		for(int i=0;i< this.keys.length;++i)
+			{
+			if(this.used[i]) array[n++]=this.keys[i];
+			}
+		Arrays.sort(array);
+		return array;
+		}
+	
+	/** @return the most frequent key; the counter must not be empty */
+	public int getMostFrequent()
+		{
+		if(isEmpty()) throw new IllegalStateException("counter is empty");
+		int best=-1;
+		for(int i=0;i< this.keys.length;++i)
+			{
+			if(!this.used[i]) continue;
+			if(best==-1 || this.counts[best] < this.counts[i]) best=i;
+			}
+		return this.keys[best];
+		}
+	
+	public int[] keySetDecreasing()
+		{
+		return PrimitiveCounters.sortByCount(keys(),K->count(K),false);
+		}
+	
+	public int[] keySetIncreasing()
+		{
+		return PrimitiveCounters.sortByCount(keys(),K->count(K),true);
+		}
+	
+	/** return the number of categories */
+	public int getCountCategories()
+		{
+		return this.size;
+		}
+	
+	public boolean isEmpty()
+		{
+		return this.size==0;
+		}
+	
+	@Override
+	public String toString() {
+		return "IntCounter "+this.getTotal();
+		}
+	}
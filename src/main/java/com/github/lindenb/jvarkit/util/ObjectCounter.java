@@ -0,0 +1,188 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counter for objects, stored in an open-addressing hash table (linear probing)
+ * of keys and primitive long counts. Unlike {@link Counter}, incrementing
+ * a key that was already seen never allocates an object.
+ */
+public class ObjectCounter<T>
+	{
+	private Object keys[];
+	private long counts[];
+	private int size=0;
+	private long total=0L;
+	
+	public ObjectCounter()
+		{
+		this(16);
+		}
+	
+	/** @param expected expected number of distinct keys */
+	public ObjectCounter(final int expected)
+		{
+		allocate(PrimitiveCounters.tableSize(expected));
+		}
+	
+	private void allocate(final int capacity)
+		{
+		this.keys=new Object[capacity];
+		this.counts=new long[capacity];
+		}
+	
+	/** @return the index of key in the table, or the index of the free slot where it should be inserted */
+	private int slot(final Object key)
+		{
+		final int mask=this.keys.length-1;
+		int i=PrimitiveCounters.mix(key.hashCode()) & mask;
+		while(this.keys[i]!=null && !this.keys[i].equals(key))
+			{
+			i=(i+1) & mask;
+			}
+		return i;
+		}
+	
+	private void rehash()
+		{
+		final Object oldKeys[]=this.keys;
+		final long oldCounts[]=this.counts;
+		allocate(oldKeys.length*2);
+		for(int i=0;i< oldKeys.length;++i)
+			{
+			if(oldKeys[i]==null) continue;
+			final int j=slot(oldKeys[i]);
+			this.keys[j]=oldKeys[i];
+			this.counts[j]=oldCounts[i];
+			}
+		}
+	
+	/** increase by 1 returns the new count */
+	public long incr(final T object)
+		{
+		return incr(object,1L);
+		}
+	
+	/**  increase by n, returns the new count */
+	public long incr(final T object,long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		if(object==null) throw new IllegalArgumentException("null argument in "+getClass());
+		int i=slot(object);
+		if(this.keys[i]==null)
+			{
+			if((this.size+1) > this.keys.length*PrimitiveCounters.LOAD_FACTOR)
+				{
+				rehash();
+				i=slot(object);
+				}
+			this.keys[i]=object;
+			this.size++;
+			}
+		this.total+=n;
+		return (this.counts[i]+=n);
+		}
+	
+	@SuppressWarnings("unchecked")
+	public void putAll(final ObjectCounter<T> other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot put to self");
+		for(int i=0;i< other.keys.length;++i)
+			{
+			if(other.keys[i]!=null) this.incr((T)other.keys[i],other.counts[i]);
+			}
+		}
+	
+	public long getTotal()
+		{
+		return total;
+		}
+	
+	/** count number of times object was seen. returns 0 if object never seen */
+	public long count(final T object)
+		{
+		if(object==null) return 0L;
+		final int i=slot(object);
+		return this.keys[i]==null?0L:this.counts[i];
+		}
+	
+	/** @return a new list of the distinct keys, in no particular order */
+	@SuppressWarnings("unchecked")
+	public List<T> keySet()
+		{
+		final List<T> L=new ArrayList<T>(this.size);
+		for(final Object k:this.keys)
+			{
+			if(k!=null) L.add((T)k);
+			}
+		return L;
+		}
+	
+	@SuppressWarnings("unchecked")
+	public T getMostFrequent()
+		{
+		int best=-1;
+		for(int i=0;i< this.keys.length;++i)
+			{
+			if(this.keys[i]==null) continue;
+			if(best==-1 || this.counts[best] < this.counts[i]) best=i;
+			}
+		return best==-1?null:(T)this.keys[best];
+		}
+	
+	public List<T> keySetDecreasing()
+		{
+		final List<T> L=keySet();
+		Collections.sort(L,(A,B)->Long.compare(count(B),count(A)));
+		return L;
+		}
+	
+	public List<T> keySetIncreasing()
+		{
+		final List<T> L=keySet();
+		Collections.sort(L,(A,B)->Long.compare(count(A),count(B)));
+		return L;
+		}
+	
+	/** return the number of categories */
+	public int getCountCategories()
+		{
+		return this.size;
+		}
+	
+	public boolean isEmpty()
+		{
+		return this.size==0;
+		}
+	
+	@Override
+	public String toString() {
+		return "ObjectCounter "+this.getTotal();
+		}
+	}
@@ -0,0 +1,76 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.Arrays;
+import java.util.function.IntToLongFunction;
+
+/** shared code for {@link DenseCounter}, {@link IntCounter} and {@link ObjectCounter} */
+class PrimitiveCounters
+	{
+	/** fraction of the open-addressing tables that can be filled before they grow */
+	static final double LOAD_FACTOR=0.5;
+	
+	private PrimitiveCounters()
+		{
+		}
+	
+	/** spread the bits of a hash code, 'h' comes from Integer.hashCode or Object.hashCode */
+	static int mix(int h)
+		{
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		h *= 0xc2b2ae35;
+		h ^= (h >>> 16);
+		return h;
+		}
+	
+	/** @return the size of a table (power of 2) able to store 'expected' keys */
+	static int tableSize(final int expected)
+		{
+		int n=16;
+		while(n*LOAD_FACTOR < expected)
+			{
+			if(n>=(1<<30)) throw new IllegalStateException("too many keys "+expected);
+			n<<=1;
+			}
+		return n;
+		}
+	
+	/** stable sort of the keys on their count */
+	static int[] sortByCount(final int keys[],final IntToLongFunction count,final boolean increasing)
+		{
+		final Integer array[]=new Integer[keys.length];
+		for(int i=0;i< keys.length;++i) array[i]=keys[i];
+		Arrays.sort(array,(A,B)->{
+			final int i= Long.compare(count.applyAsLong(A),count.applyAsLong(B));
+			return increasing?i:-i;
+			});
+		final int sorted[]=new int[keys.length];
+		for(int i=0;i< keys.length;++i) sorted[i]=array[i];
+		return sorted;
+		}
+	}
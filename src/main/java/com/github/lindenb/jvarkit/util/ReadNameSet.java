@@ -0,0 +1,451 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of read names stored outside the java heap (direct buffers),
+ * so that tens of millions of names don't end as String objects in a HashMap.
+ *
+ * Two implementations:
+ * <ul>
+ * <li>{@link #newExactSet()} : open-addressing table of longs, each slot holds the high bits of the hash
+ *   and the address of the name in a packed byte arena, so hash collisions are resolved by comparing the bytes. Each name
+ *   carries a counter used by the tools removing a name after it was found 'n' times
+ *   (see {@link ExactSet#incrementCount(byte[], int, int)} and {@link ExactSet#remove(byte[], int, int)}).</li>
+ * <li>{@link #newBloomFilter(long, double)} : only a bit array: much smaller but
+ *   {@link #contains(byte[], int, int)} may return false positives and names can't be counted nor removed.</li>
+ * </ul>
+ * Lookups can be done on a slice of a byte array (e.g: the header of a FASTQ record) without creating a String.
+ * This class is not thread-safe.
+ *
+ * Memory: the direct buffers are not limited by -Xmx but by -XX:MaxDirectMemorySize (default: the value of -Xmx).
+ * For the exact set, the table uses 8 bytes per slot, that is 16 bytes per name with a load factor of 0.5,
+ * and the arena 6 bytes plus the length of each name. When the table is full, it is rehashed into a table twice as large
+ * while the old one is still allocated, so the peak is about 16+32 bytes per name for the tables.
+ */
+public abstract class ReadNameSet
+	{
+	/** largest direct buffer we allocate */
+	private static final int MAX_CHUNK_SIZE = 1<<30;
+
+	protected ReadNameSet()
+		{
+		}
+
+	/** @return a new exact set */
+	public static ExactSet newExactSet()
+		{
+		return newExactSet(1000L);
+		}
+
+	/** @return a new exact set
+	 *  @param expected expected number of names */
+	public static ExactSet newExactSet(final long expected)
+		{
+		return new ExactSet(expected);
+		}
+
+	/** @return a new bloom filter
+	 *  @param expected expected number of names
+	 *  @param fpp expected rate of false positives ]0-1[ once 'expected' names have been inserted */
+	public static ReadNameSet newBloomFilter(final long expected,final double fpp)
+		{
+		return new BloomFilter(expected, fpp);
+		}
+
+	/** @return true if {@link #contains(byte[], int, int)} never returns false positives */
+	public abstract boolean isExact();
+
+	/** @return the number of names in this set, approximate for a bloom filter */
+	public abstract long size();
+
+	public boolean isEmpty()
+		{
+		return size()==0L;
+		}
+
+	/** insert a name, @return true if the name was not already in this set */
+	public abstract boolean add(final byte array[],final int offset,final int length);
+
+	/** @return true if the name is in this set */
+	public abstract boolean contains(final byte array[],final int offset,final int length);
+
+	public boolean add(final String name)
+		{
+		final byte array[]=encode(name);
+		return add(array,0,array.length);
+		}
+
+	public boolean contains(final String name)
+		{
+		final byte array[]=encode(name);
+		return contains(array,0,array.length);
+		}
+
+	private static byte[] encode(final String name)
+		{
+		return name.getBytes(StandardCharsets.UTF_8);
+		}
+
+	/** 64-bit hash of the bytes: FNV-1a followed by the murmur3 finalizer */
+	static long hash(final byte array[],final int offset,final int length)
+		{
+		long h=0xcbf29ce484222325L;
+		for(int i=0;i< length;++i)
+			{
+			h ^= (array[offset+i] & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return fmix(h);
+		}
+
+	/** same as {@link #hash(byte[], int, int)} for a name stored in a buffer */
+	static long hash(final ByteBuffer buf,final int offset,final int length)
+		{
+		long h=0xcbf29ce484222325L;
+		for(int i=0;i< length;++i)
+			{
+			h ^= (buf.get(offset+i) & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return fmix(h);
+		}
+
+	private static long fmix(long h)
+		{
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+		}
+
+	/** array of longs split into direct buffers */
+	private static class LongArray
+		{
+		private static final int SHIFT=27;/* 2^27 longs = 1Gb */
+		private static final long MASK=(1L<<SHIFT)-1L;
+		private final LongBuffer chunks[];
+		final long length;
+		LongArray(final long length)
+			{
+			this.length=length;
+			final int n=(int)((length+MASK)>>>SHIFT);
+			this.chunks=new LongBuffer[n];
+			for(int i=0;i< n;++i)
+				{
+				final long len=Math.min(length-((long)i<<SHIFT), 1L<<SHIFT);
+				this.chunks[i]=ByteBuffer.allocateDirect((int)len*Long.BYTES).asLongBuffer();
+				}
+			}
+		long get(final long i)
+			{
+			return this.chunks[(int)(i>>>SHIFT)].get((int)(i&MASK));
+			}
+		void set(final long i,final long v)
+			{
+			this.chunks[(int)(i>>>SHIFT)].put((int)(i&MASK),v);
+			}
+		}
+
+	/** exact set: the names can be counted and removed */
+	public static final class ExactSet extends ReadNameSet
+		{
+		/* arena record: int count (-1 if removed), unsigned short length, the bytes */
+		private static final int RECORD_HEADER=Integer.BYTES+Short.BYTES;
+		private static final int MAX_NAME_LENGTH=0xFFFF;
+		private static final int REMOVED=-1;
+		/** an address in the arena: the index of the chunk, then the position in the chunk */
+		private static final int CHUNK_SHIFT=30;
+		private static final int ADDRESS_BITS=40;
+		private static final long ADDRESS_MASK=(1L<<ADDRESS_BITS)-1L;
+		private static final int MAX_CHUNKS=1<<(ADDRESS_BITS-CHUNK_SHIFT);
+		/** one long per slot: the high (64-ADDRESS_BITS) bits of the hash and 1+the address of the name in the arena.
+		 * 0 for a free slot. The full hash is computed again from the arena when the table grows */
+		private LongArray table;
+		private long mask;
+		/** number of occupied slots, including the removed names */
+		private long used=0L;
+		private long size=0L;
+		private final List<ByteBuffer> arena=new ArrayList<>();
+		private ByteBuffer lastChunk=null;
+
+		ExactSet(final long expected)
+			{
+			long capacity=16L;
+			while(capacity*PrimitiveCounters.LOAD_FACTOR < expected) capacity<<=1;
+			allocate(capacity);
+			}
+
+		private void allocate(final long capacity)
+			{
+			this.table=new LongArray(capacity);
+			this.mask=capacity-1L;
+			}
+
+		@Override
+		public boolean isExact()
+			{
+			return true;
+			}
+
+		@Override
+		public long size()
+			{
+			return this.size;
+			}
+
+		/** @return the slot for this name or the free slot where it should be inserted */
+		private long slot(final long h,final byte array[],final int offset,final int length)
+			{
+			long i= h & this.mask;
+			for(;;)
+				{
+				final long entry=this.table.get(i);
+				if(entry==0L) return i;
+				if(((entry^h) & ~ADDRESS_MASK)==0L && sameName((entry & ADDRESS_MASK)-1L,array,offset,length)) return i;
+				i=(i+1L) & this.mask;
+				}
+			}
+
+		private ByteBuffer chunk(final long address)
+			{
+			return this.arena.get((int)(address>>>CHUNK_SHIFT));
+			}
+
+		private static int position(final long address)
+			{
+			return (int)(address & ((1L<<CHUNK_SHIFT)-1L));
+			}
+
+		private boolean sameName(final long address,final byte array[],final int offset,final int length)
+			{
+			final ByteBuffer buf=chunk(address);
+			int pos=position(address);
+			if((buf.getShort(pos+Integer.BYTES) & 0xFFFF)!=length) return false;
+			pos+=RECORD_HEADER;
+			for(int i=0;i< length;++i)
+				{
+				if(buf.get(pos+i)!=array[offset+i]) return false;
+				}
+			return true;
+			}
+
+		/** copy the name into the arena, @return its address */
+		private long store(final byte array[],final int offset,final int length)
+			{
+			final int required=RECORD_HEADER+length;
+			if(this.lastChunk==null || this.lastChunk.remaining()< required)
+				{
+				/* chunks grow geometrically so small sets stay small */
+				final int capacity= this.lastChunk==null?
+						(1<<16):
+						(int)Math.min((long)this.lastChunk.capacity()*2L, MAX_CHUNK_SIZE);
+				if(this.arena.size()>=MAX_CHUNKS) throw new IllegalStateException("too many names in "+getClass().getSimpleName());
+				this.lastChunk=ByteBuffer.allocateDirect(Math.max(capacity, required));
+				this.arena.add(this.lastChunk);
+				}
+			final long address=(((long)this.arena.size()-1L)<<CHUNK_SHIFT) | this.lastChunk.position();
+			this.lastChunk.putInt(0);
+			this.lastChunk.putShort((short)length);
+			this.lastChunk.put(array, offset, length);
+			return address;
+			}
+
+		private int getCount(final long address)
+			{
+			return chunk(address).getInt(position(address));
+			}
+
+		private void setCount(final long address,final int count)
+			{
+			chunk(address).putInt(position(address),count);
+			}
+
+		private void rehash()
+			{
+			final LongArray old=this.table;
+			allocate((this.mask+1L)*2L);
+			for(long i=0;i< old.length;++i)
+				{
+				final long entry=old.get(i);
+				if(entry==0L) continue;
+				final long address=(entry & ADDRESS_MASK)-1L;
+				final ByteBuffer buf=chunk(address);
+				final int pos=position(address);
+				final long h=hash(buf,pos+RECORD_HEADER,buf.getShort(pos+Integer.BYTES) & 0xFFFF);
+				long j= h & this.mask;
+				while(this.table.get(j)!=0L) j=(j+1L) & this.mask;
+				this.table.set(j, entry);
+				}
+			}
+
+		@Override
+		public boolean add(final byte array[],final int offset,final int length)
+			{
+			if(length>MAX_NAME_LENGTH) throw new IllegalArgumentException("name is too long "+length);
+			final long h=hash(array,offset,length);
+			long i=slot(h,array,offset,length);
+			final long entry=this.table.get(i);
+			if(entry!=0L)
+				{
+				final long address=(entry & ADDRESS_MASK)-1L;
+				if(getCount(address)!=REMOVED) return false;
+				setCount(address,0);
+				this.size++;
+				return true;
+				}
+			if((this.used+1L) > (this.mask+1L)*PrimitiveCounters.LOAD_FACTOR)
+				{
+				rehash();
+				i=slot(h,array,offset,length);
+				}
+			final long address=store(array,offset,length);
+			this.table.set(i, (h & ~ADDRESS_MASK) | (address+1L));
+			this.used++;
+			this.size++;
+			return true;
+			}
+
+		/** @return the address of the name in the arena or -1 if it's not in the set */
+		private long find(final byte array[],final int offset,final int length)
+			{
+			final long entry=this.table.get(slot(hash(array,offset,length),array,offset,length));
+			if(entry==0L) return -1L;
+			final long address=(entry & ADDRESS_MASK)-1L;
+			return getCount(address)==REMOVED?-1L:address;
+			}
+
+		@Override
+		public boolean contains(final byte array[],final int offset,final int length)
+			{
+			return find(array,offset,length)!=-1L;
+			}
+
+		/** increment the number of times this name was seen
+		 * @return the new count or -1 if the name is not in this set */
+		public int incrementCount(final byte array[],final int offset,final int length)
+			{
+			final long address=find(array,offset,length);
+			if(address==-1L) return -1;
+			final int count=getCount(address)+1;
+			setCount(address,count);
+			return count;
+			}
+
+		/** remove a name, @return true if the name was in this set */
+		public boolean remove(final byte array[],final int offset,final int length)
+			{
+			final long address=find(array,offset,length);
+			if(address==-1L) return false;
+			/* the slot is kept so the probing sequences of the other names are not broken */
+			setCount(address,REMOVED);
+			this.size--;
+			return true;
+			}
+		}
+
+	private static class BloomFilter extends ReadNameSet
+		{
+		private final LongArray bits;
+		private final long nBits;
+		private final int nHashes;
+		private long size=0L;
+
+		BloomFilter(final long expected,final double fpp)
+			{
+			if(expected<=0L) throw new IllegalArgumentException("bad number of names "+expected);
+			if(fpp<=0.0 || fpp>=1.0) throw new IllegalArgumentException("bad false positive rate "+fpp);
+			final double ln2=Math.log(2.0);
+			final long m=(long)Math.ceil(-expected*Math.log(fpp)/(ln2*ln2));
+			this.bits=new LongArray(Math.max(1L,(m+63L)/64L));
+			this.nBits=this.bits.length*64L;
+			this.nHashes=Math.max(1,(int)Math.round((double)this.nBits/expected*ln2));
+			}
+
+		@Override
+		public boolean isExact()
+			{
+			return false;
+			}
+
+		@Override
+		public long size()
+			{
+			return this.size;
+			}
+
+		/** double hashing: the i-th bit is h1+i*h2 */
+		private long bitIndex(final long h1,final long h2,final int i)
+			{
+			return Long.remainderUnsigned(h1+i*h2, this.nBits);
+			}
+
+		@Override
+		public boolean add(final byte array[],final int offset,final int length)
+			{
+			final long h1=hash(array,offset,length);
+			final long h2=fmix(h1^0x9e3779b97f4a7c15L)|1L;
+			boolean changed=false;
+			for(int i=0;i< this.nHashes;++i)
+				{
+				final long b=bitIndex(h1,h2,i);
+				final long w=this.bits.get(b>>>6);
+				final long v=w | (1L<<(b&63L));
+				if(v!=w)
+					{
+					this.bits.set(b>>>6,v);
+					changed=true;
+					}
+				}
+			if(changed) this.size++;
+			return changed;
+			}
+
+		@Override
+		public boolean contains(final byte array[],final int offset,final int length)
+			{
+			final long h1=hash(array,offset,length);
+			final long h2=fmix(h1^0x9e3779b97f4a7c15L)|1L;
+			for(int i=0;i< this.nHashes;++i)
+				{
+				final long b=bitIndex(h1,h2,i);
+				if((this.bits.get(b>>>6) & (1L<<(b&63L)))==0L) return false;
+				}
+			return true;
+			}
+		}
+	}
@@ -23,26 +23,46 @@ implements Closeable {
 private static final Logger LOG=Logger.build().prefix("IndexedGenome").make();
 public static final String ENV_NAME="REF_PATH";
 private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+private final PackedReference packedReference;
 private final SAMSequenceDictionary dict;
 private GenomicSequence cached=null;
 
 private IndexedGenome(final IndexedFastaSequenceFile indexedFastaSequenceFile) {
 	this.indexedFastaSequenceFile=indexedFastaSequenceFile;
+	this.packedReference=null;
 	this.dict=this.indexedFastaSequenceFile.getSequenceDictionary();
 	}
+
+private IndexedGenome(final PackedReference packedReference) {
+	this.indexedFastaSequenceFile=null;
+	this.packedReference=packedReference;
+	this.dict=this.packedReference.getSequenceDictionary();
+	}
+
+public SAMSequenceDictionary getSequenceDictionary() {
+	return this.dict;
+	}
+
 public GenomicSequence  get(int i)
 	{
-	return _get(this.dict.getSequence(i).getSequenceName());
+	return getSequence(this.dict.getSequence(i).getSequenceName());
 	}
 
-private GenomicSequence  _get(final String contigName)
+/** get the sequence for the given contig. Throws NoSuchElementException if the contig is not in the dictionary */
+public GenomicSequence  getSequence(final String contigName)
 	{
 	final SAMSequenceRecord rec=this.dict.getSequence(contigName);
 	if(rec==null) throw new NoSuchElementException(contigName);
 	if(this.cached!=null && this.cached.getChrom().equals(contigName)) {
 		return this.cached;
 		}
-	this.cached= new GenomicSequence(this.indexedFastaSequenceFile,rec.getSequenceName());
+	if(this.packedReference!=null) {
+		this.cached= new GenomicSequence(this.packedReference,rec.getSequenceName());
+		}
+	else
+		{
+		this.cached= new GenomicSequence(this.indexedFastaSequenceFile,rec.getSequenceName());
+		}
 	return this.cached;
 	}
 
@@ -54,11 +74,14 @@ public int size() {
 @Override
 public void close() {
 	CloserUtil.close(this.indexedFastaSequenceFile);
+	CloserUtil.close(this.packedReference);
 	}
 public static class Builder
 	{
 	private File genomeFile;
 	private String envName=ENV_NAME;
+	private boolean packed=false;
+	private File packedCacheDirectory=null;
 	
 	public Builder setGenomeFile(final File genomeFile) {
 		this.genomeFile = genomeFile;
@@ -70,6 +93,18 @@ public static class Builder
 		return this;
 		}
 	
+	/** use a 2-bit packed memory-mapped reference, created from the fasta if needed. See {@link PackedReference} */
+	public Builder setPacked(final boolean packed) {
+		this.packed = packed;
+		return this;
+		}
+	
+	/** directory where the packed reference is created when it cannot be written next to the fasta. See {@link PackedReference#open(File, File)} */
+	public Builder setPackedCacheDirectory(final File packedCacheDirectory) {
+		this.packedCacheDirectory = packedCacheDirectory;
+		return this;
+		}
+	
 	public IndexedGenome make()
 		{
 		File f = this.genomeFile;
@@ -82,7 +117,21 @@ public static class Builder
 				}
 			}
 		if(f==null) throw new JvarkitException.UserError("REF genome is undefined");
-		IOUtil.assertFileIsWritable(f);
+		IOUtil.assertFileIsReadable(f);
+		
+		/* a packed reference was given, or asked */
+		if(this.packed || f.getName().endsWith(PackedReference.SUFFIX))
+			{
+			try
+				{
+				return new IndexedGenome(PackedReference.open(f,this.packedCacheDirectory));
+				}
+			catch(final Exception err)
+				{
+				LOG.severe(err);
+				throw new RuntimeIOException(err);
+				}
+			}
 		
 		IndexedFastaSequenceFile idx=null;
 		try
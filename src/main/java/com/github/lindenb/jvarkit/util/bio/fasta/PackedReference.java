@@ -0,0 +1,532 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A reference genome converted once into a 2-bit packed, memory-mapped file.
+ *
+ * For each contig the file contains:
+ * <ul>
+ *  <li>the bases, 2 bits per base (A=0,C=1,G=2,T=3)</li>
+ *  <li>the runs of non-ACGT bases (N-mask), as pairs of int (start,end)</li>
+ *  <li>the non-ACGTN bases (IUPAC): their positions and their symbols</li>
+ *  <li>the runs of lower-case (soft-masked) bases as pairs of int (start,end)</li>
+ *  <li>the cumulative counts of GC and AT bases every 64 bases, so GC% is O(1)</li>
+ * </ul>
+ * The directory of the contigs is at the end of the file, its offset is in the last 8 bytes.
+ * The mapped buffers are read with absolute methods only, so a PackedReference can be shared between threads.
+ */
+public class PackedReference implements Closeable {
+private static final Logger LOG=Logger.build(PackedReference.class).make();
+/** suffix of the packed file, appended to the path of the fasta */
+public static final String SUFFIX=".packed";
+private static final long MAGIC = 0x4A564B3242495431L;
+private static final int BLOCK_SHIFT=6;
+private static final int BLOCK_SIZE=1<<BLOCK_SHIFT;
+private static final int CONVERT_CHUNK=1_000_000;
+private static final char BASES[]={'A','C','G','T'};
+
+private final File file;
+private final RandomAccessFile raf;
+private final SAMSequenceDictionary dict;
+private final Map<String,ContigDef> name2def=new HashMap<>();
+private final Map<String,PackedContig> name2contig=new HashMap<>();
+
+private static class ContigDef
+	{
+	String name;
+	int length;
+	long offset;
+	int nRuns;
+	int nIupac;
+	int nLowerRuns;
+	long dataLength;
+	}
+
+/** sequence of one contig, backed by a mapped buffer */
+public static class PackedContig
+	{
+	private final String name;
+	private final int length;
+	private final ByteBuffer buffer;
+	private final int nRuns;
+	private final int runsOffset;
+	private final int nIupac;
+	private final int iupacPosOffset;
+	private final int iupacCharOffset;
+	private final int nLowerRuns;
+	private final int lowerRunsOffset;
+	private final int gcOffset;
+
+	private PackedContig(final ContigDef def,final ByteBuffer buffer)
+		{
+		this.name=def.name;
+		this.length=def.length;
+		this.buffer=buffer;
+		this.nRuns=def.nRuns;
+		this.runsOffset=(int)(((long)def.length+3L)/4L);
+		this.nIupac=def.nIupac;
+		this.iupacPosOffset=this.runsOffset+this.nRuns*8;
+		this.iupacCharOffset=this.iupacPosOffset+this.nIupac*4;
+		this.nLowerRuns=def.nLowerRuns;
+		this.lowerRunsOffset=this.iupacCharOffset+this.nIupac;
+		this.gcOffset=this.lowerRunsOffset+this.nLowerRuns*8;
+		}
+
+	public String getName()
+		{
+		return this.name;
+		}
+
+	public int length()
+		{
+		return this.length;
+		}
+
+	/** return true if 'pos' is in one of the 'nRuns' (start,end) found at 'offset' */
+	private boolean inRuns(final int offset,final int nRuns,final int pos)
+		{
+		int low=0;
+		int high=nRuns;
+		/* find the first run with start > pos */
+		while(low<high)
+			{
+			final int mid=(low+high)>>>1;
+			if(this.buffer.getInt(offset+mid*8) <= pos)
+				{
+				low=mid+1;
+				}
+			else
+				{
+				high=mid;
+				}
+			}
+		if(low==0) return false;
+		return pos < this.buffer.getInt(offset+(low-1)*8+4);
+		}
+
+	private char iupacAt(final int pos)
+		{
+		int low=0;
+		int high=this.nIupac;
+		while(low<high)
+			{
+			final int mid=(low+high)>>>1;
+			final int p=this.buffer.getInt(this.iupacPosOffset+mid*4);
+			if(p==pos) return (char)this.buffer.get(this.iupacCharOffset+mid);
+			if(p<pos) low=mid+1; else high=mid;
+			}
+		return 'N';
+		}
+
+	public char charAt(final int pos)
+		{
+		if(pos<0 || pos>=this.length) throw new IndexOutOfBoundsException("index:"+pos);
+		char c;
+		if(this.nRuns>0 && inRuns(this.runsOffset,this.nRuns,pos))
+			{
+			c=(this.nIupac==0?'N':iupacAt(pos));
+			}
+		else
+			{
+			final int b=this.buffer.get(pos>>2);
+			c=BASES[(b>>((3-(pos&3))*2))&3];
+			}
+		if(this.nLowerRuns>0 && inRuns(this.lowerRunsOffset,this.nLowerRuns,pos))
+			{
+			c=Character.toLowerCase(c);
+			}
+		return c;
+		}
+
+	/** number of G,C,S in [0,pos) when 'gc' is true, or A,T,W when 'gc' is false */
+	private int cumulative(final int pos,final boolean gc)
+		{
+		final int block=pos>>BLOCK_SHIFT;
+		int n=this.buffer.getInt(this.gcOffset+block*8+(gc?0:4));
+		for(int i=block<<BLOCK_SHIFT;i<pos;++i)
+			{
+			final int t=gcType(charAt(i));
+			if(gc && t==1) n++;
+			else if(!gc && t==2) n++;
+			}
+		return n;
+		}
+
+	/** number of G,C,S in [start,end) */
+	public int countGC(final int start,final int end)
+		{
+		if(start>=end) return 0;
+		return cumulative(end,true)-cumulative(start,true);
+		}
+
+	/** number of A,T,W in [start,end) */
+	public int countAT(final int start,final int end)
+		{
+		if(start>=end) return 0;
+		return cumulative(end,false)-cumulative(start,false);
+		}
+
+	@Override
+	public String toString()
+		{
+		return "PackedContig("+this.name+":"+this.length+")";
+		}
+	}
+
+private PackedReference(final File file) throws IOException
+	{
+	this.file=file;
+	this.raf=new RandomAccessFile(file, "r");
+	if(this.raf.length()<16 || this.raf.readLong()!=MAGIC)
+		{
+		this.raf.close();
+		throw new IOException("Not a packed reference: "+file);
+		}
+	this.raf.seek(this.raf.length()-8L);
+	this.raf.seek(this.raf.readLong());
+	final int n=this.raf.readInt();
+	final List<SAMSequenceRecord> ssrs=new ArrayList<>(n);
+	for(int i=0;i< n;++i)
+		{
+		final ContigDef def=new ContigDef();
+		def.name=this.raf.readUTF();
+		def.length=this.raf.readInt();
+		def.offset=this.raf.readLong();
+		def.dataLength=this.raf.readLong();
+		def.nRuns=this.raf.readInt();
+		def.nIupac=this.raf.readInt();
+		def.nLowerRuns=this.raf.readInt();
+		this.name2def.put(def.name, def);
+		ssrs.add(new SAMSequenceRecord(def.name, def.length));
+		}
+	this.dict=new SAMSequenceDictionary(ssrs);
+	}
+
+public File getFile()
+	{
+	return this.file;
+	}
+
+public SAMSequenceDictionary getSequenceDictionary()
+	{
+	return this.dict;
+	}
+
+/** get the sequence of a contig. The buffer is mapped on first call. Returns null if the contig is not found */
+public synchronized PackedContig getContig(final String contig)
+	{
+	PackedContig c=this.name2contig.get(contig);
+	if(c!=null) return c;
+	final ContigDef def=this.name2def.get(contig);
+	if(def==null) return null;
+	try
+		{
+		final ByteBuffer buffer=this.raf.getChannel().map(FileChannel.MapMode.READ_ONLY, def.offset, def.dataLength);
+		c=new PackedContig(def,buffer);
+		this.name2contig.put(contig, c);
+		return c;
+		}
+	catch(final IOException err)
+		{
+		throw new RuntimeIOException(err);
+		}
+	}
+
+@Override
+public void close()
+	{
+	this.name2contig.clear();
+	CloserUtil.close(this.raf);
+	}
+
+/** return the packed file associated to a fasta file */
+public static File getPackedFile(final File fasta)
+	{
+	if(fasta.getName().endsWith(SUFFIX)) return fasta;
+	return new File(fasta.getParentFile(),fasta.getName()+SUFFIX);
+	}
+
+/** return the packed file associated to a fasta file in a cache directory. The name contains a hash of the fasta path,
+ * so two fasta files with the same name don't share the same packed file */
+public static File getPackedFile(final File fasta,final File cacheDir)
+	{
+	if(fasta.getName().endsWith(SUFFIX)) return fasta;
+	final String path=fasta.getAbsolutePath();
+	return new File(cacheDir,fasta.getName()+"."+Integer.toHexString(path.hashCode())+SUFFIX);
+	}
+
+/** true if 'packed' exists and is not older than the fasta */
+private static boolean isUpToDate(final File fasta,final File packed)
+	{
+	return packed.exists() && packed.lastModified() >= fasta.lastModified();
+	}
+
+/** open a packed reference. See {@link #open(File, File)} */
+public static PackedReference open(final File f) throws IOException
+	{
+	return open(f,null);
+	}
+
+/** open a packed reference. If 'f' is a fasta file, the packed file next to the fasta is used if it is up to date.
+ * Otherwise the packed file is searched, or created, in 'cacheDir'. If 'cacheDir' is null, the packed file is created
+ * next to the fasta when its directory is writable, else in ${java.io.tmpdir}.
+ */
+public static PackedReference open(final File f,final File cacheDir) throws IOException
+	{
+	File packed=getPackedFile(f);
+	if(packed.equals(f)) return new PackedReference(packed);
+	if(!isUpToDate(f,packed))
+		{
+		final File parent=f.getAbsoluteFile().getParentFile();
+		if(cacheDir!=null || parent==null || !Files.isWritable(parent.toPath()))
+			{
+			packed=getPackedFile(f,cacheDir!=null?cacheDir:new File(System.getProperty("java.io.tmpdir")));
+			}
+		if(!isUpToDate(f,packed))
+			{
+			convert(f,packed);
+			}
+		}
+	return new PackedReference(packed);
+	}
+
+/** 1 for G,C,S ; 2 for A,T,W ; 0 for the others */
+private static int gcType(final char c)
+	{
+	switch(c)
+		{
+		case 'c': case 'C':
+		case 'g': case 'G':
+		case 's': case 'S': return 1;
+		case 'a': case 'A':
+		case 't': case 'T':
+		case 'w': case 'W': return 2;
+		default: return 0;
+		}
+	}
+
+/** growable array of int */
+private static class IntList
+	{
+	int array[]=new int[16];
+	int size=0;
+	void add(final int v)
+		{
+		if(this.size==this.array.length) this.array=Arrays.copyOf(this.array, this.size*2);
+		this.array[this.size++]=v;
+		}
+	/** extends the last run (start,end) if it ends at 'pos', or starts a new one */
+	void addToRun(final int pos)
+		{
+		if(this.size>0 && this.array[this.size-1]==pos)
+			{
+			this.array[this.size-1]=pos+1;
+			}
+		else
+			{
+			add(pos);
+			add(pos+1);
+			}
+		}
+	void write(final DataOutputStream out) throws IOException
+		{
+		for(int i=0;i< this.size;++i) out.writeInt(this.array[i]);
+		}
+	}
+
+/** convert an indexed fasta file to a packed reference */
+public static void convert(final File fasta,final File packed) throws IOException
+	{
+	LOG.info("converting "+fasta+" to "+packed);
+	final IndexedFastaSequenceFile ref=new IndexedFastaSequenceFile(fasta);
+	final File dir=packed.getAbsoluteFile().getParentFile();
+	if(!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create directory "+dir);
+	final File tmp=File.createTempFile("tmp.", SUFFIX, dir);
+	DataOutputStream out=null;
+	try
+		{
+		final SAMSequenceDictionary dict=ref.getSequenceDictionary();
+		if(dict==null) throw new JvarkitException.FastaDictionaryMissing(fasta);
+		out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),1<<20));
+		out.writeLong(MAGIC);
+		long offset=8L;
+		final List<ContigDef> defs=new ArrayList<>(dict.size());
+		for(final SAMSequenceRecord ssr:dict.getSequences())
+			{
+			LOG.info("packing "+ssr.getSequenceName());
+			final int length=ssr.getSequenceLength();
+			final byte packedBases[]=new byte[(int)(((long)length+3L)/4L)];
+			final IntList runs=new IntList();
+			final IntList iupacPos=new IntList();
+			final ByteArrayList iupacChars=new ByteArrayList();
+			final IntList lowerRuns=new IntList();
+			final int nBlocks=(length>>BLOCK_SHIFT)+1;
+			final int cumulGC[]=new int[nBlocks];
+			final int cumulAT[]=new int[nBlocks];
+			int gc=0;
+			int at=0;
+			int pos=0;
+			while(pos< length)
+				{
+				final int end=Math.min(length, pos+CONVERT_CHUNK);
+				final byte bases[]=ref.getSubsequenceAt(ssr.getSequenceName(), pos+1, end).getBases();
+				for(int i=0;i< bases.length;++i,++pos)
+					{
+					if((pos&(BLOCK_SIZE-1))==0)
+						{
+						cumulGC[pos>>BLOCK_SHIFT]=gc;
+						cumulAT[pos>>BLOCK_SHIFT]=at;
+						}
+					final char c=(char)bases[i];
+					switch(gcType(c))
+						{
+						case 1: gc++; break;
+						case 2: at++; break;
+						default:break;
+						}
+					if(Character.isLowerCase(c)) lowerRuns.addToRun(pos);
+					final int code;
+					switch(Character.toUpperCase(c))
+						{
+						case 'A': code=0; break;
+						case 'C': code=1; break;
+						case 'G': code=2; break;
+						case 'T': code=3; break;
+						default:
+							{
+							code=0;
+							runs.addToRun(pos);
+							final char u=Character.toUpperCase(c);
+							if(u!='N')
+								{
+								iupacPos.add(pos);
+								iupacChars.add((byte)u);
+								}
+							break;
+							}
+						}
+					packedBases[pos>>2]|=(byte)(code<<((3-(pos&3))*2));
+					}
+				}
+			if((length&(BLOCK_SIZE-1))==0)
+				{
+				cumulGC[length>>BLOCK_SHIFT]=gc;
+				cumulAT[length>>BLOCK_SHIFT]=at;
+				}
+			final ContigDef def=new ContigDef();
+			def.name=ssr.getSequenceName();
+			def.length=length;
+			def.offset=offset;
+			def.nRuns=runs.size/2;
+			def.nIupac=iupacPos.size;
+			def.nLowerRuns=lowerRuns.size/2;
+			def.dataLength=(long)packedBases.length+
+					runs.size*4L+
+					iupacPos.size*5L+
+					lowerRuns.size*4L+
+					nBlocks*8L;
+			if(def.dataLength>Integer.MAX_VALUE) throw new IOException("contig too large for a packed reference: "+def.name);
+			out.write(packedBases);
+			runs.write(out);
+			iupacPos.write(out);
+			out.write(iupacChars.array,0,iupacChars.size);
+			lowerRuns.write(out);
+			for(int i=0;i< nBlocks;++i)
+				{
+				out.writeInt(cumulGC[i]);
+				out.writeInt(cumulAT[i]);
+				}
+			offset+=def.dataLength;
+			defs.add(def);
+			}
+		/* directory */
+		out.writeInt(defs.size());
+		for(final ContigDef def:defs)
+			{
+			out.writeUTF(def.name);
+			out.writeInt(def.length);
+			out.writeLong(def.offset);
+			out.writeLong(def.dataLength);
+			out.writeInt(def.nRuns);
+			out.writeInt(def.nIupac);
+			out.writeInt(def.nLowerRuns);
+			}
+		out.writeLong(offset);
+		out.flush();
+		out.close();
+		out=null;
+		Files.move(tmp.toPath(), packed.toPath(), StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+		}
+	finally
+		{
+		CloserUtil.close(out);
+		CloserUtil.close(ref);
+		if(tmp.exists()) tmp.delete();
+		}
+	}
+
+/** growable array of byte */
+private static class ByteArrayList
+	{
+	byte array[]=new byte[16];
+	int size=0;
+	void add(final byte v)
+		{
+		if(this.size==this.array.length) this.array=Arrays.copyOf(this.array, this.size*2);
+		this.array[this.size++]=v;
+		}
+	}
+}
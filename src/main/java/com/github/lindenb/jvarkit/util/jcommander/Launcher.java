@@ -33,16 +33,20 @@ import com.beust.jcommander.ParametersDelegate;
 import com.beust.jcommander.converters.IntegerConverter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.io.NullOuputStream;
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -274,6 +278,12 @@ private boolean print_markdown_help = false;
 private boolean print_version = false;
 @Parameter(description = "Files")
 private List<String> files = new ArrayList<>();
+@Parameter(names = {"--writer-threads"},description="Number of threads used to compress the BGZF output (*.bam, *.vcf.gz) and the gzipped text outputs. The output is the same as the single-threaded output. Values lower or equal to 1 disable this feature.")
+private int writer_threads = 1;
+@Parameter(names = {"--progress-metrics"},description="Append the progress metrics (records/sec, fraction of the genome done, estimated remaining time...) to this file, as JSON lines. Same as -D"+SAMSequenceDictionaryProgress.METRICS_FILE_PROPERTY+"=file")
+private File progress_metrics_file = null;
+@Parameter(names = {"--progress-jmx"},description="Publish the progress metrics as JMX MBeans. Same as -D"+SAMSequenceDictionaryProgress.METRICS_JMX_PROPERTY+"=true")
+private boolean progress_jmx = false;
 
 
 
@@ -320,17 +330,35 @@ public class WritingBamArgs
 	@Parameter(names={"--samoutputformat"},description="Sam output format.")
 	public htsjdk.samtools.SamReader.Type samoutputformat = htsjdk.samtools.SamReader.Type.SAM_TYPE;
 	
-	/** creates a SAMFileWriterFactory */
-	public htsjdk.samtools.SAMFileWriterFactory createSAMFileWriterFactory() {
-		final SAMFileWriterFactory sfw =  new SAMFileWriterFactory();
+	/** get the compression level bounded in [0-9] */
+	private int getCompressionLevel() {
 		int n= this.compressionLevel;
 		if(n<0) n= Deflater.NO_COMPRESSION;
 		if(n>9) n= Deflater.BEST_COMPRESSION;
-		sfw.setCompressionLevel(n);
+		return n;
+		}
+	
+	/** creates a SAMFileWriterFactory */
+	public htsjdk.samtools.SAMFileWriterFactory createSAMFileWriterFactory() {
+		final SAMFileWriterFactory sfw =  new SAMFileWriterFactory();
+		sfw.setCompressionLevel(getCompressionLevel());
 		
 		return sfw;
 		}
 	
+	/** creates a BAM writer compressing the blocks with '--writer-threads' threads.
+	 * htsjdk writes uncompressed BGZF blocks that are re-compressed in parallel with the same boundaries */
+	private SAMFileWriter makeParallelBAMWriter(final SAMFileHeader header,final boolean presorted,final java.io.OutputStream os) {
+		final ParallelBlockCompressedOutputStream pbcos = new ParallelBlockCompressedOutputStream(
+				os,
+				getCompressionLevel(),
+				IOUtils.getDefaultWriterThreads()
+				);
+		final SAMFileWriterFactory sfw = this.createSAMFileWriterFactory();
+		sfw.setCompressionLevel(Deflater.NO_COMPRESSION);
+		return sfw.makeBAMWriter(header, presorted, pbcos.createRecompressingStream());
+		}
+	
 	/** return reference file. default implementation returns null */
 	public File getReferenceFile() {
 		return null;
@@ -348,6 +376,10 @@ public class WritingBamArgs
 			if( this.samoutputformat!=null &&
 				this.samoutputformat.equals(htsjdk.samtools.SamReader.Type.BAM_TYPE))
 				{
+				if(IOUtils.getDefaultWriterThreads()>1)
+					{
+					return makeParallelBAMWriter(header, presorted, stdout());
+					}
 				return sfw.makeBAMWriter(header, presorted, stdout());
 				}
 			else if(this.samoutputformat==null || this.samoutputformat.equals(htsjdk.samtools.SamReader.Type.SAM_TYPE))
@@ -363,6 +395,15 @@ public class WritingBamArgs
 				throw new IllegalStateException("Bad output format");
 				}
 			}
+		else if(IOUtils.getDefaultWriterThreads()>1 && outputFileOrNull.getName().endsWith(htsjdk.samtools.BamFileIoUtils.BAM_FILE_EXTENSION))
+			{
+			try {
+				return makeParallelBAMWriter(header, presorted, new java.io.FileOutputStream(outputFileOrNull));
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
 		else
 			{
 			return sfw.makeWriter(header, presorted, outputFileOrNull, getReferenceFile());
@@ -451,17 +492,34 @@ public static class VcfWriterOnDemand
 				clearIndexCreator().
 				clearOptions()
 				;
+	private final File outputFile;
 	private List<VCFHeaderLine> extraHeaderLines=new ArrayList<>();
 	public VcfWriterOnDemand() {
+		this.outputFile=null;
 		vcb.setOutputVCFStream(System.out);
 		}
 	VcfWriterOnDemand(final File file)
 		{
+		this.outputFile=file;
 		vcb.setOutputFile(file);
 		}
 	@Override
 	public void writeHeader(final VCFHeader header) {
 		if(this.delegate==null) {
+			if(this.outputFile!=null &&
+				IOUtils.getDefaultWriterThreads()>1 &&
+				AbstractFeatureReader.hasBlockCompressedExtension(this.outputFile))
+				{
+				try {
+					vcb.setOutputVCFStream(IOUtils.openBlockCompressedOutputStream(
+							this.outputFile,
+							BlockCompressedOutputStream.getDefaultCompressionLevel()
+							));
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				}
 			this.delegate =vcb.build(); 
 			}
 		VCFHeader header2 = header;
@@ -627,6 +685,10 @@ protected Status parseArgs(final String args[])
 		return Status.EXIT_FAILURE; 
 	 	}
 	 
+	 IOUtils.setDefaultWriterThreads(this.writer_threads);
+	 if(this.progress_metrics_file!=null) SAMSequenceDictionaryProgress.setMetricsFile(this.progress_metrics_file);
+	 if(this.progress_jmx) SAMSequenceDictionaryProgress.setMetricsJmx(true);
+	 
 	 if (this.print_help || this.print_markdown_help) return Status.PRINT_HELP;
 	 if (this.print_version) return Status.PRINT_VERSION;
 	 return Status.OK;
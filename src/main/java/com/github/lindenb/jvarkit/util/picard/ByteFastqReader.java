@@ -0,0 +1,200 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Logger;
+
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.fastq.FastqConstants;
+
+import com.github.lindenb.jvarkit.io.AsyncInputStream;
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * Byte oriented FASTQ reader, with the same validation as {@link FourLinesFastqReader}.
+ * The lines are copied from a large buffer into a re-usable {@link MutableFastqRecord}:
+ * there is no String and no object created per read.
+ * The input (and its decompression) is read on a background thread.
+ */
+public class ByteFastqReader
+	implements Closeable
+	{
+	private static final Logger LOG=Logger.getLogger("jvarkit");
+	private static final int BUFFER_SIZE = 1<<22;
+	private final File fastqFile;
+	private final InputStream in;
+	private final byte buffer[]=new byte[BUFFER_SIZE];
+	private int bufferPos=0;
+	private int bufferLength=0;
+	private long nLines=0L;
+	private ValidationStringency validationStringency=ValidationStringency.STRICT;
+	/** current record, for the error messages */
+	private MutableFastqRecord current=null;
+	
+	public ByteFastqReader(final File file) throws IOException
+		{
+		this.fastqFile = file;
+		this.in = new AsyncInputStream(IOUtils.openFileForReading(file));
+		}
+	
+	public ByteFastqReader(final InputStream in)
+		{
+		this.fastqFile = null;
+		this.in = new AsyncInputStream(in);
+		}
+	
+	public void setValidationStringency( ValidationStringency validationStringency) {
+		this.validationStringency = validationStringency;
+		}
+	
+	public ValidationStringency getValidationStringency()
+		{
+		return validationStringency;
+		}
+	
+	/** read the next line into 'line'
+	 * @return false if the end of file was reached before any byte */
+	private boolean readLine(final MutableFastqRecord.Line line) throws IOException
+		{
+		line.clear();
+		boolean found=false;
+		for(;;)
+			{
+			if(this.bufferPos>=this.bufferLength)
+				{
+				final int n= this.in.read(this.buffer, 0, this.buffer.length);
+				if(n==-1) return found;
+				this.bufferPos = 0;
+				this.bufferLength = n;
+				}
+			found=true;
+			int i=this.bufferPos;
+			while(i< this.bufferLength && this.buffer[i]!='\n') ++i;
+			line.append(this.buffer, this.bufferPos, i-this.bufferPos);
+			if(i< this.bufferLength)
+				{
+				this.bufferPos = i+1;
+				line.trimCarriageReturn();
+				return true;
+				}
+			this.bufferPos = this.bufferLength;
+			}
+		}
+	
+	private void throw_error(final String msg)
+		{
+		switch(getValidationStringency())
+			{
+			case LENIENT: LOG.warning(msg);break;
+			case STRICT: throw new RuntimeException(msg);
+			default:break;
+			}
+		}
+	
+	private void checkLine(final boolean found,final MutableFastqRecord.Line line, final String kind)
+		{
+		if (!found)
+			{
+			throw new RuntimeException(error("File is too short - missing "+kind+" line"));
+			}
+		if (line.isBlank())
+			{
+			throw_error(error("Missing "+kind));
+			}
+		}
+	
+	private String error(final String msg)
+		{
+		return msg + " at line "+this.nLines+" in fastq \""+
+			(this.fastqFile == null ?"":this.fastqFile.getAbsolutePath())+"\"."+
+			( this.current==null?"": " Read name:"+ this.current.getHeaderLine())
+			;
+		}
+	
+	/** fill 'rec' with the next record
+	 * @return false at the end of the file */
+	public boolean read(final MutableFastqRecord rec)
+		{
+		try {
+			this.current=null;
+			if(!readLine(rec.getHeaderLine())) return false;
+			++this.nLines;
+			this.current=rec;
+			
+			if(rec.getHeaderLine().isBlank())
+				{
+				throw new RuntimeException(error("Missing sequence header"));
+				}
+			if(!rec.getHeaderLine().startsWith('@'))
+				{
+				throw new RuntimeException(error("Sequence header must start with "+ FastqConstants.SEQUENCE_HEADER));
+				}
+			
+			boolean found = readLine(rec.getSequenceLine());
+			++this.nLines;
+			checkLine(found,rec.getSequenceLine(),"sequence line");
+			
+			found = readLine(rec.getQualityHeaderLine());
+			++this.nLines;
+			checkLine(found,rec.getQualityHeaderLine(),"quality header");
+			if (!rec.getQualityHeaderLine().startsWith('+'))
+				{
+				throw new RuntimeException(error("Quality header must start with "+ FastqConstants.QUALITY_HEADER+": "+rec.getQualityHeaderLine()));
+				}
+			
+			found = readLine(rec.getQualityLine());
+			++this.nLines;
+			checkLine(found,rec.getQualityLine(),"quality line");
+			
+			if (rec.getSequenceLine().length() != rec.getQualityLine().length())
+				{
+				throw new RuntimeException(error("Sequence and quality line must be the same length"));
+				}
+			this.current=null;
+			return true;
+			}
+		catch (final IOException e)
+			{
+			throw new RuntimeException(String.format("Error reading fastq '%s'",
+				(this.fastqFile == null ?"":this.fastqFile.getAbsolutePath())), e);
+			}
+		}
+	
+	public long getLineNumber() { return this.nLines ; }
+	
+	@Override
+	public void close() throws IOException
+		{
+		this.in.close();
+		}
+	}
@@ -34,6 +34,7 @@ import htsjdk.samtools.SAMSequenceRecord;
 
 import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
 import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
+import com.github.lindenb.jvarkit.util.bio.fasta.PackedReference;
 
 /**
  * 
@@ -46,6 +47,8 @@ public class GenomicSequence
 	implements ChromosomeSequence
 	{
 	private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+	/** non-null if the sequence is read from a packed reference */
+	private final PackedReference.PackedContig packedContig;
 	private final SAMSequenceRecord samSequenceRecord;
 	private byte buffer[]=null;
 	private int buffer_pos=-1;
@@ -135,6 +138,7 @@ public class GenomicSequence
 	public GenomicSequence(final IndexedFastaSequenceFile indexedFastaSequenceFile ,final String chrom)
 		{	
 		this.indexedFastaSequenceFile=indexedFastaSequenceFile;
+		this.packedContig=null;
 		if(this.indexedFastaSequenceFile==null) throw new NullPointerException("IndexedFastaSequenceFile is null");
 		if(this.indexedFastaSequenceFile.getSequenceDictionary()==null)
 			{
@@ -144,6 +148,16 @@ public class GenomicSequence
 		if(this.samSequenceRecord==null) throw new IllegalArgumentException("not chromosome "+chrom+" in reference.");
 		}
 	
+	/** GenomicSequence reading its bases from a packed reference: no buffer, GC% is computed in constant time */
+	public GenomicSequence(final PackedReference packedReference ,final String chrom)
+		{
+		if(packedReference==null) throw new NullPointerException("PackedReference is null");
+		this.indexedFastaSequenceFile=null;
+		this.samSequenceRecord=packedReference.getSequenceDictionary().getSequence(chrom);
+		if(this.samSequenceRecord==null) throw new IllegalArgumentException("not chromosome "+chrom+" in reference.");
+		this.packedContig=packedReference.getContig(chrom);
+		}
+	
 	public SAMSequenceRecord getSAMSequenceRecord()
 		{
 		return samSequenceRecord;
@@ -175,6 +189,10 @@ public class GenomicSequence
 			{
 			throw new IndexOutOfBoundsException("index:"+index0);
 			}
+		if(this.packedContig!=null)
+			{
+			return this.packedContig.charAt(index0);
+			}
 		if(buffer!=null && index0>=buffer_pos && index0-buffer_pos < buffer.length)
 			{
 			return (char)buffer[index0-buffer_pos];
@@ -197,6 +215,17 @@ public class GenomicSequence
 				start+1,
 				Math.min(end, L)
 				);
+		if(this.packedContig!=null)
+			{
+			final int e=Math.min(end, L);
+			if(start<e)
+				{
+				gcp.count=e-start;
+				gcp.count_gc=this.packedContig.countGC(start, e);
+				gcp.count_at=this.packedContig.countAT(start, e);
+				}
+			return gcp;
+			}
 		for(int i=start;i< end && i< L;++i) {
 			gcp.count++;
 			switch(this.charAt(i)) {
@@ -0,0 +1,213 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * A FASTQ record whose four lines are stored as bytes. The record is filled
+ * by {@link ByteFastqReader#read(MutableFastqRecord)} and can be re-used for
+ * the next read, so no object is allocated per read.
+ */
+public class MutableFastqRecord
+	{
+	/** one line of the record, without the end of line */
+	public static class Line
+		{
+		private byte bytes[]=new byte[256];
+		private int length=0;
+		
+		/** @return the backing array, only the first length() bytes are meaningful */
+		public byte[] getBytes()
+			{
+			return this.bytes;
+			}
+		
+		public int length()
+			{
+			return this.length;
+			}
+		
+		public byte byteAt(final int i)
+			{
+			return this.bytes[i];
+			}
+		
+		public boolean isEmpty()
+			{
+			return this.length==0;
+			}
+		
+		/** @return true if the line only contains white spaces, like StringUtil.isBlank */
+		public boolean isBlank()
+			{
+			for(int i=0;i< this.length;++i)
+				{
+				if(!Character.isWhitespace((char)(this.bytes[i] & 0xFF))) return false;
+				}
+			return true;
+			}
+		
+		public boolean startsWith(final char c)
+			{
+			return this.length>0 && this.bytes[0]==(byte)c;
+			}
+		
+		void clear()
+			{
+			this.length=0;
+			}
+		
+		void append(final byte src[],final int off,final int len)
+			{
+			if(this.length+len > this.bytes.length)
+				{
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(this.length+len, this.bytes.length*2));
+				}
+			System.arraycopy(src, off, this.bytes, this.length, len);
+			this.length+=len;
+			}
+		
+		/** replace the content of this line */
+		public void set(final byte src[])
+			{
+			this.length=0;
+			append(src,0,src.length);
+			}
+		
+		/** remove the trailing '\r' of a DOS line */
+		void trimCarriageReturn()
+			{
+			if(this.length>0 && this.bytes[this.length-1]=='\r') this.length--;
+			}
+		
+		/** @return the line as a String, starting from 'from' */
+		public String toString(final int from)
+			{
+			return new String(this.bytes, from, this.length-from, StandardCharsets.UTF_8);
+			}
+		
+		@Override
+		public String toString()
+			{
+			return toString(0);
+			}
+		
+		void write(final OutputStream out) throws IOException
+			{
+			out.write(this.bytes, 0, this.length);
+			out.write('\n');
+			}
+		}
+	
+	private final Line header=new Line();
+	private final Line sequence=new Line();
+	private final Line qualityHeader=new Line();
+	private final Line quality=new Line();
+	
+	/** @return the first line, starting with '@' */
+	public Line getHeaderLine()
+		{
+		return this.header;
+		}
+	
+	public Line getSequenceLine()
+		{
+		return this.sequence;
+		}
+	
+	/** @return the third line, starting with '+' */
+	public Line getQualityHeaderLine()
+		{
+		return this.qualityHeader;
+		}
+	
+	public Line getQualityLine()
+		{
+		return this.quality;
+		}
+	
+	/** @return the read header, without the '@' */
+	public String getReadHeader()
+		{
+		return this.header.toString(1);
+		}
+	
+	/** @return the index in the header line of the end of the read name: the first space or the end of the line */
+	public int getReadNameEnd()
+		{
+		for(int i=1;i< this.header.length;++i)
+			{
+			if(this.header.bytes[i]==' ') return i;
+			}
+		return this.header.length;
+		}
+	
+	/** @return the read name: the header without the '@' and up to the first space */
+	public String getReadName()
+		{
+		return new String(this.header.bytes, 1, getReadNameEnd()-1, StandardCharsets.UTF_8);
+		}
+	
+	public int getReadLength()
+		{
+		return this.sequence.length;
+		}
+	
+	/** @return a new htsjdk FastqRecord */
+	public FastqRecord toFastqRecord()
+		{
+		return new FastqRecord(
+				getReadHeader(),
+				this.sequence.toString(),
+				this.qualityHeader.toString(1),
+				this.quality.toString()
+				);
+		}
+	
+	/** copy the four lines to 'out', like htsjdk BasicFastqWriter */
+	public void write(final OutputStream out) throws IOException
+		{
+		this.header.write(out);
+		this.sequence.write(out);
+		this.qualityHeader.write(out);
+		this.quality.write(out);
+		}
+	
+	@Override
+	public String toString()
+		{
+		return this.header.toString();
+		}
+	}
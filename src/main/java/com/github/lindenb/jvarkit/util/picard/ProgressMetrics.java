@@ -0,0 +1,334 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Structured metrics of a {@link SAMSequenceDictionaryProgress}.
+ * Updated about once per second by the thread calling watch(), read by JMX
+ * and written as JSON lines. All the methods are synchronized: they are
+ * never called for each record.
+ */
+class ProgressMetrics
+	implements ProgressMetricsMXBean
+	{
+	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(ProgressMetrics.class);
+	private static final AtomicInteger ID_GENERATOR = new AtomicInteger(0);
+	/** shared JSON-lines writer */
+	private static PrintWriter jsonWriter = null;
+	private static File jsonFile = null;
+	/** max window in seconds, there is about one sample per second */
+	private static final int MAX_WINDOW = 300;
+	
+	private final int id = ID_GENERATOR.incrementAndGet();
+	private String name = null;
+	private final long sampleTicks[] = new long[MAX_WINDOW+2];
+	private final long sampleCounts[] = new long[MAX_WINDOW+2];
+	private int sampleHead = 0;
+	private int sampleSize = 0;
+	private long startTicks = -1L;
+	private long lastTicks = -1L;
+	private long count = 0L;
+	private String lastContig = null;
+	private int lastPosition = -1;
+	private double fractionDone = -1.0;
+	private final Map<String,Long> contigMillis = new LinkedHashMap<>();
+	private boolean done = false;
+	private long lastJsonTicks = -1L;
+	private ObjectName objectName = null;
+	
+	ProgressMetrics(final String name)
+		{
+		this.name = name;
+		}
+	
+	synchronized void setName(final String name)
+		{
+		this.name = name;
+		}
+	
+	/** register this object in the platform MBean server */
+	void registerJmx()
+		{
+		try
+			{
+			final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			this.objectName = new ObjectName(
+				getClass().getPackage().getName()+":type="+SAMSequenceDictionaryProgress.class.getSimpleName()+",id="+this.id
+				);
+			mbeanServer.registerMBean(this, this.objectName);
+			}
+		catch(final Exception err)
+			{
+			LOG.warn("Cannot register progress in JMX "+err.getMessage());
+			this.objectName = null;
+			}
+		}
+	
+	void unregisterJmx()
+		{
+		if(this.objectName==null) return;
+		try
+			{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			}
+		catch(final Exception err)
+			{
+			LOG.warn("Cannot unregister progress from JMX "+err.getMessage());
+			}
+		this.objectName = null;
+		}
+	
+	/** called by the watching thread */
+	synchronized void sample(final long ticks,final long count,final String contig,final int pos,final double fractionDone)
+		{
+		if(this.startTicks==-1L) this.startTicks = ticks;
+		if(this.lastTicks!=-1L && this.lastContig!=null)
+			{
+			final Long prev = this.contigMillis.get(this.lastContig);
+			this.contigMillis.put(this.lastContig, (prev==null?0L:prev) + (ticks-this.lastTicks));
+			}
+		if(contig!=null && !this.contigMillis.containsKey(contig))
+			{
+			this.contigMillis.put(contig, 0L);
+			}
+		this.lastTicks = ticks;
+		this.count = count;
+		this.lastContig = contig;
+		this.lastPosition = pos;
+		this.fractionDone = fractionDone;
+		this.sampleTicks[this.sampleHead] = ticks;
+		this.sampleCounts[this.sampleHead] = count;
+		this.sampleHead = (this.sampleHead+1)%this.sampleTicks.length;
+		if(this.sampleSize< this.sampleTicks.length) this.sampleSize++;
+		}
+	
+	synchronized void setDone()
+		{
+		this.done = true;
+		}
+	
+	/** records per second over the last 'seconds' */
+	private synchronized double recordsPerSecond(final int seconds)
+		{
+		if(this.sampleSize<2) return 0.0;
+		final int n = this.sampleTicks.length;
+		final int newest = (this.sampleHead-1+n)%n;
+		int oldest = newest;
+		for(int i=1;i< this.sampleSize;++i)
+			{
+			final int k = (newest-i+n)%n;
+			if(this.sampleTicks[newest]-this.sampleTicks[k] > seconds*1000L) break;
+			oldest = k;
+			}
+		final long dt = this.sampleTicks[newest]-this.sampleTicks[oldest];
+		if(dt<=0L) return 0.0;
+		return (this.sampleCounts[newest]-this.sampleCounts[oldest])*1000.0/dt;
+		}
+	
+	@Override
+	public synchronized String getName()
+		{
+		return this.name==null?"progress."+this.id:this.name;
+		}
+	
+	@Override
+	public synchronized long getCount()
+		{
+		return this.count;
+		}
+	
+	@Override
+	public synchronized long getElapsedMillis()
+		{
+		return this.startTicks==-1L?0L:this.lastTicks-this.startTicks;
+		}
+	
+	@Override
+	public synchronized long getMillisSinceLastUpdate()
+		{
+		return this.lastTicks==-1L?0L:System.currentTimeMillis()-this.lastTicks;
+		}
+	
+	@Override
+	public double getRecordsPerSecond10s()
+		{
+		return recordsPerSecond(10);
+		}
+	
+	@Override
+	public double getRecordsPerSecond60s()
+		{
+		return recordsPerSecond(60);
+		}
+	
+	@Override
+	public double getRecordsPerSecond300s()
+		{
+		return recordsPerSecond(MAX_WINDOW);
+		}
+	
+	@Override
+	public synchronized String getLastContig()
+		{
+		return this.lastContig;
+		}
+	
+	@Override
+	public synchronized int getLastPosition()
+		{
+		return this.lastPosition;
+		}
+	
+	@Override
+	public synchronized double getFractionDone()
+		{
+		return this.fractionDone;
+		}
+	
+	@Override
+	public synchronized long getEstimatedRemainingMillis()
+		{
+		if(this.done) return 0L;
+		if(this.fractionDone<=0.0) return -1L;
+		return (long)(getElapsedMillis()*(1.0-this.fractionDone)/this.fractionDone);
+		}
+	
+	@Override
+	public synchronized Map<String, Long> getContigElapsedMillis()
+		{
+		return new LinkedHashMap<>(this.contigMillis);
+		}
+	
+	@Override
+	public synchronized boolean isDone()
+		{
+		return this.done;
+		}
+	
+	private static String quote(final String s)
+		{
+		if(s==null) return "null";
+		final StringBuilder sb = new StringBuilder(s.length()+2);
+		sb.append('"');
+		for(int i=0;i< s.length();++i)
+			{
+			final char c = s.charAt(i);
+			switch(c)
+				{
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\t': sb.append("\\t"); break;
+				case '\r': sb.append("\\r"); break;
+				default:
+					if(c<32) sb.append(String.format("\\u%04x", (int)c));
+					else sb.append(c);
+					break;
+				}
+			}
+		sb.append('"');
+		return sb.toString();
+		}
+	
+	/** current metrics as one line of JSON */
+	synchronized String toJson()
+		{
+		final StringBuilder sb = new StringBuilder();
+		sb.append("{\"time\":").append(System.currentTimeMillis());
+		sb.append(",\"id\":").append(this.id);
+		sb.append(",\"name\":").append(quote(getName()));
+		sb.append(",\"count\":").append(this.count);
+		sb.append(",\"elapsedMillis\":").append(getElapsedMillis());
+		sb.append(",\"recordsPerSecond\":{");
+		sb.append("\"10s\":").append(String.format(Locale.US,"%.2f",getRecordsPerSecond10s()));
+		sb.append(",\"60s\":").append(String.format(Locale.US,"%.2f",getRecordsPerSecond60s()));
+		sb.append(",\"300s\":").append(String.format(Locale.US,"%.2f",getRecordsPerSecond300s()));
+		sb.append("}");
+		sb.append(",\"lastContig\":").append(quote(this.lastContig));
+		sb.append(",\"lastPosition\":").append(this.lastPosition);
+		sb.append(",\"fractionDone\":").append(String.format(Locale.US,"%.6f",this.fractionDone));
+		sb.append(",\"estimatedRemainingMillis\":").append(getEstimatedRemainingMillis());
+		sb.append(",\"contigElapsedMillis\":{");
+		boolean first = true;
+		for(final String contig:this.contigMillis.keySet())
+			{
+			if(!first) sb.append(",");
+			first = false;
+			sb.append(quote(contig)).append(":").append(this.contigMillis.get(contig));
+			}
+		sb.append("}");
+		sb.append(",\"done\":").append(this.done);
+		sb.append("}");
+		return sb.toString();
+		}
+	
+	/** append the metrics to the JSON-lines file if 'force' or if the last line is older than 'everyMillis' */
+	synchronized void writeJson(final File file,final long ticks,final long everyMillis,final boolean force)
+		{
+		if(file==null) return;
+		if(!force && this.lastJsonTicks!=-1L && ticks-this.lastJsonTicks< everyMillis) return;
+		this.lastJsonTicks = ticks;
+		appendJsonLine(file, toJson());
+		}
+	
+	private static void appendJsonLine(final File file,final String line)
+		{
+		synchronized(ProgressMetrics.class)
+			{
+			try
+				{
+				if(jsonWriter==null || !file.equals(jsonFile))
+					{
+					if(jsonWriter!=null) jsonWriter.close();
+					jsonFile = file;
+					jsonWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true),"UTF-8"));
+					}
+				jsonWriter.println(line);
+				jsonWriter.flush();
+				}
+			catch(final IOException err)
+				{
+				LOG.warn("Cannot write metrics to "+file+" "+err.getMessage());
+				}
+			}
+		}
+	}
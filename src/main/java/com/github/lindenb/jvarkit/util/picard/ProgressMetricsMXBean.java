@@ -0,0 +1,63 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+History:
+* 2017 creation
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a {@link SAMSequenceDictionaryProgress}
+ */
+public interface ProgressMetricsMXBean
+	{
+	/** name of the progress (log prefix) */
+	public String getName();
+	/** number of records seen so far */
+	public long getCount();
+	/** milliseconds since the first record */
+	public long getElapsedMillis();
+	/** milliseconds since the metrics were last updated by a record. Large values mean a stalled job */
+	public long getMillisSinceLastUpdate();
+	/** records per second over the last 10 seconds */
+	public double getRecordsPerSecond10s();
+	/** records per second over the last minute */
+	public double getRecordsPerSecond60s();
+	/** records per second over the last 5 minutes */
+	public double getRecordsPerSecond300s();
+	/** contig of the last record, or null */
+	public String getLastContig();
+	/** position of the last record */
+	public int getLastPosition();
+	/** fraction of the genome done, between 0 and 1, or -1 if the data are not sorted on the dictionary */
+	public double getFractionDone();
+	/** estimated remaining time in milliseconds, or -1 if unknown */
+	public long getEstimatedRemainingMillis();
+	/** time spent on each contig, in milliseconds */
+	public Map<String,Long> getContigElapsedMillis();
+	/** true when the progress has finished */
+	public boolean isDone();
+	}
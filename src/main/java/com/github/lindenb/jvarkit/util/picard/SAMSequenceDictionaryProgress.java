@@ -25,10 +25,13 @@ SOFTWARE.
 History:
 * 2014 creation
 * 2015: watch return SAMRecord and VariantContext
+* 2017: structured metrics: JSON-lines file and JMX
 
 */
 package com.github.lindenb.jvarkit.util.picard;
 
+import java.io.File;
+
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
@@ -39,6 +42,14 @@ import htsjdk.variant.vcf.VCFHeader;
 public class SAMSequenceDictionaryProgress
 	{
 	private static final org.slf4j.Logger LOG = com.github.lindenb.jvarkit.util.log.Logging.getLog(SAMSequenceDictionaryProgress.class);
+	/** system property: path to a JSON-lines file where the metrics are appended */
+	public static final String METRICS_FILE_PROPERTY="jvarkit.progress.metrics";
+	/** system property: if 'true' the metrics are published as JMX MBeans */
+	public static final String METRICS_JMX_PROPERTY="jvarkit.progress.jmx";
+	private static File metricsFile = (System.getProperty(METRICS_FILE_PROPERTY)==null?null:new File(System.getProperty(METRICS_FILE_PROPERTY)));
+	private static boolean metricsJmx = Boolean.getBoolean(METRICS_JMX_PROPERTY);
+	/** delay between two updates of the metrics */
+	private static final long METRICS_SAMPLE_MILLIS=1000L;
 
 	private long start_ticks=-1L;
 	private long last_ticks=-1L;
@@ -48,6 +59,14 @@ public class SAMSequenceDictionaryProgress
 	private long print_every_n_seconds=10L;
 	private String prefix=null;
 	private Handler handler=null;
+	private final SAMSequenceDictionary dictionary;
+	/* last position seen, only tracked when the metrics are enabled */
+	private final boolean metricsEnabled;
+	private ProgressMetrics metrics=null;
+	private long next_sample_ticks=-1L;
+	private String last_chrom=null;
+	private int last_tid=-1;
+	private int last_pos=-1;
 	
 	private abstract class Handler
 		{
@@ -57,6 +76,12 @@ public class SAMSequenceDictionaryProgress
 		public abstract void watch(String chrom,int pos);
 		
 		
+		/** fraction of the reference done, or -1 if unknown */
+		double fractionDone(int tid,int pos)
+			{
+			return -1.0;
+			}
+		
 		private String speed()
 			{
 			return " Speed: "+
@@ -138,6 +163,13 @@ public class SAMSequenceDictionaryProgress
 				}
 			}
 		
+		@Override
+		double fractionDone(int tid,int pos)
+			{
+			if(tid<0 || tid>=this.cumulLengthDone.length || pos<0 || this.referenceLength<=0L) return -1.0;
+			return Math.min(1.0,(this.cumulLengthDone[tid]+pos)/(double)this.referenceLength);
+			}
+		
 		@Override
 		public void watch(int tid, int pos)
 			{
@@ -173,10 +205,10 @@ public class SAMSequenceDictionaryProgress
 			
 		
 			
-			long numBasesDone=(tid==0?0:this.cumulLengthDone[tid-1])+pos;
+			long numBasesDone=this.cumulLengthDone[tid]+pos;
 			long numBasesRemains=Math.max(0,referenceLength-numBasesDone);
 			
-			double percentDone=numBasesDone/(double)this.referenceLength;
+			double percentDone=fractionDone(tid, pos);
 			double millisecPerBase=(double)(curr_ticks- start_ticks)/numBasesDone;
 			long timeRemain=(long)(numBasesRemains*millisecPerBase);
 			
@@ -226,6 +258,8 @@ public class SAMSequenceDictionaryProgress
 	 */
 	public SAMSequenceDictionaryProgress(SAMSequenceDictionary dict)
 		{
+		this.dictionary=dict;
+		this.metricsEnabled=(metricsFile!=null || metricsJmx);
 		if(dict!=null)
 			{
 			this.handler=new WithOrderedDict(dict);
@@ -249,6 +283,19 @@ public class SAMSequenceDictionaryProgress
 	public void setLogPrefix(String prefix)
 		{
 		this.prefix = prefix;
+		if(this.metrics!=null) this.metrics.setName(prefix);
+		}
+	
+	/** set the JSON-lines file where the metrics of all the progresses are appended. null to disable */
+	public static void setMetricsFile(final File f)
+		{
+		metricsFile = f;
+		}
+	
+	/** enable the publication of the metrics of the progresses created after this call as JMX MBeans */
+	public static void setMetricsJmx(final boolean b)
+		{
+		metricsJmx = b;
 		}
 	
 	public void setPrintEveryNSeconds(long print_every_n_seconds)
@@ -291,18 +338,71 @@ public class SAMSequenceDictionaryProgress
 	
 	public void watch(String chrom,int pos)
 		{
-		if(!incr()) return;
+		final boolean print=incr();
+		if(this.metricsEnabled)
+			{
+			this.last_chrom=chrom;
+			this.last_tid=-1;
+			this.last_pos=pos;
+			if(this.curr_ticks>=this.next_sample_ticks) sampleMetrics();
+			}
+		if(!print) return;
 		this.handler.watch(chrom, pos);
 		last_ticks=curr_ticks;
 		}
 	
 	public void watch(int tid,int pos)
 		{
-		if(!incr()) return;
+		final boolean print=incr();
+		if(this.metricsEnabled)
+			{
+			this.last_chrom=null;
+			this.last_tid=tid;
+			this.last_pos=pos;
+			if(this.curr_ticks>=this.next_sample_ticks) sampleMetrics();
+			}
+		if(!print) return;
 		this.handler.watch(tid,pos);
 		last_ticks=curr_ticks;
 		}	
 	
+	/** update the metrics, called about once per second by watch() */
+	private void sampleMetrics()
+		{
+		sampleMetrics(false);
+		}
+	
+	private void sampleMetrics(final boolean done)
+		{
+		this.next_sample_ticks=this.curr_ticks+METRICS_SAMPLE_MILLIS;
+		if(this.metrics==null)
+			{
+			this.metrics=new ProgressMetrics(this.prefix);
+			if(metricsJmx) this.metrics.registerJmx();
+			}
+		int tid=this.last_tid;
+		String contig=this.last_chrom;
+		if(this.dictionary!=null)
+			{
+			if(tid<0 && contig!=null)
+				{
+				tid=this.dictionary.getSequenceIndex(contig);
+				}
+			else if(tid>=0 && tid< this.dictionary.size())
+				{
+				contig=this.dictionary.getSequence(tid).getSequenceName();
+				}
+			}
+		else if(contig==null && tid>=0)
+			{
+			contig="tid="+tid;
+			}
+		final double fractionDone=this.handler.fractionDone(tid, this.last_pos);
+		this.metrics.sample(this.curr_ticks, this.count, contig, this.last_pos, done && fractionDone>=0.0?1.0:fractionDone);
+		if(done) this.metrics.setDone();
+		this.metrics.writeJson(metricsFile, this.curr_ticks, this.print_every_n_seconds*1000L, done);
+		}
+	
 	private String duration(long millisecs)
 		{
 		long n =millisecs/1000;
@@ -340,6 +440,12 @@ public class SAMSequenceDictionaryProgress
 	public void finish()
 		{
 		LOG.info("done: N="+getCount());
+		if(this.metrics!=null)
+			{
+			this.curr_ticks=System.currentTimeMillis();
+			sampleMetrics(true);
+			this.metrics.unregisterJmx();
+			}
 		}
 
 
@@ -49,10 +49,12 @@ import java.util.TreeSet;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.FeatureCodec;
 import htsjdk.tribble.Tribble;
@@ -390,7 +392,15 @@ public class VCFUtils
 			vcwb.setCreateMD5(false);
 			vcwb.setReferenceDictionary(null);
 			vcwb.clearOptions();
-			vcwb.setOutputFile(OUT);
+			if(IOUtils.getDefaultWriterThreads()>1 && AbstractFeatureReader.hasBlockCompressedExtension(OUT))
+				{
+				/* same BGZF content, but the blocks are compressed in parallel */
+				vcwb.setOutputVCFStream(IOUtils.openBlockCompressedOutputStream(OUT,BlockCompressedOutputStream.getDefaultCompressionLevel()));
+				}
+			else
+				{
+				vcwb.setOutputFile(OUT);
+				}
 			return new VariantContextWriterDelayedFlush(vcwb.build());
 			}
 		}
@@ -0,0 +1,80 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class ParallelBlockCompressedOutputStreamTest
+	{
+	/** some text that can be compressed, larger than several BGZF blocks */
+	private static byte[] createData(final int size)
+		{
+		final Random rand=new Random(size);
+		final byte data[]=new byte[size];
+		for(int i=0;i< data.length;++i)
+			{
+			data[i]=(byte)(i%100==99?'\n':"ACGT\t".charAt(rand.nextInt(5)));
+			}
+		return data;
+		}
+
+	/** write the data in chunks of variable sizes */
+	private static void write(final OutputStream out,final byte data[]) throws Exception
+		{
+		final Random rand=new Random(data.length);
+		int i=0;
+		while(i< data.length)
+			{
+			final int n=Math.min(data.length-i,1+rand.nextInt(100000));
+			if(n==1) out.write(data[i]); else out.write(data,i,n);
+			i+=n;
+			}
+		}
+
+	private static byte[] htsjdk(final byte data[],final int level) throws Exception
+		{
+		final ByteArrayOutputStream baos=new ByteArrayOutputStream();
+		final BlockCompressedOutputStream out=new BlockCompressedOutputStream(baos,null,level);
+		write(out,data);
+		out.close();
+		return baos.toByteArray();
+		}
+
+	@Test()
+	public void sameOutputAsHtsjdk() throws Exception
+		{
+		for(final int size:new int[]{0,1,65536,65537,1000000})
+			{
+			final byte data[]=createData(size);
+			for(final int level:new int[]{1,5,9})
+				{
+				final byte expect[]=htsjdk(data,level);
+				for(final int nThreads:new int[]{1,4})
+					{
+					final ByteArrayOutputStream baos=new ByteArrayOutputStream();
+					final ParallelBlockCompressedOutputStream out=new ParallelBlockCompressedOutputStream(baos,level,nThreads);
+					write(out,data);
+					out.close();
+					Assert.assertEquals(baos.toByteArray(),expect,"size:"+size+" level:"+level+" threads:"+nThreads);
+					}
+				}
+			}
+		}
+
+	@Test()
+	public void recompressingStream() throws Exception
+		{
+		final byte data[]=createData(1000000);
+		final byte uncompressed[]=htsjdk(data,0);
+		final ByteArrayOutputStream baos=new ByteArrayOutputStream();
+		final OutputStream out=new ParallelBlockCompressedOutputStream(baos,5,3).createRecompressingStream();
+		write(out,uncompressed);
+		out.close();
+		Assert.assertEquals(baos.toByteArray(),htsjdk(data,5));
+		}
+	}
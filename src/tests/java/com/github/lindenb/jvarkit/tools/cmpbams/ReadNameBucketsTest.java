@@ -0,0 +1,246 @@
+package com.github.lindenb.jvarkit.tools.cmpbams;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordSetBuilder;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.SortingCollection;
+
+public class ReadNameBucketsTest
+	{
+	/** a read in one of the BAMs, like CompareBams2.Match */
+	private static class Rec
+		{
+		String readName;
+		int numInPair;
+		int bamIndex;
+		int pos;
+		}
+
+	private static class RecCodec extends AbstractDataCodec<Rec>
+		{
+		@Override
+		public Rec decode(final DataInputStream dis) throws IOException
+			{
+			final Rec r=new Rec();
+			try
+				{
+				r.readName=dis.readUTF();
+				}
+			catch(final EOFException err)
+				{
+				return null;
+				}
+			r.numInPair=dis.readInt();
+			r.bamIndex=dis.readInt();
+			r.pos=dis.readInt();
+			return r;
+			}
+		@Override
+		public void encode(final DataOutputStream dos,final Rec r) throws IOException
+			{
+			dos.writeUTF(r.readName);
+			dos.writeInt(r.numInPair);
+			dos.writeInt(r.bamIndex);
+			dos.writeInt(r.pos);
+			}
+		@Override
+		public RecCodec clone()
+			{
+			return new RecCodec();
+			}
+		}
+
+	/** same order as CompareBams2.MatchOrderer */
+	private static final Comparator<Rec> ORDERER=(A,B)->{
+		final int i=A.readName.compareTo(B.readName);
+		if(i!=0) return i;
+		return A.numInPair-B.numInPair;
+		};
+
+	/** print one line per read: its name and the sorted positions in each BAM, like CompareBams2.compareBucket */
+	private static void compareBucket(final CloseableIterator<Rec> iter,final PrintWriter out)
+		{
+		final List<Rec> group=new ArrayList<>();
+		for(;;)
+			{
+			final Rec next=iter.hasNext()?iter.next():null;
+			if(next==null || (!group.isEmpty() && ORDERER.compare(group.get(0),next)!=0))
+				{
+				if(!group.isEmpty())
+					{
+					final Rec first=group.get(0);
+					out.print(first.readName);
+					if(first.numInPair>0) out.print("/"+first.numInPair);
+					for(int i=0;i< 2;++i)
+						{
+						final List<Integer> positions=new ArrayList<>();
+						for(final Rec r:group) if(r.bamIndex==i) positions.add(r.pos);
+						Collections.sort(positions);
+						out.print("\t"+positions);
+						}
+					out.println();
+					}
+				if(next==null) break;
+				group.clear();
+				}
+			group.add(next);
+			}
+		}
+
+	/** create two BAMs sharing most of their read names, with a few different positions */
+	private static File[] createBams(final File dir) throws Exception
+		{
+		final Random rand=new Random(0L);
+		final SAMRecordSetBuilder builders[]=new SAMRecordSetBuilder[]{
+			new SAMRecordSetBuilder(true,SAMFileHeader.SortOrder.coordinate),
+			new SAMRecordSetBuilder(true,SAMFileHeader.SortOrder.coordinate)
+			};
+		for(int i=0;i< 2000;++i)
+			{
+			final String name="HWI-ST1234:8:"+(1101+rand.nextInt(20))+":"+rand.nextInt(20000)+":"+i;
+			final int start=1+rand.nextInt(100000);
+			final boolean paired=rand.nextInt(4)!=0;
+			for(int b=0;b< builders.length;++b)
+				{
+				if(rand.nextInt(20)==0) continue;
+				final int pos=(rand.nextInt(10)==0?start+1+rand.nextInt(100):start);
+				if(paired)
+					{
+					builders[b].addPair(name,0,pos,pos+200);
+					}
+				else
+					{
+					builders[b].addFrag(name,0,pos,false);
+					}
+				}
+			}
+		final File bams[]=new File[builders.length];
+		for(int b=0;b< builders.length;++b)
+			{
+			bams[b]=new File(dir,"input"+b+".bam");
+			final SAMFileWriter w=new SAMFileWriterFactory().makeBAMWriter(builders[b].getHeader(),true,bams[b]);
+			for(final SAMRecord rec:builders[b].getRecords()) w.addAlignment(rec);
+			w.close();
+			}
+		return bams;
+		}
+
+	private static Rec toRec(final SAMRecord rec,final int bamIndex)
+		{
+		final Rec r=new Rec();
+		r.readName=rec.getReadName();
+		r.numInPair=(rec.getReadPairedFlag()?(rec.getFirstOfPairFlag()?1:2):0);
+		r.bamIndex=bamIndex;
+		r.pos=rec.getAlignmentStart();
+		return r;
+		}
+
+	/** the engine of the previous versions: one sorting collection for all the records */
+	private static List<String> compareGlobally(final File bams[],final File tmpDir) throws Exception
+		{
+		final SortingCollection<Rec> sorting=SortingCollection.newInstance(Rec.class,new RecCodec(),ORDERER,1000,tmpDir);
+		for(int b=0;b< bams.length;++b)
+			{
+			final SamReader sr=SamReaderFactory.makeDefault().open(bams[b]);
+			for(final SAMRecord rec:sr) sorting.add(toRec(rec,b));
+			sr.close();
+			}
+		sorting.doneAdding();
+		final StringWriter sw=new StringWriter();
+		final PrintWriter pw=new PrintWriter(sw);
+		final CloseableIterator<Rec> iter=sorting.iterator();
+		compareBucket(iter,pw);
+		iter.close();
+		sorting.cleanup();
+		pw.flush();
+		return Arrays.asList(sw.toString().split("\n"));
+		}
+
+	private static List<String> compareWithBuckets(final File bams[],final File tmpDir,final int nBuckets,final int nThreads,final int maxRecordsInRam) throws Exception
+		{
+		final ReadNameBuckets<Rec> buckets=new ReadNameBuckets<>(
+			Rec.class,new RecCodec(),ORDERER,R->R.readName,
+			bams.length,nBuckets,maxRecordsInRam,Collections.singletonList(tmpDir)
+			);
+		final ExecutorService executor=Executors.newFixedThreadPool(nThreads);
+		try
+			{
+			for(int b=0;b< bams.length;++b)
+				{
+				final ReadNameBuckets<Rec>.Writer w=buckets.openWriter(b);
+				final SamReader sr=SamReaderFactory.makeDefault().open(bams[b]);
+				for(final SAMRecord rec:sr) w.add(toRec(rec,b));
+				sr.close();
+				w.close();
+				}
+			final StringWriter sw=new StringWriter();
+			final PrintWriter pw=new PrintWriter(sw);
+			buckets.compare(executor,nThreads,ReadNameBucketsTest::compareBucket,pw);
+			pw.flush();
+			return Arrays.asList(sw.toString().split("\n"));
+			}
+		finally
+			{
+			executor.shutdownNow();
+			buckets.close();
+			}
+		}
+
+	@Test()
+	public void sameOutputAsGlobalSort() throws Exception
+		{
+		final File dir=Files.createTempDirectory("cmpbams.").toFile();
+		try
+			{
+			final File bams[]=createBams(dir);
+			final List<String> expect=compareGlobally(bams,dir);
+			Assert.assertTrue(expect.size()>2000);
+
+			/* one bucket: the output is sorted on read name, as before */
+			Assert.assertEquals(compareWithBuckets(bams,dir,1,1,100000),expect);
+
+			/* several buckets, some of them larger than maxRecordsInRam: the output is sorted within each bucket only */
+			final List<String> unsorted=compareWithBuckets(bams,dir,7,3,300);
+			Assert.assertNotEquals(unsorted,expect);
+			/* sorting the lines on their bytes, like LC_ALL=C sort, gives the output of the global sort */
+			final List<String> sorted=new ArrayList<>(unsorted);
+			Collections.sort(sorted);
+			Assert.assertEquals(sorted,expect);
+
+			/* no temporary file is left besides the two BAMs */
+			Assert.assertEquals(dir.list().length,2);
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir);
+			}
+		}
+	}
@@ -0,0 +1,123 @@
+package com.github.lindenb.jvarkit.tools.sortvcfonref;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
+
+public class PackedKeySorterTest
+	{
+	/** payload: the first byte is used by the tie comparator, then the index of the record */
+	private static byte[] payload(final byte tie,final int index)
+		{
+		return ByteBuffer.allocate(5).put(tie).putInt(index).array();
+		}
+
+	private static final Comparator<byte[]> TIE_COMPARATOR = (A,B)->Byte.compare(A[0], B[0]);
+
+	private static class Record
+		{
+		final long key1;
+		final long key2;
+		final byte payload[];
+		Record(final long key1,final long key2,final byte payload[])
+			{
+			this.key1 = key1;
+			this.key2 = key2;
+			this.payload = payload;
+			}
+		}
+
+	private static void sortAndCompare(final int nRecords,final int maxRecordsInRam,final int nThreads,final int nTmpDirs) throws Exception
+		{
+		final Random rand = new Random(nRecords);
+		/* few distinct keys: many ties on the keys and on the payloads */
+		final long keys1[] = new long[]{Long.MIN_VALUE,-10L,-1L,0L,1L,42L,Long.MAX_VALUE};
+		final long keys2[] = new long[]{0L,1L,Long.MAX_VALUE,Long.MIN_VALUE,-1L};
+		final List<Record> records = new ArrayList<>(nRecords);
+		for(int i=0;i< nRecords;++i)
+			{
+			records.add(new Record(
+				keys1[rand.nextInt(keys1.length)],
+				keys2[rand.nextInt(keys2.length)],
+				payload((byte)(rand.nextInt(5)-2),i)
+				));
+			}
+		final List<File> tmpDirs = new ArrayList<>();
+		for(int i=0;i< nTmpDirs;++i) tmpDirs.add(Files.createTempDirectory("sorter.").toFile());
+		final PackedKeySorter sorter = new PackedKeySorter(TIE_COMPARATOR, maxRecordsInRam, tmpDirs, nThreads);
+		try
+			{
+			for(final Record rec:records) sorter.add(rec.key1, rec.key2, rec.payload);
+
+			/* expected order: key1 signed, key2 unsigned, then the payloads; stable */
+			final List<Record> expect = new ArrayList<>(records);
+			Collections.sort(expect,(A,B)->{
+				int i = Long.compare(A.key1, B.key1);
+				if(i!=0) return i;
+				i = Long.compareUnsigned(A.key2, B.key2);
+				if(i!=0) return i;
+				return TIE_COMPARATOR.compare(A.payload, B.payload);
+				});
+
+			final CloseableIterator<byte[]> iter = sorter.iterator();
+			for(final Record rec:expect)
+				{
+				Assert.assertTrue(iter.hasNext());
+				Assert.assertTrue(Arrays.equals(iter.next(), rec.payload));
+				}
+			Assert.assertFalse(iter.hasNext());
+			iter.close();
+			}
+		finally
+			{
+			sorter.cleanup();
+			for(final File dir:tmpDirs)
+				{
+				Assert.assertEquals(dir.list().length, 0, "temporary files were not deleted");
+				IOUtil.deleteDirectoryTree(dir);
+				}
+			}
+		}
+
+	@Test()
+	public void empty() throws Exception
+		{
+		sortAndCompare(0, 10, 1, 1);
+		}
+
+	@Test()
+	public void inMemory() throws Exception
+		{
+		sortAndCompare(1000, 100000, 1, 1);
+		}
+
+	@Test()
+	public void fullRun() throws Exception
+		{
+		sortAndCompare(1000, 1000, 1, 1);
+		}
+
+	@Test()
+	public void spilled() throws Exception
+		{
+		sortAndCompare(10001, 1000, 1, 1);
+		}
+
+	@Test()
+	public void spilledParallel() throws Exception
+		{
+		sortAndCompare(10001, 777, 3, 2);
+		}
+	}
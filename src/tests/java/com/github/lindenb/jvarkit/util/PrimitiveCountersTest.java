@@ -0,0 +1,163 @@
+package com.github.lindenb.jvarkit.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PrimitiveCountersTest
+	{
+	/** check that the counts of 'keys' are sorted in decreasing/increasing order */
+	private static void assertSorted(final int keys[],final Counter<Integer> expect,final boolean increasing)
+		{
+		Assert.assertEquals(keys.length,expect.getCountCategories());
+		for(int i=0;i+1< keys.length;++i)
+			{
+			final long c1=expect.count(keys[i]);
+			final long c2=expect.count(keys[i+1]);
+			Assert.assertTrue(increasing?c1<=c2:c1>=c2);
+			}
+		}
+
+	@Test()
+	public void denseCounter()
+		{
+		final Random rand=new Random(0L);
+		final Counter<Integer> expect=new Counter<>();
+		final DenseCounter counter=new DenseCounter(2);
+		Assert.assertTrue(counter.isEmpty());
+		Assert.assertEquals(counter.getMostFrequent(),-1);
+		for(int i=0;i< 10000;++i)
+			{
+			final int key=rand.nextInt(i< 5000?10:200);
+			final int n=1+rand.nextInt(3);
+			Assert.assertEquals(counter.incr(key,n),expect.incr(key,n));
+			}
+		Assert.assertFalse(counter.isEmpty());
+		Assert.assertEquals(counter.getTotal(),expect.getTotal());
+		Assert.assertEquals(counter.getCountCategories(),expect.getCountCategories());
+		for(int key=-1;key< 300;++key)
+			{
+			Assert.assertEquals(counter.count(key),expect.count(key));
+			}
+		int prev=-1;
+		for(final int key:counter.keys())
+			{
+			Assert.assertTrue(prev< key);
+			Assert.assertTrue(expect.count(key)>0L);
+			prev=key;
+			}
+		Assert.assertEquals(counter.count(counter.getMostFrequent()),expect.count(expect.getMostFrequent()));
+		assertSorted(counter.keySetDecreasing(),expect,false);
+		assertSorted(counter.keySetIncreasing(),expect,true);
+
+		final DenseCounter other=new DenseCounter();
+		other.incr(1000,5);
+		other.putAll(counter);
+		Assert.assertEquals(other.getTotal(),counter.getTotal()+5);
+		Assert.assertEquals(other.count(1000),5L);
+		Assert.assertEquals(other.count(3),counter.count(3));
+
+		counter.clear();
+		Assert.assertTrue(counter.isEmpty());
+		Assert.assertEquals(counter.getCountCategories(),0);
+		Assert.assertEquals(counter.count(3),0L);
+		}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void denseCounterNegativeKey()
+		{
+		new DenseCounter().incr(-1);
+		}
+
+	@Test()
+	public void intCounter()
+		{
+		final Random rand=new Random(0L);
+		final Counter<Integer> expect=new Counter<>();
+		final IntCounter counter=new IntCounter();
+		Assert.assertTrue(counter.isEmpty());
+		for(int i=0;i< 100000;++i)
+			{
+			/* negative keys, large keys and many distinct keys so the table grows several times */
+			final int key=(rand.nextBoolean()?rand.nextInt(5000)-2500:rand.nextInt());
+			Assert.assertEquals(counter.incr(key),expect.incr(key));
+			}
+		Assert.assertEquals(counter.getTotal(),expect.getTotal());
+		Assert.assertEquals(counter.getCountCategories(),expect.getCountCategories());
+		for(final Integer key:expect.keySet())
+			{
+			Assert.assertEquals(counter.count(key),expect.count(key));
+			}
+		Assert.assertEquals(counter.count(Integer.MIN_VALUE),expect.count(Integer.MIN_VALUE));
+		final int keys[]=counter.keys();
+		for(int i=0;i+1< keys.length;++i) Assert.assertTrue(keys[i]< keys[i+1]);
+		Assert.assertEquals(counter.count(counter.getMostFrequent()),expect.count(expect.getMostFrequent()));
+		assertSorted(counter.keySetDecreasing(),expect,false);
+		assertSorted(counter.keySetIncreasing(),expect,true);
+
+		final IntCounter other=new IntCounter(1);
+		other.putAll(counter);
+		Assert.assertEquals(other.getTotal(),counter.getTotal());
+		Assert.assertEquals(other.getCountCategories(),counter.getCountCategories());
+		Assert.assertEquals(other.keys(),keys);
+		}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void intCounterEmptyMostFrequent()
+		{
+		new IntCounter().getMostFrequent();
+		}
+
+	@Test()
+	public void objectCounter()
+		{
+		final Random rand=new Random(0L);
+		final Counter<String> expect=new Counter<>();
+		final ObjectCounter<String> counter=new ObjectCounter<>();
+		Assert.assertTrue(counter.isEmpty());
+		Assert.assertNull(counter.getMostFrequent());
+		for(int i=0;i< 50000;++i)
+			{
+			final String key="k"+rand.nextInt(i%2==0?20:10000);
+			final int n=1+rand.nextInt(3);
+			Assert.assertEquals(counter.incr(key,n),expect.incr(key,n));
+			}
+		Assert.assertEquals(counter.getTotal(),expect.getTotal());
+		Assert.assertEquals(counter.getCountCategories(),expect.getCountCategories());
+		final Set<String> keys=expect.keySet();
+		Assert.assertEquals(counter.keySet().size(),keys.size());
+		Assert.assertTrue(keys.containsAll(counter.keySet()));
+		for(final String key:keys)
+			{
+			Assert.assertEquals(counter.count(key),expect.count(key));
+			}
+		Assert.assertEquals(counter.count("missing"),0L);
+		Assert.assertEquals(counter.count(null),0L);
+		Assert.assertEquals(counter.count(counter.getMostFrequent()),expect.count(expect.getMostFrequent()));
+		final List<String> decreasing=counter.keySetDecreasing();
+		for(int i=0;i+1< decreasing.size();++i)
+			{
+			Assert.assertTrue(counter.count(decreasing.get(i))>=counter.count(decreasing.get(i+1)));
+			}
+		final List<String> increasing=counter.keySetIncreasing();
+		for(int i=0;i+1< increasing.size();++i)
+			{
+			Assert.assertTrue(counter.count(increasing.get(i))<=counter.count(increasing.get(i+1)));
+			}
+
+		final ObjectCounter<String> other=new ObjectCounter<>(1);
+		other.incr("k0");
+		other.putAll(counter);
+		Assert.assertEquals(other.getTotal(),counter.getTotal()+1);
+		Assert.assertEquals(other.count("k0"),counter.count("k0")+1);
+		}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void objectCounterNullKey()
+		{
+		new ObjectCounter<String>().incr(null);
+		}
+	}
@@ -0,0 +1,146 @@
+package com.github.lindenb.jvarkit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReadNameSetTest
+	{
+	private static byte[] bytes(final String s)
+		{
+		return s.getBytes(StandardCharsets.UTF_8);
+		}
+
+	private static String readName(final int i)
+		{
+		return "HWI-ST1234:8:1101:"+i+":"+(i*7%10000)+"#0";
+		}
+
+	@Test()
+	public void addAndContains()
+		{
+		final ReadNameSet.ExactSet set=ReadNameSet.newExactSet(10L);
+		Assert.assertTrue(set.isExact());
+		Assert.assertTrue(set.isEmpty());
+		Assert.assertTrue(set.add("read1"));
+		Assert.assertFalse(set.add("read1"));
+		Assert.assertTrue(set.add(""));
+		Assert.assertEquals(set.size(),2L);
+		Assert.assertTrue(set.contains("read1"));
+		Assert.assertTrue(set.contains(""));
+		Assert.assertFalse(set.contains("read"));
+		Assert.assertFalse(set.contains("read10"));
+		/* a slice of a larger array */
+		final byte array[]=bytes("@read1 1:N:0");
+		Assert.assertTrue(set.contains(array,1,5));
+		Assert.assertFalse(set.contains(array,0,6));
+		}
+
+	@Test()
+	public void incrementCountAndRemove()
+		{
+		final ReadNameSet.ExactSet set=ReadNameSet.newExactSet();
+		final byte a[]=bytes("readA");
+		final byte b[]=bytes("readB");
+		set.add(a,0,a.length);
+		Assert.assertEquals(set.incrementCount(a,0,a.length),1);
+		Assert.assertEquals(set.incrementCount(a,0,a.length),2);
+		Assert.assertEquals(set.incrementCount(b,0,b.length),-1);
+		Assert.assertFalse(set.remove(b,0,b.length));
+
+		Assert.assertTrue(set.remove(a,0,a.length));
+		Assert.assertFalse(set.remove(a,0,a.length));
+		Assert.assertFalse(set.contains(a,0,a.length));
+		Assert.assertEquals(set.incrementCount(a,0,a.length),-1);
+		Assert.assertTrue(set.isEmpty());
+
+		/* re-add after remove: the count starts again from 0 */
+		Assert.assertTrue(set.add(a,0,a.length));
+		Assert.assertFalse(set.add(a,0,a.length));
+		Assert.assertTrue(set.contains(a,0,a.length));
+		Assert.assertEquals(set.size(),1L);
+		Assert.assertEquals(set.incrementCount(a,0,a.length),1);
+		}
+
+	@Test()
+	public void rehash()
+		{
+		final Random rand=new Random(0L);
+		final int n=200000;
+		/* expected size is small: the table grows many times */
+		final ReadNameSet.ExactSet set=ReadNameSet.newExactSet(1L);
+		final Map<String,Integer> expect=new HashMap<>();
+		for(int i=0;i< n;++i)
+			{
+			final byte name[]=bytes(readName(i));
+			Assert.assertTrue(set.add(name,0,name.length));
+			expect.put(readName(i),0);
+			if(i%3==0)
+				{
+				Assert.assertEquals(set.incrementCount(name,0,name.length),1);
+				expect.put(readName(i),1);
+				}
+			if(i%5==0)
+				{
+				Assert.assertTrue(set.remove(name,0,name.length));
+				expect.remove(readName(i));
+				}
+			}
+		Assert.assertEquals(set.size(),(long)expect.size());
+		for(int i=0;i< n;++i)
+			{
+			final String s=readName(i);
+			final byte name[]=bytes(s);
+			final Integer count=expect.get(s);
+			Assert.assertEquals(set.contains(name,0,name.length),count!=null,s);
+			if(count!=null)
+				{
+				Assert.assertEquals(set.incrementCount(name,0,name.length),count+1,s);
+				}
+			}
+		for(int i=0;i< 1000;++i)
+			{
+			Assert.assertFalse(set.contains(readName(n+rand.nextInt(n))));
+			}
+		/* the removed names can be added again after the rehash */
+		for(int i=0;i< n;i+=5)
+			{
+			Assert.assertTrue(set.add(readName(i)));
+			}
+		Assert.assertEquals(set.size(),(long)n);
+		}
+
+	@Test()
+	public void sameHashForArrayAndBuffer()
+		{
+		final byte name[]=bytes("xx"+readName(12345)+"yy");
+		final ByteBuffer buf=ByteBuffer.allocateDirect(name.length);
+		buf.put(name);
+		Assert.assertEquals(ReadNameSet.hash(buf,2,name.length-4),ReadNameSet.hash(name,2,name.length-4));
+		}
+
+	@Test()
+	public void bloomFilter()
+		{
+		final int n=100000;
+		final ReadNameSet set=ReadNameSet.newBloomFilter(n,0.01);
+		Assert.assertFalse(set.isExact());
+		for(int i=0;i< n;++i) set.add(readName(i));
+		for(int i=0;i< n;++i) Assert.assertTrue(set.contains(readName(i)));
+		int falsePositives=0;
+		for(int i=n;i< 2*n;++i) if(set.contains(readName(i))) falsePositives++;
+		Assert.assertTrue(falsePositives< n*0.02,"false positives: "+falsePositives);
+		}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void nameTooLong()
+		{
+		final byte name[]=new byte[0x10000];
+		ReadNameSet.newExactSet().add(name,0,name.length);
+		}
+	}
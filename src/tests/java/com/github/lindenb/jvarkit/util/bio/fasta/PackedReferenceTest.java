@@ -0,0 +1,120 @@
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.util.IOUtil;
+
+public class PackedReferenceTest
+	{
+	/** random sequence with lowercase and uppercase bases, runs of N and some IUPAC symbols */
+	private static String createSequence(final Random rand,final int length)
+		{
+		final String iupac="RYKMSWBDHV";
+		final StringBuilder sb=new StringBuilder(length);
+		while(sb.length()< length)
+			{
+			final int r=rand.nextInt(100);
+			if(r==0)
+				{
+				final int n=1+rand.nextInt(50);
+				for(int i=0;i< n && sb.length()< length;++i) sb.append('N');
+				}
+			else if(r==1)
+				{
+				sb.append(iupac.charAt(rand.nextInt(iupac.length())));
+				}
+			else
+				{
+				final char c="ACGT".charAt(rand.nextInt(4));
+				sb.append(r%7==0?Character.toLowerCase(c):c);
+				}
+			}
+		return sb.toString();
+		}
+
+	/** write an indexed fasta and its dictionary in 'dir' */
+	private static File createFasta(final File dir,final String names[],final String seqs[]) throws Exception
+		{
+		final File fasta=new File(dir,"ref.fa");
+		final PrintWriter fa=new PrintWriter(fasta);
+		final PrintWriter fai=new PrintWriter(new File(dir,"ref.fa.fai"));
+		final PrintWriter dict=new PrintWriter(new File(dir,"ref.dict"));
+		dict.println("@HD\tVN:1.5");
+		long offset=0L;
+		for(int i=0;i< names.length;++i)
+			{
+			final String header=">"+names[i]+"\n";
+			fa.print(header);
+			offset+=header.length();
+			fai.println(names[i]+"\t"+seqs[i].length()+"\t"+offset+"\t60\t61");
+			dict.println("@SQ\tSN:"+names[i]+"\tLN:"+seqs[i].length());
+			for(int j=0;j< seqs[i].length();j+=60)
+				{
+				final String line=seqs[i].substring(j,Math.min(j+60,seqs[i].length()));
+				fa.println(line);
+				offset+=line.length()+1;
+				}
+			}
+		fa.close();
+		fai.close();
+		dict.close();
+		return fasta;
+		}
+
+	private static int count(final String s,final int start,final int end,final String chars)
+		{
+		int n=0;
+		for(int i=start;i< end;++i) if(chars.indexOf(s.charAt(i))!=-1) n++;
+		return n;
+		}
+
+	@Test()
+	public void roundTrip() throws Exception
+		{
+		final File dir=Files.createTempDirectory("packed.").toFile();
+		try
+			{
+			final Random rand=new Random(0L);
+			final String names[]=new String[]{"chr1","chr2","chrM"};
+			final String seqs[]=new String[]{createSequence(rand,100001),createSequence(rand,1),createSequence(rand,16571)};
+			final File fasta=createFasta(dir,names,seqs);
+			final File cacheDir=new File(dir,"cache");
+			final PackedReference ref=PackedReference.open(fasta,cacheDir);
+			Assert.assertEquals(ref.getFile(),PackedReference.getPackedFile(fasta,cacheDir));
+			Assert.assertTrue(ref.getFile().exists());
+			Assert.assertFalse(PackedReference.getPackedFile(fasta).exists());
+			Assert.assertEquals(ref.getSequenceDictionary().size(),names.length);
+			for(int i=0;i< names.length;++i)
+				{
+				final String seq=seqs[i];
+				final PackedReference.PackedContig contig=ref.getContig(names[i]);
+				Assert.assertNotNull(contig);
+				Assert.assertEquals(contig.getName(),names[i]);
+				Assert.assertEquals(contig.length(),seq.length());
+				for(int j=0;j< seq.length();++j)
+					{
+					Assert.assertEquals(contig.charAt(j),seq.charAt(j),names[i]+":"+j);
+					}
+				for(int n=0;n< 100;++n)
+					{
+					final int start=rand.nextInt(seq.length());
+					final int end=start+rand.nextInt(seq.length()-start+1);
+					Assert.assertEquals(contig.countGC(start,end),count(seq,start,end,"GCSgcs"));
+					Assert.assertEquals(contig.countAT(start,end),count(seq,start,end,"ATWatw"));
+					}
+				}
+			Assert.assertNull(ref.getContig("chrZZ"));
+			ref.close();
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir);
+			}
+		}
+	}